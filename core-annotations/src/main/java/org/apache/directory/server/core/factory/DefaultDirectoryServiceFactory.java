@@ -29,10 +29,8 @@ import org.apache.directory.api.ldap.model.schema.LdapComparator;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.ldap.model.schema.comparators.NormalizingComparator;
 import org.apache.directory.api.ldap.model.schema.registries.ComparatorRegistry;
-import org.apache.directory.api.ldap.model.schema.registries.SchemaLoader;
 import org.apache.directory.api.ldap.schemaextractor.SchemaLdifExtractor;
 import org.apache.directory.api.ldap.schemaextractor.impl.DefaultSchemaLdifExtractor;
-import org.apache.directory.api.ldap.schemaloader.LdifSchemaLoader;
 import org.apache.directory.api.ldap.schemamanager.impl.DefaultSchemaManager;
 import org.apache.directory.api.util.exception.Exceptions;
 import org.apache.directory.server.constants.ServerDNConstants;
@@ -42,6 +40,7 @@ import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.InstanceLayout;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.schema.SchemaPartition;
+import org.apache.directory.server.core.api.schema.SnapshotSchemaLoader;
 import org.apache.directory.server.core.partition.ldif.LdifPartition;
 import org.apache.directory.server.i18n.I18n;
 import org.slf4j.Logger;
@@ -64,6 +63,9 @@ public class DefaultDirectoryServiceFactory implements DirectoryServiceFactory
     /** The partition factory. */
     private PartitionFactory partitionFactory;
 
+    /** The snapshot of the schema entries, shared by the instances created in this JVM */
+    private static byte[] schemaSnapshot;
+
 
     public DefaultDirectoryServiceFactory()
     {
@@ -176,7 +178,9 @@ public class DefaultDirectoryServiceFactory implements DirectoryServiceFactory
             // The schema has already been extracted, bypass
         }
 
-        SchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        // The schema is extracted again for each instance, from the same jar : the snapshot
+        // is shared by all the instances created in this JVM, and only kept in memory
+        SnapshotSchemaLoader loader = new SnapshotSchemaLoader( schemaRepository, getSchemaSnapshot() );
         SchemaManager schemaManager = new DefaultSchemaManager( loader );
 
         // We have to load the schema now, otherwise we won't be able
@@ -210,6 +214,30 @@ public class DefaultDirectoryServiceFactory implements DirectoryServiceFactory
         {
             throw new Exception( I18n.err( I18n.ERR_317, Exceptions.printErrors( errors ) ) );
         }
+
+        if ( !loader.isSnapshotUsed() )
+        {
+            try
+            {
+                setSchemaSnapshot( loader.getSnapshot() );
+            }
+            catch ( IOException ioe )
+            {
+                LOG.warn( "Cannot create the schema snapshot", ioe );
+            }
+        }
+    }
+
+
+    private static synchronized byte[] getSchemaSnapshot()
+    {
+        return schemaSnapshot;
+    }
+
+
+    private static synchronized void setSchemaSnapshot( byte[] snapshot )
+    {
+        schemaSnapshot = snapshot;
     }
 
 
@@ -22,6 +22,8 @@ package org.apache.directory.server.core.api;
 
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 import net.sf.ehcache.Cache;
 import net.sf.ehcache.CacheManager;
@@ -146,7 +148,7 @@ public class CacheService
     }
 
 
-    public Cache getCache( String name )
+    public synchronized Cache getCache( String name )
     {
         if ( !initialized )
         {
@@ -173,6 +175,30 @@ public class CacheService
     }
 
 
+    /**
+     * @return All the caches, or an empty list if the service is not initialized
+     */
+    public List<Cache> getCaches()
+    {
+        List<Cache> caches = new ArrayList<Cache>();
+
+        if ( initialized )
+        {
+            for ( String name : cacheManager.getCacheNames() )
+            {
+                Cache cache = cacheManager.getCache( name );
+
+                if ( cache != null )
+                {
+                    caches.add( cache );
+                }
+            }
+        }
+
+        return caches;
+    }
+
+
     public void attach( Cache cache )
     {
         cacheManager.addCache( cache );
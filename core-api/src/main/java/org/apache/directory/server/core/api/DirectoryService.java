@@ -41,6 +41,7 @@ import org.apache.directory.server.core.api.entry.ServerEntryFactory;
 import org.apache.directory.server.core.api.event.EventService;
 import org.apache.directory.server.core.api.interceptor.Interceptor;
 import org.apache.directory.server.core.api.journal.Journal;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
 import org.apache.directory.server.core.api.schema.SchemaPartition;
@@ -578,6 +579,12 @@ public interface DirectoryService extends ServerEntryFactory
     CacheService getCacheService();
 
 
+    /**
+     * @return the registry holding the operations latency histograms and the caches counters
+     */
+    MetricsRegistry getMetricsRegistry();
+
+
     /**
      * @return The AccessControl AdministrativePoint cache
      */
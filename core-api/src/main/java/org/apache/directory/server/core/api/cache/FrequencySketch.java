@@ -0,0 +1,206 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.cache;
+
+
+/**
+ * A Count-Min sketch estimating how often the keys have been accessed, using a
+ * few bits per key whatever the number of keys. Each key is mapped to four 4-bit
+ * counters, and its frequency is the smallest of them, so the estimation may be
+ * too high, but never too low, and is at most 15.
+ * <br/>
+ * The counters are halved once the number of increments reaches ten times the
+ * expected number of keys : the old accesses weight less than the recent ones,
+ * and a key which is no longer used ends being forgotten.
+ * <br/>
+ * The sketch is not synchronized : a concurrent update may be lost, which just
+ * makes the estimation a bit less accurate.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class FrequencySketch
+{
+    /** The seeds of the four hash functions */
+    private static final long[] SEEDS = new long[]
+        { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+
+    /** Halves the 16 counters of a long */
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    /** Selects the lowest bit of the 16 counters of a long */
+    private static final long ONE_MASK = 0x1111111111111111L;
+
+    /** The counters, 16 per long */
+    private final long[] table;
+
+    /** Selects a position in the table */
+    private final int tableMask;
+
+    /** The number of increments after which the counters are halved */
+    private final int sampleSize;
+
+    /** The number of increments since the last reset */
+    private int size;
+
+
+    /**
+     * Creates a new sketch
+     *
+     * @param maximumSize The expected number of keys, usually the cache size
+     */
+    public FrequencySketch( int maximumSize )
+    {
+        int tableSize = 8;
+
+        while ( ( tableSize < maximumSize ) && ( tableSize < ( 1 << 30 ) ) )
+        {
+            tableSize <<= 1;
+        }
+
+        table = new long[tableSize];
+        tableMask = tableSize - 1;
+        sampleSize = ( int ) Math.min( 10L * Math.max( maximumSize, 1 ), Integer.MAX_VALUE );
+    }
+
+
+    /**
+     * Gives the estimated number of accesses to a key
+     *
+     * @param key The key
+     * @return The estimated frequency, between 0 and 15
+     */
+    public int frequency( Object key )
+    {
+        int hash = spread( key.hashCode() );
+        int start = ( hash & 3 ) << 2;
+        int frequency = Integer.MAX_VALUE;
+
+        for ( int i = 0; i < 4; i++ )
+        {
+            int index = indexOf( hash, i );
+            int count = ( int ) ( ( table[index] >>> ( ( start + i ) << 2 ) ) & 0xfL );
+            frequency = Math.min( frequency, count );
+        }
+
+        return frequency;
+    }
+
+
+    /**
+     * Records an access to a key
+     *
+     * @param key The key
+     */
+    public void increment( Object key )
+    {
+        int hash = spread( key.hashCode() );
+        int start = ( hash & 3 ) << 2;
+        boolean added = false;
+
+        for ( int i = 0; i < 4; i++ )
+        {
+            int index = indexOf( hash, i );
+            added |= incrementAt( index, start + i );
+        }
+
+        if ( added && ( ++size >= sampleSize ) )
+        {
+            reset();
+        }
+    }
+
+
+    /**
+     * Forgets all the accesses
+     */
+    public void clear()
+    {
+        for ( int i = 0; i < table.length; i++ )
+        {
+            table[i] = 0L;
+        }
+
+        size = 0;
+    }
+
+
+    /**
+     * Increments a counter, unless it has reached its maximum
+     *
+     * @param index The position of the long in the table
+     * @param counter The position of the counter in the long
+     * @return true if the counter has been incremented
+     */
+    private boolean incrementAt( int index, int counter )
+    {
+        int offset = counter << 2;
+        long mask = 0xfL << offset;
+
+        if ( ( table[index] & mask ) != mask )
+        {
+            table[index] += 1L << offset;
+
+            return true;
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Halves all the counters
+     */
+    private void reset()
+    {
+        int odd = 0;
+
+        for ( int i = 0; i < table.length; i++ )
+        {
+            odd += Long.bitCount( table[i] & ONE_MASK );
+            table[i] = ( table[i] >>> 1 ) & RESET_MASK;
+        }
+
+        size = ( size >>> 1 ) - ( odd >>> 2 );
+    }
+
+
+    /**
+     * @return The position in the table of the counter used by the i-th hash function
+     */
+    private int indexOf( int hash, int i )
+    {
+        long h = ( hash + SEEDS[i] ) * SEEDS[i];
+        h += h >>> 32;
+
+        return ( ( int ) h ) & tableMask;
+    }
+
+
+    /**
+     * Spreads the bits of a hashCode, which may be of poor quality
+     */
+    private static int spread( int x )
+    {
+        x = ( ( x >>> 16 ) ^ x ) * 0x45d9f3b;
+        x = ( ( x >>> 16 ) ^ x ) * 0x45d9f3b;
+
+        return ( x >>> 16 ) ^ x;
+    }
+}
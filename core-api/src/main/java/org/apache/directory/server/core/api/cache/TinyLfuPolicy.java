@@ -0,0 +1,247 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.cache;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.store.Policy;
+
+
+/**
+ * An ehcache eviction policy implementing the TinyLFU admission : the accesses
+ * to the cache, hits and misses, are recorded in a {@link FrequencySketch}. When
+ * the cache is full, the victim is the least frequently used of the elements
+ * sampled by ehcache, and a new element is only added if it has been used more
+ * often than the elements which are about to be evicted.
+ * <br/>
+ * A large scan thus does not flush the cache : the scanned elements are seen once,
+ * and don't replace the elements which are used again and again.
+ * <br/>
+ * ehcache does not tell the policy about the cache accesses, so the users of the
+ * cache have to call {@link #recordAccess(Object)} on each get. It also evicts
+ * before storing the new element, so it can't evict the element being added :
+ * the elements have to be added using {@link #put(Cache, Element)}, which compares
+ * the new element with the elements sampled during the last eviction.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class TinyLfuPolicy implements Policy
+{
+    /** The policy name */
+    public static final String NAME = "TinyLFU";
+
+    /** The access frequencies */
+    private final FrequencySketch sketch;
+
+    /** The number of elements which have not been admitted */
+    private final AtomicLong rejections = new AtomicLong();
+
+    /** The keys sampled during the last eviction, the least frequently used ones */
+    private volatile Object[] evictionSample;
+
+
+    /**
+     * Creates a new policy
+     *
+     * @param maximumSize The cache size
+     */
+    public TinyLfuPolicy( int maximumSize )
+    {
+        sketch = new FrequencySketch( maximumSize );
+    }
+
+
+    /**
+     * Creates a policy sized after the cache, and makes it the cache eviction policy.
+     * If the cache already uses a TinyLfuPolicy, this policy is returned, so that all
+     * the users of a shared cache record their accesses in the same sketch.
+     *
+     * @param cache The cache
+     * @return The cache policy
+     */
+    public static synchronized TinyLfuPolicy install( Cache cache )
+    {
+        Policy current = cache.getMemoryStoreEvictionPolicy();
+
+        if ( current instanceof TinyLfuPolicy )
+        {
+            return ( TinyLfuPolicy ) current;
+        }
+
+        TinyLfuPolicy policy = new TinyLfuPolicy( cache.getCacheConfiguration().getMaxElementsInMemory() );
+        cache.setMemoryStoreEvictionPolicy( policy );
+
+        return policy;
+    }
+
+
+    /**
+     * Records an access to a key of the cache, whether it's in the cache or not
+     *
+     * @param key The key
+     */
+    public void recordAccess( Object key )
+    {
+        sketch.increment( key );
+    }
+
+
+    /**
+     * Adds an element in the cache, unless the cache is full and the element is
+     * less frequently used than the elements which would be evicted. An element
+     * which replaces an existing one is always stored.
+     *
+     * @param cache The cache using this policy
+     * @param element The element to add
+     * @return true if the element has been added
+     */
+    public boolean put( Cache cache, Element element )
+    {
+        int maxElements = cache.getCacheConfiguration().getMaxElementsInMemory();
+
+        if ( ( maxElements > 0 ) && ( cache.getMemoryStoreSize() >= maxElements )
+            && !admit( element.getObjectKey() ) && !cache.isKeyInCache( element.getObjectKey() ) )
+        {
+            rejections.incrementAndGet();
+
+            return false;
+        }
+
+        cache.put( element );
+
+        return true;
+    }
+
+
+    /**
+     * Tells if a key is more frequently used than the least frequently used of the
+     * keys sampled during the last eviction.
+     */
+    private boolean admit( Object key )
+    {
+        Object[] sample = evictionSample;
+
+        if ( sample == null )
+        {
+            return true;
+        }
+
+        int candidateFrequency = frequency( key );
+
+        for ( Object sampledKey : sample )
+        {
+            if ( frequency( sampledKey ) < candidateFrequency )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * @param key The key
+     * @return The estimated number of recent accesses to this key
+     */
+    public int frequency( Object key )
+    {
+        return sketch.frequency( key );
+    }
+
+
+    /**
+     * @return The number of elements which have not been added to the cache
+     */
+    public long getRejections()
+    {
+        return rejections.get();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getName()
+    {
+        return NAME;
+    }
+
+
+    /**
+     * Selects the least frequently used sampled element, the least recently used
+     * one when two elements have the same frequency. The other sampled keys are
+     * kept to decide if the next elements will be admitted.
+     */
+    public Element selectedBasedOnPolicy( Element[] sampledElements, Element justAdded )
+    {
+        Element victim = null;
+        int victimFrequency = Integer.MAX_VALUE;
+        Object justAddedKey = ( justAdded == null ) ? null : justAdded.getObjectKey();
+        List<Object> sample = new ArrayList<Object>( sampledElements.length );
+
+        for ( Element element : sampledElements )
+        {
+            if ( ( element == null ) || element.getObjectKey().equals( justAddedKey ) )
+            {
+                continue;
+            }
+
+            int frequency = frequency( element.getObjectKey() );
+
+            if ( ( victim == null ) || ( frequency < victimFrequency )
+                || ( ( frequency == victimFrequency ) && ( element.getLastAccessTime() < victim.getLastAccessTime() ) ) )
+            {
+                if ( victim != null )
+                {
+                    sample.add( victim.getObjectKey() );
+                }
+
+                victim = element;
+                victimFrequency = frequency;
+            }
+            else
+            {
+                sample.add( element.getObjectKey() );
+            }
+        }
+
+        if ( !sample.isEmpty() )
+        {
+            evictionSample = sample.toArray();
+        }
+
+        return victim;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean compare( Element element1, Element element2 )
+    {
+        return frequency( element2.getObjectKey() ) < frequency( element1.getObjectKey() );
+    }
+}
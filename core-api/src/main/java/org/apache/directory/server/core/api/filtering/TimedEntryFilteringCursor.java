@@ -0,0 +1,312 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.core.api.filtering;
+
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
+import org.apache.directory.api.ldap.model.cursor.ClosureMonitor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.core.api.metrics.LatencyHistogram;
+
+
+/**
+ * A cursor recording the time elapsed between the start of a search and the
+ * closure of its cursor in a latency histogram, so that the time spent reading
+ * the entries is included. The time is recorded only once, on the first close.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class TimedEntryFilteringCursor extends AbstractCursor<Entry> implements EntryFilteringCursor
+{
+    /** The wrapped cursor */
+    private final EntryFilteringCursor wrapped;
+
+    /** The histogram the search time is recorded in */
+    private final LatencyHistogram histogram;
+
+    /** The search start, in nanoseconds */
+    private final long start;
+
+    /** Tells if the search time has already been recorded */
+    private final AtomicBoolean recorded = new AtomicBoolean( false );
+
+
+    /**
+     * Creates a new instance of TimedEntryFilteringCursor.
+     *
+     * @param wrapped The cursor returned by the search
+     * @param histogram The histogram to record the search time in
+     * @param start The search start, as returned by {@link System#nanoTime()}
+     */
+    public TimedEntryFilteringCursor( EntryFilteringCursor wrapped, LatencyHistogram histogram, long start )
+    {
+        this.wrapped = wrapped;
+        this.histogram = histogram;
+        this.start = start;
+    }
+
+
+    /**
+     * Records the search time, if not already done
+     */
+    private void record()
+    {
+        if ( recorded.compareAndSet( false, true ) )
+        {
+            histogram.record( System.nanoTime() - start );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean addEntryFilter( EntryFilter filter )
+    {
+        return wrapped.addEntryFilter( filter );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<EntryFilter> getEntryFilters()
+    {
+        return wrapped.getEntryFilters();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public SearchOperationContext getOperationContext()
+    {
+        return wrapped.getOperationContext();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void after( Entry element ) throws LdapException, CursorException
+    {
+        wrapped.after( element );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void afterLast() throws LdapException, CursorException
+    {
+        wrapped.afterLast();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean available()
+    {
+        return wrapped.available();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void before( Entry element ) throws LdapException, CursorException
+    {
+        wrapped.before( element );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void beforeFirst() throws LdapException, CursorException
+    {
+        wrapped.beforeFirst();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean first() throws LdapException, CursorException
+    {
+        return wrapped.first();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean last() throws LdapException, CursorException
+    {
+        return wrapped.last();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean next() throws LdapException, CursorException
+    {
+        return wrapped.next();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean previous() throws LdapException, CursorException
+    {
+        return wrapped.previous();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Entry get() throws CursorException
+    {
+        return wrapped.get();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isFirst()
+    {
+        return wrapped.isFirst();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isLast()
+    {
+        return wrapped.isLast();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isAfterLast()
+    {
+        return wrapped.isAfterLast();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isBeforeFirst()
+    {
+        return wrapped.isBeforeFirst();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isClosed()
+    {
+        return wrapped.isClosed();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close()
+    {
+        try
+        {
+            wrapped.close();
+        }
+        finally
+        {
+            record();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close( Exception reason )
+    {
+        try
+        {
+            wrapped.close( reason );
+        }
+        finally
+        {
+            record();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setClosureMonitor( ClosureMonitor monitor )
+    {
+        wrapped.setClosureMonitor( monitor );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Iterator<Entry> iterator()
+    {
+        return wrapped.iterator();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public String toString( String tabs )
+    {
+        return tabs + "TimedEntryFilteringCursor : " + wrapped;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public String toString()
+    {
+        return toString( "" );
+    }
+}
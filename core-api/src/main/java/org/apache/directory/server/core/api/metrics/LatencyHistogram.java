@@ -0,0 +1,233 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.metrics;
+
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * A latency histogram with log-linear buckets : each power of 2 is split in
+ * {@link #SUB_BUCKETS} linear buckets, so the value reported for a percentile is
+ * never more than 1/16th above the recorded one, whatever the magnitude. The
+ * memory used is fixed, and recording a value is a couple of atomic increments,
+ * without any lock, so the histogram can be shared by all the threads processing
+ * an operation.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LatencyHistogram
+{
+    /** The number of bits used for the linear part of a bucket */
+    private static final int SUB_BUCKET_BITS = 4;
+
+    /** The number of linear buckets per power of 2 */
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /** The highest power of 2 we track, around 9 hours in nanoseconds. Bigger values are clamped */
+    private static final int MAX_EXPONENT = 44;
+
+    /** The biggest value we can store */
+    private static final long MAX_VALUE = ( 1L << ( MAX_EXPONENT + 1 ) ) - 1;
+
+    /** The counters, one per bucket */
+    private final AtomicLongArray buckets = new AtomicLongArray( ( MAX_EXPONENT - SUB_BUCKET_BITS + 2 ) * SUB_BUCKETS );
+
+    /** The number of recorded values */
+    private final AtomicLong count = new AtomicLong();
+
+    /** The sum of all the recorded values */
+    private final AtomicLong total = new AtomicLong();
+
+    /** The biggest recorded value */
+    private final AtomicLong max = new AtomicLong();
+
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos The duration, in nanoseconds. Negative values are recorded as 0
+     */
+    public void record( long nanos )
+    {
+        long value = nanos < 0L ? 0L : nanos;
+
+        buckets.incrementAndGet( bucketIndex( value ) );
+        count.incrementAndGet();
+        total.addAndGet( value );
+
+        long currentMax = max.get();
+
+        while ( value > currentMax )
+        {
+            if ( max.compareAndSet( currentMax, value ) )
+            {
+                break;
+            }
+
+            currentMax = max.get();
+        }
+    }
+
+
+    /**
+     * @return The number of recorded values
+     */
+    public long getCount()
+    {
+        return count.get();
+    }
+
+
+    /**
+     * @return The sum of all the recorded values, in nanoseconds
+     */
+    public long getTotal()
+    {
+        return total.get();
+    }
+
+
+    /**
+     * @return The mean of the recorded values, in nanoseconds, or 0 if nothing was recorded
+     */
+    public long getMean()
+    {
+        long nbValues = count.get();
+
+        if ( nbValues == 0L )
+        {
+            return 0L;
+        }
+
+        return total.get() / nbValues;
+    }
+
+
+    /**
+     * @return The biggest recorded value, in nanoseconds
+     */
+    public long getMax()
+    {
+        return max.get();
+    }
+
+
+    /**
+     * Computes the value under which the given percentage of the recorded values
+     * are. The result is the upper bound of the bucket containing the percentile,
+     * capped by the biggest recorded value. As the buckets are read while other
+     * threads may record values, the result is an approximation when the
+     * histogram is being updated.
+     *
+     * @param percentile The percentile, between 0 and 100
+     * @return The value at this percentile, in nanoseconds, or 0 if nothing was recorded
+     */
+    public long getValueAtPercentile( double percentile )
+    {
+        long nbValues = count.get();
+
+        if ( nbValues == 0L )
+        {
+            return 0L;
+        }
+
+        double clamped = Math.min( 100d, Math.max( 0d, percentile ) );
+        long rank = Math.max( 1L, ( long ) Math.ceil( ( clamped / 100d ) * nbValues ) );
+        long seen = 0L;
+
+        for ( int i = 0; i < buckets.length(); i++ )
+        {
+            seen += buckets.get( i );
+
+            if ( seen >= rank )
+            {
+                return Math.min( bucketUpperBound( i ), max.get() );
+            }
+        }
+
+        return max.get();
+    }
+
+
+    /**
+     * Resets all the counters. Values recorded concurrently may be lost.
+     */
+    public void reset()
+    {
+        for ( int i = 0; i < buckets.length(); i++ )
+        {
+            buckets.set( i, 0L );
+        }
+
+        count.set( 0L );
+        total.set( 0L );
+        max.set( 0L );
+    }
+
+
+    /**
+     * Computes the bucket for a value. The values below SUB_BUCKETS have their own
+     * bucket, then each power of 2 is split in SUB_BUCKETS buckets using the bits
+     * following the highest one.
+     */
+    private static int bucketIndex( long value )
+    {
+        long clamped = Math.min( value, MAX_VALUE );
+
+        if ( clamped < SUB_BUCKETS )
+        {
+            return ( int ) clamped;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros( clamped );
+        int subBucket = ( int ) ( clamped >>> ( exponent - SUB_BUCKET_BITS ) ) & ( SUB_BUCKETS - 1 );
+
+        return ( exponent - SUB_BUCKET_BITS + 1 ) * SUB_BUCKETS + subBucket;
+    }
+
+
+    /**
+     * @return The biggest value stored in a bucket
+     */
+    private static long bucketUpperBound( int index )
+    {
+        if ( index < SUB_BUCKETS )
+        {
+            return index;
+        }
+
+        int shift = index / SUB_BUCKETS - 1;
+        long lowerBound = ( long ) ( SUB_BUCKETS + index % SUB_BUCKETS ) << shift;
+
+        return lowerBound + ( 1L << shift ) - 1;
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString()
+    {
+        return "count=" + getCount() + ", mean=" + getMean() + "ns, p50=" + getValueAtPercentile( 50d ) + "ns, p99="
+            + getValueAtPercentile( 99d ) + "ns, max=" + getMax() + "ns";
+    }
+}
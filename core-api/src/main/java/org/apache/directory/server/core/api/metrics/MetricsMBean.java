@@ -0,0 +1,260 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.metrics;
+
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+
+/**
+ * Exposes a {@link MetricsRegistry} through JMX. As the metrics are created on the
+ * fly, the attributes are computed each time the MBean is described : each counter
+ * is an attribute, and each histogram gives a set of attributes named after it,
+ * suffixed by ".count", ".mean", ".p50", ".p99", ".p999" and ".max". The durations
+ * are in nanoseconds. The MBean is read only, except for a "reset" operation.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class MetricsMBean implements DynamicMBean
+{
+    /** The domain under which the MBeans are registered */
+    public static final String DOMAIN = "org.apache.directory.server";
+
+    /** The histogram attributes suffixes */
+    private static final String[] HISTOGRAM_SUFFIXES = new String[]
+        { ".count", ".mean", ".p50", ".p99", ".p999", ".max" };
+
+    /** The exposed registry */
+    private final MetricsRegistry registry;
+
+
+    /**
+     * Creates a new MBean exposing the given registry
+     *
+     * @param registry The registry to expose
+     */
+    public MetricsMBean( MetricsRegistry registry )
+    {
+        this.registry = registry;
+    }
+
+
+    /**
+     * Registers a MBean for the given registry in the platform MBean server.
+     *
+     * @param registry The registry to expose
+     * @param instanceId The DirectoryService instance ID, used in the MBean name
+     * @return The name under which the MBean has been registered
+     * @throws JMException If the MBean can't be registered
+     */
+    public static ObjectName register( MetricsRegistry registry, String instanceId ) throws JMException
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName( DOMAIN + ":type=Metrics,name="
+            + ObjectName.quote( instanceId == null ? "default" : instanceId ) );
+
+        server.registerMBean( new MetricsMBean( registry ), name );
+
+        return name;
+    }
+
+
+    /**
+     * Removes a MBean from the platform MBean server.
+     *
+     * @param name The name returned by {@link #register(MetricsRegistry, String)}
+     * @throws JMException If the MBean can't be unregistered
+     */
+    public static void unregister( ObjectName name ) throws JMException
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        if ( server.isRegistered( name ) )
+        {
+            server.unregisterMBean( name );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Object getAttribute( String attribute ) throws AttributeNotFoundException
+    {
+        for ( int i = 0; i < HISTOGRAM_SUFFIXES.length; i++ )
+        {
+            String suffix = HISTOGRAM_SUFFIXES[i];
+
+            if ( attribute.endsWith( suffix ) )
+            {
+                String name = attribute.substring( 0, attribute.length() - suffix.length() );
+                LatencyHistogram histogram = registry.getHistograms().get( name );
+
+                if ( histogram != null )
+                {
+                    return getHistogramValue( histogram, i );
+                }
+            }
+        }
+
+        Long value = registry.getCounters().get( attribute );
+
+        if ( value == null )
+        {
+            throw new AttributeNotFoundException( attribute );
+        }
+
+        return value;
+    }
+
+
+    /**
+     * @return The value of a histogram attribute, given the position of its suffix
+     */
+    private Long getHistogramValue( LatencyHistogram histogram, int suffix )
+    {
+        switch ( suffix )
+        {
+            case 0:
+                return histogram.getCount();
+
+            case 1:
+                return histogram.getMean();
+
+            case 2:
+                return histogram.getValueAtPercentile( 50d );
+
+            case 3:
+                return histogram.getValueAtPercentile( 99d );
+
+            case 4:
+                return histogram.getValueAtPercentile( 99.9d );
+
+            default:
+                return histogram.getMax();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public AttributeList getAttributes( String[] attributes )
+    {
+        AttributeList result = new AttributeList();
+
+        for ( String attribute : attributes )
+        {
+            try
+            {
+                result.add( new Attribute( attribute, getAttribute( attribute ) ) );
+            }
+            catch ( AttributeNotFoundException anfe )
+            {
+                // Skip it, as required by the DynamicMBean contract
+            }
+        }
+
+        return result;
+    }
+
+
+    /**
+     * The metrics are read only.
+     */
+    public void setAttribute( Attribute attribute ) throws AttributeNotFoundException
+    {
+        throw new AttributeNotFoundException( "The metrics are read only : " + attribute.getName() );
+    }
+
+
+    /**
+     * The metrics are read only, nothing is set.
+     */
+    public AttributeList setAttributes( AttributeList attributes )
+    {
+        return new AttributeList();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Object invoke( String actionName, Object[] params, String[] signature ) throws MBeanException,
+        ReflectionException
+    {
+        if ( "reset".equals( actionName ) )
+        {
+            registry.reset();
+
+            return null;
+        }
+
+        throw new ReflectionException( new NoSuchMethodException( actionName ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public MBeanInfo getMBeanInfo()
+    {
+        List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+
+        for ( String name : registry.getHistograms().keySet() )
+        {
+            for ( String suffix : HISTOGRAM_SUFFIXES )
+            {
+                attributes.add( new MBeanAttributeInfo( name + suffix, Long.class.getName(), name + suffix, true,
+                    false, false ) );
+            }
+        }
+
+        for ( Map.Entry<String, Long> counter : registry.getCounters().entrySet() )
+        {
+            attributes.add( new MBeanAttributeInfo( counter.getKey(), Long.class.getName(), counter.getKey(), true,
+                false, false ) );
+        }
+
+        MBeanOperationInfo reset = new MBeanOperationInfo( "reset", "Resets all the metrics",
+            new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION );
+
+        return new MBeanInfo( getClass().getName(), "The DirectoryService metrics",
+            attributes.toArray( new MBeanAttributeInfo[attributes.size()] ), null, new MBeanOperationInfo[]
+                { reset }, null );
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.metrics;
+
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.server.core.api.OperationEnum;
+
+
+/**
+ * The registry holding the metrics of a DirectoryService : the latency histograms
+ * and the counters, both identified by a dotted name, like "operation.search" or
+ * "partition.example.piar.hit". The metrics are created on first access and never
+ * removed. The components are expected to fetch the metrics they update once, when
+ * they are initialized, and to keep a reference on them, so that updating a metric
+ * does not cost a lookup.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class MetricsRegistry
+{
+    /** The prefix for the metrics of the operations processed by the OperationManager */
+    public static final String OPERATION_PREFIX = "operation.";
+
+    /** The prefix for the metrics associated with a partition */
+    public static final String PARTITION_PREFIX = "partition.";
+
+    /** The prefix for the metrics associated with an interceptor */
+    public static final String INTERCEPTOR_PREFIX = "interceptor.";
+
+    /** The prefix for the metrics of the LDAPS and StartTLS handshakes */
+    public static final String TLS_PREFIX = "tls.";
+
+    /** The prefix for the metrics of the LDAP requests admission control */
+    public static final String ADMISSION_PREFIX = "admission.";
+
+    /** The suffix for the cache hit counters */
+    public static final String HIT_SUFFIX = ".hit";
+
+    /** The suffix for the cache miss counters */
+    public static final String MISS_SUFFIX = ".miss";
+
+    /** The histograms */
+    private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+
+    /** The counters */
+    private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+
+
+    /**
+     * Gets the histogram with the given name, creating it if needed.
+     *
+     * @param name The histogram name
+     * @return The histogram
+     */
+    public LatencyHistogram getHistogram( String name )
+    {
+        LatencyHistogram histogram = histograms.get( name );
+
+        if ( histogram == null )
+        {
+            histogram = new LatencyHistogram();
+            LatencyHistogram previous = histograms.putIfAbsent( name, histogram );
+
+            if ( previous != null )
+            {
+                histogram = previous;
+            }
+        }
+
+        return histogram;
+    }
+
+
+    /**
+     * Gets the histograms for all the operations, named after the given prefix
+     * followed by the operation method name.
+     *
+     * @param prefix The prefix, including the trailing dot
+     * @return An array of histograms, indexed by the {@link OperationEnum} ordinal
+     */
+    public LatencyHistogram[] getOperationHistograms( String prefix )
+    {
+        OperationEnum[] operations = OperationEnum.values();
+        LatencyHistogram[] result = new LatencyHistogram[operations.length];
+
+        for ( OperationEnum operation : operations )
+        {
+            result[operation.ordinal()] = getHistogram( prefix + operation.getMethodName() );
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Gets the counter with the given name, creating it if needed.
+     *
+     * @param name The counter name
+     * @return The counter
+     */
+    public AtomicLong getCounter( String name )
+    {
+        AtomicLong counter = counters.get( name );
+
+        if ( counter == null )
+        {
+            counter = new AtomicLong();
+            AtomicLong previous = counters.putIfAbsent( name, counter );
+
+            if ( previous != null )
+            {
+                counter = previous;
+            }
+        }
+
+        return counter;
+    }
+
+
+    /**
+     * @return A read only view of the histograms, sorted by name
+     */
+    public SortedMap<String, LatencyHistogram> getHistograms()
+    {
+        return Collections.unmodifiableSortedMap( new TreeMap<String, LatencyHistogram>( histograms ) );
+    }
+
+
+    /**
+     * @return A snapshot of the counter values, sorted by name
+     */
+    public SortedMap<String, Long> getCounters()
+    {
+        SortedMap<String, Long> result = new TreeMap<String, Long>();
+
+        for ( Map.Entry<String, AtomicLong> counter : counters.entrySet() )
+        {
+            result.put( counter.getKey(), counter.getValue().get() );
+        }
+
+        return Collections.unmodifiableSortedMap( result );
+    }
+
+
+    /**
+     * Resets all the histograms and counters.
+     */
+    public void reset()
+    {
+        for ( LatencyHistogram histogram : histograms.values() )
+        {
+            histogram.reset();
+        }
+
+        for ( AtomicLong counter : counters.values() )
+        {
+            counter.set( 0L );
+        }
+    }
+}
@@ -34,6 +34,7 @@ import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.util.Strings;
 import org.apache.directory.server.core.api.CacheService;
 import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
 import org.apache.directory.server.i18n.I18n;
 
 
@@ -67,6 +68,9 @@ public abstract class AbstractPartition implements Partition
     /** the cache service */
     protected CacheService cacheService;
 
+    /** The metrics registry, a private one unless the partition is added to a DirectoryService */
+    protected MetricsRegistry metricsRegistry = new MetricsRegistry();
+
 
     /**
      * {@inheritDoc}
@@ -252,4 +256,22 @@ public abstract class AbstractPartition implements Partition
     {
         this.cacheService = cacheService;
     }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setMetricsRegistry( MetricsRegistry metricsRegistry )
+    {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isLockFreeRead()
+    {
+        return false;
+    }
 }
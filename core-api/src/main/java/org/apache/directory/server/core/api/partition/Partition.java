@@ -41,6 +41,7 @@ import org.apache.directory.server.core.api.interceptor.context.MoveOperationCon
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
 
 
 /**
@@ -289,4 +290,23 @@ public interface Partition
      * @param cacheService
      */
     void setCacheService( CacheService cacheService );
+
+
+    /**
+     * Sets the registry the partition metrics are stored in. It has to be set
+     * before the partition is initialized.
+     *
+     * @param metricsRegistry The metrics registry
+     */
+    void setMetricsRegistry( MetricsRegistry metricsRegistry );
+
+
+    /**
+     * Tells if the partition can be read while it's being modified. The OperationManager
+     * does not take its read lock for the lookups and the searches based in such a
+     * partition, so they are not blocked by the write operations.
+     *
+     * @return true if the partition does not need the read lock
+     */
+    boolean isLockFreeRead();
 }
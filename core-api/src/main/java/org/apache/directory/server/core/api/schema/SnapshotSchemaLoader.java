@@ -0,0 +1,779 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.schema;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.registries.AbstractSchemaLoader;
+import org.apache.directory.api.ldap.model.schema.registries.DefaultSchema;
+import org.apache.directory.api.ldap.model.schema.registries.Schema;
+import org.apache.directory.api.ldap.model.schema.registries.SchemaLoader;
+import org.apache.directory.api.ldap.schemaloader.LdifSchemaLoader;
+import org.apache.directory.api.util.Strings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A SchemaLoader reading the schema entries from a binary snapshot instead of the
+ * thousands of LDIF files stored in the schema directory. The snapshot is only used
+ * if it has been written for the same LDIF files : it contains a SHA-256 hash of the
+ * files paths, sizes and last modification times, which is checked when the loader is
+ * created, and it ends with a SHA-256 hash of its own content, so that a truncated or
+ * altered file is not read. Otherwise, the entries are read from the LDIF files, and
+ * the snapshot can be written with {@link #writeSnapshot()} once the SchemaManager
+ * has successfully loaded them :
+ * <pre>
+ * SnapshotSchemaLoader loader = new SnapshotSchemaLoader( schemaDirectory, snapshotFile );
+ * SchemaManager schemaManager = new DefaultSchemaManager( loader );
+ * schemaManager.loadAllEnabled();
+ *
+ * if ( schemaManager.getErrors().isEmpty() )
+ * {
+ *     loader.writeSnapshot();
+ * }
+ * </pre>
+ * The snapshot stores the schema entries, not the SchemaObjects : those are still
+ * built and checked by the SchemaManager, but the files don't have to be parsed.
+ * The entries are stored in a compact form : their Dn, and for each attribute its
+ * ID and its values, either as Strings or as byte arrays.
+ * <br/>
+ * The snapshot file is trusted input : the comparators, normalizers and syntax
+ * checkers it declares are instantiated by the SchemaManager. It must be kept in a
+ * directory only writable by the server, such as the instance directory. A snapshot
+ * can also be kept in memory, with {@link #getSnapshot()} and
+ * {@link #SnapshotSchemaLoader(File, byte[])}, when the schema files are extracted
+ * again each time from the same jar.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SnapshotSchemaLoader extends AbstractSchemaLoader
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( SnapshotSchemaLoader.class );
+
+    /** The default snapshot file name */
+    public static final String SNAPSHOT_FILE = "schema.snapshot";
+
+    /** The snapshot format version, to be incremented when the file layout changes */
+    private static final int FORMAT_VERSION = 2;
+
+    /** The algorithm used to hash the schema files and the snapshot content */
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    /** The length of the snapshot content hash, stored at the end of the snapshot */
+    private static final int DIGEST_LENGTH = 32;
+
+    /** The schema entries kinds, in the order they are stored */
+    private static final int SYNTAX_CHECKERS = 0;
+    private static final int COMPARATORS = 1;
+    private static final int NORMALIZERS = 2;
+    private static final int SYNTAXES = 3;
+    private static final int MATCHING_RULES = 4;
+    private static final int ATTRIBUTE_TYPES = 5;
+    private static final int OBJECT_CLASSES = 6;
+    private static final int MATCHING_RULE_USES = 7;
+    private static final int NAME_FORMS = 8;
+    private static final int DIT_CONTENT_RULES = 9;
+    private static final int DIT_STRUCTURE_RULES = 10;
+    private static final int NB_KINDS = 11;
+
+    /** The initial size of the buffer the snapshot is written in */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** The snapshot file, or null if the snapshot is kept in memory */
+    private final File snapshotFile;
+
+    /** The hash of the schema LDIF files, empty if the snapshot is kept in memory */
+    private final String checksum;
+
+    /** The loader reading the LDIF files, or null if the snapshot is used */
+    private final SchemaLoader ldifLoader;
+
+    /** The entries, per kind, for each schema, keyed by lower cased schema name */
+    private final Map<String, List<List<Entry>>> entries = new HashMap<String, List<List<Entry>>>();
+
+
+    /**
+     * Creates a new instance of SnapshotSchemaLoader.
+     *
+     * @param schemaDirectory The directory containing the schema LDIF files
+     * @param snapshotFile The snapshot file. It does not have to exist
+     * @throws Exception If the LDIF files can't be read
+     */
+    public SnapshotSchemaLoader( File schemaDirectory, File snapshotFile ) throws Exception
+    {
+        this.snapshotFile = snapshotFile;
+        checksum = computeChecksum( schemaDirectory );
+        ldifLoader = readSnapshot( readFile( snapshotFile ), snapshotFile ) ? null : createLdifLoader( schemaDirectory );
+    }
+
+
+    /**
+     * Creates a new instance of SnapshotSchemaLoader using a snapshot kept in memory, as
+     * returned by the {@link #getSnapshot()} method of a loader also created with this
+     * constructor. The caller guarantees that the snapshot has been created for the same
+     * LDIF files : only its format and its content hash are checked.
+     *
+     * @param schemaDirectory The directory containing the schema LDIF files
+     * @param snapshot The snapshot, or null to read the LDIF files
+     * @throws Exception If the LDIF files can't be read
+     */
+    public SnapshotSchemaLoader( File schemaDirectory, byte[] snapshot ) throws Exception
+    {
+        snapshotFile = null;
+        checksum = "";
+        ldifLoader = readSnapshot( snapshot, "memory" ) ? null : createLdifLoader( schemaDirectory );
+    }
+
+
+    private LdifSchemaLoader createLdifLoader( File schemaDirectory ) throws Exception
+    {
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaDirectory );
+
+        for ( Schema schema : loader.getAllSchemas() )
+        {
+            addSchema( schema );
+        }
+
+        return loader;
+    }
+
+
+    /**
+     * @return true if the entries are read from the snapshot
+     */
+    public boolean isSnapshotUsed()
+    {
+        return ldifLoader == null;
+    }
+
+
+    /**
+     * Builds the snapshot of the schema entries. It should only be called once the
+     * SchemaManager has successfully loaded the schema.
+     *
+     * @return The snapshot, ending with the hash of its content
+     * @throws IOException If the LDIF files can't be read
+     */
+    public byte[] getSnapshot() throws IOException
+    {
+        // Read the disabled schemas too, so that they can be enabled later
+        for ( Schema schema : schemaMap.values() )
+        {
+            getEntries( schema );
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream( BUFFER_SIZE );
+        DataOutputStream out = new DataOutputStream( bytes );
+        out.writeInt( FORMAT_VERSION );
+        out.writeUTF( checksum );
+        out.writeInt( schemaMap.size() );
+
+        for ( Schema schema : schemaMap.values() )
+        {
+            writeSchema( out, schema );
+        }
+
+        out.write( createDigest().digest( bytes.toByteArray() ) );
+        out.flush();
+
+        return bytes.toByteArray();
+    }
+
+
+    /**
+     * Writes the snapshot file, if the entries have been read from the LDIF files. It
+     * should only be called once the SchemaManager has successfully loaded the schema.
+     * The file is written aside, then renamed, so a concurrent reader never sees a
+     * partial file.
+     *
+     * @throws IOException If the snapshot can't be written
+     */
+    public void writeSnapshot() throws IOException
+    {
+        if ( isSnapshotUsed() )
+        {
+            return;
+        }
+
+        if ( snapshotFile == null )
+        {
+            throw new IllegalStateException( "The snapshot is kept in memory" );
+        }
+
+        byte[] snapshot = getSnapshot();
+        File directory = snapshotFile.getAbsoluteFile().getParentFile();
+
+        if ( !directory.exists() && !directory.mkdirs() )
+        {
+            throw new IOException( "Cannot create the directory " + directory );
+        }
+
+        File tmpFile = File.createTempFile( snapshotFile.getName(), ".tmp", directory );
+        OutputStream out = new FileOutputStream( tmpFile );
+
+        try
+        {
+            out.write( snapshot );
+        }
+        finally
+        {
+            out.close();
+        }
+
+        if ( !tmpFile.renameTo( snapshotFile ) )
+        {
+            // Some platforms don't replace an existing file
+            snapshotFile.delete();
+
+            if ( !tmpFile.renameTo( snapshotFile ) )
+            {
+                tmpFile.delete();
+                throw new IOException( "Cannot write the schema snapshot " + snapshotFile );
+            }
+        }
+
+        LOG.info( "Schema snapshot written in {}", snapshotFile );
+    }
+
+
+    private void writeSchema( DataOutputStream out, Schema schema ) throws IOException
+    {
+        out.writeUTF( schema.getSchemaName() );
+        out.writeBoolean( schema.getOwner() != null );
+
+        if ( schema.getOwner() != null )
+        {
+            out.writeUTF( schema.getOwner() );
+        }
+
+        String[] dependencies = schema.getDependencies();
+        out.writeInt( dependencies == null ? 0 : dependencies.length );
+
+        if ( dependencies != null )
+        {
+            for ( String dependency : dependencies )
+            {
+                out.writeUTF( dependency );
+            }
+        }
+
+        out.writeBoolean( schema.isDisabled() );
+
+        for ( List<Entry> kindEntries : getEntries( schema ) )
+        {
+            out.writeInt( kindEntries.size() );
+
+            for ( Entry entry : kindEntries )
+            {
+                writeEntry( out, entry );
+            }
+        }
+    }
+
+
+    private void writeEntry( DataOutputStream out, Entry entry ) throws IOException
+    {
+        out.writeUTF( entry.getDn().getName() );
+        out.writeInt( entry.size() );
+
+        for ( Attribute attribute : entry )
+        {
+            out.writeUTF( attribute.getUpId() );
+            out.writeBoolean( attribute.isHumanReadable() );
+            out.writeInt( attribute.size() );
+
+            for ( Value<?> value : attribute )
+            {
+                if ( attribute.isHumanReadable() )
+                {
+                    out.writeUTF( value.getString() );
+                }
+                else
+                {
+                    byte[] bytes = value.getBytes();
+                    out.writeInt( bytes.length );
+                    out.write( bytes );
+                }
+            }
+        }
+    }
+
+
+    private Entry readEntry( DataInputStream in ) throws IOException, LdapException
+    {
+        Entry entry = new DefaultEntry( new Dn( in.readUTF() ) );
+        int nbAttributes = in.readInt();
+
+        for ( int i = 0; i < nbAttributes; i++ )
+        {
+            String upId = in.readUTF();
+            boolean humanReadable = in.readBoolean();
+            int nbValues = in.readInt();
+
+            if ( humanReadable )
+            {
+                String[] values = new String[nbValues];
+
+                for ( int j = 0; j < nbValues; j++ )
+                {
+                    values[j] = in.readUTF();
+                }
+
+                entry.add( upId, values );
+            }
+            else
+            {
+                byte[][] values = new byte[nbValues][];
+
+                for ( int j = 0; j < nbValues; j++ )
+                {
+                    values[j] = new byte[in.readInt()];
+                    in.readFully( values[j] );
+                }
+
+                entry.add( upId, values );
+            }
+        }
+
+        return entry;
+    }
+
+
+    /**
+     * @return The content of the snapshot file, or null if it does not exist or can't be read
+     */
+    private static byte[] readFile( File file )
+    {
+        if ( !file.isFile() )
+        {
+            return null;
+        }
+
+        DataInputStream in = null;
+
+        try
+        {
+            in = new DataInputStream( new FileInputStream( file ) );
+            byte[] data = new byte[( int ) file.length()];
+            in.readFully( data );
+
+            return data;
+        }
+        catch ( IOException ioe )
+        {
+            LOG.warn( "Cannot read the schema snapshot " + file + ", the LDIF files will be read", ioe );
+
+            return null;
+        }
+        finally
+        {
+            if ( in != null )
+            {
+                try
+                {
+                    in.close();
+                }
+                catch ( IOException ioe )
+                {
+                    // Nothing to do
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Reads the snapshot, if its content hash is valid and it has been written for the
+     * current LDIF files. Nothing is kept if it can't be read.
+     *
+     * @param data The snapshot, or null
+     * @param source Where the snapshot comes from, for the logs
+     * @return true if the snapshot has been read
+     */
+    private boolean readSnapshot( byte[] data, Object source )
+    {
+        if ( data == null )
+        {
+            return false;
+        }
+
+        DataInputStream in = null;
+
+        try
+        {
+            int length = data.length - DIGEST_LENGTH;
+
+            if ( length <= 0 )
+            {
+                LOG.warn( "The schema snapshot {} is truncated, the LDIF files will be read", source );
+
+                return false;
+            }
+
+            MessageDigest digest = createDigest();
+            digest.update( data, 0, length );
+
+            if ( !MessageDigest.isEqual( digest.digest(), Arrays.copyOfRange( data, length, data.length ) ) )
+            {
+                LOG.warn( "The schema snapshot {} is corrupted, the LDIF files will be read", source );
+
+                return false;
+            }
+
+            in = new DataInputStream( new ByteArrayInputStream( data, 0, length ) );
+
+            if ( ( in.readInt() != FORMAT_VERSION ) || !checksum.equals( in.readUTF() ) )
+            {
+                LOG.info( "The schema snapshot {} is stale, the LDIF files will be read", source );
+
+                return false;
+            }
+
+            int nbSchemas = in.readInt();
+            List<Schema> schemas = new ArrayList<Schema>( nbSchemas );
+            Map<String, List<List<Entry>>> readEntries = new HashMap<String, List<List<Entry>>>();
+
+            for ( int i = 0; i < nbSchemas; i++ )
+            {
+                Schema schema = readSchema( in, readEntries );
+                schemas.add( schema );
+            }
+
+            for ( Schema schema : schemas )
+            {
+                addSchema( schema );
+            }
+
+            entries.putAll( readEntries );
+            LOG.info( "Schema entries read from the snapshot {}", source );
+
+            return true;
+        }
+        catch ( Exception e )
+        {
+            LOG.warn( "Cannot read the schema snapshot " + source + ", the LDIF files will be read", e );
+
+            return false;
+        }
+        finally
+        {
+            if ( in != null )
+            {
+                try
+                {
+                    in.close();
+                }
+                catch ( IOException ioe )
+                {
+                    // Nothing to do
+                }
+            }
+        }
+    }
+
+
+    private Schema readSchema( DataInputStream in, Map<String, List<List<Entry>>> readEntries ) throws IOException,
+        LdapException
+    {
+        String name = in.readUTF();
+        String owner = in.readBoolean() ? in.readUTF() : null;
+        String[] dependencies = new String[in.readInt()];
+
+        for ( int i = 0; i < dependencies.length; i++ )
+        {
+            dependencies[i] = in.readUTF();
+        }
+
+        boolean disabled = in.readBoolean();
+        List<List<Entry>> schemaEntries = new ArrayList<List<Entry>>( NB_KINDS );
+
+        for ( int kind = 0; kind < NB_KINDS; kind++ )
+        {
+            int nbEntries = in.readInt();
+            List<Entry> kindEntries = new ArrayList<Entry>( nbEntries );
+
+            for ( int i = 0; i < nbEntries; i++ )
+            {
+                kindEntries.add( readEntry( in ) );
+            }
+
+            schemaEntries.add( kindEntries );
+        }
+
+        readEntries.put( Strings.toLowerCase( name ), schemaEntries );
+
+        return new DefaultSchema( name, owner, dependencies, disabled );
+    }
+
+
+    private static MessageDigest createDigest() throws IOException
+    {
+        try
+        {
+            return MessageDigest.getInstance( DIGEST_ALGORITHM );
+        }
+        catch ( NoSuchAlgorithmException nsae )
+        {
+            throw new IOException( nsae.getMessage() );
+        }
+    }
+
+
+    /**
+     * Computes a hash of the LDIF files found in the schema directory : their path,
+     * relative to the directory, their size and their last modification time. The
+     * files are not read : any change made to them through the schema partition
+     * updates their modification time.
+     */
+    private static String computeChecksum( File schemaDirectory ) throws IOException
+    {
+        MessageDigest digest = createDigest();
+
+        // The API version used to read the LDIF files
+        String apiVersion = LdifSchemaLoader.class.getPackage().getImplementationVersion();
+        digest.update( Strings.getBytesUtf8( String.valueOf( apiVersion ) ) );
+
+        updateChecksum( digest, schemaDirectory, "" );
+
+        return Strings.dumpHexPairs( digest.digest() );
+    }
+
+
+    private static void updateChecksum( MessageDigest digest, File directory, String path )
+        throws IOException
+    {
+        File[] files = directory.listFiles();
+
+        if ( files == null )
+        {
+            throw new IOException( "Cannot list the schema directory " + directory );
+        }
+
+        // The order of listFiles() is not guaranteed
+        Arrays.sort( files );
+
+        for ( File file : files )
+        {
+            String filePath = path + "/" + file.getName();
+
+            if ( file.isDirectory() )
+            {
+                updateChecksum( digest, file, filePath );
+            }
+            else
+            {
+                digest.update( Strings.getBytesUtf8( filePath + ":" + file.length() + ":" + file.lastModified() ) );
+            }
+        }
+    }
+
+
+    /**
+     * @return The entries of a schema, per kind. They are read from the LDIF files
+     * the first time, if the snapshot is not used
+     */
+    private List<List<Entry>> getEntries( Schema schema ) throws IOException
+    {
+        String key = Strings.toLowerCase( schema.getSchemaName() );
+        List<List<Entry>> schemaEntries = entries.get( key );
+
+        if ( schemaEntries != null )
+        {
+            return schemaEntries;
+        }
+
+        schemaEntries = new ArrayList<List<Entry>>( NB_KINDS );
+
+        if ( ldifLoader == null )
+        {
+            // A schema which is not in the snapshot
+            for ( int kind = 0; kind < NB_KINDS; kind++ )
+            {
+                schemaEntries.add( new ArrayList<Entry>() );
+            }
+
+            return schemaEntries;
+        }
+
+        try
+        {
+            schemaEntries.add( ldifLoader.loadSyntaxCheckers( schema ) );
+            schemaEntries.add( ldifLoader.loadComparators( schema ) );
+            schemaEntries.add( ldifLoader.loadNormalizers( schema ) );
+            schemaEntries.add( ldifLoader.loadSyntaxes( schema ) );
+            schemaEntries.add( ldifLoader.loadMatchingRules( schema ) );
+            schemaEntries.add( ldifLoader.loadAttributeTypes( schema ) );
+            schemaEntries.add( ldifLoader.loadObjectClasses( schema ) );
+            schemaEntries.add( ldifLoader.loadMatchingRuleUses( schema ) );
+            schemaEntries.add( ldifLoader.loadNameForms( schema ) );
+            schemaEntries.add( ldifLoader.loadDitContentRules( schema ) );
+            schemaEntries.add( ldifLoader.loadDitStructureRules( schema ) );
+        }
+        catch ( LdapException le )
+        {
+            throw new IOException( le.getMessage(), le );
+        }
+
+        entries.put( key, schemaEntries );
+
+        return schemaEntries;
+    }
+
+
+    private List<Entry> load( int kind, Schema... schemas ) throws IOException
+    {
+        List<Entry> result = new ArrayList<Entry>();
+
+        if ( schemas == null )
+        {
+            return result;
+        }
+
+        for ( Schema schema : schemas )
+        {
+            result.addAll( getEntries( schema ).get( kind ) );
+        }
+
+        return result;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<Entry> loadSyntaxCheckers( Schema... schemas ) throws LdapException, IOException
+    {
+        return load( SYNTAX_CHECKERS, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<Entry> loadComparators( Schema... schemas ) throws LdapException, IOException
+    {
+        return load( COMPARATORS, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<Entry> loadNormalizers( Schema... schemas ) throws LdapException, IOException
+    {
+        return load( NORMALIZERS, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<Entry> loadSyntaxes( Schema... schemas ) throws LdapException, IOException
+    {
+        return load( SYNTAXES, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<Entry> loadMatchingRules( Schema... schemas ) throws LdapException, IOException
+    {
+        return load( MATCHING_RULES, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<Entry> loadAttributeTypes( Schema... schemas ) throws LdapException, IOException
+    {
+        return load( ATTRIBUTE_TYPES, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<Entry> loadObjectClasses( Schema... schemas ) throws LdapException, IOException
+    {
+        return load( OBJECT_CLASSES, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<Entry> loadMatchingRuleUses( Schema... schemas ) throws LdapException, IOException
+    {
+        return load( MATCHING_RULE_USES, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<Entry> loadNameForms( Schema... schemas ) throws LdapException, IOException
+    {
+        return load( NAME_FORMS, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<Entry> loadDitContentRules( Schema... schemas ) throws LdapException, IOException
+    {
+        return load( DIT_CONTENT_RULES, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<Entry> loadDitStructureRules( Schema... schemas ) throws LdapException, IOException
+    {
+        return load( DIT_STRUCTURE_RULES, schemas );
+    }
+}
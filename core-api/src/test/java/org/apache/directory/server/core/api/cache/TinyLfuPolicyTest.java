@@ -0,0 +1,162 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.cache;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.Element;
+
+import org.apache.directory.server.core.api.CacheService;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests for the {@link FrequencySketch} and {@link TinyLfuPolicy} classes.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class TinyLfuPolicyTest
+{
+    private static CacheService cacheService;
+
+
+    @BeforeClass
+    public static void init()
+    {
+        cacheService = new CacheService();
+        cacheService.initialize( null );
+    }
+
+
+    @AfterClass
+    public static void destroy()
+    {
+        cacheService.destroy();
+    }
+
+
+    @Test
+    public void testSketch()
+    {
+        FrequencySketch sketch = new FrequencySketch( 1000 );
+
+        assertEquals( 0, sketch.frequency( "key" ) );
+
+        for ( int i = 0; i < 5; i++ )
+        {
+            sketch.increment( "key" );
+        }
+
+        assertEquals( 5, sketch.frequency( "key" ) );
+
+        // The counters saturate at 15
+        for ( int i = 0; i < 100; i++ )
+        {
+            sketch.increment( "hot" );
+        }
+
+        assertEquals( 15, sketch.frequency( "hot" ) );
+
+        sketch.clear();
+        assertEquals( 0, sketch.frequency( "hot" ) );
+    }
+
+
+    @Test
+    public void testSketchAging()
+    {
+        FrequencySketch sketch = new FrequencySketch( 100 );
+
+        for ( int i = 0; i < 8; i++ )
+        {
+            sketch.increment( "old" );
+        }
+
+        // 10 x 100 increments halve the counters
+        for ( int i = 0; i < 1000; i++ )
+        {
+            sketch.increment( Integer.valueOf( i ) );
+        }
+
+        assertTrue( sketch.frequency( "old" ) <= 4 );
+    }
+
+
+    private void access( Cache cache, TinyLfuPolicy policy, String key )
+    {
+        policy.recordAccess( key );
+
+        if ( cache.get( key ) == null )
+        {
+            policy.put( cache, new Element( key, key ) );
+        }
+    }
+
+
+    private void accessHotKeys( Cache cache, TinyLfuPolicy policy )
+    {
+        for ( int i = 0; i < 50; i++ )
+        {
+            access( cache, policy, "hot" + i );
+        }
+    }
+
+
+    @Test
+    public void testScanResistance()
+    {
+        Cache cache = cacheService.getCache( "tinyLfu" );
+        cache.getCacheConfiguration().setMaxElementsInMemory( 100 );
+        TinyLfuPolicy policy = TinyLfuPolicy.install( cache );
+
+        assertSame( policy, TinyLfuPolicy.install( cache ) );
+
+        // A hot working set, accessed a few times
+        for ( int round = 0; round < 4; round++ )
+        {
+            accessHotKeys( cache, policy );
+        }
+
+        // A scan, each key is seen once, while the hot keys are still used
+        for ( int i = 0; i < 5000; i++ )
+        {
+            access( cache, policy, "scan" + i );
+
+            if ( i % 100 == 0 )
+            {
+                accessHotKeys( cache, policy );
+            }
+        }
+
+        for ( int i = 0; i < 50; i++ )
+        {
+            assertTrue( cache.isKeyInCache( "hot" + i ) );
+        }
+
+        assertTrue( cache.getSize() <= 100 );
+        assertTrue( policy.getRejections() > 0 );
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.filtering;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.directory.api.ldap.model.cursor.EmptyCursor;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.server.core.api.metrics.LatencyHistogram;
+import org.junit.Test;
+
+
+/**
+ * Tests for the {@link TimedEntryFilteringCursor} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class TimedEntryFilteringCursorTest
+{
+    @Test
+    public void testRecordedOnClose() throws Exception
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        long start = System.nanoTime();
+        EntryFilteringCursor cursor = new TimedEntryFilteringCursor( new BaseEntryFilteringCursor(
+            new EmptyCursor<Entry>(), null, null ), histogram, start );
+
+        // Reading the entries is part of the search
+        Thread.sleep( 10 );
+        assertEquals( 0L, histogram.getCount() );
+
+        cursor.close();
+
+        assertTrue( cursor.isClosed() );
+        assertEquals( 1L, histogram.getCount() );
+        assertTrue( histogram.getMax() >= 9000000L );
+
+        // Closing the cursor again does not record the search twice
+        cursor.close( new Exception() );
+        assertEquals( 1L, histogram.getCount() );
+    }
+}
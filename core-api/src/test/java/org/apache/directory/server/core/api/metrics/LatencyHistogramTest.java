@@ -0,0 +1,187 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.metrics;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.directory.server.core.api.OperationEnum;
+import org.junit.Test;
+
+
+/**
+ * Tests for the {@link LatencyHistogram} and {@link MetricsRegistry} classes.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LatencyHistogramTest
+{
+    @Test
+    public void testEmptyHistogram()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals( 0L, histogram.getCount() );
+        assertEquals( 0L, histogram.getMean() );
+        assertEquals( 0L, histogram.getMax() );
+        assertEquals( 0L, histogram.getValueAtPercentile( 99d ) );
+    }
+
+
+    @Test
+    public void testSmallValuesAreExact()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        for ( long i = 1; i <= 10; i++ )
+        {
+            histogram.record( i );
+        }
+
+        assertEquals( 10L, histogram.getCount() );
+        assertEquals( 55L, histogram.getTotal() );
+        assertEquals( 5L, histogram.getValueAtPercentile( 50d ) );
+        assertEquals( 9L, histogram.getValueAtPercentile( 90d ) );
+        assertEquals( 10L, histogram.getValueAtPercentile( 100d ) );
+        assertEquals( 10L, histogram.getMax() );
+    }
+
+
+    @Test
+    public void testPercentilesRelativeError()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        // 1 to 100 000 microseconds
+        for ( long i = 1; i <= 100000; i++ )
+        {
+            histogram.record( i * 1000L );
+        }
+
+        assertEquals( 100000L, histogram.getCount() );
+        assertEquals( 100000000L, histogram.getMax() );
+
+        double[] percentiles = new double[]
+            { 1d, 50d, 90d, 99d, 99.9d };
+
+        for ( double percentile : percentiles )
+        {
+            long expected = ( long ) ( percentile * 1000L ) * 1000L;
+            long value = histogram.getValueAtPercentile( percentile );
+
+            // Never below the real value, and at most 1/16th above
+            assertTrue( value >= expected );
+            assertTrue( value <= expected + expected / LatencyHistogram.SUB_BUCKETS );
+        }
+    }
+
+
+    @Test
+    public void testHugeAndNegativeValues()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        histogram.record( -5L );
+        histogram.record( Long.MAX_VALUE / 2 );
+
+        assertEquals( 2L, histogram.getCount() );
+        assertEquals( 0L, histogram.getValueAtPercentile( 50d ) );
+        assertEquals( Long.MAX_VALUE / 2, histogram.getMax() );
+
+        histogram.reset();
+
+        assertEquals( 0L, histogram.getCount() );
+        assertEquals( 0L, histogram.getMax() );
+    }
+
+
+    @Test
+    public void testConcurrentRecords() throws Exception
+    {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final CountDownLatch start = new CountDownLatch( 1 );
+        Thread[] threads = new Thread[4];
+
+        for ( int i = 0; i < threads.length; i++ )
+        {
+            threads[i] = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                    }
+                    catch ( InterruptedException ie )
+                    {
+                        return;
+                    }
+
+                    for ( long j = 1; j <= 10000; j++ )
+                    {
+                        histogram.record( j );
+                    }
+                }
+            };
+
+            threads[i].start();
+        }
+
+        start.countDown();
+
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+
+        assertEquals( 40000L, histogram.getCount() );
+        assertEquals( 4L * 10000L * 10001L / 2L, histogram.getTotal() );
+        assertEquals( 10000L, histogram.getMax() );
+    }
+
+
+    @Test
+    public void testRegistry()
+    {
+        MetricsRegistry registry = new MetricsRegistry();
+
+        LatencyHistogram histogram = registry.getHistogram( "test" );
+        assertSame( histogram, registry.getHistogram( "test" ) );
+
+        registry.getCounter( "cache.hit" ).incrementAndGet();
+        registry.getCounter( "cache.hit" ).incrementAndGet();
+        assertEquals( Long.valueOf( 2L ), registry.getCounters().get( "cache.hit" ) );
+
+        LatencyHistogram[] operations = registry.getOperationHistograms( MetricsRegistry.OPERATION_PREFIX );
+        assertEquals( OperationEnum.values().length, operations.length );
+        assertSame( registry.getHistogram( "operation.search" ), operations[OperationEnum.SEARCH.ordinal()] );
+        assertTrue( registry.getHistograms().containsKey( "operation.moveAndRename" ) );
+
+        histogram.record( 10L );
+        registry.reset();
+
+        assertEquals( 0L, histogram.getCount() );
+        assertEquals( Long.valueOf( 0L ), registry.getCounters().get( "cache.hit" ) );
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.schema;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schemaextractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schemaextractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schemamanager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests for the {@link SnapshotSchemaLoader} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SnapshotSchemaLoaderTest
+{
+    private File schemaRepository;
+
+    private File snapshotFile;
+
+
+    @Before
+    public void init() throws Exception
+    {
+        String path = SnapshotSchemaLoaderTest.class.getResource( "" ).getPath();
+        int targetPos = path.indexOf( "target" );
+        File workingDirectory = new File( path.substring( 0, targetPos + 6 ), "snapshot-test" );
+        FileUtils.deleteDirectory( workingDirectory );
+
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( workingDirectory );
+        extractor.extractOrCopy( true );
+        schemaRepository = new File( workingDirectory, "schema" );
+        snapshotFile = new File( workingDirectory, SnapshotSchemaLoader.SNAPSHOT_FILE );
+    }
+
+
+    private SchemaManager load( SnapshotSchemaLoader loader ) throws Exception
+    {
+        SchemaManager schemaManager = new DefaultSchemaManager( loader );
+        schemaManager.loadAllEnabled();
+
+        List<Throwable> errors = schemaManager.getErrors();
+
+        if ( errors.size() != 0 )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( errors ) );
+        }
+
+        return schemaManager;
+    }
+
+
+    @Test
+    public void testSnapshotRoundTrip() throws Exception
+    {
+        SnapshotSchemaLoader ldifLoader = new SnapshotSchemaLoader( schemaRepository, snapshotFile );
+        assertFalse( ldifLoader.isSnapshotUsed() );
+
+        SchemaManager expected = load( ldifLoader );
+        ldifLoader.writeSnapshot();
+        assertTrue( snapshotFile.exists() );
+
+        SnapshotSchemaLoader snapshotLoader = new SnapshotSchemaLoader( schemaRepository, snapshotFile );
+        assertTrue( snapshotLoader.isSnapshotUsed() );
+
+        SchemaManager schemaManager = load( snapshotLoader );
+
+        assertEquals( expected.getAttributeTypeRegistry().size(), schemaManager.getAttributeTypeRegistry().size() );
+        assertEquals( expected.getObjectClassRegistry().size(), schemaManager.getObjectClassRegistry().size() );
+        assertEquals( expected.getMatchingRuleRegistry().size(), schemaManager.getMatchingRuleRegistry().size() );
+        assertEquals( expected.getComparatorRegistry().size(), schemaManager.getComparatorRegistry().size() );
+        assertEquals( expected.getNormalizerRegistry().size(), schemaManager.getNormalizerRegistry().size() );
+        assertEquals( "2.5.4.3", schemaManager.getAttributeTypeRegistry().getOidByName( "cn" ) );
+
+        // The disabled schemas are in the snapshot too
+        assertTrue( snapshotLoader.getSchema( "nis" ).isDisabled() );
+        List<Entry> nisAttributeTypes = snapshotLoader.loadAttributeTypes( snapshotLoader.getSchema( "nis" ) );
+        assertEquals( ldifLoader.loadAttributeTypes( ldifLoader.getSchema( "nis" ) ).size(), nisAttributeTypes.size() );
+        assertFalse( nisAttributeTypes.isEmpty() );
+    }
+
+
+    @Test
+    public void testStaleSnapshot() throws Exception
+    {
+        SnapshotSchemaLoader loader = new SnapshotSchemaLoader( schemaRepository, snapshotFile );
+        load( loader );
+        loader.writeSnapshot();
+
+        // Any change in the LDIF files invalidates the snapshot
+        FileWriter writer = new FileWriter( new File( schemaRepository, "ou=schema.ldif" ), true );
+        writer.write( "\n" );
+        writer.close();
+
+        loader = new SnapshotSchemaLoader( schemaRepository, snapshotFile );
+        assertFalse( loader.isSnapshotUsed() );
+        load( loader );
+    }
+
+
+    @Test
+    public void testCorruptedSnapshot() throws Exception
+    {
+        FileUtils.writeStringToFile( snapshotFile, "not a snapshot" );
+
+        SnapshotSchemaLoader loader = new SnapshotSchemaLoader( schemaRepository, snapshotFile );
+        assertFalse( loader.isSnapshotUsed() );
+        load( loader );
+    }
+
+
+    @Test
+    public void testAlteredSnapshot() throws Exception
+    {
+        SnapshotSchemaLoader loader = new SnapshotSchemaLoader( schemaRepository, snapshotFile );
+        load( loader );
+        loader.writeSnapshot();
+
+        // A snapshot altered after its checksum is not read
+        byte[] snapshot = FileUtils.readFileToByteArray( snapshotFile );
+        snapshot[snapshot.length / 2] ^= 0x01;
+        FileUtils.writeByteArrayToFile( snapshotFile, snapshot );
+
+        loader = new SnapshotSchemaLoader( schemaRepository, snapshotFile );
+        assertFalse( loader.isSnapshotUsed() );
+        load( loader );
+    }
+
+
+    @Test
+    public void testMemorySnapshot() throws Exception
+    {
+        SnapshotSchemaLoader ldifLoader = new SnapshotSchemaLoader( schemaRepository, ( byte[] ) null );
+        assertFalse( ldifLoader.isSnapshotUsed() );
+        SchemaManager expected = load( ldifLoader );
+        byte[] snapshot = ldifLoader.getSnapshot();
+
+        SnapshotSchemaLoader snapshotLoader = new SnapshotSchemaLoader( schemaRepository, snapshot );
+        assertTrue( snapshotLoader.isSnapshotUsed() );
+        SchemaManager schemaManager = load( snapshotLoader );
+
+        assertEquals( expected.getAttributeTypeRegistry().size(), schemaManager.getAttributeTypeRegistry().size() );
+        assertEquals( expected.getComparatorRegistry().size(), schemaManager.getComparatorRegistry().size() );
+        assertFalse( snapshotFile.exists() );
+
+        // A truncated snapshot is not read
+        byte[] truncated = new byte[snapshot.length - 1];
+        System.arraycopy( snapshot, 0, truncated, 0, truncated.length );
+        assertFalse( new SnapshotSchemaLoader( schemaRepository, truncated ).isSnapshotUsed() );
+    }
+}
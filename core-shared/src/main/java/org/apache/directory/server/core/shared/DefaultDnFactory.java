@@ -21,6 +21,8 @@
 package org.apache.directory.server.core.shared;
 
 
+import java.util.concurrent.atomic.AtomicLong;
+
 import net.sf.ehcache.Cache;
 import net.sf.ehcache.Element;
 
@@ -28,6 +30,8 @@ import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.api.cache.TinyLfuPolicy;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -44,26 +48,52 @@ public class DefaultDnFactory implements DnFactory
     /** The cache for DNs */
     private Cache dnCache;
 
+    /** The admission policy of the DN cache */
+    private TinyLfuPolicy dnCachePolicy;
+
     /** The schema manager */
     private SchemaManager schemaManager;
 
-    /** Flag to enable stats */
-    private boolean enableStats = false;
+    /** The name of the cache counters */
+    private static final String DN_CACHE_METRIC = "dnCache";
 
     // stat counters
-    private int hitCount = 0;
-    private int missCount = 0;
+    private final AtomicLong hitCount;
+    private final AtomicLong missCount;
 
 
     /**
      * Instantiates a new default Dn factory.
      *
-     * @param directoryService the directory service
+     * @param schemaManager the schema manager
+     * @param dnCache the cache for DNs
      */
     public DefaultDnFactory( SchemaManager schemaManager, Cache dnCache )
+    {
+        this( schemaManager, dnCache, new MetricsRegistry() );
+    }
+
+
+    /**
+     * Instantiates a new default Dn factory, counting the cache hits and misses
+     * in the given registry.
+     *
+     * @param schemaManager the schema manager
+     * @param dnCache the cache for DNs
+     * @param metricsRegistry the registry storing the cache counters
+     */
+    public DefaultDnFactory( SchemaManager schemaManager, Cache dnCache, MetricsRegistry metricsRegistry )
     {
         this.schemaManager = schemaManager;
         this.dnCache = dnCache;
+
+        if ( dnCache != null )
+        {
+            dnCachePolicy = TinyLfuPolicy.install( dnCache );
+        }
+
+        hitCount = metricsRegistry.getCounter( DN_CACHE_METRIC + MetricsRegistry.HIT_SUFFIX );
+        missCount = metricsRegistry.getCounter( DN_CACHE_METRIC + MetricsRegistry.MISS_SUFFIX );
     }
 
 
@@ -88,6 +118,7 @@ public class DefaultDnFactory implements DnFactory
         // for the reason for performing this check
         if ( dnCache != null )
         {
+            dnCachePolicy.recordAccess( dn );
             Element dnCacheEntry = dnCache.get( dn );
 
             if ( dnCacheEntry != null )
@@ -104,30 +135,16 @@ public class DefaultDnFactory implements DnFactory
 
             if ( dnCache != null )
             {
-                dnCache.put( new Element( dn, cachedDn ) );
-            }
-
-            if ( enableStats )
-            {
-                missCount++;
+                dnCachePolicy.put( dnCache, new Element( dn, cachedDn ) );
+                missCount.incrementAndGet();
             }
         }
         else
         {
             cachedDn.apply( schemaManager );
+            hitCount.incrementAndGet();
 
-            if ( enableStats )
-            {
-                hitCount++;
-            }
-        }
-
-        LOG.debug( "Dn {} found in the cache", dn );
-
-        if ( enableStats )
-        {
-            System.out.println( "Dn cache hit - " + hitCount + ", miss - " + missCount + " and is normalized = "
-                + cachedDn.isSchemaAware() );
+            LOG.debug( "Dn {} found in the cache", dn );
         }
 
         return cachedDn;
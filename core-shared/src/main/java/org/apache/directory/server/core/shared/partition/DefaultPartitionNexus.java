@@ -22,14 +22,22 @@ package org.apache.directory.server.core.shared.partition;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.EmptyCursor;
@@ -62,6 +70,7 @@ import org.apache.directory.api.util.exception.MultiException;
 import org.apache.directory.server.constants.ServerDNConstants;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.InterceptorEnum;
+import org.apache.directory.server.core.api.OperationEnum;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
 import org.apache.directory.server.core.api.filtering.BaseEntryFilteringCursor;
 import org.apache.directory.server.core.api.filtering.CursorList;
@@ -78,6 +87,8 @@ import org.apache.directory.server.core.api.interceptor.context.MoveOperationCon
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.metrics.LatencyHistogram;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
 import org.apache.directory.server.core.api.partition.AbstractPartition;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
@@ -120,6 +131,9 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     /** A structure to hold all the partitions */
     private DnNode<Partition> partitionLookupTree = new DnNode<Partition>();
 
+    /** The per partition latency histograms, indexed by the OperationEnum ordinal */
+    private Map<Partition, LatencyHistogram[]> partitionHistograms = new ConcurrentHashMap<Partition, LatencyHistogram[]>();
+
     /** the system partition */
     //private Partition system;
 
@@ -136,6 +150,46 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     /** The cn=schema Dn */
     private Dn subschemSubentryDn;
 
+    /**
+     * The maximum number of threads used to initialize, sync or destroy the partitions.
+     * Those tasks mostly wait for the disk, so we use more threads than processors.
+     */
+    private int partitionThreads = Math.max( 4, Runtime.getRuntime().availableProcessors() );
+
+    /**
+     * The tasks applied to all the partitions at once. The partitions don't depend on
+     * each other, except on the system and schema partitions which are initialized
+     * first, so those tasks can be run concurrently.
+     */
+    private enum PartitionTask
+    {
+        INITIALIZE
+        {
+            void apply( Partition partition ) throws Exception
+            {
+                partition.initialize();
+            }
+        },
+
+        SYNC
+        {
+            void apply( Partition partition ) throws Exception
+            {
+                partition.sync();
+            }
+        },
+
+        DESTROY
+        {
+            void apply( Partition partition ) throws Exception
+            {
+                partition.destroy();
+            }
+        };
+
+        abstract void apply( Partition partition ) throws Exception;
+    }
+
 
     /**
      * Creates the root nexus singleton of the entire system.  The root DSE has
@@ -219,6 +273,10 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
 
             try
             {
+                // The system partition is up : initialize the other partitions
+                // concurrently, then register them
+                initializePartitions( directoryService.getPartitions() );
+
                 for ( Partition partition : directoryService.getPartitions() )
                 {
                     addContextPartition( partition );
@@ -259,6 +317,130 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     }
 
 
+    /**
+     * Initializes the partitions which are not already initialized, concurrently. If
+     * one of them fails, the partitions initialized in the meantime are destroyed.
+     */
+    void initializePartitions( Collection<? extends Partition> partitions ) throws Exception
+    {
+        List<Partition> toInitialize = new ArrayList<Partition>();
+
+        for ( Partition partition : partitions )
+        {
+            if ( !partition.isInitialized() )
+            {
+                partition.setCacheService( directoryService.getCacheService() );
+                partition.setMetricsRegistry( directoryService.getMetricsRegistry() );
+                toInitialize.add( partition );
+            }
+        }
+
+        Map<Partition, Exception> failures = applyToAll( toInitialize, PartitionTask.INITIALIZE );
+
+        if ( failures.isEmpty() )
+        {
+            return;
+        }
+
+        for ( Partition partition : toInitialize )
+        {
+            if ( !failures.containsKey( partition ) )
+            {
+                try
+                {
+                    partition.destroy();
+                }
+                catch ( Exception e )
+                {
+                    LOG.warn( "Failed to destroy a partition: " + partition.getSuffixDn(), e );
+                }
+            }
+        }
+
+        for ( Map.Entry<Partition, Exception> failure : failures.entrySet() )
+        {
+            LOG.error( "Failed to initialize a partition: " + failure.getKey().getSuffixDn(), failure.getValue() );
+        }
+
+        throw failures.values().iterator().next();
+    }
+
+
+    /**
+     * Applies a task to some partitions, using up to {@link #partitionThreads} threads.
+     * All the partitions are processed, even if the task fails for some of them.
+     *
+     * @param targets The partitions to process
+     * @param task The task to apply
+     * @return The failures, per partition, in the targets order. Empty if all went well
+     */
+    private Map<Partition, Exception> applyToAll( Collection<Partition> targets, final PartitionTask task )
+    {
+        Map<Partition, Exception> failures = new LinkedHashMap<Partition, Exception>();
+        int nbThreads = Math.min( partitionThreads, targets.size() );
+
+        if ( nbThreads <= 1 )
+        {
+            for ( Partition partition : targets )
+            {
+                try
+                {
+                    task.apply( partition );
+                }
+                catch ( Exception e )
+                {
+                    failures.put( partition, e );
+                }
+            }
+
+            return failures;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool( nbThreads );
+        Map<Partition, Future<Void>> futures = new LinkedHashMap<Partition, Future<Void>>();
+
+        try
+        {
+            for ( final Partition partition : targets )
+            {
+                futures.put( partition, executor.submit( new Callable<Void>()
+                {
+                    public Void call() throws Exception
+                    {
+                        task.apply( partition );
+
+                        return null;
+                    }
+                } ) );
+            }
+
+            for ( Map.Entry<Partition, Future<Void>> future : futures.entrySet() )
+            {
+                try
+                {
+                    future.getValue().get();
+                }
+                catch ( ExecutionException ee )
+                {
+                    Throwable cause = ee.getCause();
+                    failures.put( future.getKey(), cause instanceof Exception ? ( Exception ) cause : ee );
+                }
+                catch ( InterruptedException ie )
+                {
+                    Thread.currentThread().interrupt();
+                    failures.put( future.getKey(), ie );
+                }
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+
+        return failures;
+    }
+
+
     /* (non-Javadoc)
      * @see org.apache.directory.server.core.partition.PartitionNexus#destroy()
      */
@@ -271,11 +453,13 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
 
         // make sure this loop is not fail fast so all backing stores can
         // have an attempt at closing down and synching their cached entries
+        List<Partition> removed = new ArrayList<Partition>();
+
         for ( String suffix : new HashSet<String>( this.partitions.keySet() ) )
         {
             try
             {
-                removeContextPartition( directoryService.getDnFactory().create( suffix ) );
+                removed.add( detachContextPartition( directoryService.getDnFactory().create( suffix ) ) );
             }
             catch ( Exception e )
             {
@@ -283,6 +467,12 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
             }
         }
 
+        // The partitions are closed concurrently
+        for ( Map.Entry<Partition, Exception> failure : applyToAll( removed, PartitionTask.DESTROY ).entrySet() )
+        {
+            LOG.warn( "Failed to destroy a partition: " + failure.getKey().getSuffixDn(), failure.getValue() );
+        }
+
         initialized = false;
     }
 
@@ -346,30 +536,38 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
             error.addThrowable( e );
         }
 
-        for ( Partition partition : this.partitions.values() )
+        error = syncPartitions( new ArrayList<Partition>( this.partitions.values() ), error );
+
+        if ( error != null )
         {
-            try
+            throw error;
+        }
+    }
+
+
+    /**
+     * Flushes the partitions concurrently, collecting the failures.
+     *
+     * @param toSync The partitions to flush
+     * @param error The failures already collected, or null if none
+     * @return The failures, or null if none
+     */
+    MultiException syncPartitions( Collection<Partition> toSync, MultiException error )
+    {
+        for ( Exception e : applyToAll( toSync, PartitionTask.SYNC ).values() )
+        {
+            LOG.warn( "Failed to flush partition data out.", e );
+            if ( error == null )
             {
-                partition.sync();
+                //noinspection ThrowableInstanceNeverThrown
+                error = new MultiException( I18n.err( I18n.ERR_265 ) );
             }
-            catch ( Exception e )
-            {
-                LOG.warn( "Failed to flush partition data out.", e );
-                if ( error == null )
-                {
-                    //noinspection ThrowableInstanceNeverThrown
-                    error = new MultiException( I18n.err( I18n.ERR_265 ) );
-                }
 
-                // @todo really need to send this info to a monitor
-                error.addThrowable( e );
-            }
+            // @todo really need to send this info to a monitor
+            error.addThrowable( e );
         }
 
-        if ( error != null )
-        {
-            throw error;
-        }
+        return error;
     }
 
 
@@ -382,7 +580,16 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     public void add( AddOperationContext addContext ) throws LdapException
     {
         Partition partition = getPartition( addContext.getDn() );
-        partition.add( addContext );
+        long start = System.nanoTime();
+
+        try
+        {
+            partition.add( addContext );
+        }
+        finally
+        {
+            record( partition, OperationEnum.ADD, start );
+        }
 
         Attribute at = addContext.getEntry().get( SchemaConstants.ENTRY_CSN_AT );
         directoryService.setContextCsn( at.getString() );
@@ -438,7 +645,17 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     public Entry delete( DeleteOperationContext deleteContext ) throws LdapException
     {
         Partition partition = getPartition( deleteContext.getDn() );
-        Entry deletedEntry = partition.delete( deleteContext );
+        long start = System.nanoTime();
+        Entry deletedEntry = null;
+
+        try
+        {
+            deletedEntry = partition.delete( deleteContext );
+        }
+        finally
+        {
+            record( partition, OperationEnum.DELETE, start );
+        }
 
         Entry entry = deleteContext.getEntry();
         Attribute csn = entry.get( ENTRY_CSN_AT );
@@ -471,8 +688,16 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
         }
 
         Partition partition = getPartition( dn );
+        long start = System.nanoTime();
 
-        return partition.hasEntry( hasEntryContext );
+        try
+        {
+            return partition.hasEntry( hasEntryContext );
+        }
+        finally
+        {
+            record( partition, OperationEnum.HAS_ENTRY, start );
+        }
     }
 
 
@@ -497,7 +722,17 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
         }
 
         Partition partition = getPartition( dn );
-        Entry entry = partition.lookup( lookupContext );
+        long start = System.nanoTime();
+        Entry entry = null;
+
+        try
+        {
+            entry = partition.lookup( lookupContext );
+        }
+        finally
+        {
+            record( partition, OperationEnum.LOOKUP, start );
+        }
 
         if ( entry == null )
         {
@@ -523,8 +758,16 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
         }
 
         Partition partition = getPartition( modifyContext.getDn() );
+        long start = System.nanoTime();
 
-        partition.modify( modifyContext );
+        try
+        {
+            partition.modify( modifyContext );
+        }
+        finally
+        {
+            record( partition, OperationEnum.MODIFY, start );
+        }
 
         if ( modifyContext.isPushToEvtInterceptor() )
         {
@@ -547,8 +790,16 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     {
         // Get the current partition
         Partition partition = getPartition( moveContext.getDn() );
+        long start = System.nanoTime();
 
-        partition.move( moveContext );
+        try
+        {
+            partition.move( moveContext );
+        }
+        finally
+        {
+            record( partition, OperationEnum.MOVE, start );
+        }
 
         Entry entry = moveContext.getModifiedEntry();
         directoryService.setContextCsn( entry.get( ENTRY_CSN_AT ).getString() );
@@ -561,7 +812,16 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     public void moveAndRename( MoveAndRenameOperationContext moveAndRenameContext ) throws LdapException
     {
         Partition partition = getPartition( moveAndRenameContext.getDn() );
-        partition.moveAndRename( moveAndRenameContext );
+        long start = System.nanoTime();
+
+        try
+        {
+            partition.moveAndRename( moveAndRenameContext );
+        }
+        finally
+        {
+            record( partition, OperationEnum.MOVE_AND_RENAME, start );
+        }
 
         Entry entry = moveAndRenameContext.getModifiedEntry();
         directoryService.setContextCsn( entry.get( ENTRY_CSN_AT ).getString() );
@@ -574,7 +834,16 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     public void rename( RenameOperationContext renameContext ) throws LdapException
     {
         Partition partition = getPartition( renameContext.getDn() );
-        partition.rename( renameContext );
+        long start = System.nanoTime();
+
+        try
+        {
+            partition.rename( renameContext );
+        }
+        finally
+        {
+            record( partition, OperationEnum.RENAME, start );
+        }
 
         Entry entry = renameContext.getModifiedEntry();
         directoryService.setContextCsn( entry.get( ENTRY_CSN_AT ).getString() );
@@ -681,8 +950,17 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
 
         // Normal case : do a search on the specific partition
         Partition backend = getPartition( base );
+        long start = System.nanoTime();
 
-        return backend.search( searchContext );
+        try
+        {
+            return backend.search( searchContext );
+        }
+        finally
+        {
+            // Only the cursor creation is measured, the entries are fetched later
+            record( backend, OperationEnum.SEARCH, start );
+        }
     }
 
 
@@ -837,6 +1115,7 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
         if ( !partition.isInitialized() )
         {
             partition.setCacheService( directoryService.getCacheService() );
+            partition.setMetricsRegistry( directoryService.getMetricsRegistry() );
             partition.initialize();
         }
 
@@ -873,6 +1152,29 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
      */
     public synchronized void removeContextPartition( Dn partitionDn )
         throws LdapException
+    {
+        Partition partition = detachContextPartition( partitionDn );
+
+        try
+        {
+            partition.destroy();
+        }
+        catch ( Exception e )
+        {
+            throw new LdapOperationErrorException( e.getMessage(), e );
+        }
+    }
+
+
+    /**
+     * Removes a partition from the nexus structures and from the RootDSE namingContexts,
+     * without destroying it.
+     *
+     * @param partitionDn The partition suffix
+     * @return The removed partition
+     * @throws LdapException If the partition is not registered
+     */
+    private synchronized Partition detachContextPartition( Dn partitionDn ) throws LdapException
     {
         // Get the Partition name. It's a Dn.
         String key = partitionDn.getNormName();
@@ -914,15 +1216,29 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
         }
 
         partitions.remove( key );
+        partitionHistograms.remove( partition );
 
-        try
-        {
-            partition.destroy();
-        }
-        catch ( Exception e )
+        return partition;
+    }
+
+
+    /**
+     * Records the time spent in a partition for an operation. The histograms are
+     * named "partition.<partition id>.<operation>", and created on first use.
+     */
+    private void record( Partition partition, OperationEnum operation, long start )
+    {
+        long duration = System.nanoTime() - start;
+        LatencyHistogram[] histograms = partitionHistograms.get( partition );
+
+        if ( histograms == null )
         {
-            throw new LdapOperationErrorException( e.getMessage(), e );
+            histograms = directoryService.getMetricsRegistry().getOperationHistograms(
+                MetricsRegistry.PARTITION_PREFIX + partition.getId() + "." );
+            partitionHistograms.put( partition, histograms );
         }
+
+        histograms[operation.ordinal()].record( duration );
     }
 
 
@@ -1051,6 +1367,28 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     }
 
 
+    /**
+     * @return the maximum number of threads used to initialize, sync or destroy the partitions
+     */
+    public int getPartitionThreads()
+    {
+        return partitionThreads;
+    }
+
+
+    /**
+     * Sets the maximum number of threads used to initialize, sync or destroy the
+     * partitions. It defaults to the number of processors, with a minimum of 4; 1
+     * processes the partitions one after the other.
+     *
+     * @param partitionThreads the maximum number of threads
+     */
+    public void setPartitionThreads( int partitionThreads )
+    {
+        this.partitionThreads = partitionThreads;
+    }
+
+
     private void createContextCsnModList() throws LdapException
     {
         Modification contextCsnMod = new DefaultModification();
@@ -0,0 +1,333 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.shared.partition;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.util.exception.MultiException;
+import org.apache.directory.server.core.api.MockDirectoryService;
+import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.HasEntryOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
+import org.apache.directory.server.core.api.partition.AbstractPartition;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests the concurrent initialization and flush of the partitions by the
+ * {@link DefaultPartitionNexus}.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class DefaultPartitionNexusTest
+{
+    private MockDirectoryService directoryService;
+    private DefaultPartitionNexus nexus;
+
+    /** The partitions, in the order they have been initialized */
+    private List<String> initialized;
+
+
+    /**
+     * A partition only recording its initialization, flush and destruction
+     */
+    private class TestPartition extends AbstractPartition
+    {
+        /** The latch the partitions wait on while initializing, if any */
+        private final CountDownLatch latch;
+
+        /** The exception thrown when initializing, if any */
+        private final Exception initFailure;
+
+        /** The exception thrown when flushing, if any */
+        private final Exception syncFailure;
+
+        /** The thread which initialized the partition */
+        private volatile Thread initThread;
+
+        /** The number of times the partition has been destroyed */
+        private volatile int destroyed;
+
+
+        private TestPartition( String id, CountDownLatch latch, Exception initFailure, Exception syncFailure )
+        {
+            this.id = id;
+            this.latch = latch;
+            this.initFailure = initFailure;
+            this.syncFailure = syncFailure;
+        }
+
+
+        protected void doInit() throws Exception
+        {
+            initThread = Thread.currentThread();
+
+            synchronized ( initialized )
+            {
+                initialized.add( id );
+            }
+
+            if ( latch != null )
+            {
+                latch.countDown();
+
+                // All the partitions have to be initialized at the same time to get there
+                if ( !latch.await( 10, TimeUnit.SECONDS ) )
+                {
+                    throw new Exception( "The partitions have not been initialized concurrently" );
+                }
+            }
+
+            if ( initFailure != null )
+            {
+                throw initFailure;
+            }
+        }
+
+
+        private MetricsRegistry getMetricsRegistry()
+        {
+            return metricsRegistry;
+        }
+
+
+        protected void doDestroy() throws Exception
+        {
+            destroyed++;
+        }
+
+
+        public void sync() throws Exception
+        {
+            if ( syncFailure != null )
+            {
+                throw syncFailure;
+            }
+        }
+
+
+        public Entry delete( DeleteOperationContext deleteContext ) throws LdapException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+
+        public void add( AddOperationContext addContext ) throws LdapException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+
+        public void modify( ModifyOperationContext modifyContext ) throws LdapException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+
+        public EntryFilteringCursor search( SearchOperationContext searchContext ) throws LdapException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+
+        public Entry lookup( LookupOperationContext lookupContext ) throws LdapException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+
+        public boolean hasEntry( HasEntryOperationContext hasEntryContext ) throws LdapException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+
+        public void rename( RenameOperationContext renameContext ) throws LdapException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+
+        public void move( MoveOperationContext moveContext ) throws LdapException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+
+        public void moveAndRename( MoveAndRenameOperationContext moveAndRenameContext ) throws LdapException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+
+        public void unbind( UnbindOperationContext unbindContext ) throws LdapException
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+
+    @Before
+    public void createNexus() throws Exception
+    {
+        directoryService = new MockDirectoryService();
+        nexus = new DefaultPartitionNexus( new DefaultEntry() );
+        nexus.setDirectoryService( directoryService );
+        nexus.setPartitionThreads( 4 );
+        initialized = new ArrayList<String>();
+    }
+
+
+    @Test
+    public void testConcurrentInitialization() throws Exception
+    {
+        CountDownLatch latch = new CountDownLatch( 3 );
+        List<TestPartition> partitions = Arrays.asList(
+            new TestPartition( "p1", latch, null, null ),
+            new TestPartition( "p2", latch, null, null ),
+            new TestPartition( "p3", latch, null, null ) );
+
+        nexus.initializePartitions( partitions );
+
+        for ( TestPartition partition : partitions )
+        {
+            assertTrue( partition.isInitialized() );
+            assertFalse( partition.initThread == Thread.currentThread() );
+            assertSame( directoryService.getMetricsRegistry(), partition.getMetricsRegistry() );
+            assertEquals( 0, partition.destroyed );
+        }
+    }
+
+
+    @Test
+    public void testFailedInitialization() throws Exception
+    {
+        Exception failure2 = new Exception( "p2 failure" );
+        Exception failure3 = new Exception( "p3 failure" );
+        TestPartition p1 = new TestPartition( "p1", null, null, null );
+        TestPartition p2 = new TestPartition( "p2", null, failure2, null );
+        TestPartition p3 = new TestPartition( "p3", null, failure3, null );
+        TestPartition p4 = new TestPartition( "p4", null, null, null );
+
+        try
+        {
+            nexus.initializePartitions( Arrays.asList( p1, p2, p3, p4 ) );
+            fail( "The initialization should have failed" );
+        }
+        catch ( LdapException le )
+        {
+            // The failure of the first partition in the list is rethrown
+            assertSame( failure2, le.getCause() );
+        }
+
+        // All the partitions have been initialized, the successful ones are destroyed
+        assertEquals( 4, initialized.size() );
+
+        for ( TestPartition partition : Arrays.asList( p1, p2, p3, p4 ) )
+        {
+            assertFalse( partition.isInitialized() );
+            assertEquals( 1, partition.destroyed );
+        }
+    }
+
+
+    @Test
+    public void testSyncFailures() throws Exception
+    {
+        Exception failure2 = new Exception( "p2 failure" );
+        Exception failure3 = new Exception( "p3 failure" );
+        List<Partition> partitions = new ArrayList<Partition>();
+        partitions.add( new TestPartition( "p1", null, null, null ) );
+        partitions.add( new TestPartition( "p2", null, null, failure2 ) );
+        partitions.add( new TestPartition( "p3", null, null, failure3 ) );
+        partitions.add( new TestPartition( "p4", null, null, null ) );
+
+        assertNull( nexus.syncPartitions( partitions.subList( 0, 1 ), null ) );
+
+        MultiException error = nexus.syncPartitions( partitions, null );
+
+        assertNotNull( error );
+        List<Throwable> failures = new ArrayList<Throwable>();
+
+        for ( Iterator<Throwable> i = error.listIterator(); i.hasNext(); )
+        {
+            failures.add( i.next() );
+        }
+
+        // All the partitions are flushed, the failures are collected in the partitions order
+        assertEquals( Arrays.<Throwable> asList( failure2, failure3 ), failures );
+    }
+
+
+    @Test
+    public void testSequentialInitialization() throws Exception
+    {
+        nexus.setPartitionThreads( 1 );
+
+        List<TestPartition> partitions = new ArrayList<TestPartition>();
+
+        for ( int i = 0; i < 5; i++ )
+        {
+            partitions.add( new TestPartition( "p" + i, null, null, null ) );
+        }
+
+        nexus.initializePartitions( partitions );
+
+        assertEquals( Arrays.asList( "p0", "p1", "p2", "p3", "p4" ), initialized );
+
+        for ( TestPartition partition : partitions )
+        {
+            assertTrue( partition.isInitialized() );
+            assertSame( Thread.currentThread(), partition.initThread );
+        }
+
+        // Nothing to initialize
+        nexus.initializePartitions( Collections.<Partition> emptyList() );
+    }
+}
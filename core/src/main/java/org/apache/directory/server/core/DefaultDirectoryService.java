@@ -42,6 +42,8 @@ import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
 import javax.naming.directory.Attributes;
 
 import org.apache.directory.api.ldap.codec.api.LdapApiService;
@@ -99,6 +101,8 @@ import org.apache.directory.server.core.api.interceptor.context.HasEntryOperatio
 import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.OperationContext;
 import org.apache.directory.server.core.api.journal.Journal;
+import org.apache.directory.server.core.api.metrics.MetricsMBean;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
 import org.apache.directory.server.core.api.schema.SchemaPartition;
@@ -163,6 +167,12 @@ public class DefaultDirectoryService implements DirectoryService
     /** the journal service */
     private Journal journal;
 
+    /** The metrics, created before the operation manager which uses them */
+    private final MetricsRegistry metricsRegistry = new MetricsRegistry();
+
+    /** The name of the MBean exposing the metrics, if registered */
+    private ObjectName metricsName;
+
     /**
      * the interface used to perform various operations on this
      * DirectoryService
@@ -1261,6 +1271,7 @@ public class DefaultDirectoryService implements DirectoryService
             contextCsn = cntextCsnAt.getString();
         }
 
+        registerMetrics();
         started = true;
 
         if ( !testEntries.isEmpty() )
@@ -1335,6 +1346,8 @@ public class DefaultDirectoryService implements DirectoryService
         LOG.debug( "---Deleting the DnCache" );
         dnFactory = null;
 
+        unregisterMetrics();
+
         if ( lockFile != null )
         {
             try
@@ -1806,7 +1819,7 @@ public class DefaultDirectoryService implements DirectoryService
 
         if ( dnFactory == null )
         {
-            dnFactory = new DefaultDnFactory( schemaManager, cacheService.getCache( "dnCache" ) );
+            dnFactory = new DefaultDnFactory( schemaManager, cacheService.getCache( "dnCache" ), metricsRegistry );
         }
 
         // triggers partition to load schema fully from schema partition
@@ -1814,6 +1827,7 @@ public class DefaultDirectoryService implements DirectoryService
         schemaPartition.initialize();
         partitions.add( schemaPartition );
         systemPartition.setCacheService( cacheService );
+        systemPartition.setMetricsRegistry( metricsRegistry );
         systemPartition.getSuffixDn().apply( schemaManager );
 
         adminDn = getDnFactory().create( ServerDNConstants.ADMIN_SYSTEM_DN );
@@ -2227,6 +2241,57 @@ public class DefaultDirectoryService implements DirectoryService
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    public MetricsRegistry getMetricsRegistry()
+    {
+        return metricsRegistry;
+    }
+
+
+    /**
+     * Exposes the metrics through JMX. A failure is not fatal, as the metrics
+     * are still available through the registry : it happens when two services
+     * with the same instance ID run in the same JVM.
+     */
+    private void registerMetrics()
+    {
+        try
+        {
+            metricsName = MetricsMBean.register( metricsRegistry, instanceId );
+        }
+        catch ( JMException jme )
+        {
+            LOG.warn( "Cannot register the metrics MBean for the directory service {} : {}", instanceId,
+                jme.getMessage() );
+        }
+    }
+
+
+    /**
+     * Removes the metrics MBean, if it was registered
+     */
+    private void unregisterMetrics()
+    {
+        if ( metricsName == null )
+        {
+            return;
+        }
+
+        try
+        {
+            MetricsMBean.unregister( metricsName );
+        }
+        catch ( JMException jme )
+        {
+            LOG.warn( "Cannot unregister the metrics MBean {} : {}", metricsName, jme.getMessage() );
+        }
+
+        metricsName = null;
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -44,9 +44,11 @@ import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.url.LdapUrl;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.OperationEnum;
 import org.apache.directory.server.core.api.OperationManager;
 import org.apache.directory.server.core.api.ReferralManager;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
+import org.apache.directory.server.core.api.filtering.TimedEntryFilteringCursor;
 import org.apache.directory.server.core.api.interceptor.Interceptor;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.BindOperationContext;
@@ -62,6 +64,8 @@ import org.apache.directory.server.core.api.interceptor.context.OperationContext
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.metrics.LatencyHistogram;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
 import org.apache.directory.server.i18n.I18n;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -94,10 +98,24 @@ public class DefaultOperationManager implements OperationManager
     /** A lock used to protect against concurrent operations */
     private ReadWriteLock rwLock = new ReentrantReadWriteLock( true );
 
+    /** The operations latency histograms, indexed by the OperationEnum ordinal */
+    private final LatencyHistogram[] operationHistograms;
+
+    /** The time spent waiting for the read lock */
+    private final LatencyHistogram readLockWait;
+
+    /** The time spent waiting for the write lock */
+    private final LatencyHistogram writeLockWait;
+
 
     public DefaultOperationManager( DirectoryService directoryService )
     {
         this.directoryService = directoryService;
+
+        MetricsRegistry metrics = directoryService.getMetricsRegistry();
+        operationHistograms = metrics.getOperationHistograms( MetricsRegistry.OPERATION_PREFIX );
+        readLockWait = metrics.getHistogram( MetricsRegistry.OPERATION_PREFIX + "lock.read.wait" );
+        writeLockWait = metrics.getHistogram( MetricsRegistry.OPERATION_PREFIX + "lock.write.wait" );
     }
 
 
@@ -115,7 +133,9 @@ public class DefaultOperationManager implements OperationManager
      */
     public void lockRead()
     {
+        long start = System.nanoTime();
         rwLock.readLock().lock();
+        readLockWait.record( System.nanoTime() - start );
     }
 
 
@@ -124,7 +144,9 @@ public class DefaultOperationManager implements OperationManager
      */
     public void lockWrite()
     {
+        long start = System.nanoTime();
         rwLock.writeLock().lock();
+        writeLockWait.record( System.nanoTime() - start );
     }
 
 
@@ -146,6 +168,40 @@ public class DefaultOperationManager implements OperationManager
     }
 
 
+    /**
+     * Tells if the partition containing an entry can be read without the read lock
+     *
+     * @param dn The entry Dn
+     * @return true if the partition is read without locking
+     */
+    private boolean isLockFreeRead( Dn dn )
+    {
+        if ( ( dn == null ) || !dn.isSchemaAware() || dn.isEmpty() )
+        {
+            return false;
+        }
+
+        try
+        {
+            return directoryService.getPartitionNexus().getPartition( dn ).isLockFreeRead();
+        }
+        catch ( LdapException le )
+        {
+            // No partition : the nexus will handle the operation
+            return false;
+        }
+    }
+
+
+    /**
+     * Records the duration of an operation, successful or not, in its histogram
+     */
+    private void record( OperationEnum operation, long opStart )
+    {
+        operationHistograms[operation.ordinal()].record( System.nanoTime() - opStart );
+    }
+
+
     /**
      * Eagerly populates fields of operation contexts so multiple Interceptors
      * in the processing pathway can reuse this value without performing a
@@ -341,12 +397,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> AddOperation : {}", addContext );
         }
 
-        long addStart = 0L;
-
-        if ( IS_TIME )
-        {
-            addStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
@@ -396,6 +447,7 @@ public class DefaultOperationManager implements OperationManager
         finally
         {
             unlockWrite();
+            record( OperationEnum.ADD, opStart );
         }
 
         if ( IS_DEBUG )
@@ -405,7 +457,7 @@ public class DefaultOperationManager implements OperationManager
 
         if ( IS_TIME )
         {
-            OPERATION_TIME.debug( "Add operation took " + ( System.nanoTime() - addStart ) + " ns" );
+            OPERATION_TIME.debug( "Add operation took " + ( System.nanoTime() - opStart ) + " ns" );
         }
     }
 
@@ -420,12 +472,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> BindOperation : {}", bindContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
@@ -441,6 +488,7 @@ public class DefaultOperationManager implements OperationManager
         finally
         {
             unlockRead();
+            record( OperationEnum.BIND, opStart );
         }
 
         if ( IS_DEBUG )
@@ -465,12 +513,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> CompareOperation : {}", compareContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
         // Normalize the compareContext Dn
@@ -541,6 +584,7 @@ public class DefaultOperationManager implements OperationManager
         finally
         {
             unlockRead();
+            record( OperationEnum.COMPARE, opStart );
         }
 
         if ( IS_DEBUG )
@@ -567,12 +611,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> DeleteOperation : {}", deleteContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
@@ -643,6 +682,7 @@ public class DefaultOperationManager implements OperationManager
         finally
         {
             unlockWrite();
+            record( OperationEnum.DELETE, opStart );
         }
 
         if ( IS_DEBUG )
@@ -667,18 +707,14 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> GetRootDseOperation : {}", getRootDseContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
         Interceptor head = directoryService.getInterceptor( getRootDseContext.getNextInterceptor() );
 
         Entry root = head.getRootDse( getRootDseContext );
+        record( OperationEnum.GET_ROOT_DSE, opStart );
 
         if ( IS_DEBUG )
         {
@@ -704,12 +740,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> hasEntryOperation : {}", hasEntryContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
@@ -726,6 +757,7 @@ public class DefaultOperationManager implements OperationManager
         finally
         {
             unlockRead();
+            record( OperationEnum.HAS_ENTRY, opStart );
         }
 
         if ( IS_DEBUG )
@@ -752,12 +784,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> LookupOperation : {}", lookupContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
@@ -765,7 +792,12 @@ public class DefaultOperationManager implements OperationManager
 
         Entry entry = null;
 
-        lockRead();
+        boolean locked = !isLockFreeRead( lookupContext.getDn() );
+
+        if ( locked )
+        {
+            lockRead();
+        }
 
         try
         {
@@ -773,7 +805,12 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockRead();
+            if ( locked )
+            {
+                unlockRead();
+            }
+
+            record( OperationEnum.LOOKUP, opStart );
         }
 
         if ( IS_DEBUG )
@@ -800,12 +837,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> ModifyOperation : {}", modifyContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
@@ -885,6 +917,7 @@ public class DefaultOperationManager implements OperationManager
         finally
         {
             unlockWrite();
+            record( OperationEnum.MODIFY, opStart );
         }
 
         if ( IS_DEBUG )
@@ -909,12 +942,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> MoveOperation : {}", moveContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
@@ -1004,6 +1032,7 @@ public class DefaultOperationManager implements OperationManager
         finally
         {
             unlockWrite();
+            record( OperationEnum.MOVE, opStart );
         }
 
         if ( IS_DEBUG )
@@ -1028,12 +1057,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> MoveAndRenameOperation : {}", moveAndRenameContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
@@ -1123,6 +1147,7 @@ public class DefaultOperationManager implements OperationManager
         finally
         {
             unlockWrite();
+            record( OperationEnum.MOVE_AND_RENAME, opStart );
         }
 
         if ( IS_DEBUG )
@@ -1147,12 +1172,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> RenameOperation : {}", renameContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
@@ -1238,6 +1258,7 @@ public class DefaultOperationManager implements OperationManager
         finally
         {
             unlockWrite();
+            record( OperationEnum.RENAME, opStart );
         }
 
         if ( IS_DEBUG )
@@ -1262,12 +1283,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> SearchOperation : {}", searchContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
@@ -1332,7 +1348,12 @@ public class DefaultOperationManager implements OperationManager
 
         EntryFilteringCursor cursor = null;
 
-        lockRead();
+        boolean locked = !isLockFreeRead( dn );
+
+        if ( locked )
+        {
+            lockRead();
+        }
 
         try
         {
@@ -1340,7 +1361,23 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockRead();
+            if ( locked )
+            {
+                unlockRead();
+            }
+
+            // The search time is recorded when the cursor is closed, as reading
+            // the entries is part of the search
+            if ( cursor == null )
+            {
+                record( OperationEnum.SEARCH, opStart );
+            }
+        }
+
+        if ( cursor != null )
+        {
+            cursor = new TimedEntryFilteringCursor( cursor,
+                operationHistograms[OperationEnum.SEARCH.ordinal()], opStart );
         }
 
         if ( IS_DEBUG )
@@ -1367,12 +1404,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> UnbindOperation : {}", unbindContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
@@ -1385,6 +1417,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
+            record( OperationEnum.UNBIND, opStart );
         }
 
         if ( IS_DEBUG )
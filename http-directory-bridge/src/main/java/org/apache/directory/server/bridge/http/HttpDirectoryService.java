@@ -21,14 +21,28 @@
 package org.apache.directory.server.bridge.http;
 
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.NoSuchElementException;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapUnwillingToPerformException;
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.apache.directory.api.ldap.model.ldif.LdifReader;
 import org.apache.directory.api.ldap.model.message.BindRequest;
 import org.apache.directory.api.ldap.model.message.BindResponse;
 import org.apache.directory.api.ldap.model.message.BindResponseImpl;
 import org.apache.directory.api.ldap.model.message.LdapResult;
 import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.LdapCoreSessionConnection;
+import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
 
 
 /**
@@ -38,6 +52,11 @@ import org.apache.directory.server.core.api.LdapCoreSessionConnection;
  * An instance of this class gets injected into every webapp's context to let the web applications 
  * access the DirectoryService through LdapCoreSessionConnection.
  * 
+ * The searches done with {@link #search(CoreSession, SearchRequest, Writer)} are limited in
+ * size and time for the non administrators, as the LDAP server does. The requests are not
+ * checked by the LDAP server admission control though, which works on the LDAP sessions :
+ * only the search cost limit of the partitions applies.
+ * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
 public class HttpDirectoryService
@@ -51,6 +70,24 @@ public class HttpDirectoryService
      */
     public static final String KEY = HttpDirectoryService.class.getName();
 
+    /** The number of entries or results written before they are sent to the client */
+    public static final int FLUSH_INTERVAL = 100;
+
+    /** The value used for no size or time limit */
+    public static final long NO_LIMIT = 0L;
+
+    /** The default maximum number of entries returned by a search, as for the LDAP server */
+    public static final long MAX_SIZE_LIMIT_DEFAULT = 100L;
+
+    /** The default maximum duration of a search in seconds, as for the LDAP server */
+    public static final int MAX_TIME_LIMIT_DEFAULT = 10000;
+
+    /** The maximum number of entries returned to a non administrator */
+    private long maxSizeLimit = MAX_SIZE_LIMIT_DEFAULT;
+
+    /** The maximum duration of a search done by a non administrator, in seconds */
+    private int maxTimeLimit = MAX_TIME_LIMIT_DEFAULT;
+
 
     public HttpDirectoryService( DirectoryService dirService )
     {
@@ -97,6 +134,272 @@ public class HttpDirectoryService
     }
 
 
+    /**
+     * Creates a session for the given user, which can then be used to search or
+     * update the directory without going through the LDAP protocol.
+     *
+     * @param principalDn The user's Dn, null or empty for an anonymous session
+     * @param credentials The user's password
+     * @return The session
+     * @throws Exception If the user can't be authenticated
+     */
+    public CoreSession getSession( Dn principalDn, byte[] credentials ) throws Exception
+    {
+        if ( ( principalDn == null ) || principalDn.isEmpty() )
+        {
+            return dirService.getSession();
+        }
+
+        return dirService.getSession( principalDn, credentials );
+    }
+
+
+    /**
+     * Searches the directory, and streams the found entries as NDJSON lines (see
+     * {@link NdjsonWriter}), followed by a line holding the search result. The
+     * entries are read from the cursor as they are written, so the search goes
+     * as fast as the client reads the entries, and the writer is flushed every
+     * {@link #FLUSH_INTERVAL} entries. The size and time limits of the request are
+     * capped by the server limits, unless the session is an administrator's.
+     *
+     * @param session The session the search is done with
+     * @param searchRequest The search request
+     * @param writer The writer the entries are written to
+     * @return The number of entries written
+     * @throws IOException If the entries can't be written, typically when the client has gone
+     */
+    public long search( CoreSession session, SearchRequest searchRequest, Writer writer ) throws IOException
+    {
+        NdjsonWriter ndjson = new NdjsonWriter( writer );
+        boolean administrator = session.isAnAdministrator();
+        long sizeLimit = getLimit( searchRequest.getSizeLimit(), maxSizeLimit, administrator );
+        long timeLimit = getLimit( searchRequest.getTimeLimit(), maxTimeLimit, administrator );
+        long deadline = ( timeLimit == NO_LIMIT ) ? Long.MAX_VALUE : System.currentTimeMillis() + timeLimit * 1000L;
+        long count = 0L;
+        EntryFilteringCursor cursor = null;
+
+        try
+        {
+            cursor = session.search( searchRequest );
+
+            while ( cursor.next() )
+            {
+                ResultCodeEnum limitExceeded = null;
+
+                if ( ( sizeLimit != NO_LIMIT ) && ( count == sizeLimit ) )
+                {
+                    limitExceeded = ResultCodeEnum.SIZE_LIMIT_EXCEEDED;
+                }
+                else if ( System.currentTimeMillis() > deadline )
+                {
+                    limitExceeded = ResultCodeEnum.TIME_LIMIT_EXCEEDED;
+                }
+
+                if ( limitExceeded != null )
+                {
+                    ndjson.writeDone( limitExceeded, null, count );
+                    ndjson.flush();
+
+                    return count;
+                }
+
+                ndjson.writeEntry( cursor.get() );
+                count++;
+
+                if ( count % FLUSH_INTERVAL == 0 )
+                {
+                    ndjson.flush();
+                }
+            }
+
+            ndjson.writeDone( ResultCodeEnum.SUCCESS, null, count );
+        }
+        catch ( IOException ioe )
+        {
+            throw ioe;
+        }
+        catch ( Exception e )
+        {
+            ndjson.writeDone( ResultCodeEnum.getResultCode( e ), e.getMessage(), count );
+        }
+        finally
+        {
+            if ( cursor != null )
+            {
+                cursor.close();
+            }
+        }
+
+        ndjson.flush();
+
+        return count;
+    }
+
+
+    /**
+     * Computes the limit applied to a search : the administrators get the limit they
+     * requested, the other users get at most the server limit.
+     *
+     * @param requested The limit requested by the user, {@link #NO_LIMIT} for none
+     * @param max The server limit, {@link #NO_LIMIT} for none
+     * @param administrator Tells if the user is an administrator
+     * @return The limit to apply, {@link #NO_LIMIT} for none
+     */
+    static long getLimit( long requested, long max, boolean administrator )
+    {
+        if ( administrator || ( max == NO_LIMIT ) )
+        {
+            return requested;
+        }
+
+        if ( ( requested == NO_LIMIT ) || ( requested > max ) )
+        {
+            return max;
+        }
+
+        return requested;
+    }
+
+
+    /**
+     * Applies a batch of LDIF change records (add, modify and delete) through the
+     * given session, and writes the result of each change as a NDJSON line. The
+     * records are parsed and applied one after the other as they are read.
+     *
+     * @param session The session the changes are applied with
+     * @param ldif The LDIF change records
+     * @param continueOnError Tells if the next changes are applied after a change has failed
+     * @param writer The writer the results are written to
+     * @return The number of failed changes
+     * @throws IOException If the results can't be written
+     */
+    public int applyChanges( CoreSession session, Reader ldif, boolean continueOnError, Writer writer )
+        throws IOException
+    {
+        NdjsonWriter ndjson = new NdjsonWriter( writer );
+        int failures = 0;
+        int count = 0;
+        LdifReader reader = null;
+
+        try
+        {
+            reader = new LdifReader( ldif );
+
+            while ( reader.hasNext() )
+            {
+                LdifEntry change = reader.next();
+
+                try
+                {
+                    applyChange( session, change );
+                    ndjson.writeResult( change.getDn(), ResultCodeEnum.SUCCESS, null );
+                }
+                catch ( LdapException le )
+                {
+                    failures++;
+                    ndjson.writeResult( change.getDn(), ResultCodeEnum.getResultCode( le ), le.getMessage() );
+
+                    if ( !continueOnError )
+                    {
+                        break;
+                    }
+                }
+
+                if ( ++count % FLUSH_INTERVAL == 0 )
+                {
+                    ndjson.flush();
+                }
+            }
+        }
+        catch ( LdapException le )
+        {
+            // The first record can't be parsed
+            failures++;
+            ndjson.writeResult( null, ResultCodeEnum.PROTOCOL_ERROR, le.getMessage() );
+        }
+        catch ( NoSuchElementException nsee )
+        {
+            // A record can't be parsed
+            failures++;
+            ndjson.writeResult( null, ResultCodeEnum.PROTOCOL_ERROR, nsee.getMessage() );
+        }
+        finally
+        {
+            if ( reader != null )
+            {
+                reader.close();
+            }
+        }
+
+        ndjson.flush();
+
+        return failures;
+    }
+
+
+    /**
+     * Applies a LDIF change record
+     */
+    private void applyChange( CoreSession session, LdifEntry change ) throws LdapException
+    {
+        if ( change.isChangeAdd() || change.isLdifContent() )
+        {
+            session.add( new DefaultEntry( dirService.getSchemaManager(), change.getEntry() ) );
+        }
+        else if ( change.isChangeModify() )
+        {
+            session.modify( change.getDn(), change.getModifications() );
+        }
+        else if ( change.isChangeDelete() )
+        {
+            session.delete( change.getDn() );
+        }
+        else
+        {
+            throw new LdapUnwillingToPerformException( ResultCodeEnum.UNWILLING_TO_PERFORM, "Unsupported change type "
+                + change.getChangeType() );
+        }
+    }
+
+
+    /**
+     * @return The maximum number of entries returned to a non administrator
+     */
+    public long getMaxSizeLimit()
+    {
+        return maxSizeLimit;
+    }
+
+
+    /**
+     * @param maxSizeLimit The maximum number of entries returned to a non administrator,
+     * {@link #NO_LIMIT} for no limit
+     */
+    public void setMaxSizeLimit( long maxSizeLimit )
+    {
+        this.maxSizeLimit = maxSizeLimit;
+    }
+
+
+    /**
+     * @return The maximum duration of a search done by a non administrator, in seconds
+     */
+    public int getMaxTimeLimit()
+    {
+        return maxTimeLimit;
+    }
+
+
+    /**
+     * @param maxTimeLimit The maximum duration of a search done by a non administrator, in
+     * seconds, {@link #NO_LIMIT} for no limit
+     */
+    public void setMaxTimeLimit( int maxTimeLimit )
+    {
+        this.maxTimeLimit = maxTimeLimit;
+    }
+
+
     public SchemaManager getSchemaManager()
     {
         return dirService.getSchemaManager();
@@ -0,0 +1,250 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+
+package org.apache.directory.server.bridge.http;
+
+
+import java.io.IOException;
+import java.io.Writer;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.util.Base64;
+
+
+/**
+ * Writes entries and operation results as NDJSON : one JSON object per line.
+ * <br/>
+ * An entry is written as :
+ * <pre>
+ * {"dn":"cn=jdoe,ou=users,ou=system","attributes":{"cn":["jdoe"],"userPassword;binary":["c2VjcmV0"]}}
+ * </pre>
+ * The binary values are base64 encoded, and their attribute is suffixed with the
+ * ";binary" option. A result is written as :
+ * <pre>
+ * {"dn":"cn=jdoe,ou=users,ou=system","resultCode":68,"result":"entryAlreadyExists","message":"..."}
+ * </pre>
+ * the dn being omitted for the final result of a search, which also gives the number
+ * of entries it has returned.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class NdjsonWriter
+{
+    /** The NDJSON content type */
+    public static final String CONTENT_TYPE = "application/x-ndjson";
+
+    /** The hexadecimal digits of the escaped control characters */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /** The underlying writer */
+    private final Writer writer;
+
+
+    /**
+     * Creates a new NdjsonWriter
+     *
+     * @param writer The writer the lines are written to
+     */
+    public NdjsonWriter( Writer writer )
+    {
+        this.writer = writer;
+    }
+
+
+    /**
+     * Writes an entry
+     *
+     * @param entry The entry to write
+     * @throws IOException If the entry can't be written
+     */
+    public void writeEntry( Entry entry ) throws IOException
+    {
+        writer.write( "{\"dn\":" );
+        writeString( entry.getDn().getName() );
+        writer.write( ",\"attributes\":{" );
+
+        boolean first = true;
+
+        for ( Attribute attribute : entry )
+        {
+            if ( !first )
+            {
+                writer.write( ',' );
+            }
+
+            first = false;
+            boolean binary = !attribute.isHumanReadable();
+            writeString( binary ? attribute.getUpId() + ";binary" : attribute.getUpId() );
+            writer.write( ":[" );
+
+            boolean firstValue = true;
+
+            for ( Value<?> value : attribute )
+            {
+                if ( !firstValue )
+                {
+                    writer.write( ',' );
+                }
+
+                firstValue = false;
+
+                if ( binary )
+                {
+                    writer.write( '"' );
+                    writer.write( Base64.encode( value.getBytes() ) );
+                    writer.write( '"' );
+                }
+                else
+                {
+                    writeString( value.getString() );
+                }
+            }
+
+            writer.write( ']' );
+        }
+
+        writer.write( "}}\n" );
+    }
+
+
+    /**
+     * Writes the result of an operation on an entry
+     *
+     * @param dn The entry Dn, or null for the final result of a search
+     * @param resultCode The result code
+     * @param message The diagnostic message, if any
+     * @throws IOException If the result can't be written
+     */
+    public void writeResult( Dn dn, ResultCodeEnum resultCode, String message ) throws IOException
+    {
+        writer.write( '{' );
+
+        if ( dn != null )
+        {
+            writer.write( "\"dn\":" );
+            writeString( dn.getName() );
+            writer.write( ',' );
+        }
+
+        writeResultCode( resultCode, message );
+        writer.write( "}\n" );
+    }
+
+
+    /**
+     * Writes the final result of a search
+     *
+     * @param resultCode The result code
+     * @param message The diagnostic message, if any
+     * @param count The number of entries returned by the search
+     * @throws IOException If the result can't be written
+     */
+    public void writeDone( ResultCodeEnum resultCode, String message, long count ) throws IOException
+    {
+        writer.write( '{' );
+        writeResultCode( resultCode, message );
+        writer.write( ",\"entries\":" );
+        writer.write( Long.toString( count ) );
+        writer.write( "}\n" );
+    }
+
+
+    /**
+     * Sends the lines written so far to the client
+     *
+     * @throws IOException If the lines can't be sent
+     */
+    public void flush() throws IOException
+    {
+        writer.flush();
+    }
+
+
+    private void writeResultCode( ResultCodeEnum resultCode, String message ) throws IOException
+    {
+        writer.write( "\"resultCode\":" );
+        writer.write( Integer.toString( resultCode.getResultCode() ) );
+        writer.write( ",\"result\":" );
+        writeString( resultCode.getMessage() );
+
+        if ( message != null )
+        {
+            writer.write( ",\"message\":" );
+            writeString( message );
+        }
+    }
+
+
+    /**
+     * Writes a JSON string, escaping the quotes, the backslashes and the control characters
+     */
+    private void writeString( String value ) throws IOException
+    {
+        writer.write( '"' );
+
+        for ( int i = 0; i < value.length(); i++ )
+        {
+            char c = value.charAt( i );
+
+            switch ( c )
+            {
+                case '"':
+                    writer.write( "\\\"" );
+                    break;
+
+                case '\\':
+                    writer.write( "\\\\" );
+                    break;
+
+                case '\n':
+                    writer.write( "\\n" );
+                    break;
+
+                case '\r':
+                    writer.write( "\\r" );
+                    break;
+
+                case '\t':
+                    writer.write( "\\t" );
+                    break;
+
+                default:
+                    if ( ( c < 0x20 ) || ( c == 0x2028 ) || ( c == 0x2029 ) )
+                    {
+                        writer.write( "\\u" );
+                        writer.write( HEX[( c >> 12 ) & 0x0F] );
+                        writer.write( HEX[( c >> 8 ) & 0x0F] );
+                        writer.write( HEX[( c >> 4 ) & 0x0F] );
+                        writer.write( HEX[c & 0x0F] );
+                    }
+                    else
+                    {
+                        writer.write( c );
+                    }
+            }
+        }
+
+        writer.write( '"' );
+    }
+}
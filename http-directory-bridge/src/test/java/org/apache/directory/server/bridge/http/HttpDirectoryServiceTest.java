@@ -0,0 +1,55 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+
+package org.apache.directory.server.bridge.http;
+
+
+import static org.apache.directory.server.bridge.http.HttpDirectoryService.NO_LIMIT;
+import static org.apache.directory.server.bridge.http.HttpDirectoryService.getLimit;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+
+/**
+ * Tests the search limits of the HttpDirectoryService.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class HttpDirectoryServiceTest
+{
+    @Test
+    public void testUserLimit()
+    {
+        assertEquals( 100L, getLimit( NO_LIMIT, 100L, false ) );
+        assertEquals( 100L, getLimit( 1000L, 100L, false ) );
+        assertEquals( 10L, getLimit( 10L, 100L, false ) );
+        assertEquals( 1000L, getLimit( 1000L, NO_LIMIT, false ) );
+        assertEquals( NO_LIMIT, getLimit( NO_LIMIT, NO_LIMIT, false ) );
+    }
+
+
+    @Test
+    public void testAdministratorLimit()
+    {
+        assertEquals( NO_LIMIT, getLimit( NO_LIMIT, 100L, true ) );
+        assertEquals( 1000L, getLimit( 1000L, 100L, true ) );
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+
+package org.apache.directory.server.bridge.http;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.junit.Test;
+
+
+/**
+ * Tests the NdjsonWriter.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class NdjsonWriterTest
+{
+    @Test
+    public void testWriteEntry() throws Exception
+    {
+        Entry entry = new DefaultEntry( "cn=\"J\\\\D\",ou=system" );
+        entry.add( "cn", "J\\D" );
+        entry.add( "description", "a \"quoted\"\ttext\n\u0001" );
+        entry.add( "userPassword", new byte[]
+            { 0x01, 0x02, 0x03 } );
+
+        StringWriter out = new StringWriter();
+        new NdjsonWriter( out ).writeEntry( entry );
+
+        String line = out.toString();
+        assertEquals( '\n', line.charAt( line.length() - 1 ) );
+        assertEquals( 1, line.split( "\n" ).length );
+        assertTrue( line.startsWith( "{\"dn\":\"cn=\\\"J\\\\\\\\D\\\",ou=system\",\"attributes\":{" ) );
+        assertTrue( line.contains( "\"cn\":[\"J\\\\D\"]" ) );
+        assertTrue( line.contains( "\"description\":[\"a \\\"quoted\\\"\\ttext\\n\\u0001\"]" ) );
+        assertTrue( line.contains( "\"userPassword;binary\":[\"AQID\"]" ) );
+    }
+
+
+    @Test
+    public void testWriteResults() throws Exception
+    {
+        StringWriter out = new StringWriter();
+        NdjsonWriter writer = new NdjsonWriter( out );
+        writer.writeResult( new Dn( "cn=test,ou=system" ), ResultCodeEnum.SUCCESS, null );
+        writer.writeDone( ResultCodeEnum.SIZE_LIMIT_EXCEEDED, "too many", 10 );
+
+        assertEquals( "{\"dn\":\"cn=test,ou=system\",\"resultCode\":0,\"result\":\"success\"}\n"
+            + "{\"resultCode\":4,\"result\":\"sizeLimitExceeded\",\"message\":\"too many\",\"entries\":10}\n",
+            out.toString() );
+    }
+}
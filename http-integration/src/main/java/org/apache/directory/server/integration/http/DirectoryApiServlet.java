@@ -0,0 +1,334 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+
+package org.apache.directory.server.integration.http;
+
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.util.Base64;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.bridge.http.HttpDirectoryService;
+import org.apache.directory.server.bridge.http.NdjsonWriter;
+import org.apache.directory.server.core.api.CoreSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A servlet giving a direct HTTP access to the DirectoryService, without the LDAP
+ * protocol encoding. The results are streamed as NDJSON lines, see {@link NdjsonWriter}.
+ * <ul>
+ * <li>GET /search?base=ou=system&amp;scope=sub&amp;filter=(cn=*)&amp;attrs=cn,sn&amp;sizeLimit=100&amp;timeLimit=10
+ * streams the entries found by the search, followed by the search result. The scope
+ * is one of base, one or sub (the default), the filter defaults to (objectClass=*).
+ * The size and time limits are capped by the server limits for the non administrators.</li>
+ * <li>POST /changes with a LDIF body applies the add, modify and delete change records
+ * one after the other, and streams the result of each change. The changes following
+ * a failed change are not applied, unless the continueOnError parameter is true.</li>
+ * </ul>
+ * The requests are authenticated with the HTTP basic scheme, the user name being the
+ * user's Dn. The requests without credentials are done anonymously. As the basic
+ * credentials are sent in clear, the authenticated requests received over plain HTTP
+ * are rejected with a 403 status, unless the allowPlainAuth init parameter is true,
+ * for a server behind a proxy terminating the TLS connections. The requests don't
+ * go through the LDAP server admission control, so the rate and concurrent searches
+ * limits don't apply to them.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class DirectoryApiServlet extends HttpServlet
+{
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOG = LoggerFactory.getLogger( DirectoryApiServlet.class );
+
+    /** The path of the search resource */
+    public static final String SEARCH_PATH = "/search";
+
+    /** The path of the changes resource */
+    public static final String CHANGES_PATH = "/changes";
+
+    /** The init parameter accepting the basic credentials over plain HTTP */
+    public static final String ALLOW_PLAIN_AUTH_PARAM = "allowPlainAuth";
+
+    /** Tells if the basic credentials are accepted over plain HTTP */
+    private boolean allowPlainAuth;
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void init() throws ServletException
+    {
+        allowPlainAuth = Boolean.parseBoolean( getInitParameter( ALLOW_PLAIN_AUTH_PARAM ) );
+    }
+
+
+    /**
+     * Streams the result of a search
+     */
+    @Override
+    protected void doGet( HttpServletRequest req, HttpServletResponse resp ) throws ServletException, IOException
+    {
+        if ( !SEARCH_PATH.equals( req.getPathInfo() ) )
+        {
+            resp.sendError( HttpServletResponse.SC_NOT_FOUND );
+            return;
+        }
+
+        HttpDirectoryService directoryService = getDirectoryService();
+        SearchRequest searchRequest;
+
+        try
+        {
+            searchRequest = createSearchRequest( directoryService, req );
+        }
+        catch ( Exception e )
+        {
+            resp.sendError( HttpServletResponse.SC_BAD_REQUEST, e.getMessage() );
+            return;
+        }
+
+        CoreSession session = getSession( directoryService, req, resp );
+
+        if ( session == null )
+        {
+            return;
+        }
+
+        try
+        {
+            resp.setContentType( NdjsonWriter.CONTENT_TYPE );
+            resp.setCharacterEncoding( "UTF-8" );
+            directoryService.search( session, searchRequest, resp.getWriter() );
+        }
+        finally
+        {
+            close( session );
+        }
+    }
+
+
+    /**
+     * Applies a batch of changes
+     */
+    @Override
+    protected void doPost( HttpServletRequest req, HttpServletResponse resp ) throws ServletException, IOException
+    {
+        if ( !CHANGES_PATH.equals( req.getPathInfo() ) )
+        {
+            resp.sendError( HttpServletResponse.SC_NOT_FOUND );
+            return;
+        }
+
+        HttpDirectoryService directoryService = getDirectoryService();
+        CoreSession session = getSession( directoryService, req, resp );
+
+        if ( session == null )
+        {
+            return;
+        }
+
+        try
+        {
+            if ( req.getCharacterEncoding() == null )
+            {
+                req.setCharacterEncoding( "UTF-8" );
+            }
+
+            boolean continueOnError = Boolean.parseBoolean( req.getParameter( "continueOnError" ) );
+            resp.setContentType( NdjsonWriter.CONTENT_TYPE );
+            resp.setCharacterEncoding( "UTF-8" );
+            directoryService.applyChanges( session, req.getReader(), continueOnError, resp.getWriter() );
+        }
+        finally
+        {
+            close( session );
+        }
+    }
+
+
+    private HttpDirectoryService getDirectoryService() throws ServletException
+    {
+        HttpDirectoryService directoryService = ( HttpDirectoryService ) getServletContext().getAttribute(
+            HttpDirectoryService.KEY );
+
+        if ( directoryService == null )
+        {
+            throw new ServletException( "No DirectoryService available in the servlet context" );
+        }
+
+        return directoryService;
+    }
+
+
+    private SearchRequest createSearchRequest( HttpDirectoryService directoryService, HttpServletRequest req )
+        throws LdapException
+    {
+        String base = req.getParameter( "base" );
+
+        if ( base == null )
+        {
+            throw new IllegalArgumentException( "The base parameter is missing" );
+        }
+
+        SearchRequest searchRequest = new SearchRequestImpl();
+        searchRequest.setBase( new Dn( directoryService.getSchemaManager(), base ) );
+
+        String scope = req.getParameter( "scope" );
+
+        if ( ( scope == null ) || "sub".equalsIgnoreCase( scope ) )
+        {
+            searchRequest.setScope( SearchScope.SUBTREE );
+        }
+        else if ( "one".equalsIgnoreCase( scope ) )
+        {
+            searchRequest.setScope( SearchScope.ONELEVEL );
+        }
+        else if ( "base".equalsIgnoreCase( scope ) )
+        {
+            searchRequest.setScope( SearchScope.OBJECT );
+        }
+        else
+        {
+            throw new IllegalArgumentException( "Unknown scope " + scope );
+        }
+
+        String filter = req.getParameter( "filter" );
+        searchRequest.setFilter( Strings.isEmpty( filter ) ? "(objectClass=*)" : filter );
+
+        String attributes = req.getParameter( "attrs" );
+
+        if ( !Strings.isEmpty( attributes ) )
+        {
+            searchRequest.addAttributes( attributes.split( "," ) );
+        }
+
+        String sizeLimit = req.getParameter( "sizeLimit" );
+
+        if ( !Strings.isEmpty( sizeLimit ) )
+        {
+            searchRequest.setSizeLimit( parseLimit( "sizeLimit", sizeLimit ) );
+        }
+
+        String timeLimit = req.getParameter( "timeLimit" );
+
+        if ( !Strings.isEmpty( timeLimit ) )
+        {
+            searchRequest.setTimeLimit( ( int ) Math.min( Integer.MAX_VALUE, parseLimit( "timeLimit", timeLimit ) ) );
+        }
+
+        return searchRequest;
+    }
+
+
+    private long parseLimit( String name, String value )
+    {
+        long limit = Long.parseLong( value );
+
+        if ( limit < 0 )
+        {
+            throw new IllegalArgumentException( "The " + name + " parameter can't be negative" );
+        }
+
+        return limit;
+    }
+
+
+    /**
+     * Creates a session for the user given in the basic authorization header, or an
+     * anonymous session. The request is answered with an error if the user can't be
+     * authenticated, or if the credentials have been sent over plain HTTP while it's
+     * not allowed, and null is returned.
+     */
+    private CoreSession getSession( HttpDirectoryService directoryService, HttpServletRequest req,
+        HttpServletResponse resp ) throws IOException
+    {
+        String authorization = req.getHeader( "Authorization" );
+        Dn principalDn = null;
+        byte[] credentials = null;
+
+        if ( ( authorization != null ) && !req.isSecure() && !allowPlainAuth )
+        {
+            LOG.warn( "Rejected an authenticated request received over plain HTTP from {}", req.getRemoteAddr() );
+            resp.sendError( HttpServletResponse.SC_FORBIDDEN, "The authenticated requests must be sent over HTTPS" );
+
+            return null;
+        }
+
+        try
+        {
+            if ( authorization != null )
+            {
+                if ( !authorization.regionMatches( true, 0, "Basic ", 0, 6 ) )
+                {
+                    throw new IllegalArgumentException( "Only the basic authentication is supported" );
+                }
+
+                String userPassword = Strings.utf8ToString( Base64.decode( authorization.substring( 6 ).trim()
+                    .toCharArray() ) );
+                int pos = userPassword.indexOf( ':' );
+
+                if ( pos < 0 )
+                {
+                    throw new IllegalArgumentException( "Invalid basic credentials" );
+                }
+
+                principalDn = new Dn( directoryService.getSchemaManager(), userPassword.substring( 0, pos ) );
+                credentials = Strings.getBytesUtf8( userPassword.substring( pos + 1 ) );
+            }
+
+            return directoryService.getSession( principalDn, credentials );
+        }
+        catch ( Exception e )
+        {
+            LOG.debug( "Authentication failed for {}", principalDn, e );
+            resp.setHeader( "WWW-Authenticate", "Basic realm=\"ApacheDS\"" );
+            resp.sendError( HttpServletResponse.SC_UNAUTHORIZED, e.getMessage() );
+
+            return null;
+        }
+    }
+
+
+    private void close( CoreSession session )
+    {
+        try
+        {
+            session.unbind();
+        }
+        catch ( Exception e )
+        {
+            LOG.debug( "Error while closing the session", e );
+        }
+    }
+}
@@ -50,6 +50,8 @@ import org.mortbay.jetty.Server;
 import org.mortbay.jetty.handler.ContextHandler;
 import org.mortbay.jetty.nio.SelectChannelConnector;
 import org.mortbay.jetty.security.SslSocketConnector;
+import org.mortbay.jetty.servlet.Context;
+import org.mortbay.jetty.servlet.ServletHolder;
 import org.mortbay.jetty.webapp.WebAppContext;
 import org.mortbay.xml.XmlConfiguration;
 import org.slf4j.Logger;
@@ -85,6 +87,18 @@ public class HttpServer
     /** protocol identifier for https */
     public static final String HTTPS_TRANSPORT_ID = "https";
 
+    /** the context path of the DirectoryApiServlet, null if it's not deployed */
+    private String apiContextPath;
+
+    /** tells if the DirectoryApiServlet accepts basic credentials over plain HTTP */
+    private boolean apiAllowPlainAuth;
+
+    /** the maximum number of entries returned to a non administrator by the DirectoryApiServlet */
+    private long maxSizeLimit = HttpDirectoryService.MAX_SIZE_LIMIT_DEFAULT;
+
+    /** the maximum duration in seconds of a search done by a non administrator with the DirectoryApiServlet */
+    private int maxTimeLimit = HttpDirectoryService.MAX_TIME_LIMIT_DEFAULT;
+
     /** an internal flag to check the server configuration */
     private boolean configured = false;
 
@@ -136,13 +150,16 @@ public class HttpServer
         if ( configured )
         {
             Handler[] handlers = jetty.getHandlers();
+            HttpDirectoryService httpDirService = new HttpDirectoryService( dirService );
+            httpDirService.setMaxSizeLimit( maxSizeLimit );
+            httpDirService.setMaxTimeLimit( maxTimeLimit );
 
             for ( Handler h : handlers )
             {
                 if ( h instanceof ContextHandler )
                 {
                     ContextHandler ch = ( ContextHandler ) h;
-                    ch.setAttribute( HttpDirectoryService.KEY, new HttpDirectoryService( dirService ) );
+                    ch.setAttribute( HttpDirectoryService.KEY, httpDirService );
                 }
             }
 
@@ -217,14 +234,18 @@ public class HttpServer
             }
 
             List<Handler> handlers = new ArrayList<Handler>();
-            for ( WebApp w : webApps )
+
+            if ( webApps != null )
             {
-                WebAppContext webapp = new WebAppContext();
-                webapp.setWar( w.getWarFile() );
-                webapp.setContextPath( w.getContextPath() );
-                handlers.add( webapp );
+                for ( WebApp w : webApps )
+                {
+                    WebAppContext webapp = new WebAppContext();
+                    webapp.setWar( w.getWarFile() );
+                    webapp.setContextPath( w.getContextPath() );
+                    handlers.add( webapp );
 
-                webapp.setParentLoaderPriority( true );
+                    webapp.setParentLoaderPriority( true );
+                }
             }
 
             // add web apps from the webapps directory inside directory service's working directory
@@ -261,6 +282,18 @@ public class HttpServer
                 }
             }
 
+            // the direct access to the directory service, if enabled
+            if ( apiContextPath != null )
+            {
+                Context apiContext = new Context();
+                apiContext.setContextPath( apiContextPath );
+                ServletHolder apiHolder = new ServletHolder( new DirectoryApiServlet() );
+                apiHolder.setInitParameter( DirectoryApiServlet.ALLOW_PLAIN_AUTH_PARAM,
+                    Boolean.toString( apiAllowPlainAuth ) );
+                apiContext.addServlet( apiHolder, "/*" );
+                handlers.add( apiContext );
+            }
+
             jetty.setHandlers( handlers.toArray( new Handler[handlers.size()] ) );
 
             configured = true;
@@ -306,6 +339,95 @@ public class HttpServer
     }
 
 
+    /**
+     * @return the context path of the DirectoryApiServlet, null if it's not deployed
+     */
+    public String getApiContextPath()
+    {
+        return apiContextPath;
+    }
+
+
+    /**
+     * Deploys the {@link DirectoryApiServlet} at the given context path, giving the
+     * web tier a direct access to the directory service, without the LDAP protocol.
+     * It's only deployed when the server is not configured through a jetty
+     * configuration file. The ads-httpApiContextPath attribute of the HTTP server
+     * configuration sets it.
+     *
+     * @param apiContextPath the context path, like "/directory", null to not deploy the servlet
+     */
+    public void setApiContextPath( String apiContextPath )
+    {
+        this.apiContextPath = apiContextPath;
+    }
+
+
+    /**
+     * @return true if the DirectoryApiServlet accepts basic credentials over plain HTTP
+     */
+    public boolean isApiAllowPlainAuth()
+    {
+        return apiAllowPlainAuth;
+    }
+
+
+    /**
+     * Lets the DirectoryApiServlet accept basic credentials over plain HTTP, when the
+     * server is behind a proxy terminating the TLS connections. Otherwise, the
+     * authenticated requests must be sent over HTTPS.
+     *
+     * @param apiAllowPlainAuth true to accept basic credentials over plain HTTP
+     */
+    public void setApiAllowPlainAuth( boolean apiAllowPlainAuth )
+    {
+        this.apiAllowPlainAuth = apiAllowPlainAuth;
+    }
+
+
+    /**
+     * @return the maximum number of entries returned to a non administrator by the DirectoryApiServlet
+     */
+    public long getMaxSizeLimit()
+    {
+        return maxSizeLimit;
+    }
+
+
+    /**
+     * Sets the maximum number of entries returned to a non administrator by the
+     * DirectoryApiServlet, usually the LDAP server one.
+     *
+     * @param maxSizeLimit the maximum number of entries, 0 for no limit
+     */
+    public void setMaxSizeLimit( long maxSizeLimit )
+    {
+        this.maxSizeLimit = maxSizeLimit;
+    }
+
+
+    /**
+     * @return the maximum duration in seconds of a search done by a non administrator with the
+     * DirectoryApiServlet
+     */
+    public int getMaxTimeLimit()
+    {
+        return maxTimeLimit;
+    }
+
+
+    /**
+     * Sets the maximum duration of a search done by a non administrator with the
+     * DirectoryApiServlet, usually the LDAP server one.
+     *
+     * @param maxTimeLimit the maximum duration in seconds, 0 for no limit
+     */
+    public void setMaxTimeLimit( int maxTimeLimit )
+    {
+        this.maxTimeLimit = maxTimeLimit;
+    }
+
+
     public TcpTransport getHttpTransport()
     {
         return httpTransport;
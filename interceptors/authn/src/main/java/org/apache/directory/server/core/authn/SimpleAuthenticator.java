@@ -24,6 +24,7 @@ import java.net.SocketAddress;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.naming.Context;
 
@@ -48,6 +49,7 @@ import org.apache.directory.server.core.api.authn.ppolicy.PasswordPolicyConfigur
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
 import org.apache.directory.server.core.api.interceptor.context.BindOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.mina.core.session.IoSession;
 
@@ -88,6 +90,13 @@ public class SimpleAuthenticator extends AbstractAuthenticator
     /** Declare a default for this cache. 100 entries seems to be enough */
     private static final int DEFAULT_CACHE_SIZE = 100;
 
+    /** The name of the cache counters */
+    private static final String CREDENTIAL_CACHE_METRIC = "authn.credentialCache";
+
+    /** The cache hits and misses counters, replaced by the DirectoryService ones when initialized */
+    private AtomicLong cacheHits = new AtomicLong();
+    private AtomicLong cacheMisses = new AtomicLong();
+
 
     /**
      * Creates a new instance.
@@ -112,6 +121,17 @@ public class SimpleAuthenticator extends AbstractAuthenticator
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    protected void doInit()
+    {
+        MetricsRegistry metricsRegistry = getDirectoryService().getMetricsRegistry();
+        cacheHits = metricsRegistry.getCounter( CREDENTIAL_CACHE_METRIC + MetricsRegistry.HIT_SUFFIX );
+        cacheMisses = metricsRegistry.getCounter( CREDENTIAL_CACHE_METRIC + MetricsRegistry.MISS_SUFFIX );
+    }
+
+
     /**
      * Get the password either from cache or from backend.
      * @param principalDN The Dn from which we want the password
@@ -129,6 +149,15 @@ public class SimpleAuthenticator extends AbstractAuthenticator
             {
                 principal = ( LdapPrincipal ) credentialCache.get( bindContext.getDn().getNormName() );
             }
+
+            if ( principal != null )
+            {
+                cacheHits.incrementAndGet();
+            }
+            else
+            {
+                cacheMisses.incrementAndGet();
+            }
         }
 
         byte[][] storedPasswords;
@@ -0,0 +1,1174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.core.changelog;
+
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.InvalidCursorPositionException;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.util.DateUtils;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.changelog.ChangeLogEvent;
+import org.apache.directory.server.core.api.changelog.ChangeLogEventSerializer;
+import org.apache.directory.server.core.api.changelog.Tag;
+import org.apache.directory.server.core.api.changelog.TaggableChangeLogStore;
+import org.apache.directory.server.i18n.I18n;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A change log store that keeps its events on disk. The events are appended
+ * to segment files, a new segment being started when the current one has
+ * reached a maximum size. Each record is made of the event revision, the
+ * length of the serialized event and the serialized event itself.
+ * <br/>
+ * Only a sparse index is kept in memory : for each segment, the offset of one
+ * record every {@link #getIndexInterval()} records. Looking up a revision
+ * seeks to the closest indexed record and skips the following ones until the
+ * revision is found. Cursors read the events from the segments as they move,
+ * so the history is never loaded in memory.
+ * <br/>
+ * The oldest segments are deleted when there are more than
+ * {@link #getMaxSegments()} segments, or when they are older than
+ * {@link #getMaxSegmentAge()} milliseconds. The tags are stored in a small
+ * separate file.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SegmentedChangeLogStore implements TaggableChangeLogStore
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( SegmentedChangeLogStore.class );
+
+    /** The default maximum size of a segment, in bytes */
+    public static final long DEFAULT_MAX_SEGMENT_SIZE = 16L * 1024L * 1024L;
+
+    /** The default number of records between two indexed records */
+    public static final int DEFAULT_INDEX_INTERVAL = 64;
+
+    /** The directory, under the log directory, containing the segments */
+    private static final String CHANGELOG_DIR = "changelog";
+
+    private static final String TAG_FILE = "tags";
+    private static final String SEGMENT_PREFIX = "changelog-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    /** The size of a record header : the revision and the length of the event */
+    private static final int HEADER_SIZE = 12;
+
+    /** The maximum size of a segment */
+    private long maxSegmentSize = DEFAULT_MAX_SEGMENT_SIZE;
+
+    /** The maximum number of segments to keep, 0 for no limit */
+    private int maxSegments;
+
+    /** The maximum age of a segment in milliseconds, 0 for no limit */
+    private long maxSegmentAge;
+
+    /** The number of records between two indexed records */
+    private int indexInterval = DEFAULT_INDEX_INTERVAL;
+
+    /** An incremental number giving the current revision */
+    private volatile long currentRevision;
+
+    /** The latest tag */
+    private Tag latest;
+
+    /** A Map of tags and revisions */
+    private final Map<Long, Tag> tags = new TreeMap<Long, Tag>();
+
+    /** The segments, ordered by their first revision */
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<Long, Segment>();
+
+    /** The segment the events are appended to */
+    private Segment current;
+
+    /** The file the events are written into */
+    private RandomAccessFile writer;
+
+    /** The directory containing the segments and the tags */
+    private File workingDirectory;
+
+    /** The SchemaManager used to deserialize the events */
+    private SchemaManager schemaManager;
+
+
+    /**
+     * A segment file, and its sparse index
+     */
+    private static final class Segment
+    {
+        /** The segment file */
+        private final File file;
+
+        /** The revision of the first event stored in this segment */
+        private final long firstRevision;
+
+        /** The revision of the last event, firstRevision - 1 if the segment is empty */
+        private volatile long lastRevision;
+
+        /** The number of events stored in the segment */
+        private int count;
+
+        /** The size of the segment, in bytes */
+        private long size;
+
+        /** The offsets of some of the records, by revision */
+        private final ConcurrentSkipListMap<Long, Long> index = new ConcurrentSkipListMap<Long, Long>();
+
+
+        private Segment( File file, long firstRevision )
+        {
+            this.file = file;
+            this.firstRevision = firstRevision;
+            lastRevision = firstRevision - 1;
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void init( DirectoryService service ) throws Exception
+    {
+        init( new File( service.getInstanceLayout().getLogDirectory(), CHANGELOG_DIR ), service.getSchemaManager() );
+    }
+
+
+    /**
+     * Initialize the store, reading the segments from the given directory.
+     *
+     * @param workingDirectory The directory where the segments are stored
+     * @param schemaManager The SchemaManager used to read the events
+     * @throws Exception If the segments can't be read
+     */
+    public synchronized void init( File workingDirectory, SchemaManager schemaManager ) throws Exception
+    {
+        this.workingDirectory = workingDirectory;
+        this.schemaManager = schemaManager;
+
+        if ( !workingDirectory.exists() && !workingDirectory.mkdirs() )
+        {
+            throw new IOException( I18n.err( I18n.ERR_112_COULD_NOT_CREATE_DIRECORY, workingDirectory ) );
+        }
+
+        loadTags();
+        loadSegments();
+
+        if ( segments.isEmpty() )
+        {
+            openSegment( currentRevision + 1 );
+        }
+        else
+        {
+            current = segments.lastEntry().getValue();
+            currentRevision = current.lastRevision;
+            writer = new RandomAccessFile( current.file, "rw" );
+            writer.seek( current.size );
+        }
+
+        applyRetention();
+    }
+
+
+    private void loadSegments() throws IOException
+    {
+        segments.clear();
+
+        File[] files = workingDirectory.listFiles();
+
+        if ( files == null )
+        {
+            return;
+        }
+
+        for ( File file : files )
+        {
+            String name = file.getName();
+
+            if ( name.startsWith( SEGMENT_PREFIX ) && name.endsWith( SEGMENT_SUFFIX ) )
+            {
+                long firstRevision = Long.parseLong( name.substring( SEGMENT_PREFIX.length(), name.length()
+                    - SEGMENT_SUFFIX.length() ) );
+                Segment segment = new Segment( file, firstRevision );
+                scan( segment );
+                segments.put( firstRevision, segment );
+            }
+        }
+    }
+
+
+    /**
+     * Reads the record headers of a segment to build its index. An incomplete
+     * record at the end of the segment, left by a crash, is truncated.
+     */
+    // This will suppress PMD.EmptyCatchBlock warnings in this method
+    @SuppressWarnings("PMD.EmptyCatchBlock")
+    private void scan( Segment segment ) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile( segment.file, "rw" );
+
+        try
+        {
+            long length = raf.length();
+            long offset = 0L;
+
+            while ( offset + HEADER_SIZE <= length )
+            {
+                raf.seek( offset );
+                long revision = raf.readLong();
+                int size = raf.readInt();
+
+                if ( ( size < 0 ) || ( offset + HEADER_SIZE + size > length ) )
+                {
+                    break;
+                }
+
+                if ( segment.count % indexInterval == 0 )
+                {
+                    segment.index.put( revision, offset );
+                }
+
+                segment.count++;
+                segment.lastRevision = revision;
+                offset += HEADER_SIZE + size;
+            }
+
+            if ( offset < length )
+            {
+                LOG.warn( "Truncating the incomplete record found at offset {} in {}", offset, segment.file );
+                raf.setLength( offset );
+            }
+
+            segment.size = offset;
+        }
+        finally
+        {
+            //noinspection EmptyCatchBlock
+            try
+            {
+                raf.close();
+            }
+            catch ( IOException e )
+            {
+            }
+        }
+    }
+
+
+    /**
+     * Creates a new segment starting at the given revision, and makes it the
+     * segment the events are appended to.
+     */
+    private void openSegment( long firstRevision ) throws IOException
+    {
+        String name = String.format( "%s%020d%s", SEGMENT_PREFIX, firstRevision, SEGMENT_SUFFIX );
+        Segment segment = new Segment( new File( workingDirectory, name ), firstRevision );
+
+        writer = new RandomAccessFile( segment.file, "rw" );
+        writer.setLength( 0L );
+        current = segment;
+        segments.put( firstRevision, segment );
+    }
+
+
+    /**
+     * Deletes the oldest segments, if there are too many of them or if they are
+     * too old. The current segment is always kept.
+     */
+    private void applyRetention()
+    {
+        long now = System.currentTimeMillis();
+
+        while ( segments.size() > 1 )
+        {
+            Segment oldest = segments.firstEntry().getValue();
+            boolean tooMany = ( maxSegments > 0 ) && ( segments.size() > maxSegments );
+            boolean tooOld = ( maxSegmentAge > 0 ) && ( now - oldest.file.lastModified() > maxSegmentAge );
+
+            if ( !tooMany && !tooOld )
+            {
+                break;
+            }
+
+            segments.remove( oldest.firstRevision );
+
+            if ( !oldest.file.delete() )
+            {
+                LOG.warn( I18n.err( I18n.ERR_726_FILE_UNDELETABLE, oldest.file.getAbsolutePath() ) );
+            }
+        }
+    }
+
+
+    // This will suppress PMD.EmptyCatchBlock warnings in this method
+    @SuppressWarnings("PMD.EmptyCatchBlock")
+    private void loadTags() throws IOException
+    {
+        File tagFile = new File( workingDirectory, TAG_FILE );
+
+        tags.clear();
+        latest = null;
+
+        if ( !tagFile.exists() )
+        {
+            return;
+        }
+
+        Properties props = new Properties();
+        FileInputStream in = null;
+
+        try
+        {
+            in = new FileInputStream( tagFile );
+            props.load( in );
+        }
+        finally
+        {
+            if ( in != null )
+            {
+                //noinspection EmptyCatchBlock
+                try
+                {
+                    in.close();
+                }
+                catch ( IOException e )
+                {
+                }
+            }
+        }
+
+        for ( String key : props.stringPropertyNames() )
+        {
+            long revision = Long.parseLong( key );
+            String desc = props.getProperty( key );
+
+            if ( "null".equals( desc ) )
+            {
+                desc = null;
+            }
+
+            tags.put( revision, new Tag( revision, desc ) );
+        }
+
+        if ( !tags.isEmpty() )
+        {
+            latest = ( ( TreeMap<Long, Tag> ) tags ).lastEntry().getValue();
+        }
+    }
+
+
+    /**
+     * Writes the tags in a temporary file, which then replaces the tag file.
+     */
+    // This will suppress PMD.EmptyCatchBlock warnings in this method
+    @SuppressWarnings("PMD.EmptyCatchBlock")
+    private void saveTags() throws IOException
+    {
+        File tagFile = new File( workingDirectory, TAG_FILE );
+        File tmpFile = new File( workingDirectory, TAG_FILE + ".tmp" );
+
+        Properties props = new Properties();
+
+        for ( Tag tag : tags.values() )
+        {
+            String desc = tag.getDescription();
+            props.setProperty( String.valueOf( tag.getRevision() ), desc == null ? "null" : desc );
+        }
+
+        FileOutputStream out = null;
+
+        try
+        {
+            out = new FileOutputStream( tmpFile );
+            props.store( out, null );
+            out.flush();
+            out.getFD().sync();
+        }
+        finally
+        {
+            if ( out != null )
+            {
+                //noinspection EmptyCatchBlock
+                try
+                {
+                    out.close();
+                }
+                catch ( IOException e )
+                {
+                }
+            }
+        }
+
+        if ( tagFile.exists() && !tagFile.delete() )
+        {
+            throw new IOException( I18n.err( I18n.ERR_726_FILE_UNDELETABLE, tagFile.getAbsolutePath() ) );
+        }
+
+        if ( !tmpFile.renameTo( tagFile ) )
+        {
+            throw new IOException( "Cannot rename " + tmpFile + " to " + tagFile );
+        }
+    }
+
+
+    /**
+     * Flushes the current segment and the tags on disk.
+     */
+    public synchronized void sync() throws Exception
+    {
+        if ( writer != null )
+        {
+            writer.getChannel().force( false );
+        }
+
+        saveTags();
+    }
+
+
+    /**
+     * Flushes the current segment and the tags on disk, and closes the segment.
+     */
+    public synchronized void destroy() throws Exception
+    {
+        if ( writer != null )
+        {
+            sync();
+            writer.close();
+            writer = null;
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getCurrentRevision()
+    {
+        return currentRevision;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized ChangeLogEvent log( LdapPrincipal principal, LdifEntry forward, LdifEntry reverse )
+        throws Exception
+    {
+        ChangeLogEvent event = new ChangeLogEvent( currentRevision + 1, DateUtils.getGeneralizedTime(),
+            principal, forward, reverse );
+        append( event );
+
+        return event;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized ChangeLogEvent log( LdapPrincipal principal, LdifEntry forward, List<LdifEntry> reverses )
+        throws Exception
+    {
+        ChangeLogEvent event = new ChangeLogEvent( currentRevision + 1, DateUtils.getGeneralizedTime(),
+            principal, forward, reverses );
+        append( event );
+
+        return event;
+    }
+
+
+    /**
+     * Writes an event at the end of the current segment, starting a new
+     * segment if the current one is full.
+     */
+    private void append( ChangeLogEvent event ) throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream( baos );
+        ChangeLogEventSerializer.serialize( event, out );
+        out.close();
+
+        byte[] data = baos.toByteArray();
+        ByteBuffer record = ByteBuffer.allocate( HEADER_SIZE + data.length );
+        record.putLong( event.getRevision() );
+        record.putInt( data.length );
+        record.put( data );
+
+        if ( ( current.size > 0 ) && ( current.size + record.capacity() > maxSegmentSize ) )
+        {
+            writer.close();
+            openSegment( event.getRevision() );
+            applyRetention();
+        }
+
+        long offset = current.size;
+        writer.write( record.array() );
+
+        if ( current.count % indexInterval == 0 )
+        {
+            current.index.put( event.getRevision(), offset );
+        }
+
+        current.count++;
+        current.size += record.capacity();
+
+        // The record is now complete on disk, it can be read
+        current.lastRevision = event.getRevision();
+        currentRevision = event.getRevision();
+    }
+
+
+    /**
+     * @return The revision of the oldest event still stored
+     */
+    private long getFirstRevision()
+    {
+        Map.Entry<Long, Segment> first = segments.firstEntry();
+
+        return first == null ? currentRevision + 1 : first.getValue().firstRevision;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * 
+     * Returns <code>null</code> if the revision has been removed from the store.
+     */
+    public ChangeLogEvent lookup( long revision ) throws Exception
+    {
+        if ( revision < 0 )
+        {
+            throw new IllegalArgumentException( I18n.err( I18n.ERR_239 ) );
+        }
+
+        if ( revision > getCurrentRevision() )
+        {
+            throw new IllegalArgumentException( I18n.err( I18n.ERR_240 ) );
+        }
+
+        SegmentReader reader = new SegmentReader();
+
+        try
+        {
+            if ( !reader.seek( revision ) )
+            {
+                return null;
+            }
+
+            return reader.read();
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Cursor<ChangeLogEvent> find() throws Exception
+    {
+        return new SegmentCursor( getFirstRevision(), getCurrentRevision() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Cursor<ChangeLogEvent> findBefore( long revision ) throws Exception
+    {
+        checkRevision( revision );
+
+        return new SegmentCursor( getFirstRevision(), revision - 1 );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Cursor<ChangeLogEvent> findAfter( long revision ) throws LdapException
+    {
+        checkRevision( revision );
+
+        return new SegmentCursor( Math.max( revision + 1, getFirstRevision() ), getCurrentRevision() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Cursor<ChangeLogEvent> find( long startRevision, long endRevision ) throws Exception
+    {
+        checkRevision( startRevision );
+        checkRevision( endRevision );
+
+        if ( startRevision > endRevision )
+        {
+            throw new IllegalArgumentException( "The start revision " + startRevision
+                + " is above the end revision " + endRevision );
+        }
+
+        return new SegmentCursor( Math.max( startRevision, getFirstRevision() ), endRevision );
+    }
+
+
+    private void checkRevision( long revision )
+    {
+        if ( revision < 0 )
+        {
+            throw new IllegalArgumentException( I18n.err( I18n.ERR_239 ) );
+        }
+
+        if ( revision > getCurrentRevision() )
+        {
+            throw new IllegalArgumentException( I18n.err( I18n.ERR_240 ) );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized Tag tag( long revision ) throws Exception
+    {
+        return tag( revision, null );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized Tag tag() throws Exception
+    {
+        return tag( ( String ) null );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized Tag tag( String description ) throws Exception
+    {
+        if ( ( latest != null ) && ( latest.getRevision() == currentRevision ) )
+        {
+            return latest;
+        }
+
+        return tag( currentRevision, description );
+    }
+
+
+    /**
+     * @see TaggableChangeLogStore#tag(long, String)
+     */
+    public synchronized Tag tag( long revision, String description ) throws Exception
+    {
+        if ( tags.containsKey( revision ) )
+        {
+            return tags.get( revision );
+        }
+
+        latest = new Tag( revision, description );
+        tags.put( revision, latest );
+        saveTags();
+
+        return latest;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized Tag getLatest() throws LdapException
+    {
+        return latest;
+    }
+
+
+    /**
+     * Gets the tag set on a revision, without reading the events.
+     *
+     * @param revision The tagged revision
+     * @return The tag, or <code>null</code> if the revision is not tagged
+     */
+    public synchronized Tag getTag( long revision )
+    {
+        return tags.get( revision );
+    }
+
+
+    /**
+     * @see TaggableChangeLogStore#removeTag(long)
+     */
+    public synchronized Tag removeTag( long revision ) throws Exception
+    {
+        Tag removed = tags.remove( revision );
+
+        if ( removed != null )
+        {
+            saveTags();
+        }
+
+        return removed;
+    }
+
+
+    /**
+     * @return The maximum size of a segment, in bytes
+     */
+    public long getMaxSegmentSize()
+    {
+        return maxSegmentSize;
+    }
+
+
+    /**
+     * @param maxSegmentSize The maximum size of a segment, in bytes. A segment
+     * always contains at least one event, whatever its size
+     */
+    public void setMaxSegmentSize( long maxSegmentSize )
+    {
+        this.maxSegmentSize = maxSegmentSize;
+    }
+
+
+    /**
+     * @return The maximum number of segments kept, 0 if there is no limit
+     */
+    public int getMaxSegments()
+    {
+        return maxSegments;
+    }
+
+
+    /**
+     * @param maxSegments The maximum number of segments to keep, 0 for no limit
+     */
+    public void setMaxSegments( int maxSegments )
+    {
+        this.maxSegments = maxSegments;
+    }
+
+
+    /**
+     * @return The age, in milliseconds, after which a segment is deleted, 0 if there is no limit
+     */
+    public long getMaxSegmentAge()
+    {
+        return maxSegmentAge;
+    }
+
+
+    /**
+     * @param maxSegmentAge The age, in milliseconds, after which a segment is deleted, 0 for no limit
+     */
+    public void setMaxSegmentAge( long maxSegmentAge )
+    {
+        this.maxSegmentAge = maxSegmentAge;
+    }
+
+
+    /**
+     * @return The number of records between two records stored in the index
+     */
+    public int getIndexInterval()
+    {
+        return indexInterval;
+    }
+
+
+    /**
+     * @param indexInterval The number of records between two records stored in the index.
+     * It has to be set before the store is initialized
+     */
+    public void setIndexInterval( int indexInterval )
+    {
+        if ( indexInterval < 1 )
+        {
+            throw new IllegalArgumentException( "The index interval must be positive : " + indexInterval );
+        }
+
+        this.indexInterval = indexInterval;
+    }
+
+
+    /**
+     * @return The number of segments currently stored
+     */
+    public int getSegmentCount()
+    {
+        return segments.size();
+    }
+
+
+    /**
+     * Reads the events sequentially from the segments, moving to the next
+     * segment when the end of one is reached.
+     */
+    private final class SegmentReader
+    {
+        /** The segment being read */
+        private Segment segment;
+
+        /** The stream on the segment */
+        private DataInputStream in;
+
+        /** The revision of the next record in the stream */
+        private long nextRevision = -1L;
+
+
+        /**
+         * Positions the reader on the record of a revision. 
+         * 
+         * @return <code>false</code> if the revision is not stored anymore
+         */
+        private boolean seek( long revision ) throws IOException
+        {
+            if ( ( in != null ) && ( revision == nextRevision ) && ( revision <= segment.lastRevision ) )
+            {
+                return true;
+            }
+
+            close();
+
+            Map.Entry<Long, Segment> entry = segments.floorEntry( revision );
+
+            if ( ( entry == null ) || ( revision > entry.getValue().lastRevision ) )
+            {
+                return false;
+            }
+
+            segment = entry.getValue();
+            Map.Entry<Long, Long> indexed = segment.index.floorEntry( revision );
+            FileInputStream fis = new FileInputStream( segment.file );
+
+            if ( indexed == null )
+            {
+                nextRevision = segment.firstRevision;
+            }
+            else
+            {
+                fis.getChannel().position( indexed.getValue() );
+                nextRevision = indexed.getKey();
+            }
+
+            in = new DataInputStream( new BufferedInputStream( fis ) );
+
+            // Skip the records up to the requested one
+            while ( nextRevision < revision )
+            {
+                in.readLong();
+                int size = in.readInt();
+                in.skipBytes( size );
+                nextRevision++;
+            }
+
+            return true;
+        }
+
+
+        /**
+         * Reads the record the reader is positioned on, and moves to the next one.
+         */
+        private ChangeLogEvent read() throws IOException, LdapException
+        {
+            long revision = in.readLong();
+            byte[] data = new byte[in.readInt()];
+            in.readFully( data );
+            nextRevision = revision + 1;
+
+            ObjectInputStream ois = new ObjectInputStream( new ByteArrayInputStream( data ) );
+            ChangeLogEvent event = ChangeLogEventSerializer.deserialize( schemaManager, ois );
+            event.getCommitterPrincipal().setSchemaManager( schemaManager );
+
+            return event;
+        }
+
+
+        // This will suppress PMD.EmptyCatchBlock warnings in this method
+        @SuppressWarnings("PMD.EmptyCatchBlock")
+        private void close()
+        {
+            if ( in != null )
+            {
+                //noinspection EmptyCatchBlock
+                try
+                {
+                    in.close();
+                }
+                catch ( IOException e )
+                {
+                }
+
+                in = null;
+                segment = null;
+            }
+        }
+    }
+
+
+    /**
+     * A Cursor over a range of revisions. The range is fixed when the cursor
+     * is created, so the events logged later are not seen. The events are
+     * read from the segments while the cursor moves.
+     */
+    private final class SegmentCursor extends AbstractCursor<ChangeLogEvent>
+    {
+        /** The first revision of the range */
+        private final long first;
+
+        /** The last revision of the range */
+        private final long last;
+
+        /** The current revision, first - 1 before the first one, last + 1 after the last one */
+        private long position;
+
+        /** The current event */
+        private ChangeLogEvent event;
+
+        /** The reader used to fetch the events */
+        private final SegmentReader reader = new SegmentReader();
+
+
+        private SegmentCursor( long first, long last )
+        {
+            this.first = first;
+            this.last = last;
+            position = first - 1;
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        public boolean available()
+        {
+            return event != null;
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        public void before( ChangeLogEvent element ) throws LdapException, CursorException
+        {
+            checkNotClosed( "before()" );
+            position = Math.max( first, Math.min( element.getRevision(), last + 1 ) ) - 1;
+            event = null;
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        public void after( ChangeLogEvent element ) throws LdapException, CursorException
+        {
+            checkNotClosed( "after()" );
+            position = Math.max( first - 1, Math.min( element.getRevision(), last ) );
+            event = null;
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        public void beforeFirst() throws LdapException, CursorException
+        {
+            checkNotClosed( "beforeFirst()" );
+            position = first - 1;
+            event = null;
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        public void afterLast() throws LdapException, CursorException
+        {
+            checkNotClosed( "afterLast()" );
+            position = last + 1;
+            event = null;
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        public boolean first() throws LdapException, CursorException
+        {
+            beforeFirst();
+
+            return next();
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        public boolean last() throws LdapException, CursorException
+        {
+            afterLast();
+
+            return previous();
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        public boolean next() throws LdapException, CursorException
+        {
+            checkNotClosed( "next()" );
+
+            if ( position >= last )
+            {
+                position = last + 1;
+                event = null;
+
+                return false;
+            }
+
+            position++;
+            event = fetch( position );
+
+            return true;
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        public boolean previous() throws LdapException, CursorException
+        {
+            checkNotClosed( "previous()" );
+
+            if ( position <= first )
+            {
+                position = first - 1;
+                event = null;
+
+                return false;
+            }
+
+            position--;
+            event = fetch( position );
+
+            return true;
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        public ChangeLogEvent get() throws CursorException
+        {
+            checkNotClosed( "get()" );
+
+            if ( event == null )
+            {
+                throw new InvalidCursorPositionException();
+            }
+
+            return event;
+        }
+
+
+        private ChangeLogEvent fetch( long revision ) throws CursorException
+        {
+            try
+            {
+                if ( !reader.seek( revision ) )
+                {
+                    throw new CursorException( "The revision " + revision + " has been removed from the change log" );
+                }
+
+                return reader.read();
+            }
+            catch ( IOException ioe )
+            {
+                throw new CursorException( ioe.getMessage(), ioe );
+            }
+            catch ( LdapException le )
+            {
+                throw new CursorException( le.getMessage(), le );
+            }
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        public void close()
+        {
+            reader.close();
+            super.close();
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        public void close( Exception cause )
+        {
+            reader.close();
+            super.close( cause );
+        }
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append( "SegmentedChangeLog\n" );
+        sb.append( "latest tag : " ).append( latest ).append( '\n' );
+        sb.append( "current revision : " ).append( currentRevision ).append( '\n' );
+        sb.append( "Nb of segments : " ).append( segments.size() ).append( '\n' );
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.core.changelog;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.ldif.ChangeType;
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.apache.directory.api.ldap.model.ldif.LdifRevertor;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schemamanager.impl.DefaultSchemaManager;
+import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.changelog.ChangeLogEvent;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * Tests the SegmentedChangeLogStore.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SegmentedChangeLogStoreTest
+{
+    private static SchemaManager schemaManager;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    @BeforeClass
+    public static void setUp() throws Exception
+    {
+        schemaManager = new DefaultSchemaManager();
+    }
+
+
+    private SegmentedChangeLogStore createStore( File directory ) throws Exception
+    {
+        SegmentedChangeLogStore store = new SegmentedChangeLogStore();
+        store.setMaxSegmentSize( 2048L );
+        store.setIndexInterval( 4 );
+        store.init( directory, schemaManager );
+
+        return store;
+    }
+
+
+    private void log( SegmentedChangeLogStore store, int count ) throws Exception
+    {
+        for ( int i = 0; i < count; i++ )
+        {
+            LdifEntry forward = new LdifEntry();
+            forward.setDn( "ou=test" + i + ",ou=system" );
+            forward.setChangeType( ChangeType.Add );
+            forward.putAttribute( "objectClass", "organizationalUnit" );
+            forward.putAttribute( "ou", "test" + i );
+
+            LdifEntry reverse = LdifRevertor.reverseAdd( forward.getDn() );
+            store.log( new LdapPrincipal( schemaManager ), forward, reverse );
+        }
+    }
+
+
+    private void assertRange( Cursor<ChangeLogEvent> cursor, long first, long last ) throws Exception
+    {
+        long expected = first;
+
+        while ( cursor.next() )
+        {
+            assertEquals( expected++, cursor.get().getRevision() );
+        }
+
+        assertEquals( last + 1, expected );
+        cursor.close();
+    }
+
+
+    @Test
+    public void testLogAndLookup() throws Exception
+    {
+        SegmentedChangeLogStore store = createStore( folder.getRoot() );
+
+        assertEquals( 0, store.getCurrentRevision() );
+        log( store, 100 );
+        assertEquals( 100, store.getCurrentRevision() );
+        assertTrue( store.getSegmentCount() > 1 );
+
+        for ( long revision = 1; revision <= 100; revision++ )
+        {
+            ChangeLogEvent event = store.lookup( revision );
+            assertEquals( revision, event.getRevision() );
+            assertEquals( "ou=test" + ( revision - 1 ) + ",ou=system", event.getForwardLdif().getDn().getName() );
+        }
+
+        assertNull( store.lookup( 0 ) );
+        store.destroy();
+    }
+
+
+    @Test
+    public void testCursors() throws Exception
+    {
+        SegmentedChangeLogStore store = createStore( folder.getRoot() );
+        log( store, 50 );
+
+        assertRange( store.find(), 1, 50 );
+        assertRange( store.findBefore( 20 ), 1, 19 );
+        assertRange( store.findAfter( 20 ), 21, 50 );
+        assertRange( store.find( 10, 40 ), 10, 40 );
+
+        // Events logged after the cursor creation are not seen
+        Cursor<ChangeLogEvent> cursor = store.find();
+        log( store, 5 );
+        assertRange( cursor, 1, 50 );
+
+        cursor = store.find( 10, 20 );
+        assertTrue( cursor.last() );
+        assertEquals( 20, cursor.get().getRevision() );
+        assertTrue( cursor.previous() );
+        assertEquals( 19, cursor.get().getRevision() );
+        assertTrue( cursor.first() );
+        assertEquals( 10, cursor.get().getRevision() );
+        assertFalse( cursor.previous() );
+        cursor.close();
+
+        store.destroy();
+    }
+
+
+    @Test
+    public void testReopen() throws Exception
+    {
+        SegmentedChangeLogStore store = createStore( folder.getRoot() );
+        log( store, 30 );
+        store.tag( 10, "ten" );
+        store.tag();
+        store.destroy();
+
+        // Simulate a record partially written before a crash
+        File[] files = folder.getRoot().listFiles();
+        File last = null;
+
+        for ( File file : files )
+        {
+            if ( file.getName().endsWith( ".seg" ) && ( ( last == null ) || ( file.compareTo( last ) > 0 ) ) )
+            {
+                last = file;
+            }
+        }
+
+        RandomAccessFile raf = new RandomAccessFile( last, "rw" );
+        raf.seek( raf.length() );
+        raf.writeLong( 31L );
+        raf.close();
+
+        store = createStore( folder.getRoot() );
+        assertEquals( 30, store.getCurrentRevision() );
+        assertEquals( "ten", store.getTag( 10 ).getDescription() );
+        assertEquals( 30, store.getLatest().getRevision() );
+
+        log( store, 5 );
+        assertEquals( 35, store.getCurrentRevision() );
+        assertRange( store.find(), 1, 35 );
+        store.destroy();
+    }
+
+
+    @Test
+    public void testRetention() throws Exception
+    {
+        SegmentedChangeLogStore store = new SegmentedChangeLogStore();
+        store.setMaxSegmentSize( 2048L );
+        store.setMaxSegments( 3 );
+        store.init( folder.getRoot(), schemaManager );
+
+        log( store, 200 );
+        assertEquals( 3, store.getSegmentCount() );
+        assertEquals( 200, store.getCurrentRevision() );
+        assertNull( store.lookup( 1 ) );
+        assertEquals( 200, store.lookup( 200 ).getRevision() );
+
+        Cursor<ChangeLogEvent> cursor = store.find();
+        assertTrue( cursor.first() );
+        long first = cursor.get().getRevision();
+        assertTrue( first > 1 );
+        cursor.close();
+
+        assertRange( store.find(), first, 200 );
+        store.destroy();
+    }
+}
@@ -0,0 +1,793 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.core.journal;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.journal.JournalStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A journal store writing binary records into a preallocated file.
+ * <br/>
+ * The threads logging an operation only serialize their record and put it
+ * into a ring buffer, claiming a slot without locking. A single writer thread
+ * drains the ring buffer, writes the records in batches, and forces them on
+ * disk according to the {@link Durability} policy, so that many records share
+ * the same fsync.
+ * <br/>
+ * Each record is stored as :
+ * <pre>
+ * [length (int)][crc (int)][type (byte)][revision (long)][timestamp (long)][data]
+ * </pre>
+ * where the length covers the whole record, and the CRC covers everything
+ * after it. The data is the principal name and the serialized LDIF for a log
+ * record, and is empty for an ack or a nack. When the journal is opened, the
+ * records are read until a zeroed or corrupted one is found, and the new
+ * records are written from there.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class BinaryJournalStore implements JournalStore
+{
+    /** The class logger */
+    private static final Logger LOG = LoggerFactory.getLogger( BinaryJournalStore.class );
+
+    /** The record types */
+    public static final byte LOG_RECORD = 1;
+    public static final byte ACK_RECORD = 2;
+    public static final byte NACK_RECORD = 3;
+
+    /** The size of a record header : length, crc, type, revision and timestamp */
+    private static final int HEADER_SIZE = 4 + 4 + 1 + 8 + 8;
+
+    /** The default journal file name */
+    private static final String DEFAULT_FILE_NAME = "journal.dat";
+
+    /**
+     * The policies deciding when the journal is forced on disk
+     */
+    public enum Durability
+    {
+        /** The log operations return once their record is on disk */
+        OPERATION,
+
+        /** The journal is forced on disk every {@link BinaryJournalStore#getSyncRecords()} records */
+        RECORDS,
+
+        /** The journal is forced on disk every {@link BinaryJournalStore#getSyncInterval()} ms */
+        INTERVAL
+    }
+
+    /** The directory where the journal is stored */
+    private File workingDirectory;
+
+    /** The journal file name */
+    private String fileName;
+
+    /** The durability policy */
+    private Durability durability = Durability.INTERVAL;
+
+    /** The number of records between two syncs, for the RECORDS policy */
+    private int syncRecords = 1000;
+
+    /** The delay between two syncs in milliseconds, for the INTERVAL policy */
+    private long syncInterval = 100L;
+
+    /** The number of slots in the ring buffer, a power of 2 */
+    private int ringSize = 4096;
+
+    /** The size by which the journal file is extended */
+    private long preallocationSize = 16L * 1024L * 1024L;
+
+    /** The journal file */
+    private RandomAccessFile file;
+
+    /** The channel on the journal file */
+    private FileChannel channel;
+
+    /** The position where the next record will be written */
+    private long position;
+
+    /** The highest logged revision */
+    private final AtomicLong currentRevision = new AtomicLong();
+
+    /** The ring buffer containing the records waiting to be written */
+    private AtomicReferenceArray<byte[]> ring;
+
+    /** The next sequence number to claim in the ring buffer */
+    private final AtomicLong claimed = new AtomicLong();
+
+    /** The number of records taken from the ring buffer by the writer */
+    private volatile long consumed;
+
+    /** The number of records forced on disk */
+    private volatile long durable;
+
+    /** Set when a producer waits for a sync */
+    private volatile boolean syncRequested;
+
+    /** Set when the writer is parked, waiting for records */
+    private volatile boolean writerIdle;
+
+    /** Set while the store is open */
+    private volatile boolean running;
+
+    /** The error which stopped the writer, if any */
+    private volatile IOException failure;
+
+    /** The thread writing the records */
+    private Thread writer;
+
+    /** The lock the producers waiting for a sync are waiting on */
+    private final Object durableLock = new Object();
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void init( DirectoryService service ) throws Exception
+    {
+        if ( workingDirectory == null )
+        {
+            workingDirectory = service.getInstanceLayout().getLogDirectory();
+        }
+
+        open();
+    }
+
+
+    /**
+     * Opens the journal file, and starts the writer thread.
+     * 
+     * @throws IOException If the journal can't be opened
+     */
+    public void open() throws IOException
+    {
+        if ( fileName == null )
+        {
+            fileName = DEFAULT_FILE_NAME;
+        }
+
+        file = new RandomAccessFile( new File( workingDirectory, fileName ), "rw" );
+        channel = file.getChannel();
+        position = recover();
+
+        ring = new AtomicReferenceArray<byte[]>( ringSize );
+        claimed.set( 0L );
+        consumed = 0L;
+        durable = 0L;
+        failure = null;
+        running = true;
+
+        writer = new Thread( new Writer(), "journal-writer-" + fileName );
+        writer.setDaemon( true );
+        writer.start();
+    }
+
+
+    /**
+     * Reads the existing records, checking their CRC, to find where the
+     * valid journal ends.
+     * 
+     * @return The position following the last valid record
+     */
+    private long recover() throws IOException
+    {
+        long length = channel.size();
+        long offset = 0L;
+        ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+        CRC32 crc = new CRC32();
+
+        while ( offset + HEADER_SIZE <= length )
+        {
+            header.clear();
+            readFully( header, offset );
+            int size = header.getInt( 0 );
+
+            if ( ( size < HEADER_SIZE ) || ( offset + size > length ) )
+            {
+                break;
+            }
+
+            ByteBuffer record = ByteBuffer.allocate( size );
+            readFully( record, offset );
+            crc.reset();
+            crc.update( record.array(), 8, size - 8 );
+
+            if ( ( int ) crc.getValue() != record.getInt( 4 ) )
+            {
+                LOG.warn( "Corrupted journal record found at offset {}, the journal ends there", offset );
+                break;
+            }
+
+            if ( record.get( 8 ) == LOG_RECORD )
+            {
+                currentRevision.set( Math.max( currentRevision.get(), record.getLong( 9 ) ) );
+            }
+
+            offset += size;
+        }
+
+        return offset;
+    }
+
+
+    private void readFully( ByteBuffer buffer, long offset ) throws IOException
+    {
+        while ( buffer.hasRemaining() )
+        {
+            if ( channel.read( buffer, offset + buffer.position() ) < 0 )
+            {
+                throw new IOException( "Unexpected end of journal at offset " + offset );
+            }
+        }
+    }
+
+
+    /**
+     * Stores an event into the journal.
+     * 
+     * @param principal The principal who is logging the change
+     * @param revision The operation revision
+     * @param forward The change to log
+     */
+    public boolean log( LdapPrincipal principal, long revision, LdifEntry forward )
+    {
+        try
+        {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream( baos );
+            out.writeUTF( principal.getName() );
+
+            ObjectOutputStream oos = new ObjectOutputStream( out );
+            forward.writeExternal( oos );
+            oos.flush();
+
+            if ( !publish( record( LOG_RECORD, revision, baos.toByteArray() ) ) )
+            {
+                return false;
+            }
+        }
+        catch ( IOException ioe )
+        {
+            LOG.error( "Cannot serialize the journal record for revision {} : {}", revision, ioe.getMessage() );
+
+            return false;
+        }
+
+        long current = currentRevision.get();
+
+        while ( ( revision > current ) && !currentRevision.compareAndSet( current, revision ) )
+        {
+            current = currentRevision.get();
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Records a ack for a change
+     *
+     * @param revision The change revision which is acked
+     * @return <code>true</code> if the ack has been written
+     */
+    public boolean ack( long revision )
+    {
+        return publish( record( ACK_RECORD, revision, new byte[0] ) );
+    }
+
+
+    /**
+     * Records a nack for a change
+     *
+     * @param revision The change revision which is nacked
+     * @return <code>true</code> if the nack has been written
+     */
+    public boolean nack( long revision )
+    {
+        return publish( record( NACK_RECORD, revision, new byte[0] ) );
+    }
+
+
+    /**
+     * Builds a record, computing its CRC.
+     */
+    private static byte[] record( byte type, long revision, byte[] data )
+    {
+        ByteBuffer buffer = ByteBuffer.allocate( HEADER_SIZE + data.length );
+        buffer.putInt( HEADER_SIZE + data.length );
+        buffer.putInt( 0 );
+        buffer.put( type );
+        buffer.putLong( revision );
+        buffer.putLong( System.currentTimeMillis() );
+        buffer.put( data );
+
+        CRC32 crc = new CRC32();
+        crc.update( buffer.array(), 8, buffer.capacity() - 8 );
+        buffer.putInt( 4, ( int ) crc.getValue() );
+
+        return buffer.array();
+    }
+
+
+    /**
+     * Puts a record in the ring buffer. With the OPERATION durability, waits
+     * until the record has been forced on disk.
+     * 
+     * @return <code>false</code> if the journal is closed or has failed
+     */
+    private boolean publish( byte[] record )
+    {
+        if ( !running || ( failure != null ) )
+        {
+            return false;
+        }
+
+        long sequence = claimed.getAndIncrement();
+
+        // Wait for the writer to free the slot
+        while ( sequence - consumed >= ring.length() )
+        {
+            Thread thread = writer;
+
+            if ( ( failure != null ) || ( thread == null ) || !thread.isAlive() )
+            {
+                return false;
+            }
+
+            wakeWriter();
+            LockSupport.parkNanos( 1000L );
+        }
+
+        ring.set( ( int ) ( sequence & ( ring.length() - 1 ) ), record );
+        wakeWriter();
+
+        if ( durability == Durability.OPERATION )
+        {
+            return awaitDurable( sequence + 1 );
+        }
+
+        return true;
+    }
+
+
+    private void wakeWriter()
+    {
+        if ( writerIdle )
+        {
+            LockSupport.unpark( writer );
+        }
+    }
+
+
+    /**
+     * Waits until the given number of records have been forced on disk.
+     */
+    private boolean awaitDurable( long count )
+    {
+        Thread thread = writer;
+
+        if ( thread == null )
+        {
+            return durable >= count;
+        }
+
+        synchronized ( durableLock )
+        {
+            while ( ( durable < count ) && ( failure == null ) && thread.isAlive() )
+            {
+                syncRequested = true;
+                wakeWriter();
+
+                try
+                {
+                    durableLock.wait( 10L );
+                }
+                catch ( InterruptedException ie )
+                {
+                    Thread.currentThread().interrupt();
+
+                    return false;
+                }
+            }
+        }
+
+        return durable >= count;
+    }
+
+
+    /**
+     * Forces all the records logged so far on disk.
+     */
+    public void sync() throws Exception
+    {
+        if ( !awaitDurable( claimed.get() ) && ( failure != null ) )
+        {
+            throw failure;
+        }
+    }
+
+
+    /**
+     * Writes the pending records, and closes the journal.
+     */
+    public void destroy() throws Exception
+    {
+        if ( writer == null )
+        {
+            return;
+        }
+
+        running = false;
+        LockSupport.unpark( writer );
+        writer.join();
+        writer = null;
+
+        channel.force( true );
+        file.close();
+        file = null;
+        channel = null;
+
+        if ( failure != null )
+        {
+            throw failure;
+        }
+    }
+
+
+    /**
+     * The writer thread : drains the ring buffer, writes the records and
+     * forces them on disk according to the durability policy.
+     */
+    private final class Writer implements Runnable
+    {
+        /** The buffer used to write a batch of records */
+        private ByteBuffer batch = ByteBuffer.allocateDirect( 256 * 1024 );
+
+        /** The number of records written since the last sync */
+        private long unsynced;
+
+        /** The time of the last sync */
+        private long lastSync = System.currentTimeMillis();
+
+
+        public void run()
+        {
+            try
+            {
+                while ( running || ( consumed < claimed.get() ) )
+                {
+                    int count = drain();
+
+                    if ( count > 0 )
+                    {
+                        write();
+                        unsynced += count;
+                    }
+
+                    if ( shouldSync() )
+                    {
+                        channel.force( false );
+                        unsynced = 0;
+                        lastSync = System.currentTimeMillis();
+                        syncRequested = false;
+
+                        synchronized ( durableLock )
+                        {
+                            durable = consumed;
+                            durableLock.notifyAll();
+                        }
+                    }
+                    else if ( count == 0 )
+                    {
+                        // Check the ring again once the flag is set, so that a
+                        // producer either sees the flag or its record is seen
+                        writerIdle = true;
+
+                        if ( ( ring.get( ( int ) ( consumed & ( ring.length() - 1 ) ) ) == null ) && !syncRequested )
+                        {
+                            LockSupport.parkNanos( syncInterval * 1000000L );
+                        }
+
+                        writerIdle = false;
+                    }
+                }
+
+                if ( unsynced > 0 )
+                {
+                    channel.force( false );
+                }
+
+                synchronized ( durableLock )
+                {
+                    durable = consumed;
+                    durableLock.notifyAll();
+                }
+            }
+            catch ( Throwable t )
+            {
+                LOG.error( "The journal writer has failed, the journal is now disabled", t );
+
+                if ( t instanceof IOException )
+                {
+                    failure = ( IOException ) t;
+                }
+                else
+                {
+                    failure = new IOException( "The journal writer has failed", t );
+                }
+
+                synchronized ( durableLock )
+                {
+                    durableLock.notifyAll();
+                }
+            }
+        }
+
+
+        /**
+         * Moves the available records from the ring buffer into the batch buffer.
+         */
+        private int drain()
+        {
+            int count = 0;
+            long sequence = consumed;
+            int mask = ring.length() - 1;
+            batch.clear();
+
+            while ( true )
+            {
+                int slot = ( int ) ( sequence & mask );
+                byte[] record = ring.get( slot );
+
+                if ( record == null )
+                {
+                    break;
+                }
+
+                if ( record.length > batch.remaining() )
+                {
+                    if ( count > 0 )
+                    {
+                        break;
+                    }
+
+                    batch = ByteBuffer.allocateDirect( record.length );
+                }
+
+                batch.put( record );
+                ring.set( slot, null );
+                sequence++;
+                count++;
+                consumed = sequence;
+            }
+
+            batch.flip();
+
+            return count;
+        }
+
+
+        /**
+         * Writes the batch buffer at the end of the journal, extending the
+         * preallocated file if needed.
+         */
+        private void write() throws IOException
+        {
+            long end = position + batch.remaining();
+
+            if ( end > channel.size() )
+            {
+                preallocate( end );
+            }
+
+            while ( batch.hasRemaining() )
+            {
+                position += channel.write( batch, position );
+            }
+        }
+
+
+        /**
+         * Extends the journal file with zeroes, so that the following syncs
+         * don't have to update the file metadata.
+         */
+        private void preallocate( long end ) throws IOException
+        {
+            long size = channel.size();
+            long target = Math.max( end, size + preallocationSize );
+            ByteBuffer zeroes = ByteBuffer.allocate( ( int ) Math.min( 1024L * 1024L, target - size ) );
+
+            while ( size < target )
+            {
+                zeroes.clear();
+                zeroes.limit( ( int ) Math.min( zeroes.capacity(), target - size ) );
+                size += channel.write( zeroes, size );
+            }
+
+            channel.force( true );
+        }
+
+
+        private boolean shouldSync()
+        {
+            if ( unsynced == 0 )
+            {
+                return syncRequested && ( durable < consumed );
+            }
+
+            switch ( durability )
+            {
+                case OPERATION:
+                    return true;
+
+                case RECORDS:
+                    return syncRequested || ( unsynced >= syncRecords );
+
+                default:
+                    return syncRequested || ( System.currentTimeMillis() - lastSync >= syncInterval );
+            }
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getCurrentRevision()
+    {
+        return currentRevision.get();
+    }
+
+
+    /**
+     * @return the fileName
+     */
+    public String getFileName()
+    {
+        return fileName;
+    }
+
+
+    /**
+     * @param fileName the fileName to set
+     */
+    public void setFileName( String fileName )
+    {
+        this.fileName = fileName;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setWorkingDirectory( String workingDirectoryName )
+    {
+        this.workingDirectory = new File( workingDirectoryName );
+    }
+
+
+    /**
+     * @return The durability policy
+     */
+    public Durability getDurability()
+    {
+        return durability;
+    }
+
+
+    /**
+     * @param durability The durability policy
+     */
+    public void setDurability( Durability durability )
+    {
+        this.durability = durability;
+    }
+
+
+    /**
+     * @return The number of records between two syncs, for the RECORDS policy
+     */
+    public int getSyncRecords()
+    {
+        return syncRecords;
+    }
+
+
+    /**
+     * @param syncRecords The number of records between two syncs, for the RECORDS policy
+     */
+    public void setSyncRecords( int syncRecords )
+    {
+        this.syncRecords = syncRecords;
+    }
+
+
+    /**
+     * @return The delay between two syncs in milliseconds, for the INTERVAL policy
+     */
+    public long getSyncInterval()
+    {
+        return syncInterval;
+    }
+
+
+    /**
+     * @param syncInterval The delay between two syncs in milliseconds, for the INTERVAL policy
+     */
+    public void setSyncInterval( long syncInterval )
+    {
+        this.syncInterval = syncInterval;
+    }
+
+
+    /**
+     * @return The number of slots in the ring buffer
+     */
+    public int getRingSize()
+    {
+        return ringSize;
+    }
+
+
+    /**
+     * @param ringSize The number of slots in the ring buffer, rounded up to a power of 2
+     */
+    public void setRingSize( int ringSize )
+    {
+        this.ringSize = Integer.highestOneBit( Math.max( 2, ringSize ) - 1 ) << 1;
+    }
+
+
+    /**
+     * @return The size by which the journal file is extended when full
+     */
+    public long getPreallocationSize()
+    {
+        return preallocationSize;
+    }
+
+
+    /**
+     * @param preallocationSize The size by which the journal file is extended when full
+     */
+    public void setPreallocationSize( long preallocationSize )
+    {
+        this.preallocationSize = preallocationSize;
+    }
+}
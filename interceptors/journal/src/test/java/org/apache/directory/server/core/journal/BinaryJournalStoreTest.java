@@ -0,0 +1,199 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.core.journal;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
+import org.apache.directory.api.ldap.model.ldif.ChangeType;
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.core.api.LdapPrincipal;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * Tests the BinaryJournalStore.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class BinaryJournalStoreTest
+{
+    private static LdapPrincipal principal;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    @BeforeClass
+    public static void setUp() throws Exception
+    {
+        principal = new LdapPrincipal( null, new Dn( "uid=admin,ou=system" ), AuthenticationLevel.SIMPLE,
+            Strings.getBytesUtf8( "secret" ) );
+    }
+
+
+    private BinaryJournalStore createStore( BinaryJournalStore.Durability durability ) throws Exception
+    {
+        BinaryJournalStore store = new BinaryJournalStore();
+        store.setWorkingDirectory( folder.getRoot().getAbsolutePath() );
+        store.setDurability( durability );
+        store.setRingSize( 16 );
+        store.setPreallocationSize( 4096L );
+        store.open();
+
+        return store;
+    }
+
+
+    private static LdifEntry createLdif( long revision ) throws Exception
+    {
+        LdifEntry forward = new LdifEntry();
+        forward.setDn( "ou=test" + revision + ",ou=system" );
+        forward.setChangeType( ChangeType.Add );
+        forward.putAttribute( "objectClass", "organizationalUnit" );
+        forward.putAttribute( "ou", "test" + revision );
+
+        return forward;
+    }
+
+
+    @Test
+    public void testLogAndRecover() throws Exception
+    {
+        BinaryJournalStore store = createStore( BinaryJournalStore.Durability.RECORDS );
+
+        for ( long revision = 1; revision <= 100; revision++ )
+        {
+            assertTrue( store.log( principal, revision, createLdif( revision ) ) );
+            assertTrue( store.ack( revision ) );
+        }
+
+        store.sync();
+        assertEquals( 100, store.getCurrentRevision() );
+        store.destroy();
+
+        // The file has been preallocated
+        File journal = new File( folder.getRoot(), "journal.dat" );
+        assertTrue( journal.length() >= 4096L );
+
+        store = createStore( BinaryJournalStore.Durability.OPERATION );
+        assertEquals( 100, store.getCurrentRevision() );
+
+        assertTrue( store.log( principal, 101, createLdif( 101 ) ) );
+        assertTrue( store.nack( 101 ) );
+        store.destroy();
+
+        store = createStore( BinaryJournalStore.Durability.INTERVAL );
+        assertEquals( 101, store.getCurrentRevision() );
+        store.destroy();
+    }
+
+
+    @Test
+    public void testCorruptedRecord() throws Exception
+    {
+        BinaryJournalStore store = createStore( BinaryJournalStore.Durability.OPERATION );
+        assertTrue( store.log( principal, 1, createLdif( 1 ) ) );
+        store.destroy();
+
+        store = createStore( BinaryJournalStore.Durability.OPERATION );
+        assertTrue( store.log( principal, 2, createLdif( 2 ) ) );
+        store.destroy();
+
+        // Corrupt the last byte of the second record
+        RandomAccessFile raf = new RandomAccessFile( new File( folder.getRoot(), "journal.dat" ), "rw" );
+        int firstLength = raf.readInt();
+        raf.seek( firstLength );
+        long last = firstLength + raf.readInt() - 1;
+        raf.seek( last );
+        byte value = raf.readByte();
+        raf.seek( last );
+        raf.writeByte( value + 1 );
+        raf.close();
+
+        store = createStore( BinaryJournalStore.Durability.OPERATION );
+        assertEquals( 1, store.getCurrentRevision() );
+
+        // The new record replaces the corrupted one
+        assertTrue( store.log( principal, 3, createLdif( 3 ) ) );
+        store.destroy();
+
+        store = createStore( BinaryJournalStore.Durability.OPERATION );
+        assertEquals( 3, store.getCurrentRevision() );
+        store.destroy();
+    }
+
+
+    @Test
+    public void testConcurrentLogs() throws Exception
+    {
+        final BinaryJournalStore store = createStore( BinaryJournalStore.Durability.INTERVAL );
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for ( int i = 0; i < 4; i++ )
+        {
+            final int base = i * 1000;
+
+            Thread thread = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        for ( int j = 1; j <= 250; j++ )
+                        {
+                            store.log( principal, base + j, createLdif( base + j ) );
+                        }
+                    }
+                    catch ( Exception e )
+                    {
+                        throw new RuntimeException( e );
+                    }
+                }
+            };
+
+            threads.add( thread );
+            thread.start();
+        }
+
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+
+        assertEquals( 3250, store.getCurrentRevision() );
+        store.destroy();
+
+        BinaryJournalStore reopened = createStore( BinaryJournalStore.Durability.INTERVAL );
+        assertEquals( 3250, reopened.getCurrentRevision() );
+        reopened.destroy();
+    }
+}
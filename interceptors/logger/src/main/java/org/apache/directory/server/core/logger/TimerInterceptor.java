@@ -20,13 +20,11 @@
 package org.apache.directory.server.core.logger;
 
 
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
-
 import org.apache.directory.api.ldap.model.constants.Loggers;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.OperationEnum;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
 import org.apache.directory.server.core.api.interceptor.BaseInterceptor;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
@@ -42,6 +40,8 @@ import org.apache.directory.server.core.api.interceptor.context.MoveOperationCon
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.metrics.LatencyHistogram;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -49,10 +49,17 @@ import org.slf4j.LoggerFactory;
 /**
  * An interceptor used to log times to process each operation.
  * 
- * The way it works is that it gathers the time to process an operation
- * into a global counter, which is logged every 1000 operations (when
- * using the OPERATION_STATS logger). It's also possible to get the time for
- * each single operation if activating the OPERATION_TIME logger.
+ * The way it works is that it records the time to process an operation
+ * in a latency histogram, named "interceptor.&lt;name&gt;.&lt;operation&gt;", stored
+ * in the DirectoryService metrics registry. As the interceptor can be inserted
+ * at many places in the chain, comparing the histograms of two instances gives
+ * the time spent in the interceptors between them. The failed operations are
+ * recorded too, and the search time is the time to create the cursor, the
+ * time to read it being recorded in the "operation.search" histogram of the
+ * OperationManager. The histogram summary is
+ * logged every 1000 operations when using the OPERATION_STATS logger. It's
+ * also possible to get the time for each single operation if activating the
+ * OPERATION_TIME logger.
  * 
  * Thos two loggers must be set to DEBUG.
  * 
@@ -70,57 +77,8 @@ public class TimerInterceptor extends BaseInterceptor
     private static final boolean IS_DEBUG_STATS = OPERATION_STATS.isDebugEnabled();
     private static final boolean IS_DEBUG_TIME = OPERATION_TIME.isDebugEnabled();
 
-    /** Stats for the add operation */
-    private static AtomicLong totalAdd = new AtomicLong( 0 );
-    private static AtomicInteger nbAddCalls = new AtomicInteger( 0 );
-
-    /** Stats for the bind operation */
-    private static AtomicLong totalBind = new AtomicLong( 0 );
-    private static AtomicInteger nbBindCalls = new AtomicInteger( 0 );
-
-    /** Stats for the compare operation */
-    private static AtomicLong totalCompare = new AtomicLong( 0 );
-    private static AtomicInteger nbCompareCalls = new AtomicInteger( 0 );
-
-    /** Stats for the delete operation */
-    private static AtomicLong totalDelete = new AtomicLong( 0 );
-    private static AtomicInteger nbDeleteCalls = new AtomicInteger( 0 );
-
-    /** Stats for the GetRootDse operation */
-    private static AtomicLong totalGetRootDse = new AtomicLong( 0 );
-    private static AtomicInteger nbGetRootDseCalls = new AtomicInteger( 0 );
-
-    /** Stats for the HasEntry operation */
-    private static AtomicLong totalHasEntry = new AtomicLong( 0 );
-    private static AtomicInteger nbHasEntryCalls = new AtomicInteger( 0 );
-
-    /** Stats for the lookup operation */
-    private static AtomicLong totalLookup = new AtomicLong( 0 );
-    private static AtomicInteger nbLookupCalls = new AtomicInteger( 0 );
-
-    /** Stats for the modify operation */
-    private static AtomicLong totalModify = new AtomicLong( 0 );
-    private static AtomicInteger nbModifyCalls = new AtomicInteger( 0 );
-
-    /** Stats for the move operation */
-    private static AtomicLong totalMove = new AtomicLong( 0 );
-    private static AtomicInteger nbMoveCalls = new AtomicInteger( 0 );
-
-    /** Stats for the moveAndRename operation */
-    private static AtomicLong totalMoveAndRename = new AtomicLong( 0 );
-    private static AtomicInteger nbMoveAndRenameCalls = new AtomicInteger( 0 );
-
-    /** Stats for the rename operation */
-    private static AtomicLong totalRename = new AtomicLong( 0 );
-    private static AtomicInteger nbRenameCalls = new AtomicInteger( 0 );
-
-    /** Stats for the search operation */
-    private static AtomicLong totalSearch = new AtomicLong( 0 );
-    private static AtomicInteger nbSearchCalls = new AtomicInteger( 0 );
-
-    /** Stats for the unbind operation */
-    private static AtomicLong totalUnbind = new AtomicLong( 0 );
-    private static AtomicInteger nbUnbindCalls = new AtomicInteger( 0 );
+    /** The histograms for each operation, indexed by the OperationEnum ordinal */
+    private LatencyHistogram[] histograms;
 
 
     /**
@@ -132,6 +90,9 @@ public class TimerInterceptor extends BaseInterceptor
     public TimerInterceptor( String name )
     {
         super( name );
+
+        // Until we are initialized, record in a private registry
+        histograms = new MetricsRegistry().getOperationHistograms( "" );
     }
 
 
@@ -140,6 +101,8 @@ public class TimerInterceptor extends BaseInterceptor
      */
     public void init( DirectoryService directoryService ) throws LdapException
     {
+        histograms = directoryService.getMetricsRegistry().getOperationHistograms(
+            MetricsRegistry.INTERCEPTOR_PREFIX + getName() + "." );
     }
 
 
@@ -151,31 +114,42 @@ public class TimerInterceptor extends BaseInterceptor
     }
 
 
+    /**
+     * Records the time spent processing an operation, and logs it if needed
+     */
+    private void record( OperationEnum operation, long delta )
+    {
+        LatencyHistogram histogram = histograms[operation.ordinal()];
+        histogram.record( delta );
+
+        if ( IS_DEBUG_STATS && ( histogram.getCount() % 1000 == 0 ) )
+        {
+            OPERATION_STATS.debug( "{} : {} {}", new Object[]
+                { getName(), operation.getMethodName(), histogram } );
+        }
+
+        if ( IS_DEBUG_TIME )
+        {
+            OPERATION_TIME.debug( "{} : Delta {} = {}", new Object[]
+                { getName(), operation.getMethodName(), delta } );
+        }
+    }
+
+
     /**
      * {@inheritDoc}
      */
     public void add( AddOperationContext addContext ) throws LdapException
     {
         long t0 = System.nanoTime();
-        next( addContext );
-        long delta = System.nanoTime() - t0;
 
-        if ( IS_DEBUG_STATS )
+        try
         {
-            nbAddCalls.incrementAndGet();
-            totalAdd.getAndAdd( delta );
-
-            if ( nbAddCalls.get() % 1000 == 0 )
-            {
-                long average = totalAdd.get() / ( nbAddCalls.get() * 1000 );
-                OPERATION_STATS.debug( getName() + " : Average add = {} microseconds, nb adds = {}", average,
-                    nbAddCalls.get() );
-            }
+            next( addContext );
         }
-
-        if ( IS_DEBUG_TIME )
+        finally
         {
-            OPERATION_TIME.debug( "{} : Delta add = {}", getName(), delta );
+            record( OperationEnum.ADD, System.nanoTime() - t0 );
         }
     }
 
@@ -186,25 +160,14 @@ public class TimerInterceptor extends BaseInterceptor
     public void bind( BindOperationContext bindContext ) throws LdapException
     {
         long t0 = System.nanoTime();
-        next( bindContext );
-        long delta = System.nanoTime() - t0;
 
-        if ( IS_DEBUG_STATS )
+        try
         {
-            nbBindCalls.incrementAndGet();
-            totalBind.getAndAdd( delta );
-
-            if ( nbBindCalls.get() % 1000 == 0 )
-            {
-                long average = totalBind.get() / ( nbBindCalls.get() * 1000 );
-                OPERATION_STATS.debug( getName() + " : Average bind = {} microseconds, nb binds = {}", average,
-                    nbBindCalls.get() );
-            }
+            next( bindContext );
         }
-
-        if ( IS_DEBUG_TIME )
+        finally
         {
-            OPERATION_TIME.debug( "{} : Delta bind = {}", getName(), delta );
+            record( OperationEnum.BIND, System.nanoTime() - t0 );
         }
     }
 
@@ -215,28 +178,15 @@ public class TimerInterceptor extends BaseInterceptor
     public boolean compare( CompareOperationContext compareContext ) throws LdapException
     {
         long t0 = System.nanoTime();
-        boolean compare = next( compareContext );
-        long delta = System.nanoTime() - t0;
 
-        if ( IS_DEBUG_STATS )
+        try
         {
-            nbCompareCalls.incrementAndGet();
-            totalCompare.getAndAdd( delta );
-
-            if ( nbCompareCalls.get() % 1000 == 0 )
-            {
-                long average = totalCompare.get() / ( nbCompareCalls.get() * 1000 );
-                OPERATION_STATS.debug( getName() + " : Average compare = {} microseconds, nb compares = {}", average,
-                    nbCompareCalls.get() );
-            }
+            return next( compareContext );
         }
-
-        if ( IS_DEBUG_TIME )
+        finally
         {
-            OPERATION_TIME.debug( "{} : Delta compare = {}", getName(), delta );
+            record( OperationEnum.COMPARE, System.nanoTime() - t0 );
         }
-
-        return compare;
     }
 
 
@@ -246,25 +196,14 @@ public class TimerInterceptor extends BaseInterceptor
     public void delete( DeleteOperationContext deleteContext ) throws LdapException
     {
         long t0 = System.nanoTime();
-        next( deleteContext );
-        long delta = System.nanoTime() - t0;
 
-        if ( IS_DEBUG_STATS )
+        try
         {
-            nbDeleteCalls.incrementAndGet();
-            totalDelete.getAndAdd( delta );
-
-            if ( nbDeleteCalls.get() % 1000 == 0 )
-            {
-                long average = totalDelete.get() / ( nbDeleteCalls.get() * 1000 );
-                OPERATION_STATS.debug( getName() + " : Average delete = {} microseconds, nb deletes = {}", average,
-                    nbDeleteCalls.get() );
-            }
+            next( deleteContext );
         }
-
-        if ( IS_DEBUG_TIME )
+        finally
         {
-            OPERATION_TIME.debug( "{} : Delta delete = {}", getName(), delta );
+            record( OperationEnum.DELETE, System.nanoTime() - t0 );
         }
     }
 
@@ -275,28 +214,15 @@ public class TimerInterceptor extends BaseInterceptor
     public Entry getRootDse( GetRootDseOperationContext getRootDseContext ) throws LdapException
     {
         long t0 = System.nanoTime();
-        Entry rootDse = next( getRootDseContext );
-        long delta = System.nanoTime() - t0;
 
-        if ( IS_DEBUG_STATS )
+        try
         {
-            nbGetRootDseCalls.incrementAndGet();
-            totalGetRootDse.getAndAdd( delta );
-
-            if ( nbGetRootDseCalls.get() % 1000 == 0 )
-            {
-                long average = totalGetRootDse.get() / ( nbGetRootDseCalls.get() * 1000 );
-                OPERATION_STATS.debug( getName() + " : Average getRootDSE = {} microseconds, nb getRootDSEs = {}",
-                    average, nbGetRootDseCalls.get() );
-            }
+            return next( getRootDseContext );
         }
-
-        if ( IS_DEBUG_TIME )
+        finally
         {
-            OPERATION_TIME.debug( "{} : Delta getRootDSE = {}", getName(), delta );
+            record( OperationEnum.GET_ROOT_DSE, System.nanoTime() - t0 );
         }
-
-        return rootDse;
     }
 
 
@@ -306,28 +232,15 @@ public class TimerInterceptor extends BaseInterceptor
     public boolean hasEntry( HasEntryOperationContext hasEntryContext ) throws LdapException
     {
         long t0 = System.nanoTime();
-        boolean hasEntry = next( hasEntryContext );
-        long delta = System.nanoTime() - t0;
 
-        if ( IS_DEBUG_STATS )
+        try
         {
-            nbHasEntryCalls.incrementAndGet();
-            totalHasEntry.getAndAdd( delta );
-
-            if ( nbHasEntryCalls.get() % 1000 == 0 )
-            {
-                long average = totalHasEntry.get() / ( nbHasEntryCalls.get() * 1000 );
-                OPERATION_STATS.debug( getName() + " : Average hasEntry = {} microseconds, nb hasEntrys = {}", average,
-                    nbHasEntryCalls.get() );
-            }
+            return next( hasEntryContext );
         }
-
-        if ( IS_DEBUG_TIME )
+        finally
         {
-            OPERATION_TIME.debug( "{} : Delta hasEntry = {}", getName(), delta );
+            record( OperationEnum.HAS_ENTRY, System.nanoTime() - t0 );
         }
-
-        return hasEntry;
     }
 
 
@@ -337,28 +250,15 @@ public class TimerInterceptor extends BaseInterceptor
     public Entry lookup( LookupOperationContext lookupContext ) throws LdapException
     {
         long t0 = System.nanoTime();
-        Entry entry = next( lookupContext );
-        long delta = System.nanoTime() - t0;
 
-        if ( IS_DEBUG_STATS )
+        try
         {
-            nbLookupCalls.incrementAndGet();
-            totalLookup.getAndAdd( delta );
-
-            if ( nbLookupCalls.get() % 1000 == 0 )
-            {
-                long average = totalLookup.get() / ( nbLookupCalls.get() * 1000 );
-                OPERATION_STATS.debug( getName() + " : Average lookup = {} microseconds, nb lookups = {}", average,
-                    nbLookupCalls.get() );
-            }
+            return next( lookupContext );
         }
-
-        if ( IS_DEBUG_TIME )
+        finally
         {
-            OPERATION_TIME.debug( "{} : Delta lookup = {}", getName(), delta );
+            record( OperationEnum.LOOKUP, System.nanoTime() - t0 );
         }
-
-        return entry;
     }
 
 
@@ -368,25 +268,14 @@ public class TimerInterceptor extends BaseInterceptor
     public void modify( ModifyOperationContext modifyContext ) throws LdapException
     {
         long t0 = System.nanoTime();
-        next( modifyContext );
-        long delta = System.nanoTime() - t0;
 
-        if ( IS_DEBUG_STATS )
+        try
         {
-            nbModifyCalls.incrementAndGet();
-            totalModify.getAndAdd( delta );
-
-            if ( nbModifyCalls.get() % 1000 == 0 )
-            {
-                long average = totalModify.get() / ( nbModifyCalls.get() * 1000 );
-                OPERATION_STATS.debug( getName() + " : Average modify = {} microseconds, nb modifys = {}", average,
-                    nbModifyCalls.get() );
-            }
+            next( modifyContext );
         }
-
-        if ( IS_DEBUG_TIME )
+        finally
         {
-            OPERATION_TIME.debug( "{} : Delta modify = {}", getName(), delta );
+            record( OperationEnum.MODIFY, System.nanoTime() - t0 );
         }
     }
 
@@ -397,25 +286,14 @@ public class TimerInterceptor extends BaseInterceptor
     public void move( MoveOperationContext moveContext ) throws LdapException
     {
         long t0 = System.nanoTime();
-        next( moveContext );
-        long delta = System.nanoTime() - t0;
 
-        if ( IS_DEBUG_STATS )
+        try
         {
-            nbMoveCalls.incrementAndGet();
-            totalMove.getAndAdd( delta );
-
-            if ( nbMoveCalls.get() % 1000 == 0 )
-            {
-                long average = totalMove.get() / ( nbMoveCalls.get() * 1000 );
-                OPERATION_STATS.debug( getName() + " : Average move = {} microseconds, nb moves = {}", average,
-                    nbMoveCalls.get() );
-            }
+            next( moveContext );
         }
-
-        if ( IS_DEBUG_TIME )
+        finally
         {
-            OPERATION_TIME.debug( "{} : Delta move = {}", getName(), delta );
+            record( OperationEnum.MOVE, System.nanoTime() - t0 );
         }
     }
 
@@ -426,26 +304,14 @@ public class TimerInterceptor extends BaseInterceptor
     public void moveAndRename( MoveAndRenameOperationContext moveAndRenameContext ) throws LdapException
     {
         long t0 = System.nanoTime();
-        next( moveAndRenameContext );
-        long delta = System.nanoTime() - t0;
 
-        if ( IS_DEBUG_STATS )
+        try
         {
-            nbMoveAndRenameCalls.incrementAndGet();
-            totalMoveAndRename.getAndAdd( delta );
-
-            if ( nbMoveAndRenameCalls.get() % 1000 == 0 )
-            {
-                long average = totalMoveAndRename.get() / ( nbMoveAndRenameCalls.get() * 1000 );
-                OPERATION_STATS.debug(
-                    getName() + " : Average moveAndRename = {} microseconds, nb moveAndRenames = {}", average,
-                    nbMoveAndRenameCalls.get() );
-            }
+            next( moveAndRenameContext );
         }
-
-        if ( IS_DEBUG_TIME )
+        finally
         {
-            OPERATION_TIME.debug( "{} : Delta moveAndRename = {}", getName(), delta );
+            record( OperationEnum.MOVE_AND_RENAME, System.nanoTime() - t0 );
         }
     }
 
@@ -456,25 +322,14 @@ public class TimerInterceptor extends BaseInterceptor
     public void rename( RenameOperationContext renameContext ) throws LdapException
     {
         long t0 = System.nanoTime();
-        next( renameContext );
-        long delta = System.nanoTime() - t0;
 
-        if ( IS_DEBUG_STATS )
+        try
         {
-            nbRenameCalls.incrementAndGet();
-            totalRename.getAndAdd( delta );
-
-            if ( nbRenameCalls.get() % 1000 == 0 )
-            {
-                long average = totalRename.get() / ( nbRenameCalls.get() * 1000 );
-                OPERATION_STATS.debug( getName() + " : Average rename = {} microseconds, nb renames = {}", average,
-                    nbRenameCalls.get() );
-            }
+            next( renameContext );
         }
-
-        if ( IS_DEBUG_TIME )
+        finally
         {
-            OPERATION_TIME.debug( "{} : Delta rename = {}", getName(), delta );
+            record( OperationEnum.RENAME, System.nanoTime() - t0 );
         }
     }
 
@@ -485,28 +340,15 @@ public class TimerInterceptor extends BaseInterceptor
     public EntryFilteringCursor search( SearchOperationContext searchContext ) throws LdapException
     {
         long t0 = System.nanoTime();
-        EntryFilteringCursor cursor = next( searchContext );
-        long delta = System.nanoTime() - t0;
 
-        if ( IS_DEBUG_STATS )
+        try
         {
-            nbSearchCalls.incrementAndGet();
-            totalSearch.getAndAdd( delta );
-
-            if ( nbSearchCalls.get() % 1000 == 0 )
-            {
-                long average = totalSearch.get() / ( nbSearchCalls.get() * 1000 );
-                OPERATION_STATS.debug( getName() + " : Average search = {} microseconds, nb searches = {}", average,
-                    nbSearchCalls.get() );
-            }
+            return next( searchContext );
         }
-
-        if ( IS_DEBUG_TIME )
+        finally
         {
-            OPERATION_TIME.debug( "{} : Delta search = {}", getName(), delta );
+            record( OperationEnum.SEARCH, System.nanoTime() - t0 );
         }
-
-        return cursor;
     }
 
 
@@ -516,25 +358,14 @@ public class TimerInterceptor extends BaseInterceptor
     public void unbind( UnbindOperationContext unbindContext ) throws LdapException
     {
         long t0 = System.nanoTime();
-        next( unbindContext );
-        long delta = System.nanoTime() - t0;
 
-        if ( IS_DEBUG_STATS )
+        try
         {
-            nbUnbindCalls.incrementAndGet();
-            totalUnbind.getAndAdd( delta );
-
-            if ( nbUnbindCalls.get() % 1000 == 0 )
-            {
-                long average = totalUnbind.get() / ( nbUnbindCalls.get() * 1000 );
-                OPERATION_STATS.debug( getName() + " : Average unbind = {} microseconds, nb unbinds = {}", average,
-                    nbUnbindCalls.get() );
-            }
+            next( unbindContext );
         }
-
-        if ( IS_DEBUG_TIME )
+        finally
         {
-            OPERATION_TIME.debug( "{} : Delta unbind = {}", getName(), delta );
+            record( OperationEnum.UNBIND, System.nanoTime() - t0 );
         }
     }
 }
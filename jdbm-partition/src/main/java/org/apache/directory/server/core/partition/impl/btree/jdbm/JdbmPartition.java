@@ -28,6 +28,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 import jdbm.RecordManager;
 import jdbm.helper.MRU;
@@ -52,6 +53,7 @@ import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.util.exception.MultiException;
 import org.apache.directory.server.constants.ApacheSchemaConstants;
 import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.api.cache.TinyLfuPolicy;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
@@ -61,6 +63,7 @@ import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOpe
 import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.OperationContext;
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
 import org.apache.directory.server.i18n.I18n;
@@ -103,6 +106,13 @@ public class JdbmPartition extends AbstractBTreePartition
     /** the entry cache */
     private Cache entryCache;
 
+    /** the entry cache admission policy */
+    private TinyLfuPolicy entryCachePolicy;
+
+    /** the entry cache hits and misses */
+    private AtomicLong entryCacheHits;
+    private AtomicLong entryCacheMisses;
+
 
     /**
      * Creates a store based on JDBM B+Trees.
@@ -135,11 +145,12 @@ public class JdbmPartition extends AbstractBTreePartition
             }
             else
             {
-                setOptimizer( new DefaultOptimizer<Entry>( this ) );
+                setOptimizer( new DefaultOptimizer<Entry>( this, getPlanCache() ) );
             }
 
-            EvaluatorBuilder evaluatorBuilder = new EvaluatorBuilder( this, schemaManager );
+            EvaluatorBuilder evaluatorBuilder = new EvaluatorBuilder( this, schemaManager, getPlanCache() );
             CursorBuilder cursorBuilder = new CursorBuilder( this, evaluatorBuilder );
+            cursorBuilder.setMetricsRegistry( metricsRegistry );
 
             setSearchEngine( new DefaultSearchEngine( this, cursorBuilder, evaluatorBuilder, getOptimizer() ) );
 
@@ -275,6 +286,12 @@ public class JdbmPartition extends AbstractBTreePartition
                 {
                     entryCache.getCacheConfiguration().setMaxElementsInMemory( cacheSize );
                 }
+
+                entryCachePolicy = TinyLfuPolicy.install( entryCache );
+
+                String entryCacheMetric = MetricsRegistry.PARTITION_PREFIX + getId() + ".entryCache";
+                entryCacheHits = metricsRegistry.getCounter( entryCacheMetric + MetricsRegistry.HIT_SUFFIX );
+                entryCacheMisses = metricsRegistry.getCounter( entryCacheMetric + MetricsRegistry.MISS_SUFFIX );
             }
 
             // We are done !
@@ -597,13 +614,23 @@ public class JdbmPartition extends AbstractBTreePartition
             return null;
         }
 
+        // The accesses of a scan don't make the entry more frequently used
+        if ( !isScanning() )
+        {
+            entryCachePolicy.recordAccess( id );
+        }
+
         Element el = entryCache.get( id );
 
         if ( el != null )
         {
+            entryCacheHits.incrementAndGet();
+
             return ( Entry ) el.getValue();
         }
 
+        entryCacheMisses.incrementAndGet();
+
         return null;
     }
 
@@ -621,7 +648,7 @@ public class JdbmPartition extends AbstractBTreePartition
             entry = ( ( ClonedServerEntry ) entry ).getOriginalEntry();
         }
 
-        entryCache.put( new Element( id, entry ) );
+        entryCachePolicy.put( entryCache, new Element( id, entry ) );
     }
 
 }
@@ -0,0 +1,211 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.StringReader;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schemaextractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schemaextractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schemaloader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schemamanager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.CacheService;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.partition.impl.btree.BulkLoader;
+import org.apache.directory.server.core.shared.DefaultDnFactory;
+import org.apache.directory.server.xdbm.Index;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the BulkLoader on a JdbmPartition.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class JdbmBulkLoaderTest
+{
+    private static SchemaManager schemaManager;
+    private static DnFactory dnFactory;
+
+    private File wkdir;
+    private JdbmPartition partition;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = JdbmBulkLoaderTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        if ( !schemaManager.loadAllEnabled() )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        CacheService cacheService = new CacheService();
+        cacheService.initialize( null );
+        dnFactory = new DefaultDnFactory( schemaManager, cacheService.getCache( "dnCache" ) );
+    }
+
+
+    @Before
+    public void createPartition() throws Exception
+    {
+        wkdir = File.createTempFile( getClass().getSimpleName(), "db" );
+        wkdir.delete();
+        wkdir = new File( wkdir.getParentFile(), getClass().getSimpleName() );
+
+        partition = openPartition();
+    }
+
+
+    private JdbmPartition openPartition() throws Exception
+    {
+        JdbmPartition jdbmPartition = new JdbmPartition( schemaManager, dnFactory );
+        jdbmPartition.setId( "example" );
+        jdbmPartition.setCacheSize( 100 );
+        jdbmPartition.setPartitionPath( wkdir.toURI() );
+
+        JdbmIndex<String> uidIndex = new JdbmIndex<String>( SchemaConstants.UID_AT_OID, false );
+        uidIndex.setWkDirPath( wkdir.toURI() );
+        jdbmPartition.addIndex( uidIndex );
+
+        JdbmIndex<String> cnIndex = new JdbmIndex<String>( SchemaConstants.CN_AT_OID, false );
+        cnIndex.setWkDirPath( wkdir.toURI() );
+        jdbmPartition.addIndex( cnIndex );
+
+        jdbmPartition.setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+        jdbmPartition.initialize();
+
+        return jdbmPartition;
+    }
+
+
+    @After
+    public void destroyPartition() throws Exception
+    {
+        if ( partition != null )
+        {
+            partition.destroy();
+        }
+
+        partition = null;
+
+        if ( wkdir != null )
+        {
+            FileUtils.deleteDirectory( wkdir );
+        }
+
+        wkdir = null;
+    }
+
+
+    private String createLdif( int nbUsers )
+    {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append( "dn: o=Good Times Co.\n" );
+        sb.append( "objectClass: top\n" );
+        sb.append( "objectClass: organization\n" );
+        sb.append( "o: Good Times Co.\n\n" );
+
+        sb.append( "dn: ou=people,o=Good Times Co.\n" );
+        sb.append( "objectClass: top\n" );
+        sb.append( "objectClass: organizationalUnit\n" );
+        sb.append( "ou: people\n\n" );
+
+        // In reverse order, so that the index keys are not added sorted
+        for ( int i = nbUsers - 1; i >= 0; i-- )
+        {
+            sb.append( "dn: uid=user" ).append( i ).append( ",ou=people,o=Good Times Co.\n" );
+            sb.append( "objectClass: top\n" );
+            sb.append( "objectClass: person\n" );
+            sb.append( "objectClass: uidObject\n" );
+            sb.append( "uid: user" ).append( i ).append( '\n' );
+            sb.append( "cn: User " ).append( i ).append( '\n' );
+            sb.append( "sn: User\n\n" );
+        }
+
+        return sb.toString();
+    }
+
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testLoad() throws Exception
+    {
+        BulkLoader loader = new BulkLoader( partition, schemaManager );
+        loader.setBatchSize( 50 );
+        loader.setIndexBatchSize( 300 );
+
+        assertEquals( 1002L, loader.load( new StringReader( createLdif( 1000 ) ) ) );
+
+        // The entries and the indexes are on disk once the partition is reopened
+        partition.destroy();
+        partition = openPartition();
+
+        assertEquals( 1002L, partition.count() );
+
+        Index<String, String> uidIndex = ( Index<String, String> ) partition.getUserIndex( schemaManager
+            .getAttributeType( SchemaConstants.UID_AT ) );
+        Index<String, String> cnIndex = ( Index<String, String> ) partition.getUserIndex( schemaManager
+            .getAttributeType( SchemaConstants.CN_AT ) );
+
+        assertEquals( 1000L, uidIndex.count() );
+        assertEquals( 1000L, cnIndex.count() );
+
+        for ( int i = 0; i < 1000; i += 37 )
+        {
+            String id = partition.getEntryId( new Dn( schemaManager, "uid=user" + i
+                + ",ou=people,o=Good Times Co." ) );
+            assertNotNull( id );
+            assertEquals( id, uidIndex.forwardLookup( "user" + i ) );
+            assertEquals( id, cnIndex.forwardLookup( "user " + i ) );
+        }
+
+        assertEquals( 1000L, partition.getChildCount( partition.getEntryId(
+            new Dn( schemaManager, "ou=people,o=Good Times Co." ) ) ) );
+    }
+}
@@ -63,6 +63,7 @@ import org.apache.directory.server.core.api.MockCoreSession;
 import org.apache.directory.server.core.api.MockDirectoryService;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
 import org.apache.directory.server.core.shared.DefaultDnFactory;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexNotFoundException;
@@ -92,6 +93,7 @@ public class JdbmStoreTest
 
     private static SchemaManager schemaManager = null;
     private static DnFactory dnFactory;
+    private static CacheService cacheService;
     private static LdifSchemaLoader loader;
     private static Dn EXAMPLE_COM;
 
@@ -140,7 +142,7 @@ public class JdbmStoreTest
         SN_AT = schemaManager.getAttributeType( SchemaConstants.SN_AT );
         APACHE_ALIAS_AT = schemaManager.getAttributeType( ApacheSchemaConstants.APACHE_ALIAS_AT );
 
-        CacheService cacheService = new CacheService();
+        cacheService = new CacheService();
         cacheService.initialize( null );
         dnFactory = new DefaultDnFactory( schemaManager, cacheService.getCache( "dnCache" ) );
     }
@@ -249,6 +251,54 @@ public class JdbmStoreTest
     }
 
 
+    /**
+     * Tests that the entry cache lookups are counted as hits and misses.
+     */
+    @Test
+    public void testEntryCacheMetrics() throws Exception
+    {
+        File wkdir2 = File.createTempFile( getClass().getSimpleName(), "db2" );
+        wkdir2.delete();
+        wkdir2 = new File( wkdir2.getParentFile(), getClass().getSimpleName() + "Cache" );
+
+        MetricsRegistry metricsRegistry = new MetricsRegistry();
+        JdbmPartition store2 = new JdbmPartition( schemaManager, dnFactory );
+        store2.setId( "cached" );
+        store2.setCacheSize( 10 );
+        store2.setPartitionPath( wkdir2.toURI() );
+        store2.setSyncOnWrite( false );
+        store2.setSuffixDn( EXAMPLE_COM );
+        store2.setCacheService( cacheService );
+        store2.setMetricsRegistry( metricsRegistry );
+        store2.initialize();
+
+        try
+        {
+            Dn suffixDn = new Dn( schemaManager, "dc=example,dc=com" );
+            Entry entry = new DefaultEntry( schemaManager, suffixDn,
+                "objectClass: top",
+                "objectClass: domain",
+                "dc: example",
+                SchemaConstants.ENTRY_CSN_AT, new CsnFactory( 0 ).newInstance().toString(),
+                SchemaConstants.ENTRY_UUID_AT, UUID.randomUUID().toString() );
+
+            store2.add( new AddOperationContext( null, entry ) );
+
+            String id = store2.getEntryId( suffixDn );
+            assertNotNull( store2.fetch( id, suffixDn ) );
+            assertNotNull( store2.fetch( id, suffixDn ) );
+
+            assertEquals( 1L, metricsRegistry.getCounter( "partition.cached.entryCache.miss" ).get() );
+            assertEquals( 1L, metricsRegistry.getCounter( "partition.cached.entryCache.hit" ).get() );
+        }
+        finally
+        {
+            store2.destroy();
+            FileUtils.deleteDirectory( wkdir2 );
+        }
+    }
+
+
     @Test
     public void testSimplePropertiesUnlocked() throws Exception
     {
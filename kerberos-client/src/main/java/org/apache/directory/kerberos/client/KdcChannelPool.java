@@ -0,0 +1,182 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.kerberos.client;
+
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A pool of {@link KerberosChannel}s opened to the same server. A channel is
+ * used by one request at a time, and given back to the pool once the reply has
+ * been fully read, so that the next request doesn't have to open a new socket.
+ * A channel which failed is closed instead of being given back.
+ * 
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class KdcChannelPool
+{
+    private static final Logger LOG = LoggerFactory.getLogger( KdcChannelPool.class );
+
+    /** the idle channels */
+    private final BlockingQueue<KerberosChannel> idleChannels;
+
+    private final String hostName;
+
+    private final int port;
+
+    private final int timeout;
+
+    private final boolean useUdp;
+
+    /** set when the pool has been closed */
+    private volatile boolean closed;
+
+
+    /**
+     * Creates a new instance of KdcChannelPool.
+     *
+     * @param hostName the server host name
+     * @param port the server port
+     * @param timeout the timeout of the channels, in milliseconds
+     * @param useUdp tells if the channels use UDP or TCP
+     * @param maxIdle the maximum number of idle channels kept open
+     */
+    KdcChannelPool( String hostName, int port, int timeout, boolean useUdp, int maxIdle )
+    {
+        this.hostName = hostName;
+        this.port = port;
+        this.timeout = timeout;
+        this.useUdp = useUdp;
+        idleChannels = new LinkedBlockingQueue<KerberosChannel>( Math.max( 1, maxIdle ) );
+    }
+
+
+    /**
+     * Gets an idle channel, or opens a new one if there is none.
+     *
+     * @return an open channel, not used by any other request
+     * @throws IOException if the channel can't be opened
+     */
+    KerberosChannel acquire() throws IOException
+    {
+        if ( closed )
+        {
+            throw new IOException( "The channel pool is closed" );
+        }
+
+        KerberosChannel channel = idleChannels.poll();
+
+        while ( channel != null )
+        {
+            if ( channel.isOpen() )
+            {
+                return channel;
+            }
+
+            channel = idleChannels.poll();
+        }
+
+        return open();
+    }
+
+
+    /**
+     * Opens a new channel, without looking for an idle one.
+     *
+     * @return a new channel
+     * @throws IOException if the channel can't be opened
+     */
+    KerberosChannel open() throws IOException
+    {
+        KerberosChannel channel = new KerberosChannel();
+        channel.openConnection( hostName, port, timeout, useUdp );
+
+        return channel;
+    }
+
+
+    /**
+     * Gives a channel back to the pool. It is closed if the pool is full or closed.
+     *
+     * @param channel the channel to release
+     */
+    void release( KerberosChannel channel )
+    {
+        if ( closed || !idleChannels.offer( channel ) )
+        {
+            invalidate( channel );
+        }
+        else if ( closed && idleChannels.remove( channel ) )
+        {
+            // The pool has been closed meanwhile
+            invalidate( channel );
+        }
+    }
+
+
+    /**
+     * Closes a channel which must not be used anymore.
+     *
+     * @param channel the channel to close
+     */
+    void invalidate( KerberosChannel channel )
+    {
+        try
+        {
+            channel.close();
+        }
+        catch ( IOException e )
+        {
+            LOG.warn( "Failed to close the channel", e );
+        }
+    }
+
+
+    /**
+     * @return tells if the channels of this pool use TCP
+     */
+    boolean isUseTcp()
+    {
+        return !useUdp;
+    }
+
+
+    /**
+     * Closes all the idle channels. The channels in use are closed when released.
+     */
+    void close()
+    {
+        closed = true;
+
+        KerberosChannel channel = idleChannels.poll();
+
+        while ( channel != null )
+        {
+            invalidate( channel );
+            channel = idleChannels.poll();
+        }
+    }
+}
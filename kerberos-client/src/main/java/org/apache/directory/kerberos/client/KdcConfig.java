@@ -61,6 +61,12 @@ public class KdcConfig
     /** the set of encryption types that the client can support */
     private Set<EncryptionType> encryptionTypes;
 
+    /** the maximum number of connections to the Kerberos server kept open, and of concurrent asynchronous requests */
+    private int channelPoolSize = 4;
+
+    /** flag to indicate if the tickets should be cached until they expire */
+    private boolean cacheTickets = false;
+
     /** the default encryption types, this includes <b>many</b> encryption types */
     private static Set<EncryptionType> DEFAULT_ENCRYPTION_TYPES;
 
@@ -174,12 +180,37 @@ public class KdcConfig
     }
 
 
+    public int getChannelPoolSize()
+    {
+        return channelPoolSize;
+    }
+
+
+    public void setChannelPoolSize( int channelPoolSize )
+    {
+        this.channelPoolSize = channelPoolSize;
+    }
+
+
+    public boolean isCacheTickets()
+    {
+        return cacheTickets;
+    }
+
+
+    public void setCacheTickets( boolean cacheTickets )
+    {
+        this.cacheTickets = cacheTickets;
+    }
+
+
     @Override
     public String toString()
     {
         return "KdcConfig [hostName=" + hostName + ", kdcPort=" + kdcPort + ", passwdPort=" + passwdPort + ", useUdp="
             + useUdp + ", useLegacyChngPwdProtocol=" + useLegacyChngPwdProtocol + ", timeout=" + timeout
-            + ", encryptionTypes=" + encryptionTypes + "]";
+            + ", encryptionTypes=" + encryptionTypes + ", channelPoolSize=" + channelPoolSize + ", cacheTickets="
+            + cacheTickets + "]";
     }
 
 }
@@ -22,11 +22,21 @@ package org.apache.directory.kerberos.client;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
 import java.text.ParseException;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
 import javax.security.auth.kerberos.KerberosPrincipal;
 
 import org.apache.directory.api.asn1.Asn1Object;
@@ -84,6 +94,14 @@ import org.slf4j.LoggerFactory;
 /**
  * 
  * A client to connect to kerberos servers using TCP or UDP transports.
+ * <p>
+ * The connections to the server are pooled : a connection is used by one
+ * request at a time, and reused by the next requests. A KdcConnection can be
+ * shared by many threads, and the asynchronous methods run the requests
+ * concurrently, up to {@link KdcConfig#getChannelPoolSize()} of them. When
+ * {@link KdcConfig#isCacheTickets()} is set, the tickets obtained with a
+ * password are cached until they expire. {@link #close()} releases the
+ * connections and the threads.
  * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -100,11 +118,23 @@ public class KdcConnection
     /** the cipher text handler */
     private CipherTextHandler cipherTextHandler;
 
-    /** underlying network channel handler */
-    private KerberosChannel channel;
+    /** the pool of network channels to the KDC */
+    private KdcChannelPool channelPool;
     
     private KdcConfig config;
     
+    /** the ticket cache, used when the configuration enables it */
+    private TicketCache ticketCache;
+    
+    /** the executor running the asynchronous requests, created when first needed */
+    private ExecutorService executor;
+    
+    /** a counter making the authenticators sent in the same millisecond different */
+    private AtomicInteger authenticatorCounter;
+    
+    /** the secret key of the verifiers of the passwords used to get the cached tickets */
+    private byte[] cacheSecret;
+    
     /**
      * 
      * Creates a new instance of KdcConnection.
@@ -117,13 +147,14 @@ public class KdcConnection
         
         nonceGenerator = new SecureRandom( String.valueOf( System.currentTimeMillis() ).getBytes() );
         cipherTextHandler = new CipherTextHandler();
-        channel = new KerberosChannel();
-    }
-
-
-    private void connect() throws IOException
-    {
-        channel.openConnection( config.getHostName(), config.getKdcPort(), config.getTimeout(), config.isUseUdp() );
+        channelPool = new KdcChannelPool( config.getHostName(), config.getKdcPort(), config.getTimeout(),
+            config.isUseUdp(), config.getChannelPoolSize() );
+        ticketCache = new TicketCache();
+        authenticatorCounter = new AtomicInteger( nonceGenerator.nextInt() );
+        
+        // The nonce generator is seeded with the time, use a self seeded generator for the secret
+        cacheSecret = new byte[32];
+        new SecureRandom().nextBytes( cacheSecret );
     }
     
     
@@ -133,16 +164,38 @@ public class KdcConnection
      * @param principal the client's principal 
      * @param password password of the client
      * @return
-     * @throws Exception
+     * @throws KerberosException
      */
-    public TgTicket getTgt( String principal, String password ) throws Exception
+    public TgTicket getTgt( String principal, String password ) throws KerberosException
     {
+        String key = null;
+        byte[] verifier = null;
+        
+        if ( config.isCacheTickets() )
+        {
+            key = getCacheKey( principal, "krbtgt" );
+            verifier = getVerifier( password );
+            TgTicket tgt = ( TgTicket ) ticketCache.get( key, verifier );
+            
+            if ( tgt != null )
+            {
+                return tgt;
+            }
+        }
+        
         TgtRequest clientTgtReq = new TgtRequest();
         
         clientTgtReq.setClientPrincipal( principal );
         clientTgtReq.setPassword( password );
         
-        return getTgt( clientTgtReq );
+        TgTicket tgt = getTgt( clientTgtReq );
+        
+        if ( key != null )
+        {
+            ticketCache.put( key, verifier, tgt );
+        }
+        
+        return tgt;
     }
     
 
@@ -157,13 +210,173 @@ public class KdcConnection
      */
     public ServiceTicket getServiceTicket( String clientPrincipal, String password, String serverPrincipal ) throws KerberosException
     {
-        TgtRequest clientTgtReq = new TgtRequest();
-        clientTgtReq.setClientPrincipal( clientPrincipal );
-        clientTgtReq.setPassword( password );
+        TgTicket tgt = getTgt( clientPrincipal, password );
         
-        TgTicket tgt = getTgt( clientTgtReq );
+        String key = null;
+        byte[] verifier = null;
+        
+        if ( config.isCacheTickets() )
+        {
+            key = getCacheKey( clientPrincipal, serverPrincipal );
+            verifier = getVerifier( password );
+            ServiceTicket srvTkt = ( ServiceTicket ) ticketCache.get( key, verifier );
+            
+            if ( srvTkt != null )
+            {
+                return srvTkt;
+            }
+        }
+        
+        ServiceTicket srvTkt = getServiceTicket( new ServiceTicketRequest( tgt, serverPrincipal ) );
+        
+        if ( key != null )
+        {
+            ticketCache.put( key, verifier, srvTkt );
+        }
         
-        return getServiceTicket( new ServiceTicketRequest( tgt, serverPrincipal ) );
+        return srvTkt;
+    }
+    
+    
+    /**
+     * Gets the initial Ticket Granting Ticket without blocking the caller.
+     * 
+     * @see #getTgt(String, String)
+     * @param principal the client's principal 
+     * @param password password of the client
+     * @return the future TGT
+     */
+    public Future<TgTicket> getTgtAsync( final String principal, final String password )
+    {
+        return getExecutor().submit( new Callable<TgTicket>()
+        {
+            public TgTicket call() throws Exception
+            {
+                return getTgt( principal, password );
+            }
+        } );
+    }
+    
+    
+    /**
+     * Gets a service ticket without blocking the caller.
+     * 
+     * @see #getServiceTicket(String, String, String)
+     * @param clientPrincipal the client's principal 
+     * @param password password of the client
+     * @param serverPrincipal the application server's principal
+     * @return the future service ticket
+     */
+    public Future<ServiceTicket> getServiceTicketAsync( final String clientPrincipal, final String password,
+        final String serverPrincipal )
+    {
+        return getExecutor().submit( new Callable<ServiceTicket>()
+        {
+            public ServiceTicket call() throws Exception
+            {
+                return getServiceTicket( clientPrincipal, password, serverPrincipal );
+            }
+        } );
+    }
+    
+    
+    /**
+     * Gets a service ticket using an existing TGT, without blocking the caller.
+     * 
+     * @param srvTktReq the service ticket request
+     * @return the future service ticket
+     */
+    public Future<ServiceTicket> getServiceTicketAsync( final ServiceTicketRequest srvTktReq )
+    {
+        return getExecutor().submit( new Callable<ServiceTicket>()
+        {
+            public ServiceTicket call() throws Exception
+            {
+                return getServiceTicket( srvTktReq );
+            }
+        } );
+    }
+    
+    
+    /**
+     * @return the ticket cache used when {@link KdcConfig#isCacheTickets()} is set
+     */
+    public TicketCache getTicketCache()
+    {
+        return ticketCache;
+    }
+    
+    
+    /**
+     * Closes the pooled connections and stops the threads running the
+     * asynchronous requests. The pending requests are still executed.
+     */
+    public void close()
+    {
+        synchronized ( this )
+        {
+            if ( executor != null )
+            {
+                executor.shutdown();
+                executor = null;
+            }
+        }
+        
+        channelPool.close();
+    }
+    
+    
+    private synchronized ExecutorService getExecutor()
+    {
+        if ( executor == null )
+        {
+            final AtomicInteger threadNumber = new AtomicInteger();
+            
+            executor = Executors.newFixedThreadPool( Math.max( 1, config.getChannelPoolSize() ), new ThreadFactory()
+            {
+                public Thread newThread( Runnable runnable )
+                {
+                    Thread thread = new Thread( runnable, "KdcConnection-" + threadNumber.incrementAndGet() );
+                    thread.setDaemon( true );
+                    
+                    return thread;
+                }
+            } );
+        }
+        
+        return executor;
+    }
+    
+    
+    /**
+     * Builds the key of a ticket in the cache, from the client principal, its
+     * realm and the server principal.
+     */
+    private static String getCacheKey( String clientPrincipal, String serverPrincipal )
+    {
+        return clientPrincipal + '\0' + KdcClientUtil.extractRealm( clientPrincipal ) + '\0' + serverPrincipal;
+    }
+    
+    
+    /**
+     * Computes the verifier of a password, checked before returning a cached ticket.
+     * It is a HMAC keyed with a random secret of this connection, so the verifiers
+     * can't be used to guess the passwords.
+     */
+    private byte[] getVerifier( String password )
+    {
+        try
+        {
+            Mac mac = Mac.getInstance( "HmacSHA256" );
+            mac.init( new SecretKeySpec( cacheSecret, "HmacSHA256" ) );
+            
+            return mac.doFinal( Strings.getBytesUtf8( password ) );
+        }
+        catch ( GeneralSecurityException e )
+        {
+            // HmacSHA256 is always available
+            throw new IllegalStateException( e );
+        }
     }
 
     public TgTicket getTgt( TgtRequest clientTgtReq ) throws KerberosException
@@ -188,14 +401,14 @@ public class KdcConnection
                 ke = e;
             }
             
-            if( ke != null )
+            if ( ( ke == null ) || ( ke.getErrorCode() != ErrorType.KDC_ERR_PREAUTH_REQUIRED.getValue() ) )
             {
-                if ( ke.getErrorCode() == ErrorType.KDC_ERR_PREAUTH_REQUIRED.getValue() )
-                {
-                    clientTgtReq.setETypes( KdcClientUtil.getEtypesFromError( ke.getError() ) );
-                    clientTgtReq.setPreAuthEnabled( true );
-                }
+                // Only a missing pre-authentication is worth a second attempt
+                break;
             }
+            
+            clientTgtReq.setETypes( KdcClientUtil.getEtypesFromError( ke.getError() ) );
+            clientTgtReq.setPreAuthEnabled( true );
         }
         
         if( ke != null )
@@ -206,8 +419,6 @@ public class KdcConnection
         return tgt;
     }
     
-    private EncryptionType usedEType;
-    
     /* default protected */ TgTicket _getTgt( TgtRequest clientTgtReq ) throws KerberosException
     {
         String realm = clientTgtReq.getRealm();
@@ -260,7 +471,6 @@ public class KdcConnection
         }
         
         EncryptionType encryptionType = clientTgtReq.getETypes().iterator().next();
-        usedEType = encryptionType;
         EncryptionKey clientKey = KerberosKeyFactory.string2Key( clientTgtReq.getClientPrincipal(), clientTgtReq.getPassword(), encryptionType );
 
         AsReq req = new AsReq();
@@ -283,8 +493,6 @@ public class KdcConnection
         // Get the result from the future
         try
         {
-            connect();
-            
             // Read the response, waiting for it if not available immediately
             // Get the response, blocking
             KerberosMessage kdcRep = sendAndReceiveKrbMsg( req );
@@ -376,24 +584,17 @@ public class KdcConnection
             LOG.error( "Authentication failed" );
             throw new KerberosException( ErrorType.KRB_ERR_GENERIC, TIME_OUT_ERROR );
         }
-        finally
-        {
-            if ( channel != null )
-            {
-                try
-                {
-                    channel.close();
-                }
-                catch( IOException e )
-                {
-                    LOG.warn( "Failed to close the channel", e );
-                }
-            }
-        }
     }
 
     
-    private ServiceTicket getServiceTicket( ServiceTicketRequest srvTktReq ) throws KerberosException
+    /**
+     * Gets a service ticket using an existing TGT.
+     * 
+     * @param srvTktReq the service ticket request
+     * @return the service ticket
+     * @throws KerberosException if the request failed
+     */
+    public ServiceTicket getServiceTicket( ServiceTicketRequest srvTktReq ) throws KerberosException
     {
         String serverPrincipal = srvTktReq.getServerPrincipal();
         
@@ -412,8 +613,9 @@ public class KdcConnection
         }
         
         authenticator.setCRealm( srvTktReq.getTgt().getRealm() );
-        authenticator.setCTime( new KerberosTime() );
-        authenticator.setCusec( 0 );
+        KerberosTime ctime = new KerberosTime();
+        authenticator.setCTime( ctime );
+        authenticator.setCusec( getCusec( ctime ) );
 
         if( srvTktReq.getSubSessionKey() != null )
         {
@@ -453,8 +655,6 @@ public class KdcConnection
         // Get the result from the future
         try
         {
-            connect();
-            
             // Read the response, waiting for it if not available immediately
             // Get the response, blocking
             KerberosMessage kdcRep = sendAndReceiveKrbMsg( tgsReq );
@@ -500,20 +700,6 @@ public class KdcConnection
             LOG.error( "TGT request failed : timeout occured" );
             throw new KerberosException( ErrorType.KRB_ERR_GENERIC, TIME_OUT_ERROR );
         }
-        finally
-        {
-            if ( channel != null )
-            {
-                try
-                {
-                    channel.close();
-                }
-                catch( IOException e )
-                {
-                    LOG.warn( "Failed to close the channel", e );
-                }
-            }
-        }
     }
     
     
@@ -540,10 +726,10 @@ public class KdcConnection
             authenticator.setCRealm( tgt.getRealm() );
             KerberosTime ctime = new KerberosTime();
             authenticator.setCTime( ctime );
-            authenticator.setCusec( 0 );
+            authenticator.setCusec( getCusec( ctime ) );
             authenticator.setSeqNumber( nonceGenerator.nextInt() );
             
-            EncryptionKey subKey = RandomKeyFactory.getRandomKey( usedEType );
+            EncryptionKey subKey = RandomKeyFactory.getRandomKey( tgt.getSessionKey().getKeyType() );
             
             authenticator.setSubKey( subKey );
             
@@ -606,6 +792,9 @@ public class KdcConnection
             
             ChangePasswordResult result = new ChangePasswordResult( part.getUserData() );
             
+            // The tickets obtained with the old password must not be used anymore
+            ticketCache.removeClient( clientPrincipal );
+            
             return result;
         }
         catch( ChangePasswordException e )
@@ -652,6 +841,20 @@ public class KdcConnection
     }
 
     
+    /**
+     * Computes the microseconds of an authenticator. The KDC rejects an
+     * authenticator with the same client time and microseconds as a previous one,
+     * and the client time is only precise to the second : the milliseconds and a
+     * counter are used, so that many requests can be sent in the same second.
+     */
+    private int getCusec( KerberosTime ctime )
+    {
+        int counter = ( authenticatorCounter.getAndIncrement() & 0x7FFFFFFF ) % 1000;
+
+        return ( int ) ( ctime.getTime() % 1000 ) * 1000 + counter;
+    }
+    
+    
     private KerberosTime getDefaultTill()
     {
         return new KerberosTime( System.currentTimeMillis() + ( KerberosTime.MINUTE * 60 ) );
@@ -660,15 +863,48 @@ public class KdcConnection
 
     private KerberosMessage sendAndReceiveKrbMsg( KerberosMessage req ) throws Exception
     {
-        ByteBuffer encodedBuf = KerberosEncoder.encode( req, channel.isUseTcp() );
+        ByteBuffer encodedBuf = KerberosEncoder.encode( req, channelPool.isUseTcp() );
         encodedBuf.flip();
         
-        ByteBuffer repData = channel.sendAndReceive( encodedBuf );
+        KerberosChannel channel = channelPool.acquire();
+        ByteBuffer repData;
+        
+        try
+        {
+            repData = channel.sendAndReceive( encodedBuf );
+        }
+        catch ( IOException ioe )
+        {
+            // The channel may hold a partial or late reply, it can't be reused
+            channelPool.invalidate( channel );
+            
+            if ( !channelPool.isUseTcp() || ( ioe instanceof SocketTimeoutException ) )
+            {
+                throw ioe;
+            }
+            
+            // The server may have closed a pooled connection, try again once on a new one
+            channel = channelPool.open();
+            encodedBuf.rewind();
+            
+            try
+            {
+                repData = channel.sendAndReceive( encodedBuf );
+            }
+            catch ( IOException ioe2 )
+            {
+                channelPool.invalidate( channel );
+                throw ioe2;
+            }
+        }
+        
+        // The reply has been fully read, the channel can serve another request
+        channelPool.release( channel );
         
         KerberosMessageContainer kerberosMessageContainer = new KerberosMessageContainer();
         kerberosMessageContainer.setStream( repData );
         kerberosMessageContainer.setGathering( true );
-        kerberosMessageContainer.setTCP( channel.isUseTcp() );
+        kerberosMessageContainer.setTCP( channelPool.isUseTcp() );
 
         return ( KerberosMessage ) KerberosDecoder.decode( kerberosMessageContainer, new Asn1Decoder() );
     }
@@ -56,6 +56,12 @@ public class KerberosChannel
     /** the UDP socket address of the server */
     private SocketAddress udpServerAddr = null;
     
+    /** the maximum size of a UDP datagram */
+    private static final int MAX_UDP_SIZE = 65536;
+
+    /** the buffer receiving the UDP replies, reused as long as the channel is open */
+    private byte[] udpBuffer;
+    
     protected void openConnection( String hostName, int  portNo, int timeOut, boolean isUdp ) throws IOException
     {
         this.useUdp = isUdp;
@@ -65,6 +71,8 @@ public class KerberosChannel
         {
             udpServerAddr = new InetSocketAddress( hostName, portNo );
             udpSocket = new DatagramSocket();
+            udpSocket.setSoTimeout( timeOut );
+            udpBuffer = new byte[MAX_UDP_SIZE];
         }
         else
         {
@@ -87,13 +95,11 @@ public class KerberosChannel
             DatagramPacket reqPacket = new DatagramPacket( reqData, reqData.length, udpServerAddr );
             udpSocket.send( reqPacket );
             
-            byte[] buffer = new byte[2048];
-            DatagramPacket repPacket = new DatagramPacket( buffer, buffer.length );
+            DatagramPacket repPacket = new DatagramPacket( udpBuffer, udpBuffer.length );
             udpSocket.receive( repPacket );
             
-            byte[] receivedData = repPacket.getData();
-            repData = ByteBuffer.allocate( receivedData.length );
-            repData.put( receivedData );
+            repData = ByteBuffer.allocate( repPacket.getLength() );
+            repData.put( udpBuffer, 0, repPacket.getLength() );
         }
         else
         {
@@ -102,15 +108,13 @@ public class KerberosChannel
             
             int len = in.readInt();
             
-            repData = ByteBuffer.allocate( len + 4 );
-            repData.putInt( len );
+            // Read the whole reply, so that the connection can be used for the next request
+            byte[] reply = new byte[len + 4];
+            in.readFully( reply, 4, len );
             
-            byte[] tmp = new byte[ 1024 * 8 ];
-            while ( in.available() > 0 )
-            {
-                int read = in.read( tmp );
-                repData.put( tmp, 0, read );
-            }
+            repData = ByteBuffer.wrap( reply );
+            repData.putInt( len );
+            repData.position( reply.length );
         }
         
         repData.flip();
@@ -125,6 +129,19 @@ public class KerberosChannel
     }
 
 
+    protected boolean isOpen()
+    {
+        if ( useUdp )
+        {
+            return ( udpSocket != null ) && !udpSocket.isClosed();
+        }
+        else
+        {
+            return ( tcpSocket != null ) && !tcpSocket.isClosed() && !tcpSocket.isInputShutdown();
+        }
+    }
+
+
     protected void close() throws IOException
     {
         if( useUdp )
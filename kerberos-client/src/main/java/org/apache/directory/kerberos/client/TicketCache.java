@@ -0,0 +1,146 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.kerberos.client;
+
+
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * A cache of the tickets obtained from the KDC, kept until they are about to
+ * expire. The cache is safe to use from many threads. A ticket is not returned
+ * anymore once it is less than {@link #EXPIRY_MARGIN} milliseconds away from
+ * its expiration, so that the caller still has time to use it.
+ * <p>
+ * The keys are built by the {@link KdcConnection}. They start with the client
+ * principal, followed by a '\0' character. Each ticket is stored along with a
+ * verifier of the credentials it has been obtained with, and is only returned
+ * to a caller presenting the same verifier.
+ * 
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class TicketCache
+{
+    /** the margin before the expiration time after which a ticket is not used anymore */
+    public static final long EXPIRY_MARGIN = 60 * 1000L;
+
+    /** the cached tickets */
+    private final ConcurrentMap<String, CachedTicket> tickets = new ConcurrentHashMap<String, CachedTicket>();
+
+    /** A ticket and the verifier of the credentials it has been obtained with */
+    private static class CachedTicket
+    {
+        private final byte[] verifier;
+        private final AbstractTicket ticket;
+
+
+        private CachedTicket( byte[] verifier, AbstractTicket ticket )
+        {
+            this.verifier = verifier;
+            this.ticket = ticket;
+        }
+    }
+
+
+    /**
+     * Gets a ticket from the cache. An expired ticket is removed.
+     *
+     * @param key the ticket key
+     * @param verifier the verifier of the caller's credentials
+     * @return the ticket, or null if there is no valid ticket for this key and verifier
+     */
+    public AbstractTicket get( String key, byte[] verifier )
+    {
+        CachedTicket cached = tickets.get( key );
+
+        if ( cached == null )
+        {
+            return null;
+        }
+
+        if ( cached.ticket.getExpiryTime() - EXPIRY_MARGIN <= System.currentTimeMillis() )
+        {
+            tickets.remove( key, cached );
+
+            return null;
+        }
+
+        if ( !MessageDigest.isEqual( cached.verifier, verifier ) )
+        {
+            return null;
+        }
+
+        return cached.ticket;
+    }
+
+
+    /**
+     * Stores a ticket in the cache, replacing the ticket previously stored with the same key.
+     *
+     * @param key the ticket key
+     * @param verifier the verifier of the credentials the ticket has been obtained with
+     * @param ticket the ticket
+     */
+    public void put( String key, byte[] verifier, AbstractTicket ticket )
+    {
+        tickets.put( key, new CachedTicket( verifier, ticket ) );
+    }
+
+
+    /**
+     * Removes all the tickets of a client.
+     *
+     * @param clientPrincipal the client principal
+     */
+    public void removeClient( String clientPrincipal )
+    {
+        String prefix = clientPrincipal + '\0';
+        Iterator<String> keys = tickets.keySet().iterator();
+
+        while ( keys.hasNext() )
+        {
+            if ( keys.next().startsWith( prefix ) )
+            {
+                keys.remove();
+            }
+        }
+    }
+
+
+    /**
+     * Removes all the tickets.
+     */
+    public void clear()
+    {
+        tickets.clear();
+    }
+
+
+    /**
+     * @return the number of tickets in the cache, including the expired ones not removed yet
+     */
+    public int size()
+    {
+        return tickets.size();
+    }
+}
@@ -23,10 +23,14 @@ package org.apache.directory.kerberos.client;
 import static org.apache.directory.kerberos.client.ChangePasswordResultCode.KRB5_KPASSWD_SUCCESS;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
 
 import org.apache.directory.api.ldap.model.entry.DefaultEntry;
 import org.apache.directory.api.ldap.model.entry.Entry;
@@ -225,6 +229,56 @@ public class KdcConnectionTest extends AbstractLdapTestUnit
         assertNotNull( rep );
     }
     
+    @Test
+    public void testAsyncServiceTicketsWithCache() throws Exception
+    {
+        KdcConfig config = KdcConfig.getDefaultConfig();
+        config.setUseUdp( false );
+        config.setKdcPort( kdcServer.getTcpPort() );
+        config.setEncryptionTypes( kdcServer.getConfig().getEncryptionTypes() );
+        config.setTimeout( Integer.MAX_VALUE );
+        config.setCacheTickets( true );
+        KdcConnection asyncConn = new KdcConnection( config );
+
+        try
+        {
+            List<Future<ServiceTicket>> futures = new ArrayList<Future<ServiceTicket>>();
+
+            for ( int i = 0; i < 10; i++ )
+            {
+                futures.add( asyncConn.getServiceTicketAsync( principalName, userPassword, serverPrincipal ) );
+            }
+
+            for ( Future<ServiceTicket> future : futures )
+            {
+                assertNotNull( future.get() );
+            }
+
+            // Now the tickets are cached
+            TgTicket tgt = asyncConn.getTgt( principalName, userPassword );
+            assertSame( tgt, asyncConn.getTgtAsync( principalName, userPassword ).get() );
+
+            ServiceTicket srvTkt = asyncConn.getServiceTicket( principalName, userPassword, serverPrincipal );
+            assertSame( srvTkt, asyncConn.getServiceTicket( principalName, userPassword, serverPrincipal ) );
+
+            // A wrong password doesn't get the cached ticket
+            try
+            {
+                asyncConn.getTgt( principalName, "wrong" );
+                fail( "should fail with kerberos exception cause of invalid password" );
+            }
+            catch ( KerberosException e )
+            {
+                // expected
+            }
+        }
+        finally
+        {
+            asyncConn.close();
+        }
+    }
+
+
     @Test
     public void testKinit() throws Exception
     {
@@ -0,0 +1,80 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.kerberos.client;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.apache.directory.shared.kerberos.KerberosTime;
+import org.apache.directory.shared.kerberos.components.EncKdcRepPart;
+import org.junit.Test;
+
+
+/**
+ * Tests the TicketCache.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class TicketCacheTest
+{
+    private static ServiceTicket createTicket( long endTime )
+    {
+        EncKdcRepPart encKdcRepPart = new EncKdcRepPart();
+        encKdcRepPart.setEndTime( new KerberosTime( endTime ) );
+
+        return new ServiceTicket( null, encKdcRepPart );
+    }
+
+
+    @Test
+    public void testVerifier()
+    {
+        TicketCache cache = new TicketCache();
+        ServiceTicket ticket = createTicket( System.currentTimeMillis() + 3600000L );
+        cache.put( "hnelson@EXAMPLE.COM\0EXAMPLE.COM\0ldap/localhost", new byte[]
+            { 1, 2, 3 }, ticket );
+
+        assertSame( ticket, cache.get( "hnelson@EXAMPLE.COM\0EXAMPLE.COM\0ldap/localhost", new byte[]
+            { 1, 2, 3 } ) );
+        assertNull( cache.get( "hnelson@EXAMPLE.COM\0EXAMPLE.COM\0ldap/localhost", new byte[]
+            { 1, 2, 4 } ) );
+
+        // A wrong verifier doesn't evict the ticket
+        assertEquals( 1, cache.size() );
+
+        cache.removeClient( "hnelson@EXAMPLE.COM" );
+        assertEquals( 0, cache.size() );
+    }
+
+
+    @Test
+    public void testExpiredTicket()
+    {
+        TicketCache cache = new TicketCache();
+        cache.put( "key", new byte[]
+            { 1 }, createTicket( System.currentTimeMillis() + TicketCache.EXPIRY_MARGIN / 2 ) );
+
+        assertNull( cache.get( "key", new byte[]
+            { 1 } ) );
+        assertEquals( 0, cache.size() );
+    }
+}
@@ -32,36 +32,70 @@ import org.apache.directory.api.asn1.EncoderException;
  */
 public class KerberosEncoder
 {
+    /** The size of the record mark prepended to the messages sent over TCP */
+    public static final int TCP_LENGTH_PREFIX_SIZE = 4;
+
+
     public static ByteBuffer encode( AbstractAsn1Object asn1Obj, boolean isTcp ) throws IOException
     {
-        ByteBuffer response = null;
-        ByteBuffer kerberosMessage = null;
-
         int responseLength = asn1Obj.computeLength();
-        kerberosMessage = ByteBuffer.allocate( responseLength );
+        ByteBuffer response = ByteBuffer.allocate( getEncodedSize( responseLength, isTcp ) );
+
+        encode( asn1Obj, responseLength, isTcp, response );
+
+        response.flip();
 
+        return response;
+    }
+
+
+    /**
+     * Encodes a Kerberos message directly into the given buffer, starting at
+     * its current position. The length of the message must have been computed
+     * beforehand with {@link AbstractAsn1Object#computeLength()}, and the
+     * buffer must have at least {@link #getEncodedSize(int, boolean)} bytes
+     * remaining. When the message is sent over TCP, the 4 bytes length prefix
+     * is written first.
+     *
+     * @param asn1Obj The message to encode
+     * @param length The length of the message, as returned by computeLength()
+     * @param isTcp Tells if the message is sent over TCP
+     * @param buffer The buffer to encode the message into
+     * @throws IOException If the message can't be encoded
+     */
+    public static void encode( AbstractAsn1Object asn1Obj, int length, boolean isTcp, ByteBuffer buffer )
+        throws IOException
+    {
         try
         {
-            asn1Obj.encode( kerberosMessage );
-
             if ( isTcp )
             {
-                response = ByteBuffer.allocate( responseLength + 4 );
-                response.putInt( responseLength );
-                response.put( kerberosMessage.array() );
+                buffer.putInt( length );
             }
-            else
-            {
-                response = kerberosMessage;
-            }
-
-            response.flip();
 
-            return response;
+            asn1Obj.encode( buffer );
         }
         catch ( EncoderException e )
         {
             throw new IOException( e.getMessage() );
         }
     }
+
+
+    /**
+     * Computes the number of bytes needed to send a message of the given length.
+     *
+     * @param length The length of the encoded message
+     * @param isTcp Tells if the message is sent over TCP
+     * @return The size of the buffer to allocate
+     */
+    public static int getEncodedSize( int length, boolean isTcp )
+    {
+        if ( isTcp )
+        {
+            return length + TCP_LENGTH_PREFIX_SIZE;
+        }
+
+        return length;
+    }
 }
@@ -0,0 +1,87 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.kerberos.protocol.codec;
+
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+
+import com.mycila.junit.concurrent.Concurrency;
+import com.mycila.junit.concurrent.ConcurrentJunitRunner;
+
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.shared.kerberos.codec.types.EncryptionType;
+import org.apache.directory.shared.kerberos.components.EncryptedData;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+/**
+ * Test the KerberosEncoder class.
+ * 
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(ConcurrentJunitRunner.class)
+@Concurrency()
+public class KerberosEncoderTest
+{
+    private static EncryptedData createMessage()
+    {
+        return new EncryptedData( EncryptionType.AES128_CTS_HMAC_SHA1_96, 3, Strings.getBytesUtf8( "abcdef" ) );
+    }
+
+
+    /**
+     * Test that the TCP encoding is the UDP one prefixed by its length
+     */
+    @Test
+    public void testEncodeTcpPrefix() throws Exception
+    {
+        ByteBuffer udp = KerberosEncoder.encode( createMessage(), false );
+        ByteBuffer tcp = KerberosEncoder.encode( createMessage(), true );
+
+        assertEquals( udp.remaining() + KerberosEncoder.TCP_LENGTH_PREFIX_SIZE, tcp.remaining() );
+        assertEquals( udp.remaining(), tcp.getInt() );
+        assertEquals( udp, tcp.slice() );
+    }
+
+
+    /**
+     * Test the encoding in a buffer at a non zero position
+     */
+    @Test
+    public void testEncodeInPlace() throws Exception
+    {
+        EncryptedData message = createMessage();
+        int length = message.computeLength();
+        ByteBuffer buffer = ByteBuffer.allocate( 2 + KerberosEncoder.getEncodedSize( length, true ) );
+        buffer.put( ( byte ) 0x01 ).put( ( byte ) 0x02 );
+
+        KerberosEncoder.encode( message, length, true, buffer );
+
+        assertEquals( 0, buffer.remaining() );
+
+        buffer.flip();
+        buffer.position( 2 );
+
+        assertEquals( KerberosEncoder.encode( createMessage(), true ), buffer.slice() );
+    }
+}
@@ -0,0 +1,458 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.ldif;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.util.Strings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A binary cache of the entries read from the LDIF files of a {@link LdifPartition}, used
+ * to avoid parsing the files again when the partition is loaded. Each entry is stored with
+ * the modification time and the length of its file, and is only used if the file has
+ * not changed since. The attributes are stored with their OID, as in the JDBM
+ * EntrySerializer, so the cache starts with a fingerprint of the attribute types : if
+ * the schema has changed, the whole cache is ignored. A cache which can't be read, or
+ * whose content is not consistent, is ignored too, and the files are parsed.
+ * <p>
+ * The cache is read before the load, filled by the threads parsing the files, and written
+ * after the load if it has changed.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class LdifFileCache
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( LdifFileCache.class );
+
+    /** The version of the cache format */
+    static final int VERSION = 2;
+
+    /** The size of a file record without its name and its entry */
+    private static final int MIN_RECORD_SIZE = 2 + 8 + 8 + 8 + 4;
+
+    /**
+     * The files modified less than this delay before the cache is written are not stored : they
+     * could be modified again without changing their modification time
+     */
+    private static final long RACY_DELAY = 2000L;
+
+    /** The cache file */
+    private final File cacheFile;
+
+    /** The directory the files are relative to */
+    private final String baseDir;
+
+    /** The schema manager */
+    private final SchemaManager schemaManager;
+
+    /** The entries read from the cache file, per relative file name */
+    private final Map<String, CachedFile> cachedFiles = new HashMap<String, CachedFile>();
+
+    /** The entries of the files loaded, per relative file name */
+    private final Map<String, CachedFile> loadedFiles = new ConcurrentHashMap<String, CachedFile>();
+
+    /** Tells if a file has been parsed since the cache has been read */
+    private volatile boolean modified;
+
+    /** The fingerprint of the schema the entries are serialized with */
+    private String schemaFingerprint;
+
+
+    /**
+     * An entry, and the state of its file
+     */
+    private static class CachedFile
+    {
+        /** The file modification time */
+        private final long lastModified;
+
+        /** The file length */
+        private final long length;
+
+        /** The serialized entry */
+        private final byte[] data;
+
+
+        private CachedFile( long lastModified, long length, byte[] data )
+        {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.data = data;
+        }
+    }
+
+
+    /**
+     * Creates a new instance of LdifFileCache.
+     *
+     * @param cacheFile the cache file
+     * @param baseDir the directory containing the LDIF files
+     * @param schemaManager the schema manager
+     */
+    LdifFileCache( File cacheFile, File baseDir, SchemaManager schemaManager )
+    {
+        this.cacheFile = cacheFile;
+        this.baseDir = baseDir.getAbsolutePath();
+        this.schemaManager = schemaManager;
+    }
+
+
+    /**
+     * Reads the cache file. A missing, unreadable or inconsistent cache, or a cache written
+     * with another schema, is ignored.
+     */
+    void read()
+    {
+        if ( !cacheFile.exists() )
+        {
+            return;
+        }
+
+        long fileSize = cacheFile.length();
+
+        try
+        {
+            ObjectInputStream in = new ObjectInputStream( new BufferedInputStream( new FileInputStream( cacheFile ) ) );
+
+            try
+            {
+                if ( in.readInt() != VERSION )
+                {
+                    return;
+                }
+
+                if ( !getSchemaFingerprint().equals( in.readUTF() ) )
+                {
+                    LOG.info( "The schema has changed, ignoring the LDIF cache {}", cacheFile );
+
+                    return;
+                }
+
+                int nbFiles = in.readInt();
+
+                if ( ( nbFiles < 0 ) || ( nbFiles > fileSize / MIN_RECORD_SIZE ) )
+                {
+                    throw new IOException( "Invalid number of files : " + nbFiles );
+                }
+
+                for ( int i = 0; i < nbFiles; i++ )
+                {
+                    String name = in.readUTF();
+                    long lastModified = in.readLong();
+                    long length = in.readLong();
+                    long checksum = in.readLong();
+                    int dataLength = in.readInt();
+
+                    if ( ( dataLength < 0 ) || ( dataLength > fileSize ) )
+                    {
+                        throw new IOException( "Invalid entry length for " + name + " : " + dataLength );
+                    }
+
+                    byte[] data = new byte[dataLength];
+                    in.readFully( data );
+
+                    if ( checksum( data ) != checksum )
+                    {
+                        throw new IOException( "Invalid checksum for " + name );
+                    }
+
+                    cachedFiles.put( name, new CachedFile( lastModified, length, data ) );
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch ( Exception e )
+        {
+            LOG.warn( "Cannot read the LDIF cache {}, ignoring it : {}", cacheFile, e.getMessage() );
+            cachedFiles.clear();
+        }
+    }
+
+
+    /**
+     * Gets the cached entry of a file, if the file has not been modified.
+     *
+     * @param file the LDIF file
+     * @return the cached entry, or null
+     */
+    Entry get( File file )
+    {
+        String name = getName( file );
+        CachedFile cachedFile = cachedFiles.get( name );
+
+        if ( ( cachedFile == null ) || ( cachedFile.lastModified != file.lastModified() )
+            || ( cachedFile.length != file.length() ) )
+        {
+            return null;
+        }
+
+        try
+        {
+            Entry entry = deserialize( cachedFile.data );
+            loadedFiles.put( name, cachedFile );
+
+            return entry;
+        }
+        catch ( Exception e )
+        {
+            LOG.warn( "Cannot read the cached entry of {}, parsing it : {}", file, e.getMessage() );
+
+            return null;
+        }
+    }
+
+
+    /**
+     * Stores the entry parsed from a file.
+     *
+     * @param file the LDIF file
+     * @param lastModified the file modification time, read before it was parsed
+     * @param length the file length, read before it was parsed
+     * @param entry the entry
+     */
+    void put( File file, long lastModified, long length, Entry entry ) throws IOException
+    {
+        loadedFiles.put( getName( file ), new CachedFile( lastModified, length, serialize( entry ) ) );
+        modified = true;
+    }
+
+
+    /**
+     * Writes the cache file, if some files have been parsed or removed since it has been read.
+     */
+    void write()
+    {
+        if ( !modified && ( loadedFiles.size() == cachedFiles.size() ) )
+        {
+            return;
+        }
+
+        long limit = System.currentTimeMillis() - RACY_DELAY;
+        File tmpFile = new File( cacheFile.getPath() + ".tmp" );
+
+        try
+        {
+            ObjectOutputStream out = new ObjectOutputStream( new BufferedOutputStream( new FileOutputStream(
+                tmpFile ) ) );
+
+            try
+            {
+                int nbFiles = 0;
+
+                for ( CachedFile cachedFile : loadedFiles.values() )
+                {
+                    if ( cachedFile.lastModified < limit )
+                    {
+                        nbFiles++;
+                    }
+                }
+
+                out.writeInt( VERSION );
+                out.writeUTF( getSchemaFingerprint() );
+                out.writeInt( nbFiles );
+
+                for ( Map.Entry<String, CachedFile> loadedFile : loadedFiles.entrySet() )
+                {
+                    CachedFile cachedFile = loadedFile.getValue();
+
+                    if ( cachedFile.lastModified < limit )
+                    {
+                        out.writeUTF( loadedFile.getKey() );
+                        out.writeLong( cachedFile.lastModified );
+                        out.writeLong( cachedFile.length );
+                        out.writeLong( checksum( cachedFile.data ) );
+                        out.writeInt( cachedFile.data.length );
+                        out.write( cachedFile.data );
+                    }
+                }
+            }
+            finally
+            {
+                out.close();
+            }
+
+            if ( !tmpFile.renameTo( cacheFile ) )
+            {
+                // Some platforms can't rename over an existing file
+                if ( !cacheFile.delete() || !tmpFile.renameTo( cacheFile ) )
+                {
+                    throw new IOException( "Cannot rename " + tmpFile + " to " + cacheFile );
+                }
+            }
+        }
+        catch ( IOException ioe )
+        {
+            LOG.warn( "Cannot write the LDIF cache {} : {}", cacheFile, ioe.getMessage() );
+            tmpFile.delete();
+        }
+    }
+
+
+    /**
+     * Computes the fingerprint of the attribute types the entries are serialized with :
+     * their OID, syntax, equality matching rule and cardinality.
+     *
+     * @return the schema fingerprint
+     */
+    String getSchemaFingerprint() throws IOException
+    {
+        if ( schemaFingerprint == null )
+        {
+            List<String> descriptions = new ArrayList<String>();
+
+            for ( AttributeType attributeType : schemaManager.getAttributeTypeRegistry() )
+            {
+                descriptions.add( attributeType.getOid() + ' ' + attributeType.getSyntaxOid() + ' '
+                    + attributeType.getEqualityOid() + ' ' + attributeType.isSingleValued() );
+            }
+
+            // The registry is not ordered
+            Collections.sort( descriptions );
+
+            try
+            {
+                MessageDigest digest = MessageDigest.getInstance( "SHA-256" );
+
+                for ( String description : descriptions )
+                {
+                    digest.update( Strings.getBytesUtf8( description ) );
+                    digest.update( ( byte ) '\n' );
+                }
+
+                schemaFingerprint = Strings.dumpHexPairs( digest.digest() );
+            }
+            catch ( NoSuchAlgorithmException nsae )
+            {
+                throw new IOException( nsae.getMessage() );
+            }
+        }
+
+        return schemaFingerprint;
+    }
+
+
+    /**
+     * @return the CRC32 of a serialized entry
+     */
+    private static long checksum( byte[] data )
+    {
+        CRC32 crc = new CRC32();
+        crc.update( data );
+
+        return crc.getValue();
+    }
+
+
+    /**
+     * @return the name of the file, relative to the base directory
+     */
+    private String getName( File file )
+    {
+        String path = file.getAbsolutePath();
+
+        if ( path.startsWith( baseDir ) )
+        {
+            return path.substring( baseDir.length() );
+        }
+
+        return path;
+    }
+
+
+    /**
+     * Serializes an entry : its Dn, then each attribute with its OID.
+     */
+    private byte[] serialize( Entry entry ) throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream( baos );
+
+        out.writeUTF( entry.getDn().getName() );
+        out.writeInt( entry.size() );
+
+        for ( Attribute attribute : entry )
+        {
+            out.writeUTF( attribute.getAttributeType().getOid() );
+            attribute.writeExternal( out );
+        }
+
+        out.close();
+
+        return baos.toByteArray();
+    }
+
+
+    /**
+     * Deserializes an entry.
+     */
+    private Entry deserialize( byte[] data ) throws Exception
+    {
+        ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( data ) );
+        Entry entry = new DefaultEntry( schemaManager, new Dn( schemaManager, in.readUTF() ) );
+        int nbAttributes = in.readInt();
+
+        if ( ( nbAttributes < 0 ) || ( nbAttributes > data.length ) )
+        {
+            throw new IOException( "Invalid number of attributes : " + nbAttributes );
+        }
+
+        for ( int i = 0; i < nbAttributes; i++ )
+        {
+            Attribute attribute = new DefaultAttribute( schemaManager.lookupAttributeTypeRegistry( in.readUTF() ) );
+            attribute.readExternal( in );
+            entry.add( attribute );
+        }
+
+        return entry;
+    }
+}
@@ -24,9 +24,16 @@ import java.io.File;
 import java.io.FileFilter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.csn.CsnFactory;
@@ -98,6 +105,18 @@ public class LdifPartition extends AbstractLdifPartition
     private static final boolean CREATE = Boolean.TRUE;
     private static final boolean DELETE = Boolean.FALSE;
 
+    /** The extension used for the entry cache file */
+    private static final String CACHE_FILE_EXTN = ".cache";
+
+    /** The number of threads parsing the LDIF files when the partition is loaded, 1 to parse them sequentially */
+    private int loadThreads = 1;
+
+    /** Tells if the entries read from the LDIF files are kept in a binary cache, used for the next load */
+    private boolean cacheEnabled = false;
+
+    /** The entry cache, only used while the partition is loaded */
+    private LdifFileCache cache;
+
     /** A filter used to pick all the directories */
     private FileFilter dirFilter = new FileFilter()
     {
@@ -162,7 +181,33 @@ public class LdifPartition extends AbstractLdifPartition
             // existing entries
             if ( suffixDirectory.exists() )
             {
-                loadEntries( partitionDir );
+                if ( cacheEnabled )
+                {
+                    cache = new LdifFileCache( new File( suffixDirectory.getPath() + CACHE_FILE_EXTN ), partitionDir,
+                        schemaManager );
+                    cache.read();
+                }
+
+                try
+                {
+                    if ( loadThreads > 1 )
+                    {
+                        loadEntriesInParallel( partitionDir );
+                    }
+                    else
+                    {
+                        loadEntries( partitionDir );
+                    }
+
+                    if ( cache != null )
+                    {
+                        cache.write();
+                    }
+                }
+                finally
+                {
+                    cache = null;
+                }
             }
             else
             {
@@ -501,35 +546,13 @@ public class LdifPartition extends AbstractLdifPartition
 
         if ( ( entries != null ) && ( entries.length != 0 ) )
         {
-            LdifReader ldifReader = new LdifReader();
-
             for ( File entry : entries )
             {
-                LOG.debug( "parsing ldif file {}", entry.getName() );
-                List<LdifEntry> ldifEntries = ldifReader.parseLdifFile( entry.getAbsolutePath() );
-                ldifReader.close();
+                Entry serverEntry = parseEntry( entry );
 
-                if ( ( ldifEntries != null ) && !ldifEntries.isEmpty() )
+                if ( serverEntry != null )
                 {
-                    // this ldif will have only one entry
-                    LdifEntry ldifEntry = ldifEntries.get( 0 );
-                    LOG.debug( "Adding entry {}", ldifEntry );
-
-                    Entry serverEntry = new DefaultEntry( schemaManager, ldifEntry.getEntry() );
-
-                    if ( !serverEntry.containsAttribute( SchemaConstants.ENTRY_CSN_AT ) )
-                    {
-                        serverEntry.put( SchemaConstants.ENTRY_CSN_AT, defaultCSNFactory.newInstance().toString() );
-                    }
-
-                    if ( !serverEntry.containsAttribute( SchemaConstants.ENTRY_UUID_AT ) )
-                    {
-                        serverEntry.put( SchemaConstants.ENTRY_UUID_AT, UUID.randomUUID().toString() );
-                    }
-
-                    // call add on the wrapped partition not on the self
-                    AddOperationContext addContext = new AddOperationContext( null, serverEntry );
-                    super.add( addContext );
+                    addLoadedEntry( serverEntry );
                 }
             }
 
@@ -553,6 +576,178 @@ public class LdifPartition extends AbstractLdifPartition
     }
 
 
+    /**
+     * Loads the entries stored in a directory and its sub-directories, parsing the files
+     * with a pool of threads. The tree is processed level by level : the entries of a
+     * level are added once the entries of the previous level, their parents, have all
+     * been added, while the files of the next level are parsed.
+     *
+     * @param entryDir the directory to load
+     * @throws Exception if a file can't be parsed, or an entry can't be added
+     */
+    private void loadEntriesInParallel( File entryDir ) throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool( loadThreads );
+
+        try
+        {
+            List<File> subDirs = new ArrayList<File>();
+            List<Future<Entry>> level = parseLevel( executor, Collections.singletonList( entryDir ), subDirs );
+
+            while ( !level.isEmpty() )
+            {
+                // Start parsing the next level before adding this one
+                List<File> dirs = subDirs;
+                subDirs = new ArrayList<File>();
+                List<Future<Entry>> nextLevel = parseLevel( executor, dirs, subDirs );
+
+                for ( Future<Entry> future : level )
+                {
+                    Entry serverEntry;
+
+                    try
+                    {
+                        serverEntry = future.get();
+                    }
+                    catch ( ExecutionException ee )
+                    {
+                        if ( ee.getCause() instanceof Exception )
+                        {
+                            throw ( Exception ) ee.getCause();
+                        }
+
+                        throw ee;
+                    }
+
+                    if ( serverEntry != null )
+                    {
+                        addLoadedEntry( serverEntry );
+                    }
+                }
+
+                level = nextLevel;
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Submits the parsing of the LDIF files found in a set of directories, and lists their
+     * sub-directories. As in {@link #loadEntries(File)}, the sub-directories of a directory
+     * without LDIF files are ignored.
+     */
+    private List<Future<Entry>> parseLevel( ExecutorService executor, List<File> dirs, List<File> subDirs )
+    {
+        List<Future<Entry>> level = new ArrayList<Future<Entry>>();
+
+        for ( File dir : dirs )
+        {
+            LOG.debug( "Processing dir {}", dir.getName() );
+
+            File[] entries = dir.listFiles( entryFilter );
+
+            if ( ( entries == null ) || ( entries.length == 0 ) )
+            {
+                continue;
+            }
+
+            for ( final File entry : entries )
+            {
+                level.add( executor.submit( new Callable<Entry>()
+                {
+                    public Entry call() throws Exception
+                    {
+                        return parseEntry( entry );
+                    }
+                } ) );
+            }
+
+            File[] entryDirs = dir.listFiles( dirFilter );
+
+            if ( entryDirs != null )
+            {
+                Collections.addAll( subDirs, entryDirs );
+            }
+        }
+
+        return level;
+    }
+
+
+    /**
+     * Reads the entry stored in a LDIF file, from the cache if it is enabled and the file
+     * has not been modified. May be called concurrently.
+     *
+     * @param entryFile the LDIF file
+     * @return the entry, or null if the file is empty
+     * @throws Exception if the file can't be parsed
+     */
+    private Entry parseEntry( File entryFile ) throws Exception
+    {
+        LdifFileCache entryCache = cache;
+
+        if ( entryCache != null )
+        {
+            Entry cachedEntry = entryCache.get( entryFile );
+
+            if ( cachedEntry != null )
+            {
+                return cachedEntry;
+            }
+        }
+
+        long lastModified = entryFile.lastModified();
+        long length = entryFile.length();
+
+        LOG.debug( "parsing ldif file {}", entryFile.getName() );
+        LdifReader ldifReader = new LdifReader();
+        List<LdifEntry> ldifEntries = ldifReader.parseLdifFile( entryFile.getAbsolutePath() );
+        ldifReader.close();
+
+        if ( ( ldifEntries == null ) || ldifEntries.isEmpty() )
+        {
+            return null;
+        }
+
+        // this ldif will have only one entry
+        Entry serverEntry = new DefaultEntry( schemaManager, ldifEntries.get( 0 ).getEntry() );
+
+        if ( entryCache != null )
+        {
+            entryCache.put( entryFile, lastModified, length, serverEntry );
+        }
+
+        return serverEntry;
+    }
+
+
+    /**
+     * Adds an entry read from the disk, with the operational attributes it may lack.
+     */
+    private void addLoadedEntry( Entry serverEntry ) throws Exception
+    {
+        LOG.debug( "Adding entry {}", serverEntry );
+
+        if ( !serverEntry.containsAttribute( SchemaConstants.ENTRY_CSN_AT ) )
+        {
+            serverEntry.put( SchemaConstants.ENTRY_CSN_AT, defaultCSNFactory.newInstance().toString() );
+        }
+
+        if ( !serverEntry.containsAttribute( SchemaConstants.ENTRY_UUID_AT ) )
+        {
+            serverEntry.put( SchemaConstants.ENTRY_UUID_AT, UUID.randomUUID().toString() );
+        }
+
+        // call add on the wrapped partition not on the self
+        AddOperationContext addContext = new AddOperationContext( null, serverEntry );
+        super.add( addContext );
+    }
+
+
     /**
      * Create the file name from the entry Dn.
      */
@@ -808,4 +1003,49 @@ public class LdifPartition extends AbstractLdifPartition
             return file.delete();
         }
     }
-}
\ No newline at end of file
+
+
+    /**
+     * @return the number of threads parsing the LDIF files when the partition is loaded
+     */
+    public int getLoadThreads()
+    {
+        return loadThreads;
+    }
+
+
+    /**
+     * Sets the number of threads parsing the LDIF files when the partition is loaded. With
+     * 1 thread, the default, the files are parsed sequentially.
+     *
+     * @param loadThreads the number of threads
+     */
+    public void setLoadThreads( int loadThreads )
+    {
+        checkInitialized( "loadThreads" );
+        this.loadThreads = loadThreads;
+    }
+
+
+    /**
+     * @return true if the entries read from the LDIF files are kept in a binary cache
+     */
+    public boolean isCacheEnabled()
+    {
+        return cacheEnabled;
+    }
+
+
+    /**
+     * Enables the binary cache of the entries read from the LDIF files. The cache is written
+     * next to the suffix LDIF file, and is used on the next load for the files which have
+     * not been modified since.
+     *
+     * @param cacheEnabled true to enable the cache
+     */
+    public void setCacheEnabled( boolean cacheEnabled )
+    {
+        checkInitialized( "cacheEnabled" );
+        this.cacheEnabled = cacheEnabled;
+    }
+}
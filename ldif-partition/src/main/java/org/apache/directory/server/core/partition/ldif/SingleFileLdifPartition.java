@@ -24,22 +24,36 @@ package org.apache.directory.server.core.partition.ldif;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.naming.InvalidNameException;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
 import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
 import org.apache.directory.api.ldap.model.exception.LdapOperationException;
+import org.apache.directory.api.ldap.model.ldif.ChangeType;
 import org.apache.directory.api.ldap.model.ldif.LdifEntry;
 import org.apache.directory.api.ldap.model.ldif.LdifReader;
 import org.apache.directory.api.ldap.model.ldif.LdifUtils;
+import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.name.Rdn;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.util.Strings;
@@ -58,6 +72,20 @@ import org.slf4j.LoggerFactory;
 
 /**
  * A Partition implementation backed by a single LDIF file.
+ * <p>
+ * By default, the whole file is rewritten after each modification. In the append only
+ * mode, each modification is appended to a log file (the LDIF file name followed by
+ * ".log") as LDIF change records, and the log is synced once. The LDIF file is then a
+ * snapshot, rewritten in the background when the log becomes too large compared to
+ * the snapshot. When the partition is loaded, the snapshot is read and the log is
+ * replayed. The snapshot and the log start with a generation comment, so that a log
+ * already merged into the snapshot by an interrupted compaction is ignored.
+ * <p>
+ * The compaction only holds the lock while it copies the entries and while it installs
+ * the new snapshot : the changes logged while the snapshot is written are moved to the
+ * log of the new generation. The snapshot also records the log position it has been
+ * taken at, so that those changes are not lost if the server stops before the new log
+ * is installed.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -75,6 +103,45 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
     /** lock for serializing the operations on the backing LDIF file */
     private Object lock = new Object();
 
+    /** The default ratio of the log size to the total size above which the partition is compacted */
+    public static final double DEFAULT_COMPACTION_THRESHOLD = 0.5;
+
+    /** The log size below which the partition is never compacted */
+    private static final long MIN_COMPACTION_SIZE = 64 * 1024;
+
+    /** The extension of the log file */
+    private static final String LOG_FILE_EXTN = ".log";
+
+    /** The extension of the snapshot being written by a compaction */
+    private static final String TMP_FILE_EXTN = ".tmp";
+
+    /** The comment starting the snapshot and the log */
+    private static final String GENERATION_HEADER = "# generation: ";
+
+    /** The comment giving the position in the previous log a snapshot has been taken at */
+    private static final String LOG_POSITION_HEADER = "# log position: ";
+
+    /** flag to enable/disable the append only mode, default is set to false */
+    private boolean appendOnly = false;
+
+    /** the ratio of the log size to the total size above which the partition is compacted */
+    private double compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+
+    /** the file holding the changes done since the last compaction, in append only mode */
+    private RandomAccessFile logFile;
+
+    /** the generation of the snapshot, incremented by each compaction */
+    private long generation;
+
+    /** the executor running the compactions in the background */
+    private ExecutorService compactor;
+
+    /** flag used to avoid requesting a compaction while another one is pending */
+    private final AtomicBoolean compactionRequested = new AtomicBoolean( false );
+
+    /** tells if a snapshot is being written, protected by the lock */
+    private boolean compacting = false;
+
     private static Logger LOG = LoggerFactory.getLogger( SingleFileLdifPartition.class );
 
 
@@ -104,7 +171,11 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
                 throw new IllegalArgumentException( "Partition path must be a LDIF file" );
             }
 
-            ldifFile = new RandomAccessFile( partitionFile, "rws" );
+            // In append only mode, the snapshot is synced once it is fully written
+            ldifFile = new RandomAccessFile( partitionFile, appendOnly ? "rw" : "rws" );
+            generation = readHeader( ldifFile.readLine(), GENERATION_HEADER );
+            long logPosition = readHeader( ldifFile.readLine(), LOG_POSITION_HEADER );
+            ldifFile.seek( 0 );
 
             LOG.debug( "id is : {}", getId() );
 
@@ -122,6 +193,23 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
             super.doInit();
 
             loadEntries();
+
+            if ( appendOnly )
+            {
+                logFile = new RandomAccessFile( getLogFile(), "rw" );
+                replayLog( logPosition );
+
+                compactor = Executors.newSingleThreadExecutor( new ThreadFactory()
+                {
+                    public Thread newThread( Runnable runnable )
+                    {
+                        Thread thread = new Thread( runnable, "ldif-compactor-" + getId() );
+                        thread.setDaemon( true );
+
+                        return thread;
+                    }
+                } );
+            }
         }
     }
 
@@ -176,6 +264,179 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
     }
 
 
+    /**
+     * Replays the changes stored in the log. A log from a previous generation has already
+     * been merged into the snapshot, and is discarded, except for the changes logged after
+     * the snapshot has been taken. An incomplete record at the end of the log, left by a
+     * crash while it was written, is removed.
+     *
+     * @param logPosition the position in the previous log the snapshot has been taken at
+     */
+    private void replayLog( long logPosition ) throws Exception
+    {
+        byte[] data = new byte[( int ) logFile.length()];
+        logFile.seek( 0 );
+        logFile.readFully( data );
+        String log = Strings.utf8ToString( data );
+
+        int pos = log.indexOf( '\n' );
+        long logGeneration = ( pos < 0 ) ? -1L : readHeader( log.substring( 0, pos ), GENERATION_HEADER );
+
+        if ( ( logGeneration == generation - 1 ) && ( logPosition > 0 ) && ( logPosition <= data.length ) )
+        {
+            // The compaction has been interrupted before the log of the new snapshot was installed
+            byte[] changes = Arrays.copyOfRange( data, ( int ) logPosition, data.length );
+            replaceLog( changes );
+            log = GENERATION_HEADER + generation + "\n" + Strings.utf8ToString( changes );
+            pos = log.indexOf( '\n' );
+        }
+        else if ( logGeneration != generation )
+        {
+            resetLog();
+
+            return;
+        }
+
+        // The records are separated by an empty line
+        int start = pos + 1;
+        int end = start;
+        pos = start;
+        int nbChanges = 0;
+
+        while ( pos < log.length() )
+        {
+            int eol = log.indexOf( '\n', pos );
+
+            if ( eol < 0 )
+            {
+                break;
+            }
+
+            if ( eol == pos )
+            {
+                if ( pos > start )
+                {
+                    applyChange( log.substring( start, pos ) );
+                    nbChanges++;
+                }
+
+                start = eol + 1;
+                end = start;
+            }
+
+            pos = eol + 1;
+        }
+
+        if ( end < log.length() )
+        {
+            LOG.warn( "Removing an incomplete change record at the end of {}", getPartitionPath() );
+            logFile.setLength( Strings.getBytesUtf8( log.substring( 0, end ) ).length );
+        }
+
+        logFile.seek( logFile.length() );
+
+        LOG.debug( "Replayed {} changes on partition {}", nbChanges, getId() );
+    }
+
+
+    /**
+     * Applies a change record read from the log, without logging it again.
+     */
+    private void applyChange( String record ) throws Exception
+    {
+        LdifReader reader = new LdifReader();
+        List<LdifEntry> changes = reader.parseLdif( record );
+        reader.close();
+
+        for ( LdifEntry change : changes )
+        {
+            Dn dn = new Dn( schemaManager, change.getDn().getName() );
+
+            if ( change.isChangeAdd() )
+            {
+                Entry entry = new DefaultEntry( schemaManager, change.getEntry() );
+                super.add( new AddOperationContext( null, entry ) );
+
+                if ( dn.equals( suffixDn ) )
+                {
+                    contextEntry = entry;
+                }
+            }
+            else if ( change.isChangeDelete() )
+            {
+                super.delete( getEntryId( dn ) );
+
+                if ( dn.equals( suffixDn ) )
+                {
+                    contextEntry = null;
+                }
+            }
+            else if ( change.isChangeModify() )
+            {
+                List<Modification> modifications = new ArrayList<Modification>();
+
+                for ( Modification modification : change.getModifications() )
+                {
+                    modifications.add( new DefaultModification( schemaManager, modification ) );
+                }
+
+                super.modify( dn, modifications.toArray( new Modification[]
+                    {} ) );
+            }
+            else if ( change.isChangeModRdn() || change.isChangeModDn() )
+            {
+                Rdn newRdn = new Rdn( schemaManager, change.getNewRdn() );
+
+                if ( change.getNewSuperior() == null )
+                {
+                    super.rename( dn, newRdn, change.isDeleteOldRdn(), null );
+                }
+                else
+                {
+                    Dn newSuperior = new Dn( schemaManager, change.getNewSuperior() );
+
+                    if ( newRdn.equals( dn.getRdn() ) )
+                    {
+                        super.move( dn, newSuperior, newSuperior.add( newRdn ), null );
+                    }
+                    else
+                    {
+                        super.moveAndRename( dn, newSuperior, newRdn, null, change.isDeleteOldRdn() );
+                    }
+                }
+            }
+            else
+            {
+                throw new LdapException( "Unexpected change record in the log of partition " + getId() + " : "
+                    + change );
+            }
+        }
+    }
+
+
+    /**
+     * @return the value stored in the given header line, 0 if the line is not this header
+     */
+    private long readHeader( String line, String header )
+    {
+        if ( ( line == null ) || !line.startsWith( header ) )
+        {
+            return 0L;
+        }
+
+        return Long.parseLong( line.substring( header.length() ).trim() );
+    }
+
+
+    /**
+     * @return the log file of the partition
+     */
+    private File getLogFile()
+    {
+        return new File( new File( getPartitionPath() ).getPath() + LOG_FILE_EXTN );
+    }
+
+
     //---------------------------------------------------------------------------------------------
     // Operations
     //---------------------------------------------------------------------------------------------
@@ -198,8 +459,17 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
                 }
             }
 
-            dirty = true;
-            rewritePartitionData();
+            LdifEntry change = null;
+
+            if ( appendOnly )
+            {
+                Entry entry = addContext.getEntry().clone();
+                entry.removeAttributes( ENTRY_DN_AT );
+                change = new LdifEntry( entry );
+                change.setChangeType( ChangeType.Add );
+            }
+
+            saveChanges( change );
         }
     }
 
@@ -227,8 +497,21 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
                 throw new LdapOperationException( e.getMessage(), e );
             }
 
-            dirty = true;
-            rewritePartitionData();
+            LdifEntry change = null;
+
+            if ( appendOnly )
+            {
+                change = new LdifEntry();
+                change.setDn( modifyContext.getDn() );
+                change.setChangeType( ChangeType.Modify );
+
+                for ( Modification modification : modifyContext.getModItems() )
+                {
+                    change.addModification( modification );
+                }
+            }
+
+            saveChanges( change );
         }
     }
 
@@ -240,9 +523,9 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
     {
         synchronized ( lock )
         {
+            Entry oldEntry = getOldEntry( renameContext.getDn() );
             super.rename( renameContext );
-            dirty = true;
-            rewritePartitionData();
+            saveModDn( oldEntry, renameContext.getNewRdn(), renameContext.getDeleteOldRdn(), null );
         }
     }
 
@@ -254,9 +537,9 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
     {
         synchronized ( lock )
         {
+            Entry oldEntry = getOldEntry( moveContext.getDn() );
             super.move( moveContext );
-            dirty = true;
-            rewritePartitionData();
+            saveModDn( oldEntry, null, false, moveContext.getNewSuperior() );
         }
     }
 
@@ -268,9 +551,9 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
     {
         synchronized ( lock )
         {
+            Entry oldEntry = getOldEntry( opContext.getDn() );
             super.moveAndRename( opContext );
-            dirty = true;
-            rewritePartitionData();
+            saveModDn( oldEntry, opContext.getNewRdn(), opContext.getDeleteOldRdn(), opContext.getNewSuperiorDn() );
         }
     }
 
@@ -280,59 +563,462 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
     {
         synchronized ( lock )
         {
+            LdifEntry change = null;
+
+            if ( appendOnly )
+            {
+                change = new LdifEntry();
+                change.setDn( buildDn( id ) );
+                change.setChangeType( ChangeType.Delete );
+            }
+
             Entry deletedEntry = super.delete( id );
+            saveChanges( change );
+
+            return deletedEntry;
+        }
+    }
+
+
+    /**
+     * @return a copy of the entry before it is renamed or moved, in append only mode
+     */
+    private Entry getOldEntry( Dn dn ) throws LdapException
+    {
+        if ( !appendOnly )
+        {
+            return null;
+        }
+
+        try
+        {
+            Entry entry = master.get( getEntryId( dn ) ).clone();
+            entry.setDn( dn );
+
+            return entry;
+        }
+        catch ( LdapException e )
+        {
+            throw e;
+        }
+        catch ( Exception e )
+        {
+            throw new LdapException( e );
+        }
+    }
+
+
+    /**
+     * @return the Dn of an entry
+     */
+    private Dn buildDn( String id ) throws LdapException
+    {
+        try
+        {
+            return getEntryDn( id );
+        }
+        catch ( LdapException e )
+        {
+            throw e;
+        }
+        catch ( Exception e )
+        {
+            throw new LdapException( e );
+        }
+    }
+
+
+    /**
+     * Saves a rename or a move. In append only mode, the change is written as a
+     * modrdn record, followed by a modify record replacing the attributes the
+     * operation has changed besides the Rdn, like the operational attributes.
+     *
+     * @param oldEntry the entry before the operation, null if not in append only mode
+     * @param newRdn the new Rdn, null for a move
+     * @param deleteOldRdn tells if the old Rdn values have been removed
+     * @param newSuperior the new parent, null for a rename
+     */
+    private void saveModDn( Entry oldEntry, Rdn newRdn, boolean deleteOldRdn, Dn newSuperior )
+        throws LdapException
+    {
+        if ( oldEntry == null )
+        {
+            saveChanges();
+
+            return;
+        }
+
+        Dn oldDn = oldEntry.getDn();
+
+        if ( newRdn == null )
+        {
+            newRdn = oldDn.getRdn();
+        }
+
+        Dn newDn = ( newSuperior == null ? oldDn.getParent() : newSuperior ).add( newRdn );
+
+        LdifEntry modDn = new LdifEntry();
+        modDn.setDn( oldDn );
+        modDn.setChangeType( newSuperior == null ? ChangeType.ModRdn : ChangeType.ModDn );
+        modDn.setNewRdn( newRdn.getName() );
+        modDn.setDeleteOldRdn( deleteOldRdn );
+
+        if ( newSuperior != null )
+        {
+            modDn.setNewSuperior( newSuperior.getName() );
+        }
+
+        Entry newEntry;
+
+        try
+        {
+            newEntry = master.get( getEntryId( newDn ) );
+        }
+        catch ( LdapException e )
+        {
+            throw e;
+        }
+        catch ( Exception e )
+        {
+            throw new LdapException( e );
+        }
+
+        LdifEntry modify = new LdifEntry();
+        modify.setDn( newDn );
+        modify.setChangeType( ChangeType.Modify );
+
+        for ( Attribute attribute : newEntry )
+        {
+            if ( isLoggedAttribute( attribute ) && !attribute.equals( oldEntry.get( attribute.getAttributeType() ) ) )
+            {
+                modify.addModification( ModificationOperation.REPLACE_ATTRIBUTE, attribute );
+            }
+        }
+
+        for ( Attribute attribute : oldEntry )
+        {
+            if ( isLoggedAttribute( attribute ) && !newEntry.containsAttribute( attribute.getAttributeType() ) )
+            {
+                modify.addModification( ModificationOperation.REPLACE_ATTRIBUTE,
+                    new DefaultAttribute( attribute.getUpId() ) );
+            }
+        }
+
+        if ( modify.getModifications().isEmpty() )
+        {
+            saveChanges( modDn );
+        }
+        else
+        {
+            saveChanges( modDn, modify );
+        }
+    }
+
+
+    /**
+     * @return true if the attribute is stored in the LDIF, and not computed by the partition
+     */
+    private boolean isLoggedAttribute( Attribute attribute )
+    {
+        String oid = attribute.getAttributeType().getOid();
+
+        return !oid.equals( SchemaConstants.ENTRY_DN_AT_OID ) && !oid.equals( SchemaConstants.ENTRY_PARENT_ID_OID );
+    }
+
+
+    /**
+     * Saves the changes done on the partition. In append only mode, the changes are
+     * appended to the log, unless older changes have not been saved. Otherwise, the
+     * whole partition is written.
+     *
+     * @param changes the change records, only used in append only mode
+     */
+    private void saveChanges( LdifEntry... changes ) throws LdapException
+    {
+        if ( appendOnly && enableRewriting && !dirty )
+        {
+            appendChanges( changes );
+        }
+        else
+        {
             dirty = true;
             rewritePartitionData();
+        }
+    }
 
-            return deletedEntry;
+
+    /**
+     * Appends change records to the log, and requests a compaction if the log has
+     * become too large.
+     */
+    private void appendChanges( LdifEntry... changes ) throws LdapException
+    {
+        try
+        {
+            StringBuilder sb = new StringBuilder();
+
+            for ( LdifEntry change : changes )
+            {
+                if ( change != null )
+                {
+                    sb.append( LdifUtils.convertToLdif( change ) ).append( '\n' );
+                }
+            }
+
+            logFile.write( Strings.getBytesUtf8( sb.toString() ) );
+            logFile.getChannel().force( false );
+
+            long logLength = logFile.length();
+
+            if ( ( logLength > MIN_COMPACTION_SIZE )
+                && ( logLength > compactionThreshold * ( logLength + ldifFile.length() ) )
+                && compactionRequested.compareAndSet( false, true ) )
+            {
+                compactor.execute( new Runnable()
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            compact();
+                        }
+                        catch ( LdapException e )
+                        {
+                            LOG.error( "Failed to compact the partition " + getId(), e );
+                        }
+                        finally
+                        {
+                            // The changes logged during the compaction don't request another one
+                            compactionRequested.set( false );
+                        }
+                    }
+                } );
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new LdapException( e.getMessage(), e );
         }
     }
 
 
     /**
-     * writes the partition's data to the file if {@link #enableRewriting} is set to true
-     * and partition was modified since the last write or {@link #dirty} data. 
-     * 
-     * @throws LdapException
+     * Writes a new snapshot of the partition, and empties the log. The entries are copied
+     * under the lock, and the snapshot is written in a temporary file without holding it.
+     * The snapshot then replaces the LDIF file, and the changes logged in the meantime are
+     * moved to the new log. Does nothing if the partition is not in append only mode.
+     *
+     * @throws LdapException if the snapshot can't be written
      */
-    private void rewritePartitionData() throws LdapException
+    public void compact() throws LdapException
     {
+        File partitionFile = new File( getPartitionPath() );
+        File tmpFile = new File( partitionFile.getPath() + TMP_FILE_EXTN );
+        List<Entry> entries = new ArrayList<Entry>();
+        long nextGeneration;
+        long logPosition;
+        boolean wasDirty;
+
         synchronized ( lock )
         {
-            if ( !enableRewriting || !dirty )
+            if ( !appendOnly || ( logFile == null ) )
             {
                 return;
             }
 
             try
             {
-                ldifFile.setLength( 0 ); // wipe the file clean
+                while ( compacting )
+                {
+                    lock.wait();
+                }
 
-                String suffixId = getEntryId( suffixDn );
+                collectEntries( entries );
+                logPosition = logFile.length();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                throw new LdapException( e );
+            }
+            catch ( LdapException e )
+            {
+                throw e;
+            }
+            catch ( Exception e )
+            {
+                throw new LdapException( e );
+            }
+
+            nextGeneration = generation + 1;
+            compacting = true;
+
+            // The snapshot contains the changes which have not been logged
+            wasDirty = dirty;
+            dirty = false;
+        }
+
+        boolean compacted = false;
 
-                if ( suffixId == null )
+        try
+        {
+            RandomAccessFile snapshot = new RandomAccessFile( tmpFile, "rw" );
+
+            try
+            {
+                snapshot.setLength( 0 );
+                snapshot.write( Strings.getBytesUtf8( GENERATION_HEADER + nextGeneration + "\n"
+                    + LOG_POSITION_HEADER + logPosition + "\n" ) );
+
+                for ( Entry entry : entries )
                 {
-                    contextEntry = null;
-                    return;
+                    appendLdif( snapshot, entry );
                 }
 
-                ParentIdAndRdn suffixEntry = rdnIdx.reverseLookup( suffixId );
+                snapshot.getFD().sync();
+            }
+            finally
+            {
+                snapshot.close();
+            }
 
-                if ( suffixEntry != null )
+            synchronized ( lock )
+            {
+                ldifFile.close();
+
+                try
+                {
+                    rename( tmpFile, partitionFile );
+                }
+                finally
+                {
+                    ldifFile = new RandomAccessFile( partitionFile, "rw" );
+                }
+
+                // Move the changes logged while the snapshot was written
+                byte[] changes = new byte[( int ) ( logFile.length() - logPosition )];
+                logFile.seek( logPosition );
+                logFile.readFully( changes );
+
+                generation = nextGeneration;
+                replaceLog( changes );
+                compacted = true;
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new LdapException( e.getMessage(), e );
+        }
+        finally
+        {
+            synchronized ( lock )
+            {
+                if ( !compacted && wasDirty )
                 {
-                    Entry entry = master.get( suffixId );
+                    dirty = true;
+                }
+
+                compacting = false;
+                lock.notifyAll();
+            }
+        }
+    }
+
+
+    /**
+     * Renames a file, replacing the target file.
+     */
+    private void rename( File file, File target ) throws IOException
+    {
+        if ( !file.renameTo( target ) )
+        {
+            // Some platforms can't rename over an existing file
+            if ( !target.delete() || !file.renameTo( target ) )
+            {
+                throw new IOException( "Cannot rename " + file + " to " + target );
+            }
+        }
+    }
 
-                    // Don't write the EntryDN attribute
-                    entry.removeAttributes( ENTRY_DN_AT );
 
-                    entry.setDn( suffixDn );
+    /**
+     * Empties the log, keeping only its generation header.
+     */
+    private void resetLog() throws IOException
+    {
+        logFile.setLength( 0 );
+        logFile.write( Strings.getBytesUtf8( GENERATION_HEADER + generation + "\n" ) );
+        logFile.getChannel().force( false );
+    }
 
-                    appendLdif( entry );
 
-                    appendRecursive( suffixId, suffixEntry.getNbChildren() );
-                }
+    /**
+     * Replaces the log by a log of the current generation holding the given change records.
+     * The new log is written in a temporary file first, so that a crash leaves either the
+     * previous log or the new one.
+     */
+    private void replaceLog( byte[] changes ) throws IOException
+    {
+        File log = getLogFile();
+        File tmpLog = new File( log.getPath() + TMP_FILE_EXTN );
+        RandomAccessFile newLog = new RandomAccessFile( tmpLog, "rw" );
+
+        try
+        {
+            newLog.setLength( 0 );
+            newLog.write( Strings.getBytesUtf8( GENERATION_HEADER + generation + "\n" ) );
+            newLog.write( changes );
+            newLog.getFD().sync();
+        }
+        finally
+        {
+            newLog.close();
+        }
+
+        logFile.close();
+
+        try
+        {
+            rename( tmpLog, log );
+        }
+        finally
+        {
+            logFile = new RandomAccessFile( log, "rw" );
+            logFile.seek( logFile.length() );
+        }
+    }
+
 
-                dirty = false;
+    /**
+     * writes the partition's data to the file if {@link #enableRewriting} is set to true
+     * and partition was modified since the last write or {@link #dirty} data. 
+     * 
+     * @throws LdapException
+     */
+    private void rewritePartitionData() throws LdapException
+    {
+        synchronized ( lock )
+        {
+            if ( !enableRewriting || !dirty )
+            {
+                return;
+            }
+
+            if ( appendOnly )
+            {
+                compact();
+
+                return;
+            }
+
+            try
+            {
+                ldifFile.setLength( 0 ); // wipe the file clean
+
+                if ( writeEntries( ldifFile ) )
+                {
+                    dirty = false;
+                }
             }
             catch ( LdapException e )
             {
@@ -346,7 +1032,70 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
     }
 
 
-    private void appendRecursive( String id, int nbSibbling ) throws Exception
+    /**
+     * writes all the entries of the partition, starting with the context entry
+     *
+     * @param file the file to write to
+     * @return false if there is no context entry
+     */
+    private boolean writeEntries( RandomAccessFile file ) throws Exception
+    {
+        List<Entry> entries = new ArrayList<Entry>();
+
+        if ( !collectEntries( entries ) )
+        {
+            return false;
+        }
+
+        for ( Entry entry : entries )
+        {
+            appendLdif( file, entry );
+        }
+
+        return true;
+    }
+
+
+    /**
+     * copies all the entries of the partition, starting with the context entry, each
+     * entry being followed by its children. Must be called while holding the lock.
+     *
+     * @param entries the list the entries are added to
+     * @return false if there is no context entry
+     */
+    private boolean collectEntries( List<Entry> entries ) throws Exception
+    {
+        String suffixId = getEntryId( suffixDn );
+
+        if ( suffixId == null )
+        {
+            contextEntry = null;
+            return false;
+        }
+
+        ParentIdAndRdn suffixEntry = rdnIdx.reverseLookup( suffixId );
+
+        if ( suffixEntry != null )
+        {
+            Entry entry = master.get( suffixId );
+            entry.setDn( suffixDn );
+
+            // The entries are written after the lock is released by a compaction
+            entry = entry.clone();
+
+            // Don't write the EntryDN attribute
+            entry.removeAttributes( ENTRY_DN_AT );
+
+            entries.add( entry );
+
+            collectRecursive( entries, suffixId, suffixEntry.getNbChildren() );
+        }
+
+        return true;
+    }
+
+
+    private void collectRecursive( List<Entry> entries, String id, int nbSibbling ) throws Exception
     {
         // Start with the root
         Cursor<IndexEntry<ParentIdAndRdn, String>> cursor = rdnIdx.forwardCursor();
@@ -360,12 +1109,12 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
         {
             IndexEntry<ParentIdAndRdn, String> element = cursor.get();
             String childId = element.getId();
-            Entry entry = fetch( childId );
+            Entry entry = fetch( childId ).clone();
 
             // Remove the EntryDn
             entry.removeAttributes( SchemaConstants.ENTRY_DN_AT );
 
-            appendLdif( entry );
+            entries.add( entry );
 
             countChildren++;
 
@@ -374,7 +1123,7 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
 
             if ( nbChildren > 0 )
             {
-                appendRecursive( childId, nbChildren );
+                collectRecursive( entries, childId, nbChildren );
             }
         }
 
@@ -385,16 +1134,14 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
     /**
      * append data to the LDIF file
      *
+     * @param file the file to write to
      * @param entry the entry to be written
      * @throws LdapException
      */
-    private void appendLdif( Entry entry ) throws IOException, LdapException
+    private void appendLdif( RandomAccessFile file, Entry entry ) throws IOException, LdapException
     {
-        synchronized ( lock )
-        {
-            String ldif = LdifUtils.convertToLdif( entry );
-            ldifFile.write( Strings.getBytesUtf8( ldif + "\n" ) );
-        }
+        String ldif = LdifUtils.convertToLdif( entry );
+        file.write( Strings.getBytesUtf8( ldif + "\n" ) );
     }
 
     /**
@@ -459,6 +1206,16 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
     @Override
     protected void doDestroy() throws Exception
     {
+        if ( compactor != null )
+        {
+            compactor.shutdown();
+            compactor.awaitTermination( 1, TimeUnit.MINUTES );
+
+            // Leave a clean snapshot
+            compact();
+            logFile.close();
+        }
+
         super.doDestroy();
         ldifFile.close();
     }
@@ -478,4 +1235,44 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
         // save data if found dirty 
         rewritePartitionData();
     }
+
+
+    /**
+     * @return true if the changes are appended to a log instead of rewriting the whole file
+     */
+    public boolean isAppendOnly()
+    {
+        return appendOnly;
+    }
+
+
+    /**
+     * enable/disable the append only mode. Must be set before the partition is initialized.
+     *
+     * @param appendOnly flag to enable/disable the append only mode
+     */
+    public void setAppendOnly( boolean appendOnly )
+    {
+        checkInitialized( "appendOnly" );
+        this.appendOnly = appendOnly;
+    }
+
+
+    /**
+     * @return the ratio of the log size to the total size above which the partition is compacted
+     */
+    public double getCompactionThreshold()
+    {
+        return compactionThreshold;
+    }
+
+
+    /**
+     * @param compactionThreshold the ratio of the log size to the total size above which the
+     * partition is compacted
+     */
+    public void setCompactionThreshold( double compactionThreshold )
+    {
+        this.compactionThreshold = compactionThreshold;
+    }
 }
@@ -24,10 +24,14 @@ package org.apache.directory.server.core.partition.ldif;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.ObjectOutputStream;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.UUID;
@@ -41,6 +45,7 @@ import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
 import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.ldif.LdifUtils;
 import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.name.Rdn;
@@ -670,6 +675,159 @@ public class LdifPartitionTest
     }
 
 
+    private LdifPartition loadPartition( int loadThreads, boolean cacheEnabled ) throws Exception
+    {
+        LdifPartition loaded = new LdifPartition( schemaManager, dnFactory );
+        loaded.setId( "test-ldif" );
+        loaded.setSuffixDn( new Dn( "ou=test,ou=system" ) );
+        loaded.setSchemaManager( schemaManager );
+        loaded.setPartitionPath( wkdir.toURI() );
+        loaded.setLoadThreads( loadThreads );
+        loaded.setCacheEnabled( cacheEnabled );
+        loaded.initialize();
+
+        return loaded;
+    }
+
+
+    @Test
+    public void testParallelLoad() throws Exception
+    {
+        injectEntries();
+        Dn grandChildDn = new Dn( schemaManager, "dc=greatGrandChild111,dc=grandChild11,dc=child1,ou=test,ou=system" );
+        Entry grandChild = partition.fetch( partition.getEntryId( grandChildDn ) );
+
+        LdifPartition loaded = loadPartition( 4, false );
+
+        assertEquals( partition.count(), loaded.count() );
+        assertEquals( grandChild, loaded.fetch( loaded.getEntryId( grandChildDn ) ) );
+        assertEquals( 2, loaded.getChildCount( loaded.getEntryId( new Dn( schemaManager,
+            "dc=child1,ou=test,ou=system" ) ) ) );
+    }
+
+
+    @Test
+    public void testLoadWithCache() throws Exception
+    {
+        injectEntries();
+        Dn child2Dn = new Dn( schemaManager, "dc=child2,ou=test,ou=system" );
+        File cacheFile = new File( wkdir, "ou=test,ou=system.cache" );
+
+        // The files have just been written, and are too recent to be cached
+        loadPartition( 4, true );
+        assertTrue( cacheFile.exists() );
+        long emptyCacheLength = cacheFile.length();
+
+        File child2File = new File( wkdir, "ou=test,ou=system/dc=child2.ldif" );
+
+        for ( File file : FileUtils.listFiles( wkdir, new String[]
+            { "ldif" }, true ) )
+        {
+            file.setLastModified( System.currentTimeMillis() - 60000L );
+        }
+
+        LdifPartition loaded = loadPartition( 4, true );
+        assertEquals( partition.count(), loaded.count() );
+        assertTrue( cacheFile.length() > emptyCacheLength );
+
+        // The cached entries are used
+        loaded = loadPartition( 1, true );
+        assertEquals( partition.count(), loaded.count() );
+        assertEquals( partition.fetch( partition.getEntryId( child2Dn ) ),
+            loaded.fetch( loaded.getEntryId( child2Dn ) ) );
+
+        // A modified file is parsed again
+        Entry child2 = partition.fetch( partition.getEntryId( child2Dn ) );
+        child2.removeAttributes( SchemaConstants.ENTRY_DN_AT );
+        child2.add( "description", "modified on disk" );
+        FileWriter fw = new FileWriter( child2File );
+        fw.write( LdifUtils.convertToLdif( child2, true ) );
+        fw.close();
+
+        loaded = loadPartition( 4, true );
+        assertEquals( "modified on disk", loaded.fetch( loaded.getEntryId( child2Dn ) ).get( "description" )
+            .getString() );
+    }
+
+
+    /**
+     * Writes a cache file holding a single file record.
+     */
+    private void writeCache( File cacheFile, String fingerprint, int nbFiles, File file, long checksum,
+        int dataLength, byte[] data ) throws Exception
+    {
+        ObjectOutputStream out = new ObjectOutputStream( new FileOutputStream( cacheFile ) );
+        out.writeInt( LdifFileCache.VERSION );
+        out.writeUTF( fingerprint );
+        out.writeInt( nbFiles );
+        out.writeUTF( File.separator + file.getName() );
+        out.writeLong( file.lastModified() );
+        out.writeLong( file.length() );
+        out.writeLong( checksum );
+        out.writeInt( dataLength );
+        out.write( data );
+        out.close();
+    }
+
+
+    @Test
+    public void testInvalidCacheIgnored() throws Exception
+    {
+        File ldifFile = new File( wkdir, "ou=test,ou=system.ldif" );
+        assertTrue( ldifFile.exists() );
+        ldifFile.setLastModified( System.currentTimeMillis() - 60000L );
+
+        File cacheFile = new File( wkdir, "ou=test,ou=system.cache" );
+        Entry entry = new DefaultEntry( schemaManager, "ou=test,ou=system",
+            "objectClass: top",
+            "objectClass: organizationalUnit",
+            "ou: test" );
+
+        LdifFileCache cache = new LdifFileCache( cacheFile, wkdir, schemaManager );
+        cache.read();
+        cache.put( ldifFile, ldifFile.lastModified(), ldifFile.length(), entry );
+        cache.write();
+
+        cache = new LdifFileCache( cacheFile, wkdir, schemaManager );
+        cache.read();
+        assertEquals( entry, cache.get( ldifFile ) );
+        String fingerprint = cache.getSchemaFingerprint();
+        byte[] data = new byte[]
+            { 1, 2, 3 };
+
+        // Written with another schema
+        writeCache( cacheFile, "another schema", 1, ldifFile, 0L, 3, data );
+        cache = new LdifFileCache( cacheFile, wkdir, schemaManager );
+        cache.read();
+        assertNull( cache.get( ldifFile ) );
+
+        // Corrupted counts and lengths don't allocate anything
+        int[][] invalidCounts = new int[][]
+            {
+                { Integer.MAX_VALUE, 3 },
+                { -1, 3 },
+                { 1, -1 },
+                { 1, Integer.MAX_VALUE } };
+
+        for ( int[] invalidCount : invalidCounts )
+        {
+            writeCache( cacheFile, fingerprint, invalidCount[0], ldifFile, 0L, invalidCount[1], data );
+            cache = new LdifFileCache( cacheFile, wkdir, schemaManager );
+            cache.read();
+            assertNull( cache.get( ldifFile ) );
+        }
+
+        // A corrupted entry is detected before being deserialized
+        writeCache( cacheFile, fingerprint, 1, ldifFile, 0L, 3, data );
+        cache = new LdifFileCache( cacheFile, wkdir, schemaManager );
+        cache.read();
+        assertNull( cache.get( ldifFile ) );
+
+        // The partition is still loaded, from the LDIF files
+        assertEquals( partition.count(), loadPartition( 1, true ).count() );
+    }
+
+
     private CoreSession injectEntries() throws Exception
     {
         Dn adminDn = new Dn( schemaManager, "uid=admin,ou=system" );
@@ -31,6 +31,7 @@ import static org.junit.Assert.fail;
 import java.io.File;
 import java.io.RandomAccessFile;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -217,6 +218,18 @@ public class SingleFileLdifPartitionTest
      * @throws Exception
      */
     private SingleFileLdifPartition createPartition( String fileName, boolean truncate ) throws Exception
+    {
+        return createPartition( fileName, truncate, false );
+    }
+
+
+    /**
+     * creates a partition from the given ldif file, in append only mode or not
+     *
+     * @see #createPartition(String, boolean)
+     */
+    private SingleFileLdifPartition createPartition( String fileName, boolean truncate, boolean appendOnly )
+        throws Exception
     {
         if ( fileName == null )
         {
@@ -236,6 +249,7 @@ public class SingleFileLdifPartitionTest
         partition.setPartitionPath( new File( fileName ).toURI() );
         partition.setSuffixDn( new Dn( "ou=test,ou=system" ) );
         partition.setSchemaManager( schemaManager );
+        partition.setAppendOnly( appendOnly );
         partition.initialize();
 
         return partition;
@@ -1179,9 +1193,276 @@ public class SingleFileLdifPartitionTest
     }
 
 
+    //-------------------------------------------------------------------------
+    // Append only mode tests
+    //-------------------------------------------------------------------------
+
+    private Modification createDescriptionMod( String description ) throws Exception
+    {
+        Attribute attribute = new DefaultAttribute( schemaManager.lookupAttributeTypeRegistry( "description" ) );
+        attribute.add( description );
+
+        return new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, attribute );
+    }
+
+
+    private void modifyDescription( SingleFileLdifPartition partition, Dn dn, String description ) throws Exception
+    {
+        ModifyOperationContext modOpCtx = new ModifyOperationContext( mockSession );
+        modOpCtx.setDn( dn );
+        modOpCtx.setEntry( partition.fetch( partition.getEntryId( dn ) ) );
+
+        List<Modification> modItems = new ArrayList<Modification>();
+        modItems.add( createDescriptionMod( description ) );
+        modOpCtx.setModItems( modItems );
+
+        partition.modify( modOpCtx );
+    }
+
+
+    private File getLogFile()
+    {
+        return new File( ldifFileInUse.getAbsolutePath() + ".log" );
+    }
+
+
+    @Test
+    public void testAppendOnlyReplay() throws Exception
+    {
+        SingleFileLdifPartition partition = injectEntries( true );
+
+        // Nothing is written in the LDIF file, everything is in the log
+        assertEquals( 0L, ldifFileInUse.length() );
+        assertTrue( getLogFile().length() > 0L );
+
+        Dn child1 = new Dn( schemaManager, "dc=child1,ou=test,ou=system" );
+        Dn child2 = new Dn( schemaManager, "dc=child2,ou=test,ou=system" );
+        modifyDescription( partition, child2, "modified child2" );
+
+        RenameOperationContext renameOpCtx = new RenameOperationContext( mockSession, child2,
+            new Rdn( "dc=renamedChild2" ), true );
+        partition.rename( renameOpCtx );
+        Dn renamedChild2 = new Dn( schemaManager, "dc=renamedChild2,ou=test,ou=system" );
+
+        MoveOperationContext moveOpCtx = new MoveOperationContext( mockSession, new Dn( schemaManager,
+            "dc=grandChild12,dc=child1,ou=test,ou=system" ), renamedChild2 );
+        partition.move( moveOpCtx );
+
+        MoveAndRenameOperationContext moveAndRenameOpCtx = new MoveAndRenameOperationContext( mockSession,
+            new Dn( schemaManager, "dc=greatGrandChild111,dc=grandChild11,dc=child1,ou=test,ou=system" ), child1,
+            new Rdn( "dc=movedChild" ), false );
+        partition.moveAndRename( moveAndRenameOpCtx );
+
+        partition.delete( partition.getEntryId( new Dn( schemaManager,
+            "dc=grandChild11,dc=child1,ou=test,ou=system" ) ) );
+
+        Entry renamed = partition.lookup( new LookupOperationContext( mockSession, renamedChild2,
+            SchemaConstants.ALL_ATTRIBUTES_ARRAY ) );
+        Entry moved = partition.lookup( new LookupOperationContext( mockSession, new Dn( schemaManager,
+            "dc=movedChild,dc=child1,ou=test,ou=system" ), SchemaConstants.ALL_ATTRIBUTES_ARRAY ) );
+
+        assertEquals( 0L, ldifFileInUse.length() );
+
+        // Reload the snapshot and the log
+        partition = createPartition( null, false, true );
+
+        assertEquals( 5L, partition.count() );
+        assertExists( partition, renamed );
+        assertExists( partition, "dc=grandChild12,dc=renamedChild2,ou=test,ou=system" );
+        assertNotExists( partition, createEntry( "dc=grandChild11,dc=child1,ou=test,ou=system" ) );
+
+        Entry reloaded = partition.lookup( new LookupOperationContext( mockSession, moved.getDn(),
+            SchemaConstants.ALL_ATTRIBUTES_ARRAY ) );
+        assertEquals( moved.get( SchemaConstants.ENTRY_UUID_AT ), reloaded.get( SchemaConstants.ENTRY_UUID_AT ) );
+        assertEquals( moved.get( SchemaConstants.ENTRY_CSN_AT ), reloaded.get( SchemaConstants.ENTRY_CSN_AT ) );
+        Attribute dc = reloaded.get( "dc" );
+        assertTrue( dc.contains( "greatGrandChild111" ) );
+        assertTrue( dc.contains( "movedChild" ) );
+        assertFalse( renamed.get( "dc" ).contains( "child2" ) );
+        assertEquals( "modified child2", renamed.get( "description" ).getString() );
+
+        // Compact, the log is now empty and the snapshot contains everything
+        long logLength = getLogFile().length();
+        partition.compact();
+
+        assertTrue( getLogFile().length() < logLength );
+        assertTrue( ldifFileInUse.length() > 0L );
+
+        partition = createPartition( null, false, true );
+        assertEquals( 5L, partition.count() );
+        assertExists( partition, renamed );
+        assertExists( partition, moved.getDn().getName() );
+
+        // The snapshot can be read in the default mode too
+        partition = reloadPartition();
+        assertEquals( 5L, partition.count() );
+        assertExists( partition, renamed );
+    }
+
+
+    @Test
+    public void testAppendOnlyIncompleteRecord() throws Exception
+    {
+        SingleFileLdifPartition partition = injectEntries( true );
+        Dn child1 = new Dn( schemaManager, "dc=child1,ou=test,ou=system" );
+        modifyDescription( partition, child1, "complete" );
+
+        long logLength = getLogFile().length();
+
+        // A crash while writing a record
+        RandomAccessFile log = new RandomAccessFile( getLogFile(), "rw" );
+        log.seek( logLength );
+        log.write( Strings.getBytesUtf8( "dn: dc=child1,ou=test,ou=system\nchangetype: modify\nreplace: descr" ) );
+        log.close();
+
+        partition = createPartition( null, false, true );
+
+        assertEquals( logLength, getLogFile().length() );
+        assertEquals( "complete", partition.fetch( partition.getEntryId( child1 ) ).get( "description" )
+            .getString() );
+    }
+
+
+    @Test
+    public void testAppendOnlyStaleLog() throws Exception
+    {
+        SingleFileLdifPartition partition = injectEntries( true );
+
+        RandomAccessFile log = new RandomAccessFile( getLogFile(), "r" );
+        byte[] staleLog = new byte[( int ) log.length()];
+        log.readFully( staleLog );
+        log.close();
+
+        partition.compact();
+
+        // A crash after the snapshot has been replaced, but before the log has been emptied
+        log = new RandomAccessFile( getLogFile(), "rw" );
+        log.setLength( 0 );
+        log.write( staleLog );
+        log.close();
+
+        partition = createPartition( null, false, true );
+
+        assertEquals( 6L, partition.count() );
+        assertTrue( getLogFile().length() < staleLog.length );
+    }
+
+
+    @Test
+    public void testAppendOnlyInterruptedCompaction() throws Exception
+    {
+        SingleFileLdifPartition partition = injectEntries( true );
+        Dn child1 = new Dn( schemaManager, "dc=child1,ou=test,ou=system" );
+
+        RandomAccessFile log = new RandomAccessFile( getLogFile(), "r" );
+        byte[] staleLog = new byte[( int ) log.length()];
+        log.readFully( staleLog );
+        log.close();
+
+        partition.compact();
+
+        // A crash after the snapshot has been replaced, a change having been logged while
+        // the snapshot was written
+        log = new RandomAccessFile( getLogFile(), "rw" );
+        log.setLength( 0 );
+        log.write( staleLog );
+        log.write( Strings.getBytesUtf8( "dn: dc=child1,ou=test,ou=system\nchangetype: modify\n"
+            + "replace: description\ndescription: logged during the compaction\n-\n\n" ) );
+        log.close();
+
+        partition = createPartition( null, false, true );
+
+        assertEquals( 6L, partition.count() );
+        assertEquals( "logged during the compaction", partition.fetch( partition.getEntryId( child1 ) )
+            .get( "description" ).getString() );
+
+        // The change has been moved to the log of the new snapshot
+        partition = createPartition( null, false, true );
+        assertEquals( "logged during the compaction", partition.fetch( partition.getEntryId( child1 ) )
+            .get( "description" ).getString() );
+    }
+
+
+    @Test
+    public void testAppendOnlyCompactionWhileModifying() throws Exception
+    {
+        final SingleFileLdifPartition partition = injectEntries( true );
+        Dn child1 = new Dn( schemaManager, "dc=child1,ou=test,ou=system" );
+        final List<Exception> errors = new ArrayList<Exception>();
+
+        Thread compactor = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    for ( int i = 0; i < 20; i++ )
+                    {
+                        partition.compact();
+                    }
+                }
+                catch ( Exception e )
+                {
+                    errors.add( e );
+                }
+            }
+        };
+
+        compactor.start();
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            modifyDescription( partition, child1, "description " + i );
+        }
+
+        compactor.join();
+        assertTrue( errors.isEmpty() );
+
+        SingleFileLdifPartition reloaded = createPartition( null, false, true );
+        assertEquals( 6L, reloaded.count() );
+        assertEquals( "description 99", reloaded.fetch( reloaded.getEntryId( child1 ) ).get( "description" )
+            .getString() );
+    }
+
+
+    @Test
+    public void testAppendOnlyBackgroundCompaction() throws Exception
+    {
+        SingleFileLdifPartition partition = injectEntries( true );
+        Dn child1 = new Dn( schemaManager, "dc=child1,ou=test,ou=system" );
+
+        char[] chars = new char[1024];
+        Arrays.fill( chars, 'x' );
+        String description = new String( chars );
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            modifyDescription( partition, child1, description + i );
+        }
+
+        // The log is larger than the minimal size, and than the snapshot
+        for ( int i = 0; ( i < 100 ) && ( ldifFileInUse.length() == 0L ); i++ )
+        {
+            Thread.sleep( 100L );
+        }
+
+        assertTrue( ldifFileInUse.length() > 0L );
+
+        partition = createPartition( null, false, true );
+        assertEquals( description + 99, partition.fetch( partition.getEntryId( child1 ) ).get( "description" )
+            .getString() );
+    }
+
+
     private SingleFileLdifPartition injectEntries() throws Exception
     {
-        SingleFileLdifPartition partition = createPartition( null, true );
+        return injectEntries( false );
+    }
+
+
+    private SingleFileLdifPartition injectEntries( boolean appendOnly ) throws Exception
+    {
+        SingleFileLdifPartition partition = createPartition( null, true, appendOnly );
         AddOperationContext addCtx = new AddOperationContext( mockSession );
         addCtx.setEntry( contextEntry );
 
@@ -116,7 +116,31 @@ public abstract class AbstractDhcpStore implements DhcpStore
 
         if ( null == lease )
         {
-            // FIXME: use selection base to find a lease in a pool.
+            // no designated host : try to get an address from the subnet's pool
+            InetAddress clientAddress = allocateAddress( subnet, hardwareAddress, requestedAddress );
+
+            if ( null != clientAddress )
+            {
+                // build properties map
+                Map properties = getProperties( subnet );
+
+                // build lease
+                lease = new Lease();
+                lease.setAcquired( System.currentTimeMillis() );
+
+                long leaseTime = determineLeaseTime( requestedLeaseTime, properties );
+
+                lease.setExpires( System.currentTimeMillis() + leaseTime );
+
+                lease.setHardwareAddress( hardwareAddress );
+                lease.setState( Lease.STATE_NEW );
+                lease.setClientAddress( clientAddress );
+
+                // add subnet settings
+                OptionsField o = lease.getOptions();
+                o.add( new SubnetMask( subnet.getNetmask() ) );
+                o.merge( subnet.getOptions() );
+            }
         }
 
         // update the lease state
@@ -270,6 +294,25 @@ public abstract class AbstractDhcpStore implements DhcpStore
     }
 
 
+    /**
+     * Allocate a free address from the pool of the given subnet. The requested
+     * address should be honored if it is still available. The default
+     * implementation does not manage any pool and always returns
+     * <code>null</code>.
+     * 
+     * @param subnet
+     * @param hardwareAddress
+     * @param requestedAddress
+     * @return InetAddress the allocated address, or <code>null</code> if none is available
+     * @throws DhcpException
+     */
+    protected InetAddress allocateAddress( Subnet subnet, HardwareAddress hardwareAddress,
+        InetAddress requestedAddress ) throws DhcpException
+    {
+        return null;
+    }
+
+
     /**
      * Update the (possibly changed) lease in the store.
      * 
@@ -0,0 +1,283 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.dhcp.store;
+
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+
+/**
+ * A pool of free IPv4 addresses for a {@link Subnet}, backed by a bitmap. Each
+ * bit stands for one address of the subnet range, a set bit meaning that the
+ * address is in use. Allocation starts from a rotating cursor, so that finding
+ * a free address only looks at the 64 bits words which still have a clear bit.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class AddressPool
+{
+    /** The first address of the pool, as an int */
+    private final int first;
+
+    /** The number of addresses in the pool */
+    private final int size;
+
+    /** The bitmap : one bit per address, set when allocated */
+    private final long[] bitmap;
+
+    /** The index of the word where the next allocation will start */
+    private int cursor;
+
+    /** The number of free addresses */
+    private int freeCount;
+
+
+    /**
+     * Creates a new pool covering the range of the given subnet. If the subnet
+     * has no range, all the host addresses of the subnet are used.
+     *
+     * @param subnet The subnet this pool is created for
+     */
+    public AddressPool( Subnet subnet )
+    {
+        if ( !( subnet.getAddress() instanceof Inet4Address ) )
+        {
+            throw new IllegalArgumentException( "Only IPv4 subnets are supported : " + subnet.getAddress() );
+        }
+
+        int network = toInt( subnet.getAddress() );
+        int mask = toInt( subnet.getNetmask() );
+        int low;
+        int high;
+
+        if ( subnet.getRangeMin() != null )
+        {
+            low = toInt( subnet.getRangeMin() );
+        }
+        else
+        {
+            // Skip the network address
+            low = ( network & mask ) + 1;
+        }
+
+        if ( subnet.getRangeMax() != null )
+        {
+            high = toInt( subnet.getRangeMax() );
+        }
+        else
+        {
+            // Skip the broadcast address
+            high = ( network | ~mask ) - 1;
+        }
+
+        long count = ( high & 0xFFFFFFFFL ) - ( low & 0xFFFFFFFFL ) + 1;
+
+        if ( ( count <= 0 ) || ( count > Integer.MAX_VALUE ) )
+        {
+            throw new IllegalArgumentException( "Invalid address range for subnet " + subnet.getAddress() );
+        }
+
+        first = low;
+        size = ( int ) count;
+        bitmap = new long[( size + 63 ) >>> 6];
+        freeCount = size;
+    }
+
+
+    /**
+     * Allocates the first free address found from the current cursor position.
+     *
+     * @return The allocated address, or <code>null</code> if the pool is exhausted
+     */
+    public synchronized InetAddress allocate()
+    {
+        if ( freeCount == 0 )
+        {
+            return null;
+        }
+
+        for ( int i = 0; i < bitmap.length; i++ )
+        {
+            int wordPos = ( cursor + i ) % bitmap.length;
+            long word = bitmap[wordPos];
+
+            if ( word != -1L )
+            {
+                int bitPos = Long.numberOfTrailingZeros( ~word );
+                int index = ( wordPos << 6 ) + bitPos;
+
+                if ( index >= size )
+                {
+                    // The last word is only partially used
+                    continue;
+                }
+
+                bitmap[wordPos] = word | ( 1L << bitPos );
+                freeCount--;
+                cursor = wordPos;
+
+                return toAddress( first + index );
+            }
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Allocates the given address, if it belongs to the pool and is still free.
+     *
+     * @param address The address to allocate
+     * @return <code>true</code> if the address has been allocated
+     */
+    public synchronized boolean allocate( InetAddress address )
+    {
+        int index = indexOf( address );
+
+        if ( ( index < 0 ) || isSet( index ) )
+        {
+            return false;
+        }
+
+        bitmap[index >>> 6] |= 1L << ( index & 63 );
+        freeCount--;
+
+        return true;
+    }
+
+
+    /**
+     * Gives an address back to the pool.
+     *
+     * @param address The address to release
+     */
+    public synchronized void release( InetAddress address )
+    {
+        int index = indexOf( address );
+
+        if ( ( index < 0 ) || !isSet( index ) )
+        {
+            return;
+        }
+
+        bitmap[index >>> 6] &= ~( 1L << ( index & 63 ) );
+        freeCount++;
+    }
+
+
+    /**
+     * Tells if an address is currently allocated.
+     *
+     * @param address The address to check
+     * @return <code>true</code> if the address belongs to the pool and is allocated
+     */
+    public synchronized boolean isAllocated( InetAddress address )
+    {
+        int index = indexOf( address );
+
+        return ( index >= 0 ) && isSet( index );
+    }
+
+
+    /**
+     * Tells if the given address belongs to this pool.
+     *
+     * @param address The address to check
+     * @return <code>true</code> if the address is within the pool range
+     */
+    public boolean contains( InetAddress address )
+    {
+        return indexOf( address ) >= 0;
+    }
+
+
+    /**
+     * @return The number of free addresses in the pool
+     */
+    public synchronized int getFreeCount()
+    {
+        return freeCount;
+    }
+
+
+    /**
+     * @return The number of addresses in the pool
+     */
+    public int getSize()
+    {
+        return size;
+    }
+
+
+    private boolean isSet( int index )
+    {
+        return ( bitmap[index >>> 6] & ( 1L << ( index & 63 ) ) ) != 0;
+    }
+
+
+    private int indexOf( InetAddress address )
+    {
+        if ( !( address instanceof Inet4Address ) )
+        {
+            return -1;
+        }
+
+        long index = ( toInt( address ) & 0xFFFFFFFFL ) - ( first & 0xFFFFFFFFL );
+
+        if ( ( index < 0 ) || ( index >= size ) )
+        {
+            return -1;
+        }
+
+        return ( int ) index;
+    }
+
+
+    private static int toInt( InetAddress address )
+    {
+        byte[] bytes = address.getAddress();
+
+        return ( ( bytes[0] & 0xFF ) << 24 ) | ( ( bytes[1] & 0xFF ) << 16 ) | ( ( bytes[2] & 0xFF ) << 8 )
+            | ( bytes[3] & 0xFF );
+    }
+
+
+    private static InetAddress toAddress( int value )
+    {
+        byte[] bytes = new byte[]
+            {
+                ( byte ) ( value >>> 24 ),
+                ( byte ) ( value >>> 16 ),
+                ( byte ) ( value >>> 8 ),
+                ( byte ) value };
+
+        try
+        {
+            return InetAddress.getByAddress( bytes );
+        }
+        catch ( UnknownHostException uhe )
+        {
+            // Can't happen, the address has 4 bytes
+            throw new IllegalStateException( uhe );
+        }
+    }
+}
@@ -0,0 +1,774 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.dhcp.store;
+
+
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.entry.StringValue;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.filter.AndNode;
+import org.apache.directory.api.ldap.model.filter.EqualityNode;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.util.DateUtils;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.dhcp.DhcpException;
+import org.apache.directory.server.dhcp.messages.HardwareAddress;
+import org.apache.directory.server.dhcp.options.OptionsField;
+import org.apache.directory.server.dhcp.service.Lease;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A DhcpStore backed by the embedded DirectoryService. Designated hosts are
+ * searched for in-process through the admin session, leases are kept in a
+ * concurrent map indexed by hardware address, and the addresses are allocated
+ * from a bitmap based {@link AddressPool} for each subnet. The fixed addresses
+ * of the designated hosts are reserved in the pools, so that they are never given
+ * to another client, even when they lie within a dynamic range.
+ * <p>
+ * The lease state is written back to the directory asynchronously, as
+ * <code>dhcpLeases</code> entries stored below the lease base Dn : a
+ * background task periodically flushes the modified leases and expires the
+ * outdated ones. The leases are read back when the store is initialized. Note
+ * that this requires the <code>dhcp</code> and <code>nis</code> schemas to be
+ * enabled.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class DirectoryDhcpStore extends AbstractDhcpStore
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( DirectoryDhcpStore.class );
+
+    /** The attributes used to store a lease */
+    private static final String DHCP_LEASES_OC = "dhcpLeases";
+    private static final String DHCP_ADDRESS_STATE_AT = "dhcpAddressState";
+    private static final String DHCP_HW_ADDRESS_AT = "dhcpHWAddress";
+    private static final String DHCP_EXPIRATION_TIME_AT = "dhcpExpirationTime";
+    private static final String DHCP_START_TIME_OF_STATE_AT = "dhcpStartTimeOfState";
+
+    /** The attributes used to find a designated host */
+    private static final String IEEE802_DEVICE_OC = "ieee802Device";
+    private static final String MAC_ADDRESS_AT = "macAddress";
+    private static final String IP_HOST_NUMBER_AT = "ipHostNumber";
+
+    /** The values stored in the dhcpAddressState attribute */
+    private static final String STATE_ACTIVE = "ACTIVE";
+    private static final String STATE_RELEASED = "RELEASED";
+    private static final String STATE_EXPIRED = "EXPIRED";
+
+    /** The default delay between two flushes of the modified leases, in ms */
+    public static final long DEFAULT_FLUSH_INTERVAL = 1000L;
+
+    /** The directory service */
+    private final DirectoryService directoryService;
+
+    /** The session used to read and write the directory */
+    private final CoreSession adminSession;
+
+    /** The base under which the designated hosts are searched for */
+    private final Dn hostBaseDn;
+
+    /** The base under which the leases are stored */
+    private final Dn leaseBaseDn;
+
+    /** The current leases, by hardware address */
+    private final ConcurrentMap<HardwareAddress, Lease> leases = new ConcurrentHashMap<HardwareAddress, Lease>();
+
+    /** The leases which have been modified since the last flush */
+    private final ConcurrentMap<HardwareAddress, Lease> dirtyLeases = new ConcurrentHashMap<HardwareAddress, Lease>();
+
+    /** The known subnets */
+    private final List<Subnet> subnets = new CopyOnWriteArrayList<Subnet>();
+
+    /** The address pool associated with each subnet */
+    private final Map<Subnet, AddressPool> pools = new ConcurrentHashMap<Subnet, AddressPool>();
+
+    /** The fixed addresses of the designated hosts, which are never released */
+    private final Set<InetAddress> designatedAddresses = Collections
+        .newSetFromMap( new ConcurrentHashMap<InetAddress, Boolean>() );
+
+    /** The delay between two flushes, in ms */
+    private long flushInterval = DEFAULT_FLUSH_INTERVAL;
+
+    /** The scheduler running the flush and expiry task */
+    private ScheduledExecutorService scheduler;
+
+
+    /**
+     * Creates a new instance of DirectoryDhcpStore.
+     *
+     * @param directoryService The backing DirectoryService
+     * @param hostBaseDn The base under which designated hosts are searched for
+     * @param leaseBaseDn The base under which the leases are stored
+     */
+    public DirectoryDhcpStore( DirectoryService directoryService, Dn hostBaseDn, Dn leaseBaseDn )
+    {
+        this.directoryService = directoryService;
+        this.adminSession = directoryService.getAdminSession();
+        this.hostBaseDn = hostBaseDn;
+        this.leaseBaseDn = leaseBaseDn;
+    }
+
+
+    /**
+     * Adds a subnet served by this store. An address pool is created for it,
+     * where the addresses of the designated hosts already known are reserved.
+     *
+     * @param subnet The subnet to add
+     */
+    public void addSubnet( Subnet subnet )
+    {
+        AddressPool pool = new AddressPool( subnet );
+
+        for ( InetAddress address : designatedAddresses )
+        {
+            pool.allocate( address );
+        }
+
+        pools.put( subnet, pool );
+        subnets.add( subnet );
+    }
+
+
+    /**
+     * @return the delay between two flushes of the modified leases, in ms
+     */
+    public long getFlushInterval()
+    {
+        return flushInterval;
+    }
+
+
+    /**
+     * @param flushInterval the delay between two flushes of the modified leases, in ms
+     */
+    public void setFlushInterval( long flushInterval )
+    {
+        this.flushInterval = flushInterval;
+    }
+
+
+    /**
+     * Reserves the addresses of the designated hosts, loads the leases stored
+     * in the directory, and starts the background task writing the modified
+     * leases back.
+     *
+     * @throws DhcpException If the hosts or the leases can't be read
+     */
+    public void init() throws DhcpException
+    {
+        loadDesignatedAddresses();
+        loadLeases();
+
+        scheduler = Executors.newSingleThreadScheduledExecutor( new ThreadFactory()
+        {
+            public Thread newThread( Runnable runnable )
+            {
+                Thread thread = new Thread( runnable, "DhcpLeaseWriter" );
+                thread.setDaemon( true );
+
+                return thread;
+            }
+        } );
+
+        scheduler.scheduleWithFixedDelay( new Runnable()
+        {
+            public void run()
+            {
+                expireLeases( System.currentTimeMillis() );
+                flush();
+            }
+        }, flushInterval, flushInterval, TimeUnit.MILLISECONDS );
+    }
+
+
+    /**
+     * Stops the background task, and writes the pending leases.
+     */
+    public void destroy()
+    {
+        if ( scheduler != null )
+        {
+            scheduler.shutdown();
+
+            try
+            {
+                scheduler.awaitTermination( flushInterval * 2, TimeUnit.MILLISECONDS );
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            scheduler = null;
+        }
+
+        flush();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected Lease findExistingLease( HardwareAddress hardwareAddress, Lease existingLease )
+    {
+        Lease lease = leases.get( hardwareAddress );
+
+        if ( lease != null )
+        {
+            return lease;
+        }
+
+        return existingLease;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected Host findDesignatedHost( HardwareAddress hardwareAddress ) throws DhcpException
+    {
+        Host host = searchDesignatedHost( hardwareAddress );
+
+        if ( host != null )
+        {
+            // The host may have been added after the store initialization
+            reserveAddress( host.getAddress() );
+        }
+
+        return host;
+    }
+
+
+    /**
+     * Searches the directory for the host with the given hardware address.
+     *
+     * @param hardwareAddress The host hardware address
+     * @return The host, or null if there is no such host with a fixed address
+     * @throws DhcpException If the directory can't be searched
+     */
+    Host searchDesignatedHost( HardwareAddress hardwareAddress ) throws DhcpException
+    {
+        Cursor<Entry> cursor = null;
+
+        try
+        {
+            SchemaManager schemaManager = directoryService.getSchemaManager();
+            AttributeType objectClassAT = schemaManager.lookupAttributeTypeRegistry( SchemaConstants.OBJECT_CLASS_AT );
+            AttributeType macAddressAT = schemaManager.lookupAttributeTypeRegistry( MAC_ADDRESS_AT );
+
+            ExprNode filter = new AndNode(
+                new EqualityNode<String>( objectClassAT, new StringValue( objectClassAT, IEEE802_DEVICE_OC ) ),
+                new EqualityNode<String>( macAddressAT, new StringValue( macAddressAT,
+                    hardwareAddress.getNativeRepresentation() ) ) );
+
+            cursor = adminSession.search( hostBaseDn, SearchScope.SUBTREE, filter, AliasDerefMode.NEVER_DEREF_ALIASES,
+                SchemaConstants.CN_AT, IP_HOST_NUMBER_AT );
+
+            cursor.beforeFirst();
+
+            if ( cursor.next() )
+            {
+                Entry entry = cursor.get();
+                Attribute ipHostNumber = entry.get( IP_HOST_NUMBER_AT );
+
+                if ( ipHostNumber != null )
+                {
+                    InetAddress clientAddress = InetAddress.getByName( ipHostNumber.getString() );
+                    Attribute cn = entry.get( SchemaConstants.CN_AT );
+
+                    return new Host( cn != null ? cn.getString() : "unknown", clientAddress, hardwareAddress );
+                }
+            }
+
+            return null;
+        }
+        catch ( Exception e )
+        {
+            throw new DhcpException( "Can't lookup host for " + hardwareAddress, e );
+        }
+        finally
+        {
+            if ( cursor != null )
+            {
+                cursor.close();
+            }
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected Subnet findSubnet( InetAddress clientAddress )
+    {
+        for ( Subnet subnet : subnets )
+        {
+            if ( subnet.contains( clientAddress ) )
+            {
+                return subnet;
+            }
+        }
+
+        return null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected InetAddress allocateAddress( Subnet subnet, HardwareAddress hardwareAddress,
+        InetAddress requestedAddress ) throws DhcpException
+    {
+        AddressPool pool = pools.get( subnet );
+
+        if ( pool == null )
+        {
+            return null;
+        }
+
+        if ( ( requestedAddress != null ) && pool.allocate( requestedAddress ) )
+        {
+            return requestedAddress;
+        }
+
+        InetAddress address = pool.allocate();
+
+        if ( address == null )
+        {
+            LOG.warn( "No more free address in subnet {}", subnet.getAddress() );
+        }
+
+        return address;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void updateLease( Lease lease )
+    {
+        HardwareAddress hardwareAddress = lease.getHardwareAddress();
+
+        if ( lease.getState() == Lease.STATE_RELEASED )
+        {
+            if ( leases.remove( hardwareAddress, lease ) )
+            {
+                releaseAddress( lease.getClientAddress() );
+            }
+        }
+        else
+        {
+            Lease previous = leases.put( hardwareAddress, lease );
+
+            if ( ( previous != null ) && ( previous != lease )
+                && !previous.getClientAddress().equals( lease.getClientAddress() ) )
+            {
+                releaseAddress( previous.getClientAddress() );
+            }
+        }
+
+        dirtyLeases.put( hardwareAddress, lease );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected OptionsField getOptions( DhcpConfigElement element )
+    {
+        // we don't have groups, classes, etc. yet.
+        return element.getOptions();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected Map getProperties( DhcpConfigElement element )
+    {
+        // we don't have groups, classes, etc. yet.
+        return element.getProperties();
+    }
+
+
+    /**
+     * Expires all the leases which are outdated, giving their address back
+     * to the pool.
+     *
+     * @param now The current time
+     */
+    void expireLeases( long now )
+    {
+        for ( Iterator<Lease> iterator = leases.values().iterator(); iterator.hasNext(); )
+        {
+            Lease lease = iterator.next();
+
+            if ( ( lease.getExpires() > 0 ) && ( lease.getExpires() < now ) )
+            {
+                iterator.remove();
+                lease.setState( Lease.STATE_EXPIRED );
+                releaseAddress( lease.getClientAddress() );
+                dirtyLeases.put( lease.getHardwareAddress(), lease );
+            }
+        }
+    }
+
+
+    /**
+     * Writes all the modified leases into the directory. Offered leases are
+     * not persisted, they are only kept in memory until they are requested.
+     */
+    void flush()
+    {
+        for ( Lease lease : dirtyLeases.values() )
+        {
+            if ( !dirtyLeases.remove( lease.getHardwareAddress(), lease ) )
+            {
+                // Modified again in the meantime, it will be written on the next run
+                continue;
+            }
+
+            String state = toAddressState( lease.getState() );
+
+            if ( state == null )
+            {
+                continue;
+            }
+
+            try
+            {
+                writeLease( lease, state );
+            }
+            catch ( LdapException le )
+            {
+                LOG.error( "Failed to write the lease for {} : {}", lease.getHardwareAddress(), le.getMessage() );
+            }
+        }
+    }
+
+
+    /**
+     * Writes a lease as a dhcpLeases entry, named after the client address.
+     */
+    private void writeLease( Lease lease, String state ) throws LdapException
+    {
+        SchemaManager schemaManager = directoryService.getSchemaManager();
+        Dn leaseDn = leaseBaseDn.add( new Rdn( schemaManager, SchemaConstants.CN_AT + "="
+            + lease.getClientAddress().getHostAddress() ) );
+        String startTime = DateUtils.getGeneralizedTime( System.currentTimeMillis() );
+
+        if ( adminSession.exists( leaseDn ) )
+        {
+            Modification[] mods = new Modification[4];
+            mods[0] = replace( schemaManager, DHCP_ADDRESS_STATE_AT, state );
+            mods[1] = replace( schemaManager, DHCP_HW_ADDRESS_AT, lease.getHardwareAddress().toString() );
+            mods[2] = replace( schemaManager, DHCP_EXPIRATION_TIME_AT,
+                DateUtils.getGeneralizedTime( lease.getExpires() ) );
+            mods[3] = replace( schemaManager, DHCP_START_TIME_OF_STATE_AT, startTime );
+
+            adminSession.modify( leaseDn, mods );
+        }
+        else
+        {
+            Entry entry = directoryService.newEntry( leaseDn );
+            entry.add( SchemaConstants.OBJECT_CLASS_AT, SchemaConstants.TOP_OC, DHCP_LEASES_OC );
+            entry.add( SchemaConstants.CN_AT, lease.getClientAddress().getHostAddress() );
+            entry.add( DHCP_ADDRESS_STATE_AT, state );
+            entry.add( DHCP_HW_ADDRESS_AT, lease.getHardwareAddress().toString() );
+            entry.add( DHCP_EXPIRATION_TIME_AT, DateUtils.getGeneralizedTime( lease.getExpires() ) );
+            entry.add( DHCP_START_TIME_OF_STATE_AT, startTime );
+
+            adminSession.add( entry );
+        }
+    }
+
+
+    private Modification replace( SchemaManager schemaManager, String attributeType, String value )
+        throws LdapException
+    {
+        return new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, new DefaultAttribute(
+            schemaManager.lookupAttributeTypeRegistry( attributeType ), value ) );
+    }
+
+
+    /**
+     * Reserves the addresses of all the designated hosts stored in the directory.
+     */
+    private void loadDesignatedAddresses() throws DhcpException
+    {
+        Cursor<Entry> cursor = null;
+
+        try
+        {
+            SchemaManager schemaManager = directoryService.getSchemaManager();
+            AttributeType objectClassAT = schemaManager.lookupAttributeTypeRegistry( SchemaConstants.OBJECT_CLASS_AT );
+            ExprNode filter = new EqualityNode<String>( objectClassAT, new StringValue( objectClassAT,
+                IEEE802_DEVICE_OC ) );
+
+            cursor = adminSession.search( hostBaseDn, SearchScope.SUBTREE, filter, AliasDerefMode.NEVER_DEREF_ALIASES,
+                IP_HOST_NUMBER_AT );
+
+            cursor.beforeFirst();
+
+            while ( cursor.next() )
+            {
+                Attribute ipHostNumber = cursor.get().get( IP_HOST_NUMBER_AT );
+
+                if ( ipHostNumber != null )
+                {
+                    reserveAddress( InetAddress.getByName( ipHostNumber.getString() ) );
+                }
+            }
+
+            LOG.debug( "Reserved {} designated addresses", designatedAddresses.size() );
+        }
+        catch ( Exception e )
+        {
+            throw new DhcpException( "Can't load the hosts stored under " + hostBaseDn, e );
+        }
+        finally
+        {
+            if ( cursor != null )
+            {
+                cursor.close();
+            }
+        }
+    }
+
+
+    /**
+     * Reserves the fixed address of a designated host in the pool of its subnet.
+     */
+    private void reserveAddress( InetAddress address )
+    {
+        if ( !designatedAddresses.add( address ) )
+        {
+            return;
+        }
+
+        Subnet subnet = findSubnet( address );
+
+        if ( subnet == null )
+        {
+            return;
+        }
+
+        AddressPool pool = pools.get( subnet );
+
+        if ( pool.contains( address ) && !pool.allocate( address ) )
+        {
+            LOG.warn( "The designated address {} is already leased", address );
+        }
+    }
+
+
+    /**
+     * Reads the active leases stored in the directory, and marks their
+     * addresses as allocated.
+     */
+    private void loadLeases() throws DhcpException
+    {
+        Cursor<Entry> cursor = null;
+        long now = System.currentTimeMillis();
+
+        try
+        {
+            SchemaManager schemaManager = directoryService.getSchemaManager();
+            AttributeType stateAT = schemaManager.lookupAttributeTypeRegistry( DHCP_ADDRESS_STATE_AT );
+            ExprNode filter = new EqualityNode<String>( stateAT, new StringValue( stateAT, STATE_ACTIVE ) );
+
+            cursor = adminSession.search( leaseBaseDn, SearchScope.ONELEVEL, filter,
+                AliasDerefMode.NEVER_DEREF_ALIASES, SchemaConstants.ALL_USER_ATTRIBUTES );
+
+            cursor.beforeFirst();
+
+            while ( cursor.next() )
+            {
+                Entry entry = cursor.get();
+                Lease lease = toLease( entry );
+
+                if ( ( lease == null ) || ( lease.getExpires() < now ) )
+                {
+                    continue;
+                }
+
+                Subnet subnet = findSubnet( lease.getClientAddress() );
+
+                // The designated addresses are already allocated
+                if ( ( subnet == null )
+                    || ( !designatedAddresses.contains( lease.getClientAddress() ) && !pools.get( subnet ).allocate(
+                        lease.getClientAddress() ) ) )
+                {
+                    LOG.warn( "Ignoring the stored lease {}, its address is not available", entry.getDn() );
+                    continue;
+                }
+
+                leases.put( lease.getHardwareAddress(), lease );
+            }
+
+            LOG.debug( "Loaded {} active leases from {}", leases.size(), leaseBaseDn );
+        }
+        catch ( Exception e )
+        {
+            throw new DhcpException( "Can't load the leases stored under " + leaseBaseDn, e );
+        }
+        finally
+        {
+            if ( cursor != null )
+            {
+                cursor.close();
+            }
+        }
+    }
+
+
+    /**
+     * Builds a Lease from a dhcpLeases entry.
+     */
+    private Lease toLease( Entry entry ) throws Exception
+    {
+        Attribute cn = entry.get( SchemaConstants.CN_AT );
+        Attribute hwAddress = entry.get( DHCP_HW_ADDRESS_AT );
+        Attribute expirationTime = entry.get( DHCP_EXPIRATION_TIME_AT );
+
+        if ( ( cn == null ) || ( hwAddress == null ) || ( expirationTime == null ) )
+        {
+            return null;
+        }
+
+        Lease lease = new Lease();
+        lease.setClientAddress( InetAddress.getByName( cn.getString() ) );
+        lease.setHardwareAddress( parseHardwareAddress( hwAddress.getString() ) );
+        lease.setExpires( DateUtils.getDate( expirationTime.getString() ).getTime() );
+        lease.setState( Lease.STATE_ACTIVE );
+
+        Attribute startTime = entry.get( DHCP_START_TIME_OF_STATE_AT );
+
+        if ( startTime != null )
+        {
+            lease.setAcquired( DateUtils.getDate( startTime.getString() ).getTime() );
+        }
+
+        return lease;
+    }
+
+
+    /**
+     * Parses a hardware address stored using the <code>t/a1:a2:a3...</code>
+     * format produced by {@link HardwareAddress#toString()}.
+     */
+    static HardwareAddress parseHardwareAddress( String value )
+    {
+        int pos = value.indexOf( '/' );
+
+        if ( pos < 0 )
+        {
+            throw new IllegalArgumentException( "Invalid hardware address : " + value );
+        }
+
+        short type = Short.parseShort( value.substring( 0, pos ) );
+        String bytes = value.substring( pos + 1 );
+
+        if ( bytes.length() == 0 )
+        {
+            return new HardwareAddress( type, ( short ) 0, new byte[0] );
+        }
+
+        String[] parts = bytes.split( ":" );
+        byte[] address = new byte[parts.length];
+
+        for ( int i = 0; i < parts.length; i++ )
+        {
+            address[i] = ( byte ) Integer.parseInt( parts[i], 16 );
+        }
+
+        return new HardwareAddress( type, ( short ) address.length, address );
+    }
+
+
+    /**
+     * Gives an address back to the pool of its subnet, unless it is the fixed
+     * address of a designated host.
+     */
+    private void releaseAddress( InetAddress address )
+    {
+        if ( designatedAddresses.contains( address ) )
+        {
+            return;
+        }
+
+        Subnet subnet = findSubnet( address );
+
+        if ( subnet != null )
+        {
+            pools.get( subnet ).release( address );
+        }
+    }
+
+
+    private static String toAddressState( int leaseState )
+    {
+        switch ( leaseState )
+        {
+            case Lease.STATE_ACTIVE:
+                return STATE_ACTIVE;
+
+            case Lease.STATE_RELEASED:
+                return STATE_RELEASED;
+
+            case Lease.STATE_EXPIRED:
+                return STATE_EXPIRED;
+
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.dhcp.store;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.directory.server.dhcp.messages.HardwareAddress;
+import org.junit.Test;
+
+
+/**
+ * Tests for the {@link AddressPool} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class AddressPoolTest
+{
+    private static Subnet createSubnet( String min, String max ) throws Exception
+    {
+        return new Subnet( InetAddress.getByName( "192.168.168.0" ), InetAddress.getByName( "255.255.255.0" ),
+            min == null ? null : InetAddress.getByName( min ), max == null ? null : InetAddress.getByName( max ) );
+    }
+
+
+    @Test
+    public void testAllocateWholeRange() throws Exception
+    {
+        AddressPool pool = new AddressPool( createSubnet( "192.168.168.100", "192.168.168.199" ) );
+
+        assertEquals( 100, pool.getSize() );
+        assertEquals( 100, pool.getFreeCount() );
+
+        Set<InetAddress> allocated = new HashSet<InetAddress>();
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            InetAddress address = pool.allocate();
+            assertNotNull( address );
+            assertTrue( pool.contains( address ) );
+            assertTrue( allocated.add( address ) );
+        }
+
+        assertEquals( 0, pool.getFreeCount() );
+        assertNull( pool.allocate() );
+        assertTrue( allocated.contains( InetAddress.getByName( "192.168.168.100" ) ) );
+        assertTrue( allocated.contains( InetAddress.getByName( "192.168.168.199" ) ) );
+    }
+
+
+    @Test
+    public void testAllocateRequestedAddress() throws Exception
+    {
+        AddressPool pool = new AddressPool( createSubnet( "192.168.168.10", "192.168.168.20" ) );
+        InetAddress requested = InetAddress.getByName( "192.168.168.15" );
+
+        assertTrue( pool.allocate( requested ) );
+        assertTrue( pool.isAllocated( requested ) );
+        assertFalse( pool.allocate( requested ) );
+        assertFalse( pool.allocate( InetAddress.getByName( "192.168.168.21" ) ) );
+        assertEquals( 10, pool.getFreeCount() );
+
+        pool.release( requested );
+        assertFalse( pool.isAllocated( requested ) );
+        assertEquals( 11, pool.getFreeCount() );
+
+        // releasing twice does not change anything
+        pool.release( requested );
+        assertEquals( 11, pool.getFreeCount() );
+    }
+
+
+    @Test
+    public void testReleasedAddressIsReused() throws Exception
+    {
+        AddressPool pool = new AddressPool( createSubnet( "192.168.168.1", "192.168.168.2" ) );
+
+        InetAddress first = pool.allocate();
+        InetAddress second = pool.allocate();
+        assertNull( pool.allocate() );
+
+        pool.release( first );
+        assertEquals( first, pool.allocate() );
+
+        pool.release( second );
+        assertEquals( second, pool.allocate() );
+    }
+
+
+    @Test
+    public void testDefaultRange() throws Exception
+    {
+        AddressPool pool = new AddressPool( createSubnet( null, null ) );
+
+        // network and broadcast addresses are excluded
+        assertEquals( 254, pool.getSize() );
+        assertFalse( pool.contains( InetAddress.getByName( "192.168.168.0" ) ) );
+        assertFalse( pool.contains( InetAddress.getByName( "192.168.168.255" ) ) );
+        assertEquals( InetAddress.getByName( "192.168.168.1" ), pool.allocate() );
+    }
+
+
+    @Test
+    public void testParseHardwareAddress()
+    {
+        HardwareAddress address = new HardwareAddress( ( short ) 1, ( short ) 6, new byte[]
+            { 0x00, 0x13, ( byte ) 0xd3, 0x2b, ( byte ) 0xfe, 0x01 } );
+
+        assertEquals( address, DirectoryDhcpStore.parseHardwareAddress( address.toString() ) );
+    }
+}
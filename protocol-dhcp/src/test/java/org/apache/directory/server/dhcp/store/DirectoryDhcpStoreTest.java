@@ -0,0 +1,130 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.dhcp.store;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.dhcp.messages.HardwareAddress;
+import org.apache.directory.server.dhcp.service.Lease;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests the allocation of the addresses by the {@link DirectoryDhcpStore}.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class DirectoryDhcpStoreTest
+{
+    private static final HardwareAddress DESIGNATED_HW = new HardwareAddress( ( short ) 1, ( short ) 6, new byte[]
+        { 0x00, 0x01, 0x02, 0x03, 0x04, 0x05 } );
+
+    private InetAddress designatedAddress;
+
+    private InetAddress selectionBase;
+
+    private DirectoryDhcpStore store;
+
+
+    /**
+     * A store whose only designated host has a fixed address within the dynamic range
+     */
+    @Before
+    public void createStore() throws Exception
+    {
+        designatedAddress = InetAddress.getByName( "192.168.168.15" );
+        selectionBase = InetAddress.getByName( "192.168.168.1" );
+
+        // The store only uses the DirectoryService to search the hosts and store the leases
+        DirectoryService directoryService = ( DirectoryService ) Proxy.newProxyInstance(
+            DirectoryService.class.getClassLoader(), new Class<?>[]
+                { DirectoryService.class }, new InvocationHandler()
+            {
+                public Object invoke( Object proxy, Method method, Object[] args )
+                {
+                    return null;
+                }
+            } );
+
+        store = new DirectoryDhcpStore( directoryService, Dn.EMPTY_DN, Dn.EMPTY_DN )
+        {
+            Host searchDesignatedHost( HardwareAddress hardwareAddress )
+            {
+                if ( DESIGNATED_HW.equals( hardwareAddress ) )
+                {
+                    return new Host( "designated", designatedAddress, hardwareAddress );
+                }
+
+                return null;
+            }
+        };
+
+        store.addSubnet( new Subnet( InetAddress.getByName( "192.168.168.0" ), InetAddress
+            .getByName( "255.255.255.0" ), InetAddress.getByName( "192.168.168.10" ), InetAddress
+            .getByName( "192.168.168.20" ) ) );
+    }
+
+
+    private static HardwareAddress createHardwareAddress( int i )
+    {
+        return new HardwareAddress( ( short ) 1, ( short ) 6, new byte[]
+            { 0x00, 0x10, 0x00, 0x00, 0x00, ( byte ) i } );
+    }
+
+
+    @Test
+    public void testDesignatedAddressInDynamicRange() throws Exception
+    {
+        Lease designatedLease = store.getLeaseOffer( DESIGNATED_HW, null, selectionBase, 0, null );
+        assertEquals( designatedAddress, designatedLease.getClientAddress() );
+
+        // A client requesting the designated address gets another one
+        Lease lease = store.getLeaseOffer( createHardwareAddress( 0 ), designatedAddress, selectionBase, 0, null );
+        assertNotNull( lease );
+        assertFalse( designatedAddress.equals( lease.getClientAddress() ) );
+
+        // Releasing the designated lease doesn't give the address to the dynamic clients
+        store.releaseLease( designatedLease );
+
+        for ( int i = 1; i < 10; i++ )
+        {
+            lease = store.getLeaseOffer( createHardwareAddress( i ), null, selectionBase, 0, null );
+            assertNotNull( lease );
+            assertFalse( designatedAddress.equals( lease.getClientAddress() ) );
+        }
+
+        // The 11 addresses of the range are used by 10 dynamic clients and the designated host
+        assertNull( store.getLeaseOffer( createHardwareAddress( 10 ), designatedAddress, selectionBase, 0, null ) );
+        assertEquals( designatedAddress, store.getLeaseOffer( DESIGNATED_HW, null, selectionBase, 0, null )
+            .getClientAddress() );
+    }
+}
@@ -28,6 +28,7 @@ import org.apache.directory.server.dns.store.jndi.JndiRecordStoreImpl;
 import org.apache.directory.server.protocol.shared.DirectoryBackedService;
 import org.apache.directory.server.protocol.shared.transport.Transport;
 import org.apache.directory.server.protocol.shared.transport.UdpTransport;
+import org.apache.mina.core.filterchain.DefaultIoFilterChainBuilder;
 import org.apache.mina.core.service.IoAcceptor;
 import org.apache.mina.transport.socket.DatagramAcceptor;
 import org.apache.mina.transport.socket.DatagramSessionConfig;
@@ -90,6 +91,9 @@ public class DnsServer extends DirectoryBackedService
             // Allow the port to be reused even if the socket is in TIME_WAIT state
             ( ( DatagramSessionConfig ) acceptor.getSessionConfig() ).setReuseAddress( true );
 
+            // Process the requests on a pool of threads
+            transport.addExecutorFilter( ( DefaultIoFilterChainBuilder ) acceptor.getFilterChain() );
+
             // Start the listener
             acceptor.bind();
         }
@@ -107,6 +111,10 @@ public class DnsServer extends DirectoryBackedService
                 {
                     // Allow the port to be reused even if the socket is in TIME_WAIT state
                     ( ( DatagramSessionConfig ) acceptor.getSessionConfig() ).setReuseAddress( true );
+
+                    // Process the requests on a pool of threads
+                    ( ( UdpTransport ) transport ).addExecutorFilter( ( DefaultIoFilterChainBuilder ) acceptor
+                        .getFilterChain() );
                 }
                 else
                 {
@@ -76,7 +76,8 @@ public class DnsProtocolHandler implements IoHandler
 
         if ( session.getTransportMetadata().isConnectionless() )
         {
-            session.getFilterChain().addFirst( "codec",
+            // Added last, so that decoding happens after the executor, if any
+            session.getFilterChain().addLast( "codec",
                 new ProtocolCodecFilter( DnsProtocolUdpCodecFactory.getInstance() ) );
         }
         else
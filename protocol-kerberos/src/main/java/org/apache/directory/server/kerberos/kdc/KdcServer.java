@@ -34,8 +34,10 @@ import org.apache.directory.server.kerberos.shared.replay.ReplayCache;
 import org.apache.directory.server.kerberos.shared.replay.ReplayCacheImpl;
 import org.apache.directory.server.kerberos.shared.store.PrincipalStore;
 import org.apache.directory.server.protocol.shared.DirectoryBackedService;
+import org.apache.directory.server.protocol.shared.transport.IoBufferReleaseFilter;
 import org.apache.directory.server.protocol.shared.transport.TcpTransport;
 import org.apache.directory.server.protocol.shared.transport.Transport;
+import org.apache.directory.server.protocol.shared.transport.UdpTransport;
 import org.apache.mina.core.filterchain.DefaultIoFilterChainBuilder;
 import org.apache.mina.core.filterchain.IoFilterChainBuilder;
 import org.apache.mina.core.service.IoAcceptor;
@@ -141,6 +143,17 @@ public class KdcServer extends DirectoryBackedService
                 new ProtocolCodecFilter(
                     KerberosProtocolCodecFactory.getInstance() ) );
 
+            // Give the encoded buffers back to the pool once sent. This filter
+            // must stay before the codec to see the encoded buffers
+            ( ( DefaultIoFilterChainBuilder ) chainBuilder ).addFirst( "bufferRelease",
+                new IoBufferReleaseFilter() );
+
+            if ( transport instanceof UdpTransport )
+            {
+                // Decode and handle the datagrams on the transport's threads
+                ( ( UdpTransport ) transport ).addExecutorFilter( ( DefaultIoFilterChainBuilder ) chainBuilder );
+            }
+
             acceptor.setFilterChainBuilder( chainBuilder );
 
             // Inject the protocol handler
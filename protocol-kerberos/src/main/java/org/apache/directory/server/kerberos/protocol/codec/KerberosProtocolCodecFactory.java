@@ -20,6 +20,9 @@
 package org.apache.directory.server.kerberos.protocol.codec;
 
 
+import org.apache.directory.server.protocol.shared.transport.IoBufferReleaseFilter;
+import org.apache.directory.server.protocol.shared.transport.SharedBufferAllocator;
+import org.apache.mina.core.buffer.IoBufferAllocator;
 import org.apache.mina.core.session.IoSession;
 import org.apache.mina.filter.codec.ProtocolCodecFactory;
 import org.apache.mina.filter.codec.ProtocolDecoder;
@@ -33,6 +36,14 @@ public class KerberosProtocolCodecFactory implements ProtocolCodecFactory
 {
     private static final KerberosProtocolCodecFactory INSTANCE = new KerberosProtocolCodecFactory();
 
+    /**
+     * The allocator shared by all the encoders. The buffers are given back to its
+     * pool when they are freed by the {@link IoBufferReleaseFilter}. The pool is not
+     * tied to a thread, as the UDP replies are encoded on the executor threads and
+     * freed on the I/O processor thread.
+     */
+    private final IoBufferAllocator allocator = new SharedBufferAllocator();
+
 
     /**
      * Returns the singleton {@link KerberosProtocolCodecFactory}.
@@ -54,7 +65,7 @@ public class KerberosProtocolCodecFactory implements ProtocolCodecFactory
     public ProtocolEncoder getEncoder( IoSession session )
     {
         // Create a new encoder.
-        return new MinaKerberosEncoder();
+        return new MinaKerberosEncoder( allocator );
     }
 
 
@@ -20,20 +20,47 @@
 package org.apache.directory.server.kerberos.protocol.codec;
 
 
-import java.nio.ByteBuffer;
-
 import org.apache.directory.api.asn1.AbstractAsn1Object;
 import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.buffer.IoBufferAllocator;
 import org.apache.mina.core.session.IoSession;
 import org.apache.mina.filter.codec.ProtocolEncoderAdapter;
 import org.apache.mina.filter.codec.ProtocolEncoderOutput;
 
 
 /**
+ * Encodes the Kerberos messages. The message length is computed once, and the
+ * message is encoded directly into the IoBuffer which will be written, after
+ * the length prefix when the transport is TCP.
+ *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
 public class MinaKerberosEncoder extends ProtocolEncoderAdapter
 {
+    /** The allocator used to get the buffers the messages are encoded into */
+    private final IoBufferAllocator allocator;
+
+
+    /**
+     * Creates a new instance of MinaKerberosEncoder, using MINA's default
+     * buffer allocator.
+     */
+    public MinaKerberosEncoder()
+    {
+        this( IoBuffer.getAllocator() );
+    }
+
+
+    /**
+     * Creates a new instance of MinaKerberosEncoder.
+     *
+     * @param allocator The allocator used to get the buffers the messages are encoded into
+     */
+    public MinaKerberosEncoder( IoBufferAllocator allocator )
+    {
+        this.allocator = allocator;
+    }
+
 
     @Override
     public void encode( IoSession session, Object message, ProtocolEncoderOutput out ) throws Exception
@@ -41,9 +68,11 @@ public class MinaKerberosEncoder extends ProtocolEncoderAdapter
         AbstractAsn1Object asn1Obj = ( AbstractAsn1Object ) message;
         boolean isTcp = !session.getTransportMetadata().isConnectionless();
 
-        ByteBuffer encodedByteBuf = KerberosEncoder.encode( asn1Obj, isTcp );
-        IoBuffer buf = IoBuffer.allocate( encodedByteBuf.remaining() );
-        buf.put( encodedByteBuf.array() );
+        int length = asn1Obj.computeLength();
+        IoBuffer buf = allocator.allocate( KerberosEncoder.getEncodedSize( length, isTcp ), false );
+
+        KerberosEncoder.encode( asn1Obj, length, isTcp, buf.buf() );
+
         buf.flip();
         out.write( buf );
     }
@@ -34,6 +34,7 @@ import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
 import org.apache.directory.api.ldap.model.message.ResultResponse;
 import org.apache.directory.api.ldap.model.message.ResultResponseRequest;
 import org.apache.directory.api.ldap.model.message.extended.NoticeOfDisconnect;
+import org.apache.directory.server.ldap.admission.AdmissionController;
 import org.apache.mina.core.buffer.IoBuffer;
 import org.apache.mina.core.service.IoHandler;
 import org.apache.mina.core.session.IoSession;
@@ -95,6 +96,15 @@ class LdapProtocolHandler extends DemuxingIoHandler
                     ldapServer.getDirectoryService().getSchemaManager() ) );
 
         session.setAttribute( LdapDecoder.MESSAGE_CONTAINER_ATTR, ldapMessageContainer );
+
+        // Close the connections exceeding the number of connections allowed per IP address
+        AdmissionController admissionController = ldapServer.getAdmissionController();
+
+        if ( ( admissionController != null ) && !admissionController.connectionOpened( session ) )
+        {
+            LOG.warn( "Too many connections from {}, closing the session", session.getRemoteAddress() );
+            session.close( true );
+        }
     }
 
 
@@ -109,6 +119,11 @@ class LdapProtocolHandler extends DemuxingIoHandler
         // Get the associated LdapSession
         LdapSession ldapSession = ldapServer.getLdapSessionManager().removeLdapSession( session );
 
+        if ( ldapServer.getAdmissionController() != null )
+        {
+            ldapServer.getAdmissionController().connectionClosed( session );
+        }
+
         // Clean it up !
         cleanUpSession( ldapSession );
     }
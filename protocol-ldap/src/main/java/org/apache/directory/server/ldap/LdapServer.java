@@ -27,12 +27,17 @@ import java.security.Provider;
 import java.security.Security;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.KeyManagerFactory;
 
@@ -67,6 +72,7 @@ import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
 import org.apache.directory.server.core.security.CoreKeyStoreSpi;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.ldap.admission.AdmissionController;
 import org.apache.directory.server.ldap.handlers.LdapRequestHandler;
 import org.apache.directory.server.ldap.handlers.LdapResponseHandler;
 import org.apache.directory.server.ldap.handlers.extended.StartTlsHandler;
@@ -93,6 +99,8 @@ import org.apache.directory.server.ldap.handlers.response.SearchResultEntryHandl
 import org.apache.directory.server.ldap.handlers.response.SearchResultReferenceHandler;
 import org.apache.directory.server.ldap.handlers.sasl.MechanismHandler;
 import org.apache.directory.server.ldap.handlers.ssl.LdapsInitializer;
+import org.apache.directory.server.ldap.handlers.ssl.SslHandshakeMonitorFilter;
+import org.apache.directory.server.ldap.monitor.MonitorPartition;
 import org.apache.directory.server.ldap.replication.consumer.PingerThread;
 import org.apache.directory.server.ldap.replication.consumer.ReplicationConsumer;
 import org.apache.directory.server.ldap.replication.consumer.ReplicationStatusEnum;
@@ -110,6 +118,7 @@ import org.apache.mina.core.session.IoSession;
 import org.apache.mina.filter.codec.ProtocolCodecFactory;
 import org.apache.mina.filter.codec.ProtocolCodecFilter;
 import org.apache.mina.filter.executor.ExecutorFilter;
+import org.apache.mina.filter.executor.OrderedThreadPoolExecutor;
 import org.apache.mina.filter.executor.UnorderedThreadPoolExecutor;
 import org.apache.mina.handler.demux.MessageHandler;
 import org.apache.mina.transport.socket.AbstractSocketSessionConfig;
@@ -262,6 +271,42 @@ public class LdapServer extends DirectoryBackedService
     /** the list of cipher suites to be used in LDAPS and StartTLS */
     private List<String> enabledCipherSuites = new ArrayList<String>();
 
+    /** The executors processing the incoming requests, one or two per transport */
+    private List<ThreadPoolExecutor> executors = new CopyOnWriteArrayList<ThreadPoolExecutor>();
+
+    /** The number of requests waiting in the queues of the executors */
+    private volatile RequestQueueCounter requestQueueCounter = new RequestQueueCounter();
+
+    /** The number of threads processing the cheap requests, 0 to process them with the other requests */
+    private int priorityThreads;
+
+    /** Tells if the cn=monitor partition is mounted when the server starts */
+    private boolean monitorEnabled;
+
+    /** The cn=monitor partition, if mounted */
+    private MonitorPartition monitorPartition;
+
+    /** The TLS server session cache size, a negative value keeps the JSSE default */
+    private int sslSessionCacheSize = -1;
+
+    /** The TLS server session timeout, in seconds, a negative value keeps the JSSE default */
+    private int sslSessionTimeout = -1;
+
+    /** The number of threads running the TLS handshakes, 0 to run them on the I/O threads */
+    private int sslHandshakeThreads;
+
+    /** The executor running the TLS handshakes, if any */
+    private OrderedThreadPoolExecutor sslExecutor;
+
+    /** The filter handing the incoming TLS records to the handshake executor */
+    private ExecutorFilter sslExecutorFilter;
+
+    /** The filter counting the TLS handshakes */
+    private SslHandshakeMonitorFilter sslHandshakeMonitor;
+
+    /** The admission control of the incoming requests, if any */
+    private AdmissionController admissionController;
+
 
     /**
      * Creates an LDAP protocol provider.
@@ -478,6 +523,22 @@ public class LdapServer extends DirectoryBackedService
          */
         installDefaultHandlers();
 
+        // The TLS handshake filters, used by LDAPS and StartTLS
+        sslHandshakeMonitor = new SslHandshakeMonitorFilter( getDirectoryService().getMetricsRegistry() );
+
+        if ( sslHandshakeThreads > 0 )
+        {
+            // The executor has to be ordered, the TLS records of a session must be
+            // processed one after the other
+            sslExecutor = new OrderedThreadPoolExecutor( sslHandshakeThreads );
+            sslExecutorFilter = new ExecutorFilter( sslExecutor, IoEventType.MESSAGE_RECEIVED );
+        }
+
+        if ( admissionController != null )
+        {
+            admissionController.init( this );
+        }
+
         PartitionNexus nexus = getDirectoryService().getPartitionNexus();
 
         for ( ExtendedOperationHandler h : extendedOperationHandlers )
@@ -492,6 +553,12 @@ public class LdapServer extends DirectoryBackedService
         // Install the replication handler if we have one
         startReplicationProducer();
 
+        if ( monitorEnabled )
+        {
+            monitorPartition = new MonitorPartition( this );
+            getDirectoryService().addPartition( monitorPartition );
+        }
+
         for ( Transport transport : transports )
         {
             if ( !( transport instanceof TcpTransport ) )
@@ -518,8 +585,26 @@ public class LdapServer extends DirectoryBackedService
             // Now inject an ExecutorFilter for the write operations
             // We use the same number of thread than the number of IoProcessor
             // (NOTE : this has to be double checked)
-            ( ( DefaultIoFilterChainBuilder ) chain ).addLast( "executor", new ExecutorFilter(
-                new UnorderedThreadPoolExecutor( transport.getNbThreads() ), IoEventType.MESSAGE_RECEIVED ) );
+            UnorderedThreadPoolExecutor executor = new UnorderedThreadPoolExecutor( 0, transport.getNbThreads(),
+                30L, TimeUnit.SECONDS, Executors.defaultThreadFactory(), requestQueueCounter );
+            executors.add( executor );
+            ExecutorFilter executorFilter;
+
+            if ( priorityThreads > 0 )
+            {
+                // The abandons and the lookups have their own executor, ordered so that
+                // the lookups of a session are processed in sequence
+                OrderedThreadPoolExecutor priorityExecutor = new OrderedThreadPoolExecutor( 0, priorityThreads,
+                    30L, TimeUnit.SECONDS, Executors.defaultThreadFactory(), requestQueueCounter );
+                executors.add( priorityExecutor );
+                executorFilter = new PriorityExecutorFilter( executor, priorityExecutor );
+            }
+            else
+            {
+                executorFilter = new ExecutorFilter( executor, IoEventType.MESSAGE_RECEIVED );
+            }
+
+            ( ( DefaultIoFilterChainBuilder ) chain ).addLast( "executor", executorFilter );
 
             /*
             // Trace all the incoming and outgoing message to the console
@@ -639,6 +724,32 @@ public class LdapServer extends DirectoryBackedService
             LOG.warn( "Failed to sent NoD.", e );
         }
 
+        executors.clear();
+
+        // The requests left in the queues of the stopped executors are not counted anymore
+        requestQueueCounter = new RequestQueueCounter();
+
+        if ( sslExecutor != null )
+        {
+            sslExecutor.shutdown();
+            sslExecutor = null;
+            sslExecutorFilter = null;
+        }
+
+        if ( monitorPartition != null )
+        {
+            try
+            {
+                getDirectoryService().removePartition( monitorPartition );
+            }
+            catch ( Exception e )
+            {
+                LOG.warn( "Failed to remove the cn=monitor partition", e );
+            }
+
+            monitorPartition = null;
+        }
+
         started = false;
         LOG.info( "Ldap service stopped." );
     }
@@ -799,6 +910,181 @@ public class LdapServer extends DirectoryBackedService
     }
 
 
+    /**
+     * @return The executors processing the incoming requests, one per started transport,
+     * followed by its priority executor if the priority threads are enabled
+     */
+    public List<ThreadPoolExecutor> getExecutors()
+    {
+        return Collections.unmodifiableList( executors );
+    }
+
+
+    /**
+     * @return The counter of the requests waiting for the executors
+     */
+    public RequestQueueCounter getRequestQueueCounter()
+    {
+        return requestQueueCounter;
+    }
+
+
+    /**
+     * @return The number of threads processing the cheap requests, 0 if they are
+     * processed with the other requests
+     */
+    public int getPriorityThreads()
+    {
+        return priorityThreads;
+    }
+
+
+    /**
+     * Sets the number of threads of each transport processing the cheap requests :
+     * the abandon, bind and compare requests, and the base object searches. When it's
+     * 0, the default, all the requests are processed by the same executor, and a few
+     * long searches can delay the binds and the lookups. When it's above 0, the bind
+     * and unbind requests also wait for the previous requests of their session to be
+     * done. Must be set before the server is started.
+     *
+     * @param priorityThreads The number of priority threads
+     * @see PriorityExecutorFilter
+     */
+    public void setPriorityThreads( int priorityThreads )
+    {
+        this.priorityThreads = priorityThreads;
+    }
+
+
+    /**
+     * @return true if the cn=monitor partition is mounted when the server starts
+     */
+    public boolean isMonitorEnabled()
+    {
+        return monitorEnabled;
+    }
+
+
+    /**
+     * Mounts, or not, a read only cn=monitor partition exposing the server
+     * internals when the server starts. It's disabled by default.
+     *
+     * @param monitorEnabled true to mount the cn=monitor partition
+     */
+    public void setMonitorEnabled( boolean monitorEnabled )
+    {
+        this.monitorEnabled = monitorEnabled;
+    }
+
+
+    /**
+     * @return The TLS server session cache size, a negative value if the JSSE default is used
+     */
+    public int getSslSessionCacheSize()
+    {
+        return sslSessionCacheSize;
+    }
+
+
+    /**
+     * Sets the maximum number of TLS sessions kept by the server for the LDAPS and
+     * StartTLS session resumption. 0 means no limit, and a negative value, the
+     * default, keeps the JSSE default. Must be set before the server is started.
+     *
+     * @param sslSessionCacheSize The TLS server session cache size
+     */
+    public void setSslSessionCacheSize( int sslSessionCacheSize )
+    {
+        this.sslSessionCacheSize = sslSessionCacheSize;
+    }
+
+
+    /**
+     * @return The TLS server session timeout, in seconds, a negative value if the JSSE default is used
+     */
+    public int getSslSessionTimeout()
+    {
+        return sslSessionTimeout;
+    }
+
+
+    /**
+     * Sets the time during which a TLS session can be resumed. 0 means no limit, and
+     * a negative value, the default, keeps the JSSE default. Must be set before the
+     * server is started.
+     *
+     * @param sslSessionTimeout The TLS server session timeout, in seconds
+     */
+    public void setSslSessionTimeout( int sslSessionTimeout )
+    {
+        this.sslSessionTimeout = sslSessionTimeout;
+    }
+
+
+    /**
+     * @return The number of threads running the TLS handshakes, 0 if they run on the I/O threads
+     */
+    public int getSslHandshakeThreads()
+    {
+        return sslHandshakeThreads;
+    }
+
+
+    /**
+     * Sets the number of threads running the TLS handshakes. When it's 0, the default,
+     * the handshakes run on the MINA I/O processor threads, and a handshake delays
+     * the other sessions handled by the same I/O processor. Otherwise the incoming
+     * TLS records are decrypted, and the handshakes processed, by a dedicated executor.
+     * Must be set before the server is started.
+     *
+     * @param sslHandshakeThreads The number of handshake threads
+     */
+    public void setSslHandshakeThreads( int sslHandshakeThreads )
+    {
+        this.sslHandshakeThreads = sslHandshakeThreads;
+    }
+
+
+    /**
+     * @return The filter handing the incoming TLS records to the handshake executor,
+     * null if the handshakes run on the I/O threads or if the server is not started
+     */
+    public ExecutorFilter getSslExecutorFilter()
+    {
+        return sslExecutorFilter;
+    }
+
+
+    /**
+     * @return The filter counting the TLS handshakes, null if the server is not started
+     */
+    public SslHandshakeMonitorFilter getSslHandshakeMonitor()
+    {
+        return sslHandshakeMonitor;
+    }
+
+
+    /**
+     * @return The admission control of the incoming requests, null if there is none
+     */
+    public AdmissionController getAdmissionController()
+    {
+        return admissionController;
+    }
+
+
+    /**
+     * Sets the admission control of the incoming requests, which rejects the requests
+     * exceeding the configured rates and limits. Must be set before the server is started.
+     *
+     * @param admissionController The admission controller, null for no admission control
+     */
+    public void setAdmissionController( AdmissionController admissionController )
+    {
+        this.admissionController = admissionController;
+    }
+
+
     public ProtocolCodecFactory getProtocolCodecFactory()
     {
         return codecFactory;
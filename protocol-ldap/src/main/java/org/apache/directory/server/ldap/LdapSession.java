@@ -547,6 +547,15 @@ public class LdapSession
     }
 
 
+    /**
+     * @return The number of paged searches currently held by this session
+     */
+    public int getPagedSearchContextCount()
+    {
+        return pagedSearchContexts.size();
+    }
+
+
     /**
      * The principal and remote address associated with this session.
      * @see Object#toString()
@@ -0,0 +1,284 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap;
+
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import org.apache.directory.api.ldap.model.message.AbandonRequest;
+import org.apache.directory.api.ldap.model.message.BindRequest;
+import org.apache.directory.api.ldap.model.message.CompareRequest;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.message.UnbindRequest;
+import org.apache.mina.core.filterchain.IoFilterEvent;
+import org.apache.mina.core.session.AttributeKey;
+import org.apache.mina.core.session.IoEventType;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.executor.ExecutorFilter;
+
+
+/**
+ * An ExecutorFilter dispatching the incoming requests to two executors : the cheap
+ * requests (abandon, bind and compare requests, and base object searches, which are
+ * lookups) are processed by a dedicated priority executor, the other requests by the
+ * default executor. A burst of long searches or updates thus can't delay the binds
+ * and the lookups, nor the abandon requests which would stop these searches.
+ * <br/>
+ * The priority executor is expected to be an OrderedThreadPoolExecutor, so that the
+ * lookups of a session are processed in the order they have been received. The
+ * default executor keeps processing the other requests without any ordering, as the
+ * server always did : a client must wait for the response to a request before sending
+ * a request depending on it.
+ * <br/>
+ * The bind and unbind requests change the identity of the session, or close it, so
+ * they are not processed before all the requests received before them on the same
+ * session are done (RFC 4511, section 4.2.1). The requests received after them wait
+ * until they are done too. A bind request is still processed by the priority
+ * executor : it only waits for the requests of its own session.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PriorityExecutorFilter extends ExecutorFilter
+{
+    /** The session attribute holding the requests being processed and waiting */
+    private static final AttributeKey REQUESTS = new AttributeKey( PriorityExecutorFilter.class, "requests" );
+
+    /** The executor processing the cheap requests */
+    private final Executor priorityExecutor;
+
+
+    /**
+     * The requests of a session being processed, and those waiting for a bind or
+     * an unbind request to be processed.
+     */
+    private static class SessionRequests
+    {
+        /** The number of requests dispatched to an executor and not yet done */
+        private int inFlight;
+
+        /** Tells if one of the requests in flight is a bind or an unbind request */
+        private boolean barrierInFlight;
+
+        /** The requests waiting for the previous requests to be done */
+        private final Queue<IoFilterEvent> waiting = new ArrayDeque<IoFilterEvent>();
+    }
+
+
+    /**
+     * An event decrementing the number of requests in flight of its session once it
+     * has been processed, so that the waiting requests can be dispatched.
+     */
+    private class TrackedEvent extends IoFilterEvent
+    {
+        private final SessionRequests requests;
+        private final boolean barrier;
+
+
+        private TrackedEvent( IoFilterEvent event, SessionRequests requests, boolean barrier )
+        {
+            super( event.getNextFilter(), event.getType(), event.getSession(), event.getParameter() );
+            this.requests = requests;
+            this.barrier = barrier;
+        }
+
+
+        @Override
+        public void fire()
+        {
+            try
+            {
+                super.fire();
+            }
+            finally
+            {
+                done( requests, barrier );
+            }
+        }
+    }
+
+
+    /**
+     * Creates a new filter
+     *
+     * @param executor The executor processing the long requests
+     * @param priorityExecutor The executor processing the cheap requests
+     */
+    public PriorityExecutorFilter( Executor executor, Executor priorityExecutor )
+    {
+        super( executor, IoEventType.MESSAGE_RECEIVED );
+        this.priorityExecutor = priorityExecutor;
+    }
+
+
+    /**
+     * Tells if a request is processed by the priority executor
+     *
+     * @param message The decoded request
+     * @return true for the abandon, bind, compare and base object search requests
+     */
+    public static boolean isPriority( Object message )
+    {
+        if ( ( message instanceof AbandonRequest ) || ( message instanceof BindRequest )
+            || ( message instanceof CompareRequest ) )
+        {
+            return true;
+        }
+
+        return ( message instanceof SearchRequest ) && ( ( SearchRequest ) message ).getScope() == SearchScope.OBJECT;
+    }
+
+
+    /**
+     * Tells if a request must wait for the previous requests of its session to be done
+     *
+     * @param message The decoded request
+     * @return true for the bind and unbind requests
+     */
+    public static boolean isBarrier( Object message )
+    {
+        return ( message instanceof BindRequest ) || ( message instanceof UnbindRequest );
+    }
+
+
+    /**
+     * @return The executor processing the cheap requests
+     */
+    public Executor getPriorityExecutor()
+    {
+        return priorityExecutor;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void fireEvent( IoFilterEvent event )
+    {
+        if ( event.getType() != IoEventType.MESSAGE_RECEIVED )
+        {
+            super.fireEvent( event );
+
+            return;
+        }
+
+        if ( event.getParameter() instanceof AbandonRequest )
+        {
+            // The abandon requests are not tracked : they must reach the requests they abandon
+            priorityExecutor.execute( event );
+
+            return;
+        }
+
+        SessionRequests requests = getRequests( event.getSession() );
+        boolean barrier = isBarrier( event.getParameter() );
+
+        synchronized ( requests )
+        {
+            if ( !requests.waiting.isEmpty() || requests.barrierInFlight || ( barrier && ( requests.inFlight > 0 ) ) )
+            {
+                requests.waiting.add( event );
+
+                return;
+            }
+
+            requests.inFlight++;
+            requests.barrierInFlight = barrier;
+        }
+
+        dispatch( new TrackedEvent( event, requests, barrier ) );
+    }
+
+
+    /**
+     * Called once a tracked request has been processed : dispatches the requests which
+     * were waiting for it, up to the next bind or unbind request.
+     */
+    private void done( SessionRequests requests, boolean barrier )
+    {
+        Queue<TrackedEvent> ready = new ArrayDeque<TrackedEvent>();
+
+        synchronized ( requests )
+        {
+            requests.inFlight--;
+
+            if ( barrier )
+            {
+                requests.barrierInFlight = false;
+            }
+
+            while ( !requests.waiting.isEmpty() && !requests.barrierInFlight )
+            {
+                IoFilterEvent next = requests.waiting.peek();
+                boolean nextBarrier = isBarrier( next.getParameter() );
+
+                if ( nextBarrier && ( requests.inFlight > 0 ) )
+                {
+                    break;
+                }
+
+                requests.waiting.poll();
+                requests.inFlight++;
+                requests.barrierInFlight = nextBarrier;
+                ready.add( new TrackedEvent( next, requests, nextBarrier ) );
+            }
+        }
+
+        for ( TrackedEvent event : ready )
+        {
+            dispatch( event );
+        }
+    }
+
+
+    private void dispatch( IoFilterEvent event )
+    {
+        if ( isPriority( event.getParameter() ) )
+        {
+            priorityExecutor.execute( event );
+        }
+        else
+        {
+            super.fireEvent( event );
+        }
+    }
+
+
+    private static SessionRequests getRequests( IoSession session )
+    {
+        SessionRequests requests = ( SessionRequests ) session.getAttribute( REQUESTS );
+
+        if ( requests == null )
+        {
+            SessionRequests created = new SessionRequests();
+            requests = ( SessionRequests ) session.setAttributeIfAbsent( REQUESTS, created );
+
+            if ( requests == null )
+            {
+                requests = created;
+            }
+        }
+
+        return requests;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap;
+
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.mina.core.session.IoEvent;
+import org.apache.mina.filter.executor.IoEventQueueHandler;
+
+
+/**
+ * Counts the requests waiting for the request executors. MINA calls it when a
+ * request is queued, and when a thread takes it from the queue. The MINA executors
+ * don't expose their queue, and their tasks counters are computed under the pool
+ * lock : reading this count takes no lock, so it can be checked on each request.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class RequestQueueCounter implements IoEventQueueHandler
+{
+    /** The number of queued requests */
+    private final AtomicInteger size = new AtomicInteger();
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean accept( Object source, IoEvent event )
+    {
+        return true;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void offered( Object source, IoEvent event )
+    {
+        size.incrementAndGet();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void polled( Object source, IoEvent event )
+    {
+        size.decrementAndGet();
+    }
+
+
+    /**
+     * @return The number of requests waiting for a thread
+     */
+    public int getSize()
+    {
+        // A request can be polled before being counted as offered
+        return Math.max( 0, size.get() );
+    }
+}
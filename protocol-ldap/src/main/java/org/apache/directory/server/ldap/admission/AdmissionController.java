@@ -0,0 +1,593 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.admission;
+
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.api.ldap.model.message.AbandonRequest;
+import org.apache.directory.api.ldap.model.message.MessageTypeEnum;
+import org.apache.directory.api.ldap.model.message.Request;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.UnbindRequest;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
+import org.apache.directory.server.ldap.LdapServer;
+import org.apache.directory.server.ldap.LdapSession;
+import org.apache.directory.server.ldap.RequestQueueCounter;
+import org.apache.mina.core.session.IoSession;
+
+
+/**
+ * The admission control of the LDAP requests, checked before the requests are
+ * handled. A request is rejected with UNWILLING_TO_PERFORM when it exceeds :
+ * <ul>
+ * <li>the rate of requests allowed for its source IP address</li>
+ * <li>the rate of requests allowed for its bind Dn</li>
+ * <li>the rate of requests allowed for its operation type, whatever the client</li>
+ * <li>the number of concurrent searches allowed for its identity, the bind Dn, or
+ * the source IP address for the anonymous sessions</li>
+ * </ul>
+ * and with BUSY when the number of requests waiting for the request executors is
+ * above the configured backlog. The waiting requests are counted as they are queued
+ * and taken by the executors, see {@link RequestQueueCounter} : reading the executors
+ * counters would take their main lock on every request. The connections exceeding the number of connections
+ * allowed per IP address are closed as soon as they are opened.
+ * <br/>
+ * The rates are token buckets : the requests are limited to rate per second on
+ * average, with bursts of up to burst requests. All the limits are disabled by
+ * default, and the abandon and unbind requests, as well as the administrators
+ * requests, are never rejected.
+ * <br/>
+ * The searches estimated too expensive by the partitions optimizer can also be
+ * rejected by the partitions, see AbstractBTreePartition.setMaxSearchCost().
+ * <br/>
+ * The rejections are counted in the DirectoryService {@link MetricsRegistry}, as
+ * the admission.rejected.* counters.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class AdmissionController
+{
+    /** The counter of requests rejected by a rate limit */
+    public static final String RATE_REJECTIONS = MetricsRegistry.ADMISSION_PREFIX + "rejected.rate";
+
+    /** The counter of searches rejected by the concurrent searches limit */
+    public static final String SEARCH_REJECTIONS = MetricsRegistry.ADMISSION_PREFIX + "rejected.searches";
+
+    /** The counter of requests rejected because the server is busy */
+    public static final String BUSY_REJECTIONS = MetricsRegistry.ADMISSION_PREFIX + "rejected.busy";
+
+    /** The counter of connections closed by the connections per IP address limit */
+    public static final String CONNECTION_REJECTIONS = MetricsRegistry.ADMISSION_PREFIX + "rejected.connections";
+
+    /** The number of buckets above which the idle buckets are dropped */
+    private static final int PURGE_THRESHOLD = 10000;
+
+    /** The rate of requests per source IP address, 0 for no limit */
+    private int ipRate;
+    private int ipBurst;
+
+    /** The rate of requests per bind Dn, 0 for no limit */
+    private int dnRate;
+    private int dnBurst;
+
+    /** The buckets limiting each operation type */
+    private final Map<MessageTypeEnum, TokenBucket> operationBuckets = new EnumMap<MessageTypeEnum, TokenBucket>(
+        MessageTypeEnum.class );
+
+    /** The maximum number of concurrent searches per identity, 0 for no limit */
+    private int maxConcurrentSearches;
+
+    /** The maximum number of connections per IP address, 0 for no limit */
+    private int maxConnectionsPerIp;
+
+    /** The number of waiting requests above which the requests are rejected, 0 for no limit */
+    private int maxBacklog;
+
+    /** The buckets per source IP address and per bind Dn */
+    private final ConcurrentMap<String, TokenBucket> ipBuckets = new ConcurrentHashMap<String, TokenBucket>();
+    private final ConcurrentMap<String, TokenBucket> dnBuckets = new ConcurrentHashMap<String, TokenBucket>();
+
+    /** The running searches per identity */
+    private final ConcurrentMap<String, AtomicInteger> searches = new ConcurrentHashMap<String, AtomicInteger>();
+
+    /** The open connections per IP address */
+    private final ConcurrentMap<String, AtomicInteger> connections = new ConcurrentHashMap<String, AtomicInteger>();
+
+    /** The server the requests are admitted into */
+    private LdapServer ldapServer;
+
+    /** The rejections counters */
+    private AtomicLong rateRejections = new AtomicLong();
+    private AtomicLong searchRejections = new AtomicLong();
+    private AtomicLong busyRejections = new AtomicLong();
+    private AtomicLong connectionRejections = new AtomicLong();
+
+
+    /**
+     * The result of the admission check of a request, to give back to
+     * {@link AdmissionController#release(Admission)} once the request is processed.
+     */
+    public static final class Admission
+    {
+        /** An admitted request which holds nothing */
+        private static final Admission ADMITTED = new Admission( null, null, null );
+
+        /** The result code of a rejected request */
+        private final ResultCodeEnum rejection;
+
+        /** The concurrent searches counter incremented for the request, if any */
+        private final AtomicInteger searchSlot;
+
+        /** The key of the concurrent searches counter */
+        private final String searchKey;
+
+
+        private Admission( ResultCodeEnum rejection, String searchKey, AtomicInteger searchSlot )
+        {
+            this.rejection = rejection;
+            this.searchKey = searchKey;
+            this.searchSlot = searchSlot;
+        }
+
+
+        /**
+         * @return true if the request can be processed
+         */
+        public boolean isAdmitted()
+        {
+            return rejection == null;
+        }
+
+
+        /**
+         * @return The result code to return for a rejected request, null if it's admitted
+         */
+        public ResultCodeEnum getRejection()
+        {
+            return rejection;
+        }
+
+
+        /**
+         * @return true if the request holds one of the concurrent searches of its identity
+         */
+        public boolean hasSearchSlot()
+        {
+            return searchSlot != null;
+        }
+    }
+
+
+    /**
+     * Associates the controller with a started server, whose executors backlog is
+     * checked, and whose DirectoryService holds the rejections counters.
+     *
+     * @param ldapServer The LDAP server
+     */
+    public void init( LdapServer ldapServer )
+    {
+        this.ldapServer = ldapServer;
+
+        if ( ldapServer.getDirectoryService() != null )
+        {
+            MetricsRegistry registry = ldapServer.getDirectoryService().getMetricsRegistry();
+            rateRejections = registry.getCounter( RATE_REJECTIONS );
+            searchRejections = registry.getCounter( SEARCH_REJECTIONS );
+            busyRejections = registry.getCounter( BUSY_REJECTIONS );
+            connectionRejections = registry.getCounter( CONNECTION_REJECTIONS );
+        }
+    }
+
+
+    /**
+     * Gives the identity of a session : its bind Dn, or null for the anonymous
+     * sessions and the sessions being bound.
+     *
+     * @param session The LDAP session
+     * @return The normalized bind Dn, or null
+     */
+    public String getIdentity( LdapSession session )
+    {
+        CoreSession coreSession = session.getCoreSession();
+
+        if ( !session.isAuthenticated() || ( coreSession == null ) || ( coreSession.getAuthenticatedPrincipal() == null ) )
+        {
+            return null;
+        }
+
+        return coreSession.getAuthenticatedPrincipal().getDn().getNormName();
+    }
+
+
+    /**
+     * Checks if a request can be processed. When a search is admitted, it's counted
+     * in the concurrent searches of its identity until {@link #release(Admission)}
+     * is called.
+     *
+     * @param session The LDAP session
+     * @param identity The session identity, as given by {@link #getIdentity(LdapSession)}
+     * @param request The request
+     * @return The admission, holding the result code to return if the request is rejected
+     */
+    public Admission admit( LdapSession session, String identity, Request request )
+    {
+        if ( ( request instanceof AbandonRequest ) || ( request instanceof UnbindRequest ) || isAdministrator( session ) )
+        {
+            return Admission.ADMITTED;
+        }
+
+        if ( ( maxBacklog > 0 ) && ( getBacklog() > maxBacklog ) )
+        {
+            busyRejections.incrementAndGet();
+
+            return reject( ResultCodeEnum.BUSY );
+        }
+
+        TokenBucket operationBucket = operationBuckets.get( request.getType() );
+
+        if ( ( operationBucket != null ) && !operationBucket.tryAcquire() )
+        {
+            rateRejections.incrementAndGet();
+
+            return reject( ResultCodeEnum.UNWILLING_TO_PERFORM );
+        }
+
+        if ( ( ipRate > 0 ) && !acquire( ipBuckets, getAddress( session.getIoSession() ), ipRate, ipBurst ) )
+        {
+            rateRejections.incrementAndGet();
+
+            return reject( ResultCodeEnum.UNWILLING_TO_PERFORM );
+        }
+
+        if ( ( dnRate > 0 ) && ( identity != null ) && !acquire( dnBuckets, identity, dnRate, dnBurst ) )
+        {
+            rateRejections.incrementAndGet();
+
+            return reject( ResultCodeEnum.UNWILLING_TO_PERFORM );
+        }
+
+        if ( ( maxConcurrentSearches > 0 ) && ( request instanceof SearchRequest ) )
+        {
+            String searchKey = getSearchKey( session, identity );
+            AtomicInteger running = getCount( searches, searchKey );
+
+            if ( running.incrementAndGet() > maxConcurrentSearches )
+            {
+                release( searchKey, running );
+                searchRejections.incrementAndGet();
+
+                return reject( ResultCodeEnum.UNWILLING_TO_PERFORM );
+            }
+
+            return new Admission( null, searchKey, running );
+        }
+
+        return Admission.ADMITTED;
+    }
+
+
+    /**
+     * Releases the resources held by an admitted request, once it has been processed :
+     * exactly the ones taken by {@link #admit(LdapSession, String, Request)}, even if
+     * the session or the limits have changed meanwhile.
+     *
+     * @param admission The admission of the request
+     */
+    public void release( Admission admission )
+    {
+        if ( admission.searchSlot != null )
+        {
+            release( admission.searchKey, admission.searchSlot );
+        }
+    }
+
+
+    private Admission reject( ResultCodeEnum rejection )
+    {
+        return new Admission( rejection, null, null );
+    }
+
+
+    /**
+     * Gives back a concurrent search slot, dropping the counter when it's not used anymore
+     */
+    private void release( String searchKey, AtomicInteger running )
+    {
+        if ( running.decrementAndGet() <= 0 )
+        {
+            searches.remove( searchKey, running );
+        }
+    }
+
+
+    /**
+     * Counts a new connection
+     *
+     * @param session The new connection
+     * @return false if the connection exceeds the number of connections allowed for its IP address
+     */
+    public boolean connectionOpened( IoSession session )
+    {
+        if ( maxConnectionsPerIp <= 0 )
+        {
+            return true;
+        }
+
+        if ( getCount( connections, getAddress( session ) ).incrementAndGet() > maxConnectionsPerIp )
+        {
+            connectionRejections.incrementAndGet();
+
+            return false;
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Counts a closed connection, which has been counted by {@link #connectionOpened(IoSession)}
+     *
+     * @param session The closed connection
+     */
+    public void connectionClosed( IoSession session )
+    {
+        if ( maxConnectionsPerIp <= 0 )
+        {
+            return;
+        }
+
+        String address = getAddress( session );
+        AtomicInteger count = connections.get( address );
+
+        if ( ( count != null ) && ( count.decrementAndGet() <= 0 ) )
+        {
+            connections.remove( address, count );
+        }
+    }
+
+
+    /**
+     * @return The number of requests waiting for the request executors
+     */
+    public long getBacklog()
+    {
+        if ( ldapServer == null )
+        {
+            return 0L;
+        }
+
+        return ldapServer.getRequestQueueCounter().getSize();
+    }
+
+
+    private boolean isAdministrator( LdapSession session )
+    {
+        CoreSession coreSession = session.getCoreSession();
+
+        return session.isAuthenticated() && ( coreSession != null ) && coreSession.isAdministrator();
+    }
+
+
+    private String getSearchKey( LdapSession session, String identity )
+    {
+        return ( identity != null ) ? identity : getAddress( session.getIoSession() );
+    }
+
+
+    private String getAddress( IoSession session )
+    {
+        SocketAddress address = session.getRemoteAddress();
+
+        if ( ( address instanceof InetSocketAddress ) && ( ( InetSocketAddress ) address ).getAddress() != null )
+        {
+            return ( ( InetSocketAddress ) address ).getAddress().getHostAddress();
+        }
+
+        return String.valueOf( address );
+    }
+
+
+    private AtomicInteger getCount( ConcurrentMap<String, AtomicInteger> counts, String key )
+    {
+        AtomicInteger count = counts.get( key );
+
+        if ( count == null )
+        {
+            count = new AtomicInteger();
+            AtomicInteger previous = counts.putIfAbsent( key, count );
+
+            if ( previous != null )
+            {
+                count = previous;
+            }
+        }
+
+        return count;
+    }
+
+
+    /**
+     * Takes a token from the bucket associated with a key, creating it if needed.
+     * The buckets which are full, and thus equivalent to a new bucket, are dropped
+     * when there are too many of them.
+     */
+    private boolean acquire( ConcurrentMap<String, TokenBucket> buckets, String key, int rate, int burst )
+    {
+        TokenBucket bucket = buckets.get( key );
+
+        if ( bucket == null )
+        {
+            if ( buckets.size() >= PURGE_THRESHOLD )
+            {
+                purge( buckets );
+            }
+
+            bucket = new TokenBucket( rate, burst );
+            TokenBucket previous = buckets.putIfAbsent( key, bucket );
+
+            if ( previous != null )
+            {
+                bucket = previous;
+            }
+        }
+
+        return bucket.tryAcquire();
+    }
+
+
+    private void purge( ConcurrentMap<String, TokenBucket> buckets )
+    {
+        long now = System.nanoTime();
+        Iterator<TokenBucket> iterator = buckets.values().iterator();
+
+        while ( iterator.hasNext() )
+        {
+            if ( iterator.next().isFull( now ) )
+            {
+                iterator.remove();
+            }
+        }
+    }
+
+
+    /**
+     * Limits the requests of each source IP address
+     *
+     * @param rate The number of requests allowed per second, 0 for no limit
+     * @param burst The number of requests allowed in a burst
+     */
+    public void setIpRate( int rate, int burst )
+    {
+        this.ipRate = rate;
+        this.ipBurst = burst;
+        ipBuckets.clear();
+    }
+
+
+    /**
+     * Limits the requests of each bind Dn. The anonymous requests are only limited
+     * by their source IP address.
+     *
+     * @param rate The number of requests allowed per second, 0 for no limit
+     * @param burst The number of requests allowed in a burst
+     */
+    public void setDnRate( int rate, int burst )
+    {
+        this.dnRate = rate;
+        this.dnBurst = burst;
+        dnBuckets.clear();
+    }
+
+
+    /**
+     * Limits the requests of a given type, whatever the client. Must be set before
+     * the server is started.
+     *
+     * @param type The request type, like {@link MessageTypeEnum#SEARCH_REQUEST}
+     * @param rate The number of requests allowed per second, 0 for no limit
+     * @param burst The number of requests allowed in a burst
+     */
+    public void setOperationRate( MessageTypeEnum type, int rate, int burst )
+    {
+        if ( rate > 0 )
+        {
+            operationBuckets.put( type, new TokenBucket( rate, burst ) );
+        }
+        else
+        {
+            operationBuckets.remove( type );
+        }
+    }
+
+
+    /**
+     * @return The maximum number of concurrent searches per identity, 0 for no limit
+     */
+    public int getMaxConcurrentSearches()
+    {
+        return maxConcurrentSearches;
+    }
+
+
+    /**
+     * Sets the maximum number of concurrent searches per identity : the bind Dn, or
+     * the source IP address for the anonymous sessions. Must be set before the server
+     * is started.
+     *
+     * @param maxConcurrentSearches The maximum number of searches, 0 for no limit
+     */
+    public void setMaxConcurrentSearches( int maxConcurrentSearches )
+    {
+        this.maxConcurrentSearches = maxConcurrentSearches;
+    }
+
+
+    /**
+     * @return The maximum number of connections per IP address, 0 for no limit
+     */
+    public int getMaxConnectionsPerIp()
+    {
+        return maxConnectionsPerIp;
+    }
+
+
+    /**
+     * Sets the maximum number of connections per IP address. Must be set before the
+     * server is started.
+     *
+     * @param maxConnectionsPerIp The maximum number of connections, 0 for no limit
+     */
+    public void setMaxConnectionsPerIp( int maxConnectionsPerIp )
+    {
+        this.maxConnectionsPerIp = maxConnectionsPerIp;
+    }
+
+
+    /**
+     * @return The number of waiting requests above which the requests are rejected, 0 for no limit
+     */
+    public int getMaxBacklog()
+    {
+        return maxBacklog;
+    }
+
+
+    /**
+     * Sets the number of requests waiting for the request executors above which the
+     * new requests are rejected with BUSY.
+     *
+     * @param maxBacklog The maximum backlog, 0 for no limit
+     */
+    public void setMaxBacklog( int maxBacklog )
+    {
+        this.maxBacklog = maxBacklog;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.admission;
+
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * A token bucket : it holds up to burst tokens, and is refilled with rate tokens
+ * per second. Each request takes a token, and is rejected when the bucket is empty,
+ * so the requests are limited to rate per second on average, with bursts of up to
+ * burst requests.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class TokenBucket
+{
+    /** The number of tokens added per nanosecond */
+    private final double rate;
+
+    /** The maximum number of tokens */
+    private final double capacity;
+
+    /** The current number of tokens */
+    private double tokens;
+
+    /** The last time the bucket has been refilled, in nanoseconds */
+    private long lastRefill;
+
+
+    /**
+     * Creates a new full bucket
+     *
+     * @param rate The number of tokens added per second
+     * @param burst The maximum number of tokens, at least 1
+     */
+    public TokenBucket( int rate, int burst )
+    {
+        this( rate, burst, System.nanoTime() );
+    }
+
+
+    /**
+     * Creates a new full bucket
+     *
+     * @param rate The number of tokens added per second
+     * @param burst The maximum number of tokens, at least 1
+     * @param now The current time, in nanoseconds
+     */
+    TokenBucket( int rate, int burst, long now )
+    {
+        this.rate = ( double ) rate / TimeUnit.SECONDS.toNanos( 1L );
+        this.capacity = Math.max( 1, burst );
+        this.tokens = capacity;
+        this.lastRefill = now;
+    }
+
+
+    /**
+     * Takes a token, if there is one
+     *
+     * @return true if a token has been taken
+     */
+    public boolean tryAcquire()
+    {
+        return tryAcquire( System.nanoTime() );
+    }
+
+
+    /**
+     * Takes a token, if there is one
+     *
+     * @param now The current time, in nanoseconds
+     * @return true if a token has been taken
+     */
+    synchronized boolean tryAcquire( long now )
+    {
+        refill( now );
+
+        if ( tokens >= 1d )
+        {
+            tokens -= 1d;
+
+            return true;
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Tells if the bucket is full : it has not been used for a while, and can be
+     * dropped, a new bucket being full.
+     *
+     * @param now The current time, in nanoseconds
+     * @return true if the bucket is full
+     */
+    synchronized boolean isFull( long now )
+    {
+        refill( now );
+
+        return tokens >= capacity;
+    }
+
+
+    private void refill( long now )
+    {
+        long elapsed = now - lastRefill;
+
+        if ( elapsed > 0 )
+        {
+            tokens = Math.min( capacity, tokens + elapsed * rate );
+            lastRefill = now;
+        }
+    }
+}
@@ -40,6 +40,8 @@ import org.apache.directory.server.core.shared.DefaultCoreSession;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.ldap.LdapServer;
 import org.apache.directory.server.ldap.LdapSession;
+import org.apache.directory.server.ldap.admission.AdmissionController;
+import org.apache.directory.server.ldap.admission.AdmissionController.Admission;
 import org.apache.directory.server.ldap.handlers.extended.StartTlsHandler;
 import org.apache.mina.core.filterchain.IoFilterChain;
 import org.apache.mina.core.session.IoSession;
@@ -117,6 +119,31 @@ public abstract class LdapRequestHandler<T extends Request> implements MessageHa
     }
 
 
+    /**
+     * Answers a request rejected by the {@link AdmissionController}
+     *
+     * @param session the MINA IoSession
+     * @param resp the response to the rejected request
+     * @param resultCode the result code given by the AdmissionController
+     */
+    public void rejectWithoutAdmission( IoSession session, ResultResponse resp, ResultCodeEnum resultCode )
+    {
+        LdapResult result = resp.getLdapResult();
+        result.setResultCode( resultCode );
+
+        if ( resultCode == ResultCodeEnum.BUSY )
+        {
+            result.setDiagnosticMessage( "The server is too busy to process the request." );
+        }
+        else
+        {
+            result.setDiagnosticMessage( "The request exceeds the limits allowed to this client." );
+        }
+
+        session.write( resp );
+    }
+
+
     /**
      *{@inheritDoc} 
      */
@@ -186,6 +213,46 @@ public abstract class LdapRequestHandler<T extends Request> implements MessageHa
             }
         }
 
+        // Check the request against the configured rates and limits
+        AdmissionController admissionController = ldapServer.getAdmissionController();
+
+        if ( admissionController == null )
+        {
+            dispatch( ldapSession, message );
+
+            return;
+        }
+
+        String identity = admissionController.getIdentity( ldapSession );
+        Admission admission = admissionController.admit( ldapSession, identity, message );
+
+        if ( !admission.isAdmitted() )
+        {
+            if ( message instanceof ResultResponseRequest )
+            {
+                rejectWithoutAdmission( session, ( ( ResultResponseRequest<?> ) message ).getResultResponse(),
+                    admission.getRejection() );
+            }
+
+            return;
+        }
+
+        try
+        {
+            dispatch( ldapSession, message );
+        }
+        finally
+        {
+            admissionController.release( admission );
+        }
+    }
+
+
+    /**
+     * Hands a request over to the handler, once the session has been checked
+     */
+    private void dispatch( LdapSession ldapSession, T message ) throws Exception
+    {
         // We should check that the server allows anonymous requests
         // only if it's not a BindRequest
         if ( message instanceof BindRequest )
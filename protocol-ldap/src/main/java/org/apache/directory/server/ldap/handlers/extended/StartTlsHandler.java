@@ -44,6 +44,7 @@ import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.ldap.ExtendedOperationHandler;
 import org.apache.directory.server.ldap.LdapServer;
 import org.apache.directory.server.ldap.LdapSession;
+import org.apache.directory.server.ldap.handlers.ssl.LdapsInitializer;
 import org.apache.mina.core.filterchain.IoFilterChain;
 import org.apache.mina.filter.ssl.SslFilter;
 import org.slf4j.Logger;
@@ -67,6 +68,8 @@ public class StartTlsHandler implements ExtendedOperationHandler<ExtendedRequest
     
     private List<String> cipherSuites;
 
+    private LdapServer ldapServer;
+
     static
     {
         Set<String> set = new HashSet<String>( 3 );
@@ -91,6 +94,7 @@ public class StartTlsHandler implements ExtendedOperationHandler<ExtendedRequest
             }
 
             chain.addFirst( "sslFilter", sslFilter );
+            LdapsInitializer.addHandshakeFilters( ldapServer, chain );
         }
         else
         {
@@ -146,7 +150,9 @@ public class StartTlsHandler implements ExtendedOperationHandler<ExtendedRequest
         {
             throw new RuntimeException( I18n.err( I18n.ERR_682 ), e );
         }
-        
+
+        LdapsInitializer.configureSessionCache( ldapServer, sslContext );
+        this.ldapServer = ldapServer;
         this.cipherSuites = ldapServer.getEnabledCipherSuites();
     }
 }
@@ -24,6 +24,7 @@ import java.security.SecureRandom;
 import java.util.List;
 
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.TrustManager;
 
 import org.apache.directory.api.ldap.model.exception.LdapException;
@@ -31,6 +32,8 @@ import org.apache.directory.ldap.client.api.NoVerificationTrustManager;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.ldap.LdapServer;
 import org.apache.mina.core.filterchain.DefaultIoFilterChainBuilder;
+import org.apache.mina.core.filterchain.IoFilter;
+import org.apache.mina.core.filterchain.IoFilterChain;
 import org.apache.mina.core.filterchain.IoFilterChainBuilder;
 import org.apache.mina.filter.ssl.SslFilter;
 
@@ -44,6 +47,10 @@ import org.apache.mina.filter.ssl.SslFilter;
  */
 public class LdapsInitializer
 {
+    /** The name of the filter running the TLS handshakes on the handshake executor */
+    public static final String SSL_EXECUTOR_NAME = "sslExecutor";
+
+
     public static IoFilterChainBuilder init( LdapServer server ) throws LdapException
     {
         SSLContext sslCtx;
@@ -53,6 +60,7 @@ public class LdapsInitializer
             sslCtx = SSLContext.getInstance( "TLS" );
             sslCtx.init( server.getKeyManagerFactory().getKeyManagers(), new TrustManager[]
                 { new NoVerificationTrustManager() }, new SecureRandom() );
+            configureSessionCache( server, sslCtx );
         }
         catch ( Exception e )
         {
@@ -70,6 +78,70 @@ public class LdapsInitializer
         
         sslFilter.setWantClientAuth( true );
         chain.addLast( "sslFilter", sslFilter );
+
+        if ( server.getSslHandshakeMonitor() != null )
+        {
+            chain.addLast( SslHandshakeMonitorFilter.NAME, server.getSslHandshakeMonitor() );
+        }
+
+        if ( server.getSslExecutorFilter() != null )
+        {
+            chain.addFirst( SSL_EXECUTOR_NAME, server.getSslExecutorFilter() );
+        }
+
         return chain;
     }
+
+
+    /**
+     * Applies the server session cache size and timeout to the server session
+     * context of an initialized SSLContext. The negative values keep the JSSE defaults.
+     *
+     * @param server The LDAP server
+     * @param sslCtx The SSLContext
+     */
+    public static void configureSessionCache( LdapServer server, SSLContext sslCtx )
+    {
+        SSLSessionContext sessionContext = sslCtx.getServerSessionContext();
+
+        if ( sessionContext == null )
+        {
+            return;
+        }
+
+        if ( server.getSslSessionCacheSize() >= 0 )
+        {
+            sessionContext.setSessionCacheSize( server.getSslSessionCacheSize() );
+        }
+
+        if ( server.getSslSessionTimeout() >= 0 )
+        {
+            sessionContext.setSessionTimeout( server.getSslSessionTimeout() );
+        }
+    }
+
+
+    /**
+     * Adds the handshake filters around the SslFilter of a session chain, when
+     * StartTLS installs the SslFilter.
+     *
+     * @param server The LDAP server
+     * @param chain The session filter chain, containing the SslFilter
+     */
+    public static void addHandshakeFilters( LdapServer server, IoFilterChain chain )
+    {
+        IoFilter monitor = server.getSslHandshakeMonitor();
+
+        if ( ( monitor != null ) && !chain.contains( SslHandshakeMonitorFilter.NAME ) )
+        {
+            chain.addAfter( "sslFilter", SslHandshakeMonitorFilter.NAME, monitor );
+        }
+
+        IoFilter executorFilter = server.getSslExecutorFilter();
+
+        if ( ( executorFilter != null ) && !chain.contains( SSL_EXECUTOR_NAME ) )
+        {
+            chain.addFirst( SSL_EXECUTOR_NAME, executorFilter );
+        }
+    }
 }
@@ -0,0 +1,179 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.handlers.ssl;
+
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
+import org.apache.mina.core.filterchain.IoFilterAdapter;
+import org.apache.mina.core.filterchain.IoFilterChain;
+import org.apache.mina.core.session.AttributeKey;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.ssl.SslFilter;
+
+
+/**
+ * A filter added after the SslFilter, counting the TLS handshakes. It asks the
+ * SslFilter to notify the end of the handshakes, and swallows the notifications
+ * so that they don't reach the LDAP handler.
+ * <br/>
+ * A handshake is counted as resumed when the negotiated SSLSession has already
+ * been used by a previous handshake : the SSLSessions are kept in the server
+ * session cache, and a resumed handshake reuses the cached SSLSession.
+ * <br/>
+ * The counters are stored in the DirectoryService {@link MetricsRegistry} :
+ * <ul>
+ * <li>tls.handshake.full : the handshakes which have created a new session</li>
+ * <li>tls.handshake.resumed : the handshakes which have resumed a cached session</li>
+ * <li>tls.handshake.failed : the handshakes which have failed</li>
+ * </ul>
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SslHandshakeMonitorFilter extends IoFilterAdapter
+{
+    /** The name of the filter in the chain */
+    public static final String NAME = "sslHandshakeMonitor";
+
+    /** The counter of full handshakes */
+    public static final String FULL_HANDSHAKES = MetricsRegistry.TLS_PREFIX + "handshake.full";
+
+    /** The counter of resumed handshakes */
+    public static final String RESUMED_HANDSHAKES = MetricsRegistry.TLS_PREFIX + "handshake.resumed";
+
+    /** The counter of failed handshakes */
+    public static final String FAILED_HANDSHAKES = MetricsRegistry.TLS_PREFIX + "handshake.failed";
+
+    /** The SSLSession value set once the session has been negotiated */
+    private static final String NEGOTIATED = SslHandshakeMonitorFilter.class.getName() + ".negotiated";
+
+    /** The IoSession attribute set once a handshake has completed */
+    private static final AttributeKey SECURED = new AttributeKey( SslHandshakeMonitorFilter.class, "secured" );
+
+    private final AtomicLong fullHandshakes;
+    private final AtomicLong resumedHandshakes;
+    private final AtomicLong failedHandshakes;
+
+
+    /**
+     * Creates a new filter
+     *
+     * @param registry The registry holding the counters
+     */
+    public SslHandshakeMonitorFilter( MetricsRegistry registry )
+    {
+        fullHandshakes = registry.getCounter( FULL_HANDSHAKES );
+        resumedHandshakes = registry.getCounter( RESUMED_HANDSHAKES );
+        failedHandshakes = registry.getCounter( FAILED_HANDSHAKES );
+    }
+
+
+    /**
+     * Asks the SslFilter to notify the end of the handshakes
+     */
+    @Override
+    public void onPostAdd( IoFilterChain parent, String name, NextFilter nextFilter ) throws Exception
+    {
+        parent.getSession().setAttribute( SslFilter.USE_NOTIFICATION, Boolean.TRUE );
+    }
+
+
+    /**
+     * Counts the handshakes when the SslFilter notifies they are completed
+     */
+    @Override
+    public void messageReceived( NextFilter nextFilter, IoSession session, Object message ) throws Exception
+    {
+        if ( message == SslFilter.SESSION_SECURED )
+        {
+            session.setAttribute( SECURED );
+            SSLSession sslSession = ( SSLSession ) session.getAttribute( SslFilter.SSL_SESSION );
+
+            if ( sslSession != null )
+            {
+                if ( sslSession.getValue( NEGOTIATED ) != null )
+                {
+                    resumedHandshakes.incrementAndGet();
+                }
+                else
+                {
+                    sslSession.putValue( NEGOTIATED, Boolean.TRUE );
+                    fullHandshakes.incrementAndGet();
+                }
+            }
+
+            return;
+        }
+        else if ( message == SslFilter.SESSION_UNSECURED )
+        {
+            session.removeAttribute( SECURED );
+
+            return;
+        }
+
+        nextFilter.messageReceived( session, message );
+    }
+
+
+    /**
+     * Counts the SSL errors occurring before the handshake is completed
+     */
+    @Override
+    public void exceptionCaught( NextFilter nextFilter, IoSession session, Throwable cause ) throws Exception
+    {
+        if ( ( cause instanceof SSLException ) && !session.containsAttribute( SECURED ) )
+        {
+            failedHandshakes.incrementAndGet();
+        }
+
+        nextFilter.exceptionCaught( session, cause );
+    }
+
+
+    /**
+     * @return The number of handshakes which have created a new session
+     */
+    public long getFullHandshakes()
+    {
+        return fullHandshakes.get();
+    }
+
+
+    /**
+     * @return The number of handshakes which have resumed a cached session
+     */
+    public long getResumedHandshakes()
+    {
+        return resumedHandshakes.get();
+    }
+
+
+    /**
+     * @return The number of failed handshakes
+     */
+    public long getFailedHandshakes()
+    {
+        return failedHandshakes.get();
+    }
+}
@@ -0,0 +1,710 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.monitor;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import net.sf.ehcache.Cache;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.ListCursor;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapNoPermissionException;
+import org.apache.directory.api.ldap.model.exception.LdapNoSuchObjectException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.exception.LdapUnwillingToPerformException;
+import org.apache.directory.api.ldap.model.filter.AndNode;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.GreaterEqNode;
+import org.apache.directory.api.ldap.model.filter.LessEqNode;
+import org.apache.directory.api.ldap.model.filter.NotNode;
+import org.apache.directory.api.ldap.model.filter.ObjectClassNode;
+import org.apache.directory.api.ldap.model.filter.OrNode;
+import org.apache.directory.api.ldap.model.filter.SimpleNode;
+import org.apache.directory.api.ldap.model.filter.UndefinedNode;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.ldap.model.schema.MutableAttributeType;
+import org.apache.directory.server.core.api.CacheService;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.entry.ClonedServerEntry;
+import org.apache.directory.server.core.api.event.ExpressionEvaluator;
+import org.apache.directory.server.core.api.filtering.BaseEntryFilteringCursor;
+import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.HasEntryOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.OperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.metrics.LatencyHistogram;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
+import org.apache.directory.server.core.api.partition.AbstractPartition;
+import org.apache.directory.server.ldap.LdapServer;
+import org.apache.directory.server.ldap.LdapSession;
+import org.apache.directory.server.ldap.replication.provider.ReplicaEventLog;
+import org.apache.directory.server.ldap.replication.provider.ReplicationRequestHandler;
+import org.apache.directory.server.ldap.replication.provider.SyncReplRequestHandler;
+import org.apache.mina.core.session.IoSession;
+
+
+/**
+ * A read only partition, mounted under cn=monitor, exposing the server internals.
+ * There is no backing store : the entries are built from the live server objects
+ * each time the partition is read, so it costs nothing when nobody queries it.
+ * The tree looks like :
+ * <pre>
+ * cn=monitor
+ *   cn=sessions        the open LDAP sessions, with their paged searches and MINA write queue
+ *   cn=executors       the executors processing the incoming requests
+ *   cn=replication     the replication logs backlog, per consumer
+ *   cn=caches          the ehcache caches occupancy
+ *   cn=metrics         the DirectoryService latency histograms and counters
+ * </pre>
+ * The values are stored in a few INTEGER attribute types, defined in the
+ * adsextensions schema the server writes next to the LDAP API schemas. An embedded
+ * server which schema doesn't have them gets them registered in the "other" schema
+ * when the partition is initialized. The entries are extensibleObjects.
+ * <br/>
+ * The partition is mounted when the ads-ldapServerMonitorEnabled attribute of the
+ * LDAP server configuration, held by the ads-ldapServerExtension object class, is
+ * TRUE, or with {@link LdapServer#setMonitorEnabled(boolean)}.
+ * <br/>
+ * The sessions entries expose the remote address and the principal of each client,
+ * so the partition can only be read by the administrators, whatever the access
+ * control configuration.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class MonitorPartition extends AbstractPartition
+{
+    /** The partition suffix */
+    public static final String SUFFIX = "cn=monitor";
+
+    /** The partition ID */
+    public static final String ID = "monitor";
+
+    /** The monitor attribute types */
+    public static final String MONITOR_COUNT_AT = "monitorCount";
+    public static final String MONITOR_MAX_COUNT_AT = "monitorMaxCount";
+    public static final String MONITOR_QUEUE_SIZE_AT = "monitorQueueSize";
+    public static final String MONITOR_QUEUE_BYTES_AT = "monitorQueueBytes";
+    public static final String MONITOR_ACTIVE_COUNT_AT = "monitorActiveCount";
+    public static final String MONITOR_POOL_SIZE_AT = "monitorPoolSize";
+    public static final String MONITOR_COMPLETED_COUNT_AT = "monitorCompletedCount";
+    public static final String MONITOR_PAGED_SEARCHES_AT = "monitorPagedSearches";
+    public static final String MONITOR_OUTSTANDING_REQUESTS_AT = "monitorOutstandingRequests";
+    public static final String MONITOR_HITS_AT = "monitorHits";
+    public static final String MONITOR_MISSES_AT = "monitorMisses";
+    public static final String MONITOR_MEAN_AT = "monitorMean";
+    public static final String MONITOR_P50_AT = "monitorP50";
+    public static final String MONITOR_P99_AT = "monitorP99";
+    public static final String MONITOR_P999_AT = "monitorP999";
+    public static final String MONITOR_MAX_AT = "monitorMax";
+
+    /** The attribute types names, with their OID */
+    private static final String[][] MONITOR_ATTRIBUTE_TYPES = new String[][]
+        {
+            { "1.3.6.1.4.1.18060.0.4.1.2.1000", MONITOR_COUNT_AT },
+            { "1.3.6.1.4.1.18060.0.4.1.2.1001", MONITOR_MAX_COUNT_AT },
+            { "1.3.6.1.4.1.18060.0.4.1.2.1002", MONITOR_QUEUE_SIZE_AT },
+            { "1.3.6.1.4.1.18060.0.4.1.2.1003", MONITOR_QUEUE_BYTES_AT },
+            { "1.3.6.1.4.1.18060.0.4.1.2.1004", MONITOR_ACTIVE_COUNT_AT },
+            { "1.3.6.1.4.1.18060.0.4.1.2.1005", MONITOR_POOL_SIZE_AT },
+            { "1.3.6.1.4.1.18060.0.4.1.2.1006", MONITOR_COMPLETED_COUNT_AT },
+            { "1.3.6.1.4.1.18060.0.4.1.2.1007", MONITOR_PAGED_SEARCHES_AT },
+            { "1.3.6.1.4.1.18060.0.4.1.2.1008", MONITOR_OUTSTANDING_REQUESTS_AT },
+            { "1.3.6.1.4.1.18060.0.4.1.2.1009", MONITOR_HITS_AT },
+            { "1.3.6.1.4.1.18060.0.4.1.2.1010", MONITOR_MISSES_AT },
+            { "1.3.6.1.4.1.18060.0.4.1.2.1011", MONITOR_MEAN_AT },
+            { "1.3.6.1.4.1.18060.0.4.1.2.1012", MONITOR_P50_AT },
+            { "1.3.6.1.4.1.18060.0.4.1.2.1013", MONITOR_P99_AT },
+            { "1.3.6.1.4.1.18060.0.4.1.2.1014", MONITOR_P999_AT },
+            { "1.3.6.1.4.1.18060.0.4.1.2.1015", MONITOR_MAX_AT } };
+
+    /** The schema the attribute types are added to */
+    private static final String MONITOR_SCHEMA = "other";
+
+    /** The description AttributeType name */
+    private static final String DESCRIPTION_AT = "description";
+
+    /** The monitored server */
+    private final LdapServer ldapServer;
+
+    /** The filter evaluator */
+    private ExpressionEvaluator evaluator;
+
+
+    /**
+     * Creates a new instance of MonitorPartition.
+     *
+     * @param ldapServer The server to monitor
+     * @throws LdapException If the suffix can't be created
+     */
+    public MonitorPartition( LdapServer ldapServer ) throws LdapException
+    {
+        this.ldapServer = ldapServer;
+        id = ID;
+        schemaManager = ldapServer.getDirectoryService().getSchemaManager();
+        suffixDn = new Dn( schemaManager, SUFFIX );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void doInit() throws Exception
+    {
+        registerAttributeTypes();
+        evaluator = new ExpressionEvaluator( schemaManager );
+    }
+
+
+    /**
+     * Adds the monitor attribute types to the schema, unless they have been loaded
+     * from the adsextensions schema files
+     */
+    private void registerAttributeTypes() throws LdapException
+    {
+        for ( String[] definition : MONITOR_ATTRIBUTE_TYPES )
+        {
+            if ( schemaManager.getAttributeTypeRegistry().contains( definition[1] ) )
+            {
+                continue;
+            }
+
+            MutableAttributeType attributeType = new MutableAttributeType( definition[0] );
+            attributeType.addName( definition[1] );
+            attributeType.setSchemaName( MONITOR_SCHEMA );
+            attributeType.setSyntaxOid( SchemaConstants.INTEGER_SYNTAX );
+            attributeType.setEqualityOid( SchemaConstants.INTEGER_MATCH_MR_OID );
+            attributeType.setOrderingOid( SchemaConstants.INTEGER_ORDERING_MATCH_MR_OID );
+            attributeType.setSingleValued( true );
+
+            if ( !schemaManager.add( attributeType ) )
+            {
+                throw new LdapOtherException( "Cannot add the " + definition[1] + " AttributeType : "
+                    + schemaManager.getErrors() );
+            }
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void doDestroy() throws Exception
+    {
+        // Nothing to do, the attribute types are kept for the next mount
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void sync() throws Exception
+    {
+        // Nothing to sync
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public EntryFilteringCursor search( SearchOperationContext searchContext ) throws LdapException
+    {
+        checkAdministrator( searchContext );
+
+        Dn base = searchContext.getDn();
+        SearchScope scope = searchContext.getScope();
+        List<Entry> entries = buildEntries();
+        List<Entry> selected = new ArrayList<Entry>();
+        boolean baseFound = false;
+
+        for ( Entry entry : entries )
+        {
+            Dn dn = entry.getDn();
+            boolean inScope;
+
+            if ( dn.equals( base ) )
+            {
+                baseFound = true;
+                inScope = ( scope != SearchScope.ONELEVEL );
+            }
+            else if ( scope == SearchScope.ONELEVEL )
+            {
+                inScope = dn.getParent().equals( base );
+            }
+            else
+            {
+                inScope = ( scope == SearchScope.SUBTREE ) && dn.isDescendantOf( base );
+            }
+
+            if ( inScope && matches( searchContext.getFilter(), dn, entry ) )
+            {
+                selected.add( entry );
+            }
+        }
+
+        if ( !baseFound )
+        {
+            throw new LdapNoSuchObjectException( "No monitor entry for " + base.getName() );
+        }
+
+        return new BaseEntryFilteringCursor( new ListCursor<Entry>( selected ), searchContext, schemaManager );
+    }
+
+
+    /**
+     * Evaluates a filter against an entry. The normalized filter may contain nodes
+     * the ExpressionEvaluator does not know about : the ObjectClassNode, which
+     * matches all the entries, and the UndefinedNode, which matches none. The
+     * ordering assertions are evaluated numerically, as all the monitor values are
+     * INTEGERs.
+     */
+    private boolean matches( ExprNode filter, Dn dn, Entry entry ) throws LdapException
+    {
+        if ( filter instanceof ObjectClassNode )
+        {
+            return true;
+        }
+        else if ( filter instanceof UndefinedNode )
+        {
+            return false;
+        }
+        else if ( filter instanceof AndNode )
+        {
+            for ( ExprNode child : ( ( AndNode ) filter ).getChildren() )
+            {
+                if ( !matches( child, dn, entry ) )
+                {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+        else if ( filter instanceof OrNode )
+        {
+            for ( ExprNode child : ( ( OrNode ) filter ).getChildren() )
+            {
+                if ( matches( child, dn, entry ) )
+                {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+        else if ( filter instanceof NotNode )
+        {
+            return !matches( ( ( NotNode ) filter ).getFirstChild(), dn, entry );
+        }
+        else if ( ( filter instanceof GreaterEqNode ) || ( filter instanceof LessEqNode ) )
+        {
+            SimpleNode<?> node = ( SimpleNode<?> ) filter;
+            Attribute attribute = entry.get( node.getAttributeType() );
+
+            if ( attribute == null )
+            {
+                return false;
+            }
+
+            try
+            {
+                long assertion = Long.parseLong( node.getValue().getString() );
+
+                for ( Value<?> value : attribute )
+                {
+                    long current = Long.parseLong( value.getString() );
+
+                    if ( ( filter instanceof GreaterEqNode ) ? current >= assertion : current <= assertion )
+                    {
+                        return true;
+                    }
+                }
+
+                return false;
+            }
+            catch ( NumberFormatException nfe )
+            {
+                // Not a number, let the evaluator compare the values
+            }
+        }
+
+        return evaluator.evaluate( filter, dn, entry );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Entry lookup( LookupOperationContext lookupContext ) throws LdapException
+    {
+        checkAdministrator( lookupContext );
+
+        Dn dn = lookupContext.getDn();
+
+        for ( Entry entry : buildEntries() )
+        {
+            if ( entry.getDn().equals( dn ) )
+            {
+                return new ClonedServerEntry( entry );
+            }
+        }
+
+        return null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean hasEntry( HasEntryOperationContext hasEntryContext ) throws LdapException
+    {
+        return lookup( new LookupOperationContext( hasEntryContext.getSession(), hasEntryContext.getDn() ) ) != null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void add( AddOperationContext addContext ) throws LdapException
+    {
+        throw readOnly();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Entry delete( DeleteOperationContext deleteContext ) throws LdapException
+    {
+        throw readOnly();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void modify( ModifyOperationContext modifyContext ) throws LdapException
+    {
+        throw readOnly();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void rename( RenameOperationContext renameContext ) throws LdapException
+    {
+        throw readOnly();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void move( MoveOperationContext moveContext ) throws LdapException
+    {
+        throw readOnly();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void moveAndRename( MoveAndRenameOperationContext moveAndRenameContext ) throws LdapException
+    {
+        throw readOnly();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void unbind( UnbindOperationContext unbindContext ) throws LdapException
+    {
+        // Nothing to do
+    }
+
+
+    /**
+     * Rejects the operations of the sessions which are not an administrator's. The
+     * internal operations, without session, are allowed.
+     */
+    private void checkAdministrator( OperationContext operationContext ) throws LdapNoPermissionException
+    {
+        CoreSession session = operationContext.getSession();
+
+        if ( ( session != null ) && !session.isAnAdministrator() )
+        {
+            throw new LdapNoPermissionException( "Only the administrators can read the " + SUFFIX + " partition" );
+        }
+    }
+
+
+    private LdapUnwillingToPerformException readOnly()
+    {
+        return new LdapUnwillingToPerformException( ResultCodeEnum.UNWILLING_TO_PERFORM, "The " + SUFFIX
+            + " partition is read only" );
+    }
+
+
+    /**
+     * Builds all the monitor entries, from the current state of the server
+     */
+    private List<Entry> buildEntries() throws LdapException
+    {
+        List<Entry> entries = new ArrayList<Entry>();
+
+        entries.add( createEntry( suffixDn, ID, "The ApacheDS server internals" ) );
+        addSessions( entries );
+        addExecutors( entries );
+        addReplicationLogs( entries );
+        addCaches( entries );
+        addMetrics( entries );
+
+        return entries;
+    }
+
+
+    /**
+     * The LDAP sessions, with their paged searches, outstanding requests and MINA write queue
+     */
+    private void addSessions( List<Entry> entries ) throws LdapException
+    {
+        Dn sessionsDn = childDn( suffixDn, "sessions" );
+        Entry sessionsEntry = createEntry( sessionsDn, "sessions", "The open LDAP sessions" );
+        entries.add( sessionsEntry );
+
+        LdapSession[] sessions = ldapServer.getLdapSessionManager().getSessions();
+        long pagedSearches = 0L;
+        long outstandingRequests = 0L;
+
+        for ( LdapSession session : sessions )
+        {
+            IoSession ioSession = session.getIoSession();
+            String id = Long.toString( ioSession.getId() );
+            CoreSession coreSession = session.getCoreSession();
+            String description = String.valueOf( ioSession.getRemoteAddress() );
+
+            if ( ( coreSession != null ) && ( coreSession.getAuthenticatedPrincipal() != null ) )
+            {
+                description += " " + coreSession.getAuthenticatedPrincipal().getName();
+            }
+
+            Entry entry = createEntry( childDn( sessionsDn, id ), id, description );
+            int paged = session.getPagedSearchContextCount();
+            int outstanding = session.getOutstandingRequests().size();
+
+            addValue( entry, MONITOR_PAGED_SEARCHES_AT, paged );
+            addValue( entry, MONITOR_OUTSTANDING_REQUESTS_AT, outstanding );
+            addValue( entry, MONITOR_QUEUE_SIZE_AT, ioSession.getScheduledWriteMessages() );
+            addValue( entry, MONITOR_QUEUE_BYTES_AT, ioSession.getScheduledWriteBytes() );
+            entries.add( entry );
+
+            pagedSearches += paged;
+            outstandingRequests += outstanding;
+        }
+
+        addValue( sessionsEntry, MONITOR_COUNT_AT, sessions.length );
+        addValue( sessionsEntry, MONITOR_PAGED_SEARCHES_AT, pagedSearches );
+        addValue( sessionsEntry, MONITOR_OUTSTANDING_REQUESTS_AT, outstandingRequests );
+    }
+
+
+    /**
+     * The executors processing the requests. The MINA executors don't expose their
+     * queue, so its size is computed from the tasks counters.
+     */
+    private void addExecutors( List<Entry> entries ) throws LdapException
+    {
+        Dn executorsDn = childDn( suffixDn, "executors" );
+        Entry executorsEntry = createEntry( executorsDn, "executors", "The LDAP requests executors" );
+        entries.add( executorsEntry );
+
+        List<ThreadPoolExecutor> executors = ldapServer.getExecutors();
+
+        for ( int i = 0; i < executors.size(); i++ )
+        {
+            ThreadPoolExecutor executor = executors.get( i );
+            String id = Integer.toString( i );
+            Entry entry = createEntry( childDn( executorsDn, id ), id, executor.getClass().getSimpleName() );
+            int active = executor.getActiveCount();
+            long completed = executor.getCompletedTaskCount();
+
+            addValue( entry, MONITOR_ACTIVE_COUNT_AT, active );
+            addValue( entry, MONITOR_POOL_SIZE_AT, executor.getPoolSize() );
+            addValue( entry, MONITOR_COMPLETED_COUNT_AT, completed );
+            addValue( entry, MONITOR_QUEUE_SIZE_AT, Math.max( 0L, executor.getTaskCount() - completed - active ) );
+            entries.add( entry );
+        }
+
+        addValue( executorsEntry, MONITOR_COUNT_AT, executors.size() );
+    }
+
+
+    /**
+     * The replication logs, one per consumer, with the number of pending events
+     */
+    private void addReplicationLogs( List<Entry> entries ) throws LdapException
+    {
+        ReplicationRequestHandler handler = ldapServer.getReplicationReqHandler();
+
+        if ( !( handler instanceof SyncReplRequestHandler ) )
+        {
+            return;
+        }
+
+        Dn replicationDn = childDn( suffixDn, "replication" );
+        Entry replicationEntry = createEntry( replicationDn, "replication", "The replication consumers logs" );
+        entries.add( replicationEntry );
+
+        Map<Integer, ReplicaEventLog> logs = ( ( SyncReplRequestHandler ) handler ).getReplicaLogMap();
+
+        for ( ReplicaEventLog log : logs.values() )
+        {
+            String id = Integer.toString( log.getId() );
+            Entry entry = createEntry( childDn( replicationDn, id ), id, log.getHostName() );
+
+            addValue( entry, MONITOR_QUEUE_SIZE_AT, log.count() );
+            entries.add( entry );
+        }
+
+        addValue( replicationEntry, MONITOR_COUNT_AT, logs.size() );
+    }
+
+
+    /**
+     * The caches occupancy, and their hits and misses if the statistics are enabled
+     */
+    private void addCaches( List<Entry> entries ) throws LdapException
+    {
+        CacheService cacheService = ldapServer.getDirectoryService().getCacheService();
+
+        if ( cacheService == null )
+        {
+            return;
+        }
+
+        Dn cachesDn = childDn( suffixDn, "caches" );
+        Entry cachesEntry = createEntry( cachesDn, "caches", "The caches" );
+        entries.add( cachesEntry );
+
+        List<Cache> caches = cacheService.getCaches();
+
+        for ( Cache cache : caches )
+        {
+            Entry entry = createEntry( childDn( cachesDn, cache.getName() ), cache.getName(), null );
+
+            addValue( entry, MONITOR_COUNT_AT, cache.getSize() );
+            addValue( entry, MONITOR_MAX_COUNT_AT, cache.getCacheConfiguration().getMaxElementsInMemory() );
+
+            if ( cache.isStatisticsEnabled() )
+            {
+                addValue( entry, MONITOR_HITS_AT, cache.getStatistics().getCacheHits() );
+                addValue( entry, MONITOR_MISSES_AT, cache.getStatistics().getCacheMisses() );
+            }
+
+            entries.add( entry );
+        }
+
+        addValue( cachesEntry, MONITOR_COUNT_AT, caches.size() );
+    }
+
+
+    /**
+     * The DirectoryService histograms and counters. The durations are in nanoseconds.
+     */
+    private void addMetrics( List<Entry> entries ) throws LdapException
+    {
+        DirectoryService directoryService = ldapServer.getDirectoryService();
+        MetricsRegistry registry = directoryService.getMetricsRegistry();
+
+        Dn metricsDn = childDn( suffixDn, "metrics" );
+        entries.add( createEntry( metricsDn, "metrics", "The operations latencies, in nanoseconds, and counters" ) );
+
+        for ( Map.Entry<String, LatencyHistogram> metric : registry.getHistograms().entrySet() )
+        {
+            LatencyHistogram histogram = metric.getValue();
+            Entry entry = createEntry( childDn( metricsDn, metric.getKey() ), metric.getKey(), null );
+
+            addValue( entry, MONITOR_COUNT_AT, histogram.getCount() );
+            addValue( entry, MONITOR_MEAN_AT, histogram.getMean() );
+            addValue( entry, MONITOR_P50_AT, histogram.getValueAtPercentile( 50d ) );
+            addValue( entry, MONITOR_P99_AT, histogram.getValueAtPercentile( 99d ) );
+            addValue( entry, MONITOR_P999_AT, histogram.getValueAtPercentile( 99.9d ) );
+            addValue( entry, MONITOR_MAX_AT, histogram.getMax() );
+            entries.add( entry );
+        }
+
+        for ( Map.Entry<String, Long> counter : registry.getCounters().entrySet() )
+        {
+            Entry entry = createEntry( childDn( metricsDn, counter.getKey() ), counter.getKey(), null );
+
+            addValue( entry, MONITOR_COUNT_AT, counter.getValue() );
+            entries.add( entry );
+        }
+    }
+
+
+    private Dn childDn( Dn parent, String cn ) throws LdapException
+    {
+        return parent.add( new Rdn( schemaManager, SchemaConstants.CN_AT, cn ) );
+    }
+
+
+    private Entry createEntry( Dn dn, String cn, String description ) throws LdapException
+    {
+        Entry entry = new DefaultEntry( schemaManager, dn );
+        entry.add( SchemaConstants.OBJECT_CLASS_AT, SchemaConstants.TOP_OC, SchemaConstants.EXTENSIBLE_OBJECT_OC );
+        entry.add( SchemaConstants.CN_AT, cn );
+
+        if ( description != null )
+        {
+            entry.add( DESCRIPTION_AT, description );
+        }
+
+        return entry;
+    }
+
+
+    private void addValue( Entry entry, String attributeType, long value ) throws LdapException
+    {
+        entry.add( attributeType, Long.toString( value ) );
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.directory.api.ldap.model.message.AbandonRequestImpl;
+import org.apache.directory.api.ldap.model.message.AddRequestImpl;
+import org.apache.directory.api.ldap.model.message.BindRequest;
+import org.apache.directory.api.ldap.model.message.BindRequestImpl;
+import org.apache.directory.api.ldap.model.message.CompareRequestImpl;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.message.UnbindRequestImpl;
+import org.apache.mina.core.filterchain.IoFilterChain;
+import org.apache.mina.core.service.IoHandlerAdapter;
+import org.apache.mina.core.session.DummySession;
+import org.apache.mina.core.session.IoEvent;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.executor.OrderedThreadPoolExecutor;
+import org.apache.mina.filter.executor.UnorderedThreadPoolExecutor;
+import org.junit.Test;
+
+
+/**
+ * Tests the PriorityExecutorFilter dispatching.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PriorityExecutorFilterTest
+{
+    /**
+     * An executor keeping the tasks instead of running them
+     */
+    private static class RecordingExecutor implements Executor
+    {
+        private final List<Runnable> tasks = new ArrayList<Runnable>();
+
+
+        public void execute( Runnable task )
+        {
+            tasks.add( task );
+        }
+
+
+        private void runAll()
+        {
+            List<Runnable> toRun = new ArrayList<Runnable>( tasks );
+            tasks.clear();
+
+            for ( Runnable task : toRun )
+            {
+                task.run();
+            }
+        }
+    }
+
+
+    private SearchRequest search( SearchScope scope )
+    {
+        SearchRequest request = new SearchRequestImpl();
+        request.setScope( scope );
+
+        return request;
+    }
+
+
+    @Test
+    public void testIsPriority()
+    {
+        assertTrue( PriorityExecutorFilter.isPriority( new AbandonRequestImpl( 1 ) ) );
+        assertTrue( PriorityExecutorFilter.isPriority( search( SearchScope.OBJECT ) ) );
+        assertTrue( PriorityExecutorFilter.isPriority( new BindRequestImpl() ) );
+        assertTrue( PriorityExecutorFilter.isPriority( new CompareRequestImpl() ) );
+
+        assertFalse( PriorityExecutorFilter.isPriority( new UnbindRequestImpl() ) );
+        assertFalse( PriorityExecutorFilter.isPriority( search( SearchScope.ONELEVEL ) ) );
+        assertFalse( PriorityExecutorFilter.isPriority( search( SearchScope.SUBTREE ) ) );
+        assertFalse( PriorityExecutorFilter.isPriority( new AddRequestImpl() ) );
+        assertFalse( PriorityExecutorFilter.isPriority( null ) );
+    }
+
+
+    @Test
+    public void testIsBarrier()
+    {
+        assertTrue( PriorityExecutorFilter.isBarrier( new BindRequestImpl() ) );
+        assertTrue( PriorityExecutorFilter.isBarrier( new UnbindRequestImpl() ) );
+
+        assertFalse( PriorityExecutorFilter.isBarrier( new AbandonRequestImpl( 1 ) ) );
+        assertFalse( PriorityExecutorFilter.isBarrier( search( SearchScope.OBJECT ) ) );
+        assertFalse( PriorityExecutorFilter.isBarrier( new AddRequestImpl() ) );
+    }
+
+
+    @Test
+    public void testDispatch()
+    {
+        RecordingExecutor executor = new RecordingExecutor();
+        RecordingExecutor priorityExecutor = new RecordingExecutor();
+
+        DummySession session = new DummySession();
+        IoFilterChain chain = session.getFilterChain();
+        chain.addLast( "executor", new PriorityExecutorFilter( executor, priorityExecutor ) );
+
+        chain.fireMessageReceived( search( SearchScope.SUBTREE ) );
+        chain.fireMessageReceived( search( SearchScope.OBJECT ) );
+        chain.fireMessageReceived( new AddRequestImpl() );
+        chain.fireMessageReceived( new AbandonRequestImpl( 1 ) );
+
+        assertEquals( 2, executor.tasks.size() );
+        assertEquals( 2, priorityExecutor.tasks.size() );
+
+        // The bind waits for the three requests in flight, the abandon is not tracked
+        chain.fireMessageReceived( new BindRequestImpl() );
+        chain.fireMessageReceived( search( SearchScope.OBJECT ) );
+
+        assertEquals( 2, executor.tasks.size() );
+        assertEquals( 2, priorityExecutor.tasks.size() );
+
+        priorityExecutor.runAll();
+        assertEquals( 2, executor.tasks.size() );
+
+        // The bind is processed by the priority executor
+        executor.runAll();
+        assertEquals( 0, executor.tasks.size() );
+        assertEquals( 1, priorityExecutor.tasks.size() );
+        assertTrue( PriorityExecutorFilter.isBarrier( ( ( IoEvent ) priorityExecutor.tasks
+            .get( 0 ) ).getParameter() ) );
+
+        // The lookup received after the bind waits for it
+        priorityExecutor.runAll();
+        assertEquals( 0, executor.tasks.size() );
+        assertEquals( 1, priorityExecutor.tasks.size() );
+        assertFalse( PriorityExecutorFilter.isBarrier( ( ( IoEvent ) priorityExecutor.tasks
+            .get( 0 ) ).getParameter() ) );
+    }
+
+
+    @Test
+    public void testBindWaitsForPipelinedSearch() throws Exception
+    {
+        final CountDownLatch searchStarted = new CountDownLatch( 1 );
+        final CountDownLatch releaseSearch = new CountDownLatch( 1 );
+        final CountDownLatch bindDone = new CountDownLatch( 1 );
+        final List<String> processed = Collections.synchronizedList( new ArrayList<String>() );
+
+        UnorderedThreadPoolExecutor executor = new UnorderedThreadPoolExecutor( 4 );
+        OrderedThreadPoolExecutor priorityExecutor = new OrderedThreadPoolExecutor( 2 );
+
+        try
+        {
+            DummySession session = new DummySession();
+            session.setHandler( new IoHandlerAdapter()
+            {
+                @Override
+                public void messageReceived( IoSession session, Object message ) throws Exception
+                {
+                    if ( message instanceof BindRequest )
+                    {
+                        processed.add( "bind" );
+                        bindDone.countDown();
+                    }
+                    else
+                    {
+                        searchStarted.countDown();
+                        releaseSearch.await( 10, TimeUnit.SECONDS );
+                        processed.add( "search" );
+                    }
+                }
+            } );
+
+            IoFilterChain chain = session.getFilterChain();
+            chain.addLast( "executor", new PriorityExecutorFilter( executor, priorityExecutor ) );
+
+            // A slow search, pipelined with a bind
+            chain.fireMessageReceived( search( SearchScope.SUBTREE ) );
+            chain.fireMessageReceived( new BindRequestImpl() );
+
+            assertTrue( searchStarted.await( 10, TimeUnit.SECONDS ) );
+
+            // The executor has free threads, yet the bind must not overtake the search
+            assertFalse( bindDone.await( 200, TimeUnit.MILLISECONDS ) );
+            assertTrue( processed.isEmpty() );
+
+            releaseSearch.countDown();
+
+            assertTrue( bindDone.await( 10, TimeUnit.SECONDS ) );
+            assertEquals( 2, processed.size() );
+            assertEquals( "search", processed.get( 0 ) );
+            assertEquals( "bind", processed.get( 1 ) );
+        }
+        finally
+        {
+            executor.shutdownNow();
+            priorityExecutor.shutdownNow();
+        }
+    }
+
+
+    @Test
+    public void testBindNotDelayedBySearches() throws Exception
+    {
+        final CountDownLatch searchesStarted = new CountDownLatch( 2 );
+        final CountDownLatch releaseSearches = new CountDownLatch( 1 );
+        final CountDownLatch bindDone = new CountDownLatch( 1 );
+        final AtomicInteger searchesDone = new AtomicInteger();
+
+        UnorderedThreadPoolExecutor executor = new UnorderedThreadPoolExecutor( 2 );
+        OrderedThreadPoolExecutor priorityExecutor = new OrderedThreadPoolExecutor( 1 );
+
+        IoHandlerAdapter handler = new IoHandlerAdapter()
+        {
+            @Override
+            public void messageReceived( IoSession session, Object message ) throws Exception
+            {
+                if ( message instanceof BindRequest )
+                {
+                    bindDone.countDown();
+                }
+                else
+                {
+                    searchesStarted.countDown();
+                    releaseSearches.await( 10, TimeUnit.SECONDS );
+                    searchesDone.incrementAndGet();
+                }
+            }
+        };
+
+        try
+        {
+            PriorityExecutorFilter filter = new PriorityExecutorFilter( executor, priorityExecutor );
+
+            // Other sessions keep all the threads of the default executor busy, and queue more searches
+            for ( int i = 0; i < 4; i++ )
+            {
+                DummySession session = new DummySession();
+                session.setHandler( handler );
+                session.getFilterChain().addLast( "executor", filter );
+                session.getFilterChain().fireMessageReceived( search( SearchScope.SUBTREE ) );
+            }
+
+            assertTrue( searchesStarted.await( 10, TimeUnit.SECONDS ) );
+
+            DummySession session = new DummySession();
+            session.setHandler( handler );
+            session.getFilterChain().addLast( "executor", filter );
+            session.getFilterChain().fireMessageReceived( new BindRequestImpl() );
+
+            // The bind does not wait for the searches of the other sessions
+            assertTrue( bindDone.await( 10, TimeUnit.SECONDS ) );
+            assertEquals( 0, searchesDone.get() );
+        }
+        finally
+        {
+            releaseSearches.countDown();
+            executor.shutdownNow();
+            priorityExecutor.shutdownNow();
+        }
+    }
+}
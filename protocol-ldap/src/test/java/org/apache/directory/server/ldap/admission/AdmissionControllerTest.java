@@ -0,0 +1,217 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.admission;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.message.AbandonRequestImpl;
+import org.apache.directory.api.ldap.model.message.AddRequestImpl;
+import org.apache.directory.api.ldap.model.message.MessageTypeEnum;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.directory.server.ldap.LdapServer;
+import org.apache.directory.server.ldap.LdapSession;
+import org.apache.directory.server.ldap.admission.AdmissionController.Admission;
+import org.apache.mina.core.session.DummySession;
+import org.apache.mina.core.session.IoEvent;
+import org.apache.mina.core.session.IoEventType;
+import org.apache.mina.filter.executor.UnorderedThreadPoolExecutor;
+import org.junit.Test;
+
+
+/**
+ * Tests the AdmissionController limits and the TokenBucket.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class AdmissionControllerTest
+{
+    @Test
+    public void testTokenBucket()
+    {
+        long second = TimeUnit.SECONDS.toNanos( 1L );
+        TokenBucket bucket = new TokenBucket( 2, 3, 0L );
+
+        // The burst
+        assertTrue( bucket.tryAcquire( 0L ) );
+        assertTrue( bucket.tryAcquire( 0L ) );
+        assertTrue( bucket.tryAcquire( 0L ) );
+        assertFalse( bucket.tryAcquire( 0L ) );
+        assertFalse( bucket.isFull( 0L ) );
+
+        // One token every half second
+        assertTrue( bucket.tryAcquire( second / 2 ) );
+        assertFalse( bucket.tryAcquire( second / 2 ) );
+
+        // Never more than the burst
+        assertTrue( bucket.isFull( 10 * second ) );
+        assertTrue( bucket.tryAcquire( 10 * second ) );
+        assertTrue( bucket.tryAcquire( 10 * second ) );
+        assertTrue( bucket.tryAcquire( 10 * second ) );
+        assertFalse( bucket.tryAcquire( 10 * second ) );
+    }
+
+
+    @Test
+    public void testOperationRate()
+    {
+        AdmissionController controller = new AdmissionController();
+        controller.setOperationRate( MessageTypeEnum.SEARCH_REQUEST, 1, 2 );
+        LdapSession session = new LdapSession( new DummySession() );
+
+        assertTrue( controller.admit( session, null, new SearchRequestImpl() ).isAdmitted() );
+        assertTrue( controller.admit( session, null, new SearchRequestImpl() ).isAdmitted() );
+        assertEquals( ResultCodeEnum.UNWILLING_TO_PERFORM, controller.admit( session, null, new SearchRequestImpl() )
+            .getRejection() );
+
+        // The other operations are not limited, and the abandon requests are never rejected
+        assertTrue( controller.admit( session, null, new AddRequestImpl() ).isAdmitted() );
+        assertTrue( controller.admit( session, null, new AbandonRequestImpl( 1 ) ).isAdmitted() );
+    }
+
+
+    @Test
+    public void testIpRate()
+    {
+        AdmissionController controller = new AdmissionController();
+        controller.setIpRate( 1, 1 );
+        LdapSession session = new LdapSession( new DummySession() );
+
+        assertTrue( controller.admit( session, null, new AddRequestImpl() ).isAdmitted() );
+        assertEquals( ResultCodeEnum.UNWILLING_TO_PERFORM, controller.admit( session, null, new AddRequestImpl() )
+            .getRejection() );
+    }
+
+
+    @Test
+    public void testConcurrentSearches()
+    {
+        AdmissionController controller = new AdmissionController();
+        controller.setMaxConcurrentSearches( 1 );
+        LdapSession session = new LdapSession( new DummySession() );
+        SearchRequestImpl search = new SearchRequestImpl();
+
+        Admission admission = controller.admit( session, "uid=client", search );
+        assertTrue( admission.isAdmitted() );
+        assertTrue( admission.hasSearchSlot() );
+        assertEquals( ResultCodeEnum.UNWILLING_TO_PERFORM, controller.admit( session, "uid=client", search )
+            .getRejection() );
+
+        // Another identity has its own searches
+        assertTrue( controller.admit( session, "uid=other", search ).isAdmitted() );
+
+        // The other requests don't take a search slot, releasing them gives nothing back
+        Admission add = controller.admit( session, "uid=client", new AddRequestImpl() );
+        assertFalse( add.hasSearchSlot() );
+        controller.release( add );
+        assertFalse( controller.admit( session, "uid=client", search ).isAdmitted() );
+
+        // The search slot is available again once the search is done, even if the limit has changed
+        controller.setMaxConcurrentSearches( 0 );
+        controller.release( admission );
+        controller.setMaxConcurrentSearches( 1 );
+        assertTrue( controller.admit( session, "uid=client", search ).isAdmitted() );
+    }
+
+
+    @Test
+    public void testBacklog() throws Exception
+    {
+        LdapServer ldapServer = new LdapServer();
+        AdmissionController controller = new AdmissionController();
+        controller.init( ldapServer );
+        controller.setMaxBacklog( 2 );
+        LdapSession session = new LdapSession( new DummySession() );
+
+        // A single thread, blocked by the first request : the next ones are queued
+        final CountDownLatch blocked = new CountDownLatch( 1 );
+        UnorderedThreadPoolExecutor executor = new UnorderedThreadPoolExecutor( 0, 1, 30L, TimeUnit.SECONDS,
+            Executors.defaultThreadFactory(), ldapServer.getRequestQueueCounter() );
+
+        try
+        {
+            for ( int i = 0; i < 4; i++ )
+            {
+                executor.execute( new IoEvent( IoEventType.MESSAGE_RECEIVED, session.getIoSession(), null )
+                {
+                    public void fire()
+                    {
+                        try
+                        {
+                            blocked.await();
+                        }
+                        catch ( InterruptedException ie )
+                        {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                } );
+            }
+
+            long timeout = System.currentTimeMillis() + 10000L;
+
+            while ( ( controller.getBacklog() != 3L ) && ( System.currentTimeMillis() < timeout ) )
+            {
+                Thread.sleep( 10L );
+            }
+
+            assertEquals( 3L, controller.getBacklog() );
+            assertEquals( ResultCodeEnum.BUSY, controller.admit( session, null, new AddRequestImpl() ).getRejection() );
+
+            // The abandon requests are never rejected
+            assertTrue( controller.admit( session, null, new AbandonRequestImpl( 1 ) ).isAdmitted() );
+        }
+        finally
+        {
+            blocked.countDown();
+            executor.shutdown();
+        }
+
+        assertTrue( executor.awaitTermination( 10L, TimeUnit.SECONDS ) );
+        assertEquals( 0L, controller.getBacklog() );
+        assertTrue( controller.admit( session, null, new AddRequestImpl() ).isAdmitted() );
+    }
+
+
+    @Test
+    public void testConnectionsPerIp()
+    {
+        AdmissionController controller = new AdmissionController();
+        controller.setMaxConnectionsPerIp( 1 );
+        DummySession session1 = new DummySession();
+        DummySession session2 = new DummySession();
+
+        assertTrue( controller.connectionOpened( session1 ) );
+        assertFalse( controller.connectionOpened( session2 ) );
+
+        // Both connections are closed
+        controller.connectionClosed( session2 );
+        controller.connectionClosed( session1 );
+
+        assertTrue( controller.connectionOpened( session2 ) );
+    }
+}
@@ -25,6 +25,7 @@ import java.io.IOException;
 import org.apache.directory.server.ntp.protocol.NtpProtocolCodecFactory;
 import org.apache.directory.server.ntp.protocol.NtpProtocolHandler;
 import org.apache.directory.server.protocol.shared.AbstractProtocolService;
+import org.apache.directory.server.protocol.shared.transport.IoBufferReleaseFilter;
 import org.apache.directory.server.protocol.shared.transport.Transport;
 import org.apache.directory.server.protocol.shared.transport.UdpTransport;
 import org.apache.mina.core.filterchain.DefaultIoFilterChainBuilder;
@@ -81,10 +82,6 @@ public class NtpServer extends AbstractProtocolService
     {
         IoHandler ntpProtocolHandler = new NtpProtocolHandler();
 
-        // Create the chain for the NTP server
-        DefaultIoFilterChainBuilder ntpChain = new DefaultIoFilterChainBuilder();
-        ntpChain.addLast( "codec", new ProtocolCodecFilter( NtpProtocolCodecFactory.getInstance() ) );
-
         if ( ( transports == null ) || ( transports.size() == 0 ) )
         {
             // Default to UDP with port 123
@@ -101,7 +98,7 @@ public class NtpServer extends AbstractProtocolService
             ( ( DatagramSessionConfig ) acceptor.getSessionConfig() ).setReuseAddress( true );
 
             // Inject the chain
-            acceptor.setFilterChainBuilder( ntpChain );
+            acceptor.setFilterChainBuilder( createChain( transport ) );
 
             // Start the listener
             acceptor.bind();
@@ -133,7 +130,7 @@ public class NtpServer extends AbstractProtocolService
                 }
 
                 // Inject the chain
-                acceptor.setFilterChainBuilder( ntpChain );
+                acceptor.setFilterChainBuilder( createChain( transport ) );
 
                 // Start the listener
                 acceptor.bind();
@@ -144,6 +141,31 @@ public class NtpServer extends AbstractProtocolService
     }
 
 
+    /**
+     * Creates the filter chain for a transport. UDP transports get an executor
+     * behind the codec : the requests are decoded, and so stamped with their
+     * receive time, as soon as they are read, then processed by a pool of
+     * threads instead of the single datagram processor thread. The encoded
+     * replies are given back to the codec's buffer pool once sent.
+     */
+    private DefaultIoFilterChainBuilder createChain( Transport transport )
+    {
+        DefaultIoFilterChainBuilder ntpChain = new DefaultIoFilterChainBuilder();
+
+        if ( transport instanceof UdpTransport )
+        {
+            ( ( UdpTransport ) transport ).addExecutorFilter( ntpChain );
+        }
+
+        ntpChain.addFirst( "codec", new ProtocolCodecFilter( NtpProtocolCodecFactory.getInstance() ) );
+
+        // This filter must stay before the codec to see the encoded buffers
+        ntpChain.addFirst( "bufferRelease", new IoBufferReleaseFilter() );
+
+        return ntpChain;
+    }
+
+
     /**
      * {@inheritDoc}
      */
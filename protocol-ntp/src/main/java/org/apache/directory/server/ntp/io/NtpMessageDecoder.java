@@ -38,13 +38,17 @@ import org.apache.directory.server.ntp.messages.StratumType;
 public class NtpMessageDecoder
 {
     /**
-     * Decodes the {@link ByteBuffer} into an {@link NtpMessage}.
+     * Decodes the {@link ByteBuffer} into an {@link NtpMessage}. The receive
+     * timestamp of the message is the time this method is called at.
      *
      * @param request
      * @return The {@link NtpMessage}.
      */
     public NtpMessage decode( ByteBuffer request )
     {
+        // Stamp the request before anything else
+        NtpTimeStamp receiveTimestamp = new NtpTimeStamp();
+
         NtpMessageModifier modifier = new NtpMessageModifier();
 
         byte header = request.get();
@@ -60,10 +64,10 @@ public class NtpMessageDecoder
         modifier.setReferenceTimestamp( new NtpTimeStamp( request ) );
         modifier.setOriginateTimestamp( new NtpTimeStamp( request ) );
 
-        byte[] unneededBytes = new byte[8];
-        request.get( unneededBytes );
+        // Skip the receive timestamp set by the sender
+        request.position( request.position() + 8 );
 
-        modifier.setReceiveTimestamp( new NtpTimeStamp() );
+        modifier.setReceiveTimestamp( receiveTimestamp );
         modifier.setTransmitTimestamp( new NtpTimeStamp( request ) );
 
         return modifier.getNtpMessage();
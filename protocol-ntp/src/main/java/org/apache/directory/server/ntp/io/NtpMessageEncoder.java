@@ -27,13 +27,30 @@ import org.apache.directory.server.ntp.messages.LeapIndicatorType;
 import org.apache.directory.server.ntp.messages.ModeType;
 import org.apache.directory.server.ntp.messages.NtpMessage;
 import org.apache.directory.server.ntp.messages.ReferenceIdentifier;
+import org.apache.directory.server.ntp.messages.StratumType;
 
 
 /**
+ * Encodes the {@link NtpMessage}s. The first 16 bytes of a message, which hold
+ * everything but the timestamps, are the same for all the replies of a server.
+ * They are kept in a template, copied as is into the buffer, and the timestamps
+ * are patched after them. The template is rebuilt when a message with a
+ * different header is encoded.
+ *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
 public class NtpMessageEncoder
 {
+    /** The size of a NTP message, without authenticator */
+    public static final int MESSAGE_SIZE = 48;
+
+    /** The size of the header, before the timestamps */
+    private static final int HEADER_SIZE = 16;
+
+    /** The last encoded header */
+    private volatile HeaderTemplate template;
+
+
     /**
      * Encodes the {@link NtpMessage} into the {@link ByteBuffer}.
      *
@@ -42,20 +59,15 @@ public class NtpMessageEncoder
      */
     public void encode( ByteBuffer byteBuffer, NtpMessage message )
     {
-        byte header = 0x00;
-        header = encodeLeapIndicator( message.getLeapIndicator(), header );
-        header = encodeVersionNumber( message.getVersionNumber(), header );
-        header = encodeMode( message.getMode(), header );
-        byteBuffer.put( header );
-
-        byteBuffer.put( ( byte ) ( message.getStratum().getOrdinal() & 0xFF ) );
-        byteBuffer.put( ( byte ) ( message.getPollInterval() & 0xFF ) );
-        byteBuffer.put( ( byte ) ( message.getPrecision() & 0xFF ) );
+        HeaderTemplate header = template;
 
-        byteBuffer.putInt( message.getRootDelay() );
-        byteBuffer.putInt( message.getRootDispersion() );
+        if ( ( header == null ) || !header.matches( message ) )
+        {
+            header = new HeaderTemplate( message );
+            template = header;
+        }
 
-        encodeReferenceIdentifier( message.getReferenceIdentifier(), byteBuffer );
+        byteBuffer.put( header.bytes );
 
         message.getReferenceTimestamp().writeTo( byteBuffer );
         message.getOriginateTimestamp().writeTo( byteBuffer );
@@ -64,6 +76,67 @@ public class NtpMessageEncoder
     }
 
 
+    /**
+     * The encoded header of a message, with the fields it has been built from.
+     */
+    private final class HeaderTemplate
+    {
+        private final LeapIndicatorType leapIndicator;
+        private final int versionNumber;
+        private final ModeType mode;
+        private final StratumType stratum;
+        private final byte pollInterval;
+        private final byte precision;
+        private final int rootDelay;
+        private final int rootDispersion;
+        private final ReferenceIdentifier referenceIdentifier;
+
+        /** The encoded header */
+        private final byte[] bytes = new byte[HEADER_SIZE];
+
+
+        private HeaderTemplate( NtpMessage message )
+        {
+            leapIndicator = message.getLeapIndicator();
+            versionNumber = message.getVersionNumber();
+            mode = message.getMode();
+            stratum = message.getStratum();
+            pollInterval = message.getPollInterval();
+            precision = message.getPrecision();
+            rootDelay = message.getRootDelay();
+            rootDispersion = message.getRootDispersion();
+            referenceIdentifier = message.getReferenceIdentifier();
+
+            ByteBuffer byteBuffer = ByteBuffer.wrap( bytes );
+
+            byte header = 0x00;
+            header = encodeLeapIndicator( leapIndicator, header );
+            header = encodeVersionNumber( versionNumber, header );
+            header = encodeMode( mode, header );
+            byteBuffer.put( header );
+
+            byteBuffer.put( ( byte ) ( stratum.getOrdinal() & 0xFF ) );
+            byteBuffer.put( ( byte ) ( pollInterval & 0xFF ) );
+            byteBuffer.put( ( byte ) ( precision & 0xFF ) );
+
+            byteBuffer.putInt( rootDelay );
+            byteBuffer.putInt( rootDispersion );
+
+            encodeReferenceIdentifier( referenceIdentifier, byteBuffer );
+        }
+
+
+        private boolean matches( NtpMessage message )
+        {
+            return ( leapIndicator == message.getLeapIndicator() ) && ( versionNumber == message.getVersionNumber() )
+                && ( mode == message.getMode() ) && ( stratum == message.getStratum() )
+                && ( pollInterval == message.getPollInterval() ) && ( precision == message.getPrecision() )
+                && ( rootDelay == message.getRootDelay() ) && ( rootDispersion == message.getRootDispersion() )
+                && referenceIdentifier.equals( message.getReferenceIdentifier() );
+        }
+    }
+
+
     private byte encodeLeapIndicator( LeapIndicatorType leapIndicator, byte header )
     {
         byte twoBits = ( byte ) ( leapIndicator.getOrdinal() & 0x03 );
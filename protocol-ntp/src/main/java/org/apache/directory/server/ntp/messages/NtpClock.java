@@ -0,0 +1,188 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.ntp.messages;
+
+
+/**
+ * A clock with a nanosecond resolution, used to stamp the NTP messages. The
+ * wall clock time is read once, and the time elapsed since then is measured
+ * with {@link System#nanoTime()}. The anchor is refreshed every
+ * {@link #RESYNC_INTERVAL_NANOS} nanoseconds, so that the adjustments of the
+ * system clock are taken into account. Reading the time never locks.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class NtpClock
+{
+    /** The delay after which the anchor is read again from the wall clock */
+    public static final long RESYNC_INTERVAL_NANOS = 60L * 1000L * 1000L * 1000L;
+
+    /** The number of nanoseconds in a second */
+    private static final long NANOS_PER_SECOND = 1000L * 1000L * 1000L;
+
+    /** The number of seconds between the NTP epoch (1900) and the Java epoch (1970) */
+    private static final long NTP_EPOCH_OFFSET_SECONDS = 2208988800L;
+
+    /** The singleton instance */
+    private static final NtpClock INSTANCE = new NtpClock();
+
+    /** The current anchor, replaced atomically when refreshed */
+    private volatile Anchor anchor;
+
+    /** The clock precision, as a power of 2 in seconds */
+    private final byte precision;
+
+
+    /**
+     * An immutable pair of wall clock and monotonic clock readings
+     */
+    private static final class Anchor
+    {
+        /** The wall clock time, in nanoseconds since the Java epoch */
+        private final long wallNanos;
+
+        /** The value of System.nanoTime() when the wall clock was read */
+        private final long monotonicNanos;
+
+
+        private Anchor()
+        {
+            wallNanos = System.currentTimeMillis() * 1000000L;
+            monotonicNanos = System.nanoTime();
+        }
+    }
+
+
+    private NtpClock()
+    {
+        anchor = new Anchor();
+        precision = computePrecision();
+    }
+
+
+    /**
+     * @return The singleton instance of the clock
+     */
+    public static NtpClock getInstance()
+    {
+        return INSTANCE;
+    }
+
+
+    /**
+     * @return The current time, in nanoseconds since the Java epoch
+     */
+    public long currentTimeNanos()
+    {
+        Anchor current = anchor;
+        long elapsed = System.nanoTime() - current.monotonicNanos;
+
+        if ( ( elapsed < 0 ) || ( elapsed > RESYNC_INTERVAL_NANOS ) )
+        {
+            // Another thread may do the same, the last one wins
+            current = new Anchor();
+            anchor = current;
+            elapsed = System.nanoTime() - current.monotonicNanos;
+        }
+
+        return current.wallNanos + elapsed;
+    }
+
+
+    /**
+     * @return The current time, as a 64 bits NTP timestamp : the seconds
+     * since the NTP epoch in the upper 32 bits, the fraction in the lower ones
+     */
+    public long currentNtpTime()
+    {
+        return toNtpTime( currentTimeNanos() );
+    }
+
+
+    /**
+     * @return A {@link NtpTimeStamp} for the current time
+     */
+    public NtpTimeStamp now()
+    {
+        long ntpTime = currentNtpTime();
+
+        return new NtpTimeStamp( ntpTime >>> 32, ntpTime & 0xFFFFFFFFL );
+    }
+
+
+    /**
+     * @return The precision of this clock, as a signed power of 2 in seconds, as
+     * expected in the precision field of a NTP message
+     */
+    public byte getPrecision()
+    {
+        return precision;
+    }
+
+
+    /**
+     * Converts a time in nanoseconds since the Java epoch into a 64 bits NTP
+     * timestamp.
+     *
+     * @param nanos The time in nanoseconds since the Java epoch
+     * @return The NTP timestamp
+     */
+    public static long toNtpTime( long nanos )
+    {
+        long seconds = nanos / NANOS_PER_SECOND;
+        long remainder = nanos % NANOS_PER_SECOND;
+        long fraction = ( remainder << 32 ) / NANOS_PER_SECOND;
+
+        return ( ( seconds + NTP_EPOCH_OFFSET_SECONDS ) << 32 ) | fraction;
+    }
+
+
+    /**
+     * Measures the smallest step of System.nanoTime(), and converts it to
+     * a power of 2.
+     */
+    private static byte computePrecision()
+    {
+        long smallest = Long.MAX_VALUE;
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            long start = System.nanoTime();
+            long next = System.nanoTime();
+
+            while ( next == start )
+            {
+                next = System.nanoTime();
+            }
+
+            smallest = Math.min( smallest, next - start );
+        }
+
+        // 2^-30 second is about a nanosecond
+        int exponent = -30;
+
+        while ( ( exponent < 0 ) && ( ( NANOS_PER_SECOND >> -exponent ) < smallest ) )
+        {
+            exponent++;
+        }
+
+        return ( byte ) exponent;
+    }
+}
@@ -57,11 +57,28 @@ public class NtpTimeStamp
 
 
     /**
-     * Creates a new instance of NtpTimeStamp that represents the time "right now."
+     * Creates a new instance of NtpTimeStamp that represents the time "right now,"
+     * as given by the {@link NtpClock}.
      */
     public NtpTimeStamp()
     {
-        this( new Date() );
+        long ntpTime = NtpClock.getInstance().currentNtpTime();
+
+        seconds = ntpTime >>> 32;
+        fraction = ntpTime & 0xFFFFFFFFL;
+    }
+
+
+    /**
+     * Creates a new instance of NtpTimeStamp from its seconds and fraction parts.
+     *
+     * @param seconds The number of seconds since the NTP epoch
+     * @param fraction The fraction of second, in units of 2^-32 second
+     */
+    public NtpTimeStamp( long seconds, long fraction )
+    {
+        this.seconds = seconds & 0xFFFFFFFFL;
+        this.fraction = fraction & 0xFFFFFFFFL;
     }
 
 
@@ -86,15 +103,8 @@ public class NtpTimeStamp
      */
     public NtpTimeStamp( ByteBuffer data )
     {
-        for ( int ii = 0; ii < 4; ii++ )
-        {
-            seconds = 256 * seconds + makePositive( data.get() );
-        }
-
-        for ( int ii = 4; ii < 8; ii++ )
-        {
-            fraction = 256 * fraction + makePositive( data.get() );
-        }
+        seconds = data.getInt() & 0xFFFFFFFFL;
+        fraction = data.getInt() & 0xFFFFFFFFL;
     }
 
 
@@ -105,23 +115,18 @@ public class NtpTimeStamp
      */
     public void writeTo( ByteBuffer buffer )
     {
-        byte[] bytes = new byte[8];
+        buffer.putInt( ( int ) seconds );
+        buffer.putInt( ( int ) fraction );
+    }
 
-        long temp = seconds;
-        for ( int ii = 3; ii >= 0; ii-- )
-        {
-            bytes[ii] = ( byte ) ( temp % 256 );
-            temp = temp / 256;
-        }
 
-        temp = fraction;
-        for ( int ii = 7; ii >= 4; ii-- )
-        {
-            bytes[ii] = ( byte ) ( temp % 256 );
-            temp = temp / 256;
-        }
-
-        buffer.put( bytes );
+    /**
+     * @return This timestamp as a 64 bits NTP time : the seconds in the upper
+     * 32 bits, the fraction in the lower ones
+     */
+    public long toNtpTime()
+    {
+        return ( seconds << 32 ) | fraction;
     }
 
 
@@ -170,11 +175,4 @@ public class NtpTimeStamp
         NtpTimeStamp that = ( NtpTimeStamp ) o;
         return ( this.seconds == that.seconds ) && ( this.fraction == that.fraction );
     }
-
-
-    private int makePositive( byte b )
-    {
-        int byteAsInt = b;
-        return ( byteAsInt < 0 ) ? 256 + byteAsInt : byteAsInt;
-    }
 }
@@ -33,9 +33,12 @@ import org.apache.mina.filter.codec.ProtocolDecoderOutput;
  */
 public class NtpDecoder extends ProtocolDecoderAdapter
 {
+    /** The decoder, which has no state */
+    private static final NtpMessageDecoder DECODER = new NtpMessageDecoder();
+
+
     public void decode( IoSession session, IoBuffer in, ProtocolDecoderOutput out )
     {
-        NtpMessageDecoder decoder = new NtpMessageDecoder();
-        out.write( decoder.decode( in.buf() ) );
+        out.write( DECODER.decode( in.buf() ) );
     }
 }
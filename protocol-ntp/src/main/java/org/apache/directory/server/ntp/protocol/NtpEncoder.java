@@ -24,6 +24,7 @@ package org.apache.directory.server.ntp.protocol;
 import org.apache.directory.server.ntp.io.NtpMessageEncoder;
 import org.apache.directory.server.ntp.messages.NtpMessage;
 import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.buffer.IoBufferAllocator;
 import org.apache.mina.core.session.IoSession;
 import org.apache.mina.filter.codec.ProtocolEncoderAdapter;
 import org.apache.mina.filter.codec.ProtocolEncoderOutput;
@@ -34,12 +35,37 @@ import org.apache.mina.filter.codec.ProtocolEncoderOutput;
  */
 public class NtpEncoder extends ProtocolEncoderAdapter
 {
-    public void encode( IoSession session, Object message, ProtocolEncoderOutput out )
+    /** The encoder, shared by all the sessions so that its header template is reused */
+    private static final NtpMessageEncoder ENCODER = new NtpMessageEncoder();
+
+    /** The allocator used to get the buffers the replies are encoded into */
+    private final IoBufferAllocator allocator;
+
+
+    /**
+     * Creates a new instance of NtpEncoder, using the default buffer allocator.
+     */
+    public NtpEncoder()
+    {
+        this( IoBuffer.getAllocator() );
+    }
+
+
+    /**
+     * Creates a new instance of NtpEncoder.
+     *
+     * @param allocator The allocator used to get the buffers the replies are encoded into
+     */
+    public NtpEncoder( IoBufferAllocator allocator )
     {
-        NtpMessageEncoder encoder = new NtpMessageEncoder();
+        this.allocator = allocator;
+    }
 
-        IoBuffer buf = IoBuffer.allocate( 1024 );
-        encoder.encode( buf.buf(), ( NtpMessage ) message );
+
+    public void encode( IoSession session, Object message, ProtocolEncoderOutput out )
+    {
+        IoBuffer buf = allocator.allocate( NtpMessageEncoder.MESSAGE_SIZE, false );
+        ENCODER.encode( buf.buf(), ( NtpMessage ) message );
 
         buf.flip();
 
@@ -21,6 +21,9 @@
 package org.apache.directory.server.ntp.protocol;
 
 
+import org.apache.directory.server.protocol.shared.transport.IoBufferReleaseFilter;
+import org.apache.directory.server.protocol.shared.transport.SharedBufferAllocator;
+import org.apache.mina.core.buffer.IoBufferAllocator;
 import org.apache.mina.core.session.IoSession;
 import org.apache.mina.filter.codec.ProtocolCodecFactory;
 import org.apache.mina.filter.codec.ProtocolDecoder;
@@ -34,6 +37,13 @@ public class NtpProtocolCodecFactory implements ProtocolCodecFactory
 {
     private static final NtpProtocolCodecFactory INSTANCE = new NtpProtocolCodecFactory();
 
+    /**
+     * The allocator shared by all the encoders. The 48 bytes replies are given back
+     * to its pool when they are freed by the {@link IoBufferReleaseFilter}, whatever
+     * the thread which has encoded them.
+     */
+    private final IoBufferAllocator allocator = new SharedBufferAllocator();
+
 
     /**
      * Returns the singleton instance of {@link NtpProtocolCodecFactory}.
@@ -55,7 +65,7 @@ public class NtpProtocolCodecFactory implements ProtocolCodecFactory
     public ProtocolEncoder getEncoder( IoSession session )
     {
         // Create a new encoder.
-        return new NtpEncoder();
+        return new NtpEncoder( allocator );
     }
 
 
@@ -24,39 +24,38 @@ package org.apache.directory.server.ntp.service;
 import org.apache.directory.server.ntp.NtpService;
 import org.apache.directory.server.ntp.messages.LeapIndicatorType;
 import org.apache.directory.server.ntp.messages.ModeType;
+import org.apache.directory.server.ntp.messages.NtpClock;
 import org.apache.directory.server.ntp.messages.NtpMessage;
-import org.apache.directory.server.ntp.messages.NtpMessageModifier;
 import org.apache.directory.server.ntp.messages.NtpTimeStamp;
 import org.apache.directory.server.ntp.messages.ReferenceIdentifier;
 import org.apache.directory.server.ntp.messages.StratumType;
 
 
 /**
+ * The NTP service. The reply fields which don't depend on the request are
+ * computed once; the only thing done per request is reading the clock.
+ * This class has no mutable state, and can be used by many threads at once.
+ *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
 public class NtpServiceImpl implements NtpService
 {
+    /** The version of the replies */
+    private static final int VERSION_NUMBER = 4;
+
+    /** The poll interval advertised in the replies */
+    private static final byte POLL_INTERVAL = ( byte ) 0x04;
+
+    /** The precision of the clock used to stamp the messages */
+    private static final byte PRECISION = NtpClock.getInstance().getPrecision();
+
+
     public NtpMessage getReplyFor( NtpMessage request )
     {
-        NtpMessageModifier modifier = new NtpMessageModifier();
-
-        modifier.setLeapIndicator( LeapIndicatorType.NO_WARNING );
-        modifier.setVersionNumber( 4 );
-        modifier.setMode( ModeType.SERVER );
-        modifier.setStratum( StratumType.PRIMARY_REFERENCE );
-        modifier.setPollInterval( ( byte ) 0x04 );
-        modifier.setPrecision( ( byte ) 0xFA );
-        modifier.setRootDelay( 0 );
-        modifier.setRootDispersion( 0 );
-        modifier.setReferenceIdentifier( ReferenceIdentifier.LOCL );
-
-        NtpTimeStamp now = new NtpTimeStamp();
-
-        modifier.setReferenceTimestamp( now );
-        modifier.setOriginateTimestamp( request.getTransmitTimestamp() );
-        modifier.setReceiveTimestamp( request.getReceiveTimestamp() );
-        modifier.setTransmitTimestamp( now );
-
-        return modifier.getNtpMessage();
+        NtpTimeStamp now = NtpClock.getInstance().now();
+
+        return new NtpMessage( LeapIndicatorType.NO_WARNING, VERSION_NUMBER, ModeType.SERVER,
+            StratumType.PRIMARY_REFERENCE, POLL_INTERVAL, PRECISION, 0, 0, ReferenceIdentifier.LOCL, now,
+            request.getTransmitTimestamp(), request.getReceiveTimestamp(), now );
     }
 }
@@ -0,0 +1,98 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.ntp.messages;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Date;
+
+import org.junit.Test;
+
+
+/**
+ * Unit tests for the NtpClock class.
+ * 
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class NtpClockTest
+{
+    @Test
+    public void testClockFollowsWallClock() throws Exception
+    {
+        long before = System.currentTimeMillis();
+        long nanos = NtpClock.getInstance().currentTimeNanos();
+        long after = System.currentTimeMillis();
+
+        // Allow for the granularity of currentTimeMillis()
+        assertTrue( nanos / 1000000L >= before - 20 );
+        assertTrue( nanos / 1000000L <= after + 20 );
+    }
+
+
+    @Test
+    public void testClockIsMonotonic() throws Exception
+    {
+        long previous = NtpClock.getInstance().currentTimeNanos();
+
+        for ( int i = 0; i < 1000; i++ )
+        {
+            long current = NtpClock.getInstance().currentTimeNanos();
+            assertTrue( current >= previous );
+            previous = current;
+        }
+    }
+
+
+    @Test
+    public void testToNtpTime() throws Exception
+    {
+        // Same value as the millisecond based conversion
+        NtpTimeStamp expected = new NtpTimeStamp( new Date( 1500L ) );
+        long ntpTime = NtpClock.toNtpTime( 1500L * 1000000L );
+
+        assertEquals( expected, new NtpTimeStamp( ntpTime >>> 32, ntpTime & 0xFFFFFFFFL ) );
+        assertEquals( ntpTime, expected.toNtpTime() );
+    }
+
+
+    @Test
+    public void testTimeStampRoundTrip() throws Exception
+    {
+        NtpTimeStamp timeStamp = NtpClock.getInstance().now();
+        ByteBuffer buffer = ByteBuffer.allocate( 8 );
+        timeStamp.writeTo( buffer );
+        buffer.flip();
+
+        assertEquals( timeStamp, new NtpTimeStamp( buffer ) );
+    }
+
+
+    @Test
+    public void testPrecision() throws Exception
+    {
+        byte precision = NtpClock.getInstance().getPrecision();
+
+        assertTrue( precision < 0 );
+        assertTrue( precision >= -30 );
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.protocol.shared.transport;
+
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.filterchain.IoFilterAdapter;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.core.write.WriteRequest;
+
+
+/**
+ * A filter freeing the encoded buffers once they have been sent, so that a
+ * pooling allocator can reuse them. It must be added before the codec filter
+ * in the chain, in order to see the encoded IoBuffers.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class IoBufferReleaseFilter extends IoFilterAdapter
+{
+    @Override
+    public void messageSent( NextFilter nextFilter, IoSession session, WriteRequest writeRequest ) throws Exception
+    {
+        nextFilter.messageSent( session, writeRequest );
+
+        Object message = writeRequest.getMessage();
+
+        if ( message instanceof IoBuffer )
+        {
+            // The buffer has been fully written, nobody will read it anymore
+            ( ( IoBuffer ) message ).free();
+        }
+    }
+}
@@ -0,0 +1,401 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.protocol.shared.transport;
+
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.mina.core.buffer.AbstractIoBuffer;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.buffer.IoBufferAllocator;
+
+
+/**
+ * An {@link IoBufferAllocator} keeping the freed buffers in a bounded pool shared
+ * by all the threads. Unlike MINA's CachedBufferAllocator, whose pools are per
+ * thread, a buffer allocated by one thread and freed by another one goes back
+ * to the pool. This is what happens when the messages are encoded on the threads
+ * of an executor filter, and freed by the I/O processor thread once sent.
+ * <p>
+ * The capacities are rounded up to a power of 2, and the pool keeps at most
+ * maxPoolSize buffers of each capacity. The buffers bigger than maxCachedBufferSize
+ * are never pooled, nor the buffers given to {@link #wrap(ByteBuffer)} and the
+ * derived buffers (duplicates, slices). A buffer must not be used anymore once
+ * {@link IoBuffer#free()} has been called.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SharedBufferAllocator implements IoBufferAllocator
+{
+    /** The default maximum number of buffers of each capacity kept in the pool */
+    public static final int DEFAULT_MAX_POOL_SIZE = 64;
+
+    /** The default capacity above which the buffers are not pooled */
+    public static final int DEFAULT_MAX_CACHED_BUFFER_SIZE = 1 << 16;
+
+    /** The maximum number of buffers of each capacity kept in the pool */
+    private final int maxPoolSize;
+
+    /** The capacity above which the buffers are not pooled */
+    private final int maxCachedBufferSize;
+
+    /** The pools of heap buffers, indexed by the log2 of their capacity */
+    private final Pool[] heapPools;
+
+    /** The pools of direct buffers, indexed by the log2 of their capacity */
+    private final Pool[] directPools;
+
+
+    /**
+     * Creates a new SharedBufferAllocator with the default pool size and maximum
+     * cached buffer size.
+     */
+    public SharedBufferAllocator()
+    {
+        this( DEFAULT_MAX_POOL_SIZE, DEFAULT_MAX_CACHED_BUFFER_SIZE );
+    }
+
+
+    /**
+     * Creates a new SharedBufferAllocator.
+     *
+     * @param maxPoolSize The maximum number of buffers of each capacity kept in the pool
+     * @param maxCachedBufferSize The capacity above which the buffers are not pooled
+     */
+    public SharedBufferAllocator( int maxPoolSize, int maxCachedBufferSize )
+    {
+        if ( maxPoolSize < 0 )
+        {
+            throw new IllegalArgumentException( "maxPoolSize: " + maxPoolSize );
+        }
+
+        if ( maxCachedBufferSize < 0 )
+        {
+            throw new IllegalArgumentException( "maxCachedBufferSize: " + maxCachedBufferSize );
+        }
+
+        this.maxPoolSize = maxPoolSize;
+        this.maxCachedBufferSize = maxCachedBufferSize;
+
+        heapPools = new Pool[32];
+        directPools = new Pool[32];
+
+        for ( int i = 0; i < 32; i++ )
+        {
+            heapPools[i] = new Pool();
+            directPools[i] = new Pool();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public IoBuffer allocate( int capacity, boolean direct )
+    {
+        return new SharedBuffer( allocateNioBuffer( capacity, direct ), true );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public ByteBuffer allocateNioBuffer( int capacity, boolean direct )
+    {
+        int actualCapacity = normalize( capacity );
+        ByteBuffer buf = null;
+
+        if ( actualCapacity <= maxCachedBufferSize )
+        {
+            buf = getPool( actualCapacity, direct ).poll();
+        }
+
+        if ( buf == null )
+        {
+            buf = direct ? ByteBuffer.allocateDirect( actualCapacity ) : ByteBuffer.allocate( actualCapacity );
+        }
+
+        buf.clear();
+        buf.order( ByteOrder.BIG_ENDIAN );
+        buf.limit( capacity );
+
+        return buf;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public IoBuffer wrap( ByteBuffer nioBuffer )
+    {
+        return new SharedBuffer( nioBuffer, false );
+    }
+
+
+    /**
+     * Does nothing : MINA calls this method each time a buffer is created, as the
+     * AbstractIoBuffer constructor sets the buffer allocator as the default one.
+     * Use {@link #clear()} to empty the pool.
+     */
+    public void dispose()
+    {
+        // Nothing to do
+    }
+
+
+    /**
+     * Empties the pool.
+     */
+    public void clear()
+    {
+        for ( int i = 0; i < 32; i++ )
+        {
+            heapPools[i].clear();
+            directPools[i].clear();
+        }
+    }
+
+
+    /**
+     * @return The number of buffers currently in the pool
+     */
+    public int getPooledCount()
+    {
+        int count = 0;
+
+        for ( int i = 0; i < 32; i++ )
+        {
+            count += heapPools[i].size.get() + directPools[i].size.get();
+        }
+
+        return count;
+    }
+
+
+    /**
+     * Gives a buffer back to the pool, if it has a pooled capacity and the pool
+     * of this capacity is not full.
+     */
+    private void release( ByteBuffer buf )
+    {
+        int capacity = buf.capacity();
+
+        if ( buf.isReadOnly() || ( capacity > maxCachedBufferSize ) || ( Integer.bitCount( capacity ) != 1 ) )
+        {
+            return;
+        }
+
+        getPool( capacity, buf.isDirect() ).offer( buf );
+    }
+
+
+    private Pool getPool( int capacity, boolean direct )
+    {
+        int index = Integer.numberOfTrailingZeros( capacity );
+
+        return direct ? directPools[index] : heapPools[index];
+    }
+
+
+    /**
+     * @return the smallest power of 2 greater than or equal to the given capacity
+     */
+    private static int normalize( int capacity )
+    {
+        if ( capacity < 0 )
+        {
+            throw new IllegalArgumentException( "capacity: " + capacity );
+        }
+
+        if ( capacity <= 1 )
+        {
+            return 1;
+        }
+
+        int highest = Integer.highestOneBit( capacity );
+
+        return highest == capacity ? capacity : highest << 1;
+    }
+
+
+    /**
+     * A bounded queue of buffers of the same capacity
+     */
+    private final class Pool
+    {
+        /** The pooled buffers */
+        private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+
+        /** The number of pooled buffers, as ConcurrentLinkedQueue.size() is not constant time */
+        private final AtomicInteger size = new AtomicInteger();
+
+
+        private ByteBuffer poll()
+        {
+            ByteBuffer buf = buffers.poll();
+
+            if ( buf != null )
+            {
+                size.decrementAndGet();
+            }
+
+            return buf;
+        }
+
+
+        private void offer( ByteBuffer buf )
+        {
+            if ( size.incrementAndGet() > maxPoolSize )
+            {
+                size.decrementAndGet();
+
+                return;
+            }
+
+            buffers.offer( buf );
+        }
+
+
+        private void clear()
+        {
+            while ( poll() != null )
+            {
+                // Drop the buffer
+            }
+        }
+    }
+
+
+    /**
+     * An IoBuffer giving its underlying buffer back to the pool when it is freed
+     */
+    private final class SharedBuffer extends AbstractIoBuffer
+    {
+        /** The underlying buffer, null once freed */
+        private ByteBuffer buf;
+
+        /** Tells if the underlying buffer has been allocated by this allocator */
+        private boolean pooled;
+
+
+        private SharedBuffer( ByteBuffer buf, boolean pooled )
+        {
+            super( SharedBufferAllocator.this, buf.capacity() );
+            this.buf = buf;
+            this.pooled = pooled;
+        }
+
+
+        private SharedBuffer( SharedBuffer parent, ByteBuffer buf )
+        {
+            super( parent );
+            this.buf = buf;
+        }
+
+
+        @Override
+        public ByteBuffer buf()
+        {
+            if ( buf == null )
+            {
+                throw new IllegalStateException( "Buffer has been freed already." );
+            }
+
+            return buf;
+        }
+
+
+        @Override
+        protected void buf( ByteBuffer newBuf )
+        {
+            // Called when the buffer is expanded or shrunk, the old buffer can be reused
+            ByteBuffer oldBuf = buf;
+            buf = newBuf;
+            free( oldBuf );
+
+            // The new buffer comes from allocateNioBuffer()
+            pooled = true;
+        }
+
+
+        @Override
+        protected IoBuffer duplicate0()
+        {
+            return new SharedBuffer( this, buf().duplicate() );
+        }
+
+
+        @Override
+        protected IoBuffer slice0()
+        {
+            return new SharedBuffer( this, buf().slice() );
+        }
+
+
+        @Override
+        protected IoBuffer asReadOnlyBuffer0()
+        {
+            return new SharedBuffer( this, buf().asReadOnlyBuffer() );
+        }
+
+
+        @Override
+        public byte[] array()
+        {
+            return buf().array();
+        }
+
+
+        @Override
+        public int arrayOffset()
+        {
+            return buf().arrayOffset();
+        }
+
+
+        @Override
+        public boolean hasArray()
+        {
+            return buf().hasArray();
+        }
+
+
+        @Override
+        public void free()
+        {
+            free( buf );
+            buf = null;
+        }
+
+
+        private void free( ByteBuffer oldBuf )
+        {
+            if ( ( oldBuf == null ) || !pooled || isDerived() )
+            {
+                return;
+            }
+
+            release( oldBuf );
+        }
+    }
+}
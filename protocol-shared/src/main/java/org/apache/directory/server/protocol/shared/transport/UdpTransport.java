@@ -20,8 +20,17 @@ package org.apache.directory.server.protocol.shared.transport;
 
 
 import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
 
+import org.apache.mina.core.filterchain.DefaultIoFilterChainBuilder;
 import org.apache.mina.core.service.IoAcceptor;
+import org.apache.mina.core.service.IoService;
+import org.apache.mina.core.service.IoServiceListener;
+import org.apache.mina.core.session.IdleStatus;
+import org.apache.mina.core.session.IoEventType;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.executor.ExecutorFilter;
+import org.apache.mina.filter.executor.OrderedThreadPoolExecutor;
 import org.apache.mina.transport.socket.DatagramAcceptor;
 import org.apache.mina.transport.socket.nio.NioDatagramAcceptor;
 import org.slf4j.Logger;
@@ -38,6 +47,12 @@ public class UdpTransport extends AbstractTransport
     /** A logger for this class */
     private static final Logger LOG = LoggerFactory.getLogger( UdpTransport.class );
 
+    /** The name of the executor filter in the chain */
+    public static final String EXECUTOR_FILTER_NAME = "executor";
+
+    /** The executor processing the received datagrams, if the transport has threads */
+    private ExecutorService executor;
+
 
     /**
      * Creates an instance of the UdpTransport class 
@@ -101,6 +116,93 @@ public class UdpTransport extends AbstractTransport
     }
 
 
+    /**
+     * Adds an executor filter at the head of the given chain, so that the
+     * received datagrams are decoded and handled by a pool of nbThreads
+     * threads instead of the single selector thread. The datagrams coming from
+     * the same client are still processed in order. The replies are queued by
+     * the worker threads and flushed together by the selector thread, so the
+     * encoded buffers are not freed by the thread which allocated them : a pooling
+     * allocator must not be tied to a thread, see {@link SharedBufferAllocator}.
+     * <p>
+     * Nothing is added if the number of threads is not positive. The executor
+     * is shut down when the acceptor is deactivated.
+     *
+     * @param chain The chain to inject the executor filter into
+     */
+    public synchronized void addExecutorFilter( DefaultIoFilterChainBuilder chain )
+    {
+        if ( getNbThreads() <= 0 )
+        {
+            return;
+        }
+
+        if ( executor == null )
+        {
+            executor = new OrderedThreadPoolExecutor( getNbThreads() );
+            getAcceptor().addListener( new ExecutorShutdownListener( executor ) );
+        }
+
+        chain.addFirst( EXECUTOR_FILTER_NAME, new ExecutorFilter( executor, IoEventType.MESSAGE_RECEIVED ) );
+
+        LOG.debug( "UDP Transport on port {} uses {} threads", getPort(), getNbThreads() );
+    }
+
+
+    /**
+     * A listener shutting down the executor when the acceptor is deactivated
+     */
+    private final class ExecutorShutdownListener implements IoServiceListener
+    {
+        /** The executor to shut down */
+        private final ExecutorService listenedExecutor;
+
+
+        private ExecutorShutdownListener( ExecutorService listenedExecutor )
+        {
+            this.listenedExecutor = listenedExecutor;
+        }
+
+
+        public void serviceActivated( IoService service )
+        {
+            // Nothing to do
+        }
+
+
+        public void serviceIdle( IoService service, IdleStatus idleStatus )
+        {
+            // Nothing to do
+        }
+
+
+        public void serviceDeactivated( IoService service )
+        {
+            listenedExecutor.shutdown();
+
+            synchronized ( UdpTransport.this )
+            {
+                if ( executor == listenedExecutor )
+                {
+                    executor = null;
+                }
+            }
+        }
+
+
+        public void sessionCreated( IoSession session )
+        {
+            // Nothing to do
+        }
+
+
+        public void sessionDestroyed( IoSession session )
+        {
+            // Nothing to do
+        }
+    }
+
+
     /**
      * Helper method to create an IoAcceptor
      */
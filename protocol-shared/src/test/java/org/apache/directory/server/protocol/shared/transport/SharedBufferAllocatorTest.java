@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.protocol.shared.transport;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.junit.Test;
+
+
+/**
+ * Tests the SharedBufferAllocator.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SharedBufferAllocatorTest
+{
+    /**
+     * Allocates a buffer on one of the executor threads, as the encoders do when
+     * the UDP transport has an executor filter.
+     */
+    private static IoBuffer allocate( ExecutorService executor, final SharedBufferAllocator allocator )
+        throws Exception
+    {
+        return executor.submit( new Callable<IoBuffer>()
+        {
+            public IoBuffer call()
+            {
+                return allocator.allocate( 100, false );
+            }
+        } ).get();
+    }
+
+
+    @Test
+    public void testReuseAcrossThreads() throws Exception
+    {
+        SharedBufferAllocator allocator = new SharedBufferAllocator();
+        ExecutorService executor = Executors.newFixedThreadPool( 4 );
+
+        try
+        {
+            IoBuffer buffer = allocate( executor, allocator );
+            assertEquals( 128, buffer.capacity() );
+            assertEquals( 100, buffer.limit() );
+            ByteBuffer nioBuffer = buffer.buf();
+
+            // The buffer is freed by the I/O processor thread once sent
+            buffer.free();
+            assertEquals( 1, allocator.getPooledCount() );
+
+            IoBuffer reused = allocate( executor, allocator );
+            assertSame( nioBuffer, reused.buf() );
+            assertEquals( 0, allocator.getPooledCount() );
+            assertEquals( 100, reused.limit() );
+            assertEquals( 0, reused.position() );
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+
+    @Test
+    public void testPoolBounds()
+    {
+        SharedBufferAllocator allocator = new SharedBufferAllocator( 2, 1024 );
+
+        IoBuffer[] buffers = new IoBuffer[3];
+
+        for ( int i = 0; i < buffers.length; i++ )
+        {
+            buffers[i] = allocator.allocate( 48, false );
+        }
+
+        for ( IoBuffer buffer : buffers )
+        {
+            buffer.free();
+        }
+
+        // Only two buffers are kept
+        assertEquals( 2, allocator.getPooledCount() );
+
+        // Too big to be pooled
+        allocator.allocate( 2048, false ).free();
+        assertEquals( 2, allocator.getPooledCount() );
+
+        // Neither the derived nor the wrapped buffers are pooled
+        IoBuffer buffer = allocator.allocate( 48, false );
+        buffer.duplicate().free();
+        allocator.wrap( ByteBuffer.allocate( 64 ) ).free();
+        assertEquals( 1, allocator.getPooledCount() );
+
+        allocator.clear();
+        assertEquals( 0, allocator.getPooledCount() );
+    }
+
+
+    @Test
+    public void testExpand()
+    {
+        SharedBufferAllocator allocator = new SharedBufferAllocator();
+        IoBuffer buffer = allocator.allocate( 16, false );
+        ByteBuffer small = buffer.buf();
+        buffer.setAutoExpand( true );
+        buffer.put( new byte[100] );
+
+        // The expanded buffer has given its former buffer back to the pool
+        assertNotSame( small, buffer.buf() );
+        assertEquals( 1, allocator.getPooledCount() );
+        assertSame( small, allocator.allocate( 10, false ).buf() );
+    }
+}
@@ -93,6 +93,10 @@ public enum ConfigSchemaConstants
 
     ADS_DELEGATING_AUTHENTICATOR_OC("ads-delegatingAuthenticator", "1.3.6.1.4.1.18060.0.4.1.3.904"),
 
+    ADS_LDAP_SERVER_EXTENSION_OC("ads-ldapServerExtension", "1.3.6.1.4.1.18060.0.4.1.3.1100"),
+
+    ADS_HTTP_SERVER_EXTENSION_OC("ads-httpServerExtension", "1.3.6.1.4.1.18060.0.4.1.3.1101"),
+
     ADS_CONFIG_ID("ads-configId", ""),
 
     ADS_COMPOSITE_ELEMENT_AT("ads-compositeElement", "1.3.6.1.4.1.18060.0.4.1.2.0"),
@@ -275,7 +279,13 @@ public enum ConfigSchemaConstants
 
     ADS_LDAP_SERVER_KEYSTORE_FILE("ads-ldapserverkeystorefile", ""),
 
-    ADS_LDAP_SERVER_CERT_PASSWORD("ads-ldapServerCertificatePassword", "");
+    ADS_LDAP_SERVER_CERT_PASSWORD("ads-ldapServerCertificatePassword", ""),
+
+    ADS_LDAP_SERVER_MONITOR_ENABLED("ads-ldapServerMonitorEnabled", "1.3.6.1.4.1.18060.0.4.1.2.1100"),
+
+    ADS_HTTP_API_CONTEXT_PATH("ads-httpApiContextPath", "1.3.6.1.4.1.18060.0.4.1.2.1101"),
+
+    ADS_HTTP_API_ALLOW_PLAIN_AUTH("ads-httpApiAllowPlainAuth", "1.3.6.1.4.1.18060.0.4.1.2.1102");
 
     /** The interned value */
     private String value;
@@ -0,0 +1,184 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.config;
+
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.apache.directory.api.ldap.model.ldif.LdifReader;
+import org.apache.directory.api.ldap.model.ldif.LdifUtils;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.i18n.I18n;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Writes the adsextensions schema in a schema directory, next to the schemas
+ * extracted from the LDAP API. This schema holds the ApacheDS elements the LDAP
+ * API schemas don't provide : the cn=monitor partition attribute types, and the
+ * configuration elements added to the servers, held by AUXILIARY object classes.
+ * <br/>
+ * Each entry of the adsextensions.ldif resource is written in its own file, the
+ * way the LdifSchemaLoader and the LdifPartition expect them. The files which
+ * already exist are not overwritten, so it can be called on each start : the
+ * elements added by a new version are written in the existing instances too.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class SchemaExtensionsExtractor
+{
+    /** The schema name */
+    public static final String SCHEMA_NAME = "adsextensions";
+
+    /** The LDIF resource containing the schema entries */
+    public static final String SCHEMA_LDIF = "adsextensions.ldif";
+
+    /** The LDIF files extension */
+    private static final String LDIF_EXTENSION = ".ldif";
+
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( SchemaExtensionsExtractor.class );
+
+
+    private SchemaExtensionsExtractor()
+    {
+    }
+
+
+    /**
+     * Writes the entries of the adsextensions schema which are missing in a schema
+     * directory.
+     *
+     * @param schemaDirectory The directory containing the ou=schema directory
+     * @return The number of entries written
+     * @throws IOException If the resource can't be read or the files can't be written
+     */
+    public static int extract( File schemaDirectory ) throws IOException
+    {
+        InputStream in = SchemaExtensionsExtractor.class.getClassLoader().getResourceAsStream( SCHEMA_LDIF );
+
+        if ( in == null )
+        {
+            throw new FileNotFoundException( "Cannot find the " + SCHEMA_LDIF + " resource" );
+        }
+
+        LdifReader reader = null;
+        int written = 0;
+
+        try
+        {
+            reader = new LdifReader( in );
+
+            for ( LdifEntry entry : reader )
+            {
+                File file = getFile( schemaDirectory, entry.getDn() );
+
+                if ( file.exists() )
+                {
+                    continue;
+                }
+
+                File parent = file.getParentFile();
+
+                if ( !parent.exists() && !parent.mkdirs() )
+                {
+                    throw new IOException( I18n.err( I18n.ERR_112_COULD_NOT_CREATE_DIRECORY, parent ) );
+                }
+
+                Writer out = new OutputStreamWriter( new FileOutputStream( file ), "UTF-8" );
+
+                try
+                {
+                    // Add the version at the first line, as the extracted LDAP API schema files do
+                    out.write( "version: 1\n" );
+                    out.write( LdifUtils.convertToLdif( entry ) );
+                }
+                finally
+                {
+                    out.close();
+                }
+
+                written++;
+            }
+        }
+        catch ( IOException ioe )
+        {
+            throw ioe;
+        }
+        catch ( Exception e )
+        {
+            throw new IOException( "Cannot extract the " + SCHEMA_NAME + " schema : " + e.getMessage(), e );
+        }
+        finally
+        {
+            if ( reader != null )
+            {
+                reader.close();
+            }
+            else
+            {
+                in.close();
+            }
+        }
+
+        if ( written > 0 )
+        {
+            LOG.info( "Wrote {} {} schema entries in {}", new Object[]
+                { written, SCHEMA_NAME, schemaDirectory } );
+        }
+
+        return written;
+    }
+
+
+    /**
+     * The file of an entry : a directory per Rdn of its parent, starting from ou=schema
+     */
+    private static File getFile( File schemaDirectory, Dn dn )
+    {
+        File file = schemaDirectory;
+
+        for ( int i = dn.size() - 1; i > 0; i-- )
+        {
+            file = new File( file, getFileName( dn.getRdn( i ) ) );
+        }
+
+        return new File( file, getFileName( dn.getRdn( 0 ) ) + LDIF_EXTENSION );
+    }
+
+
+    /**
+     * The file name of a Rdn, as the LdifPartition computes it for the schema entries
+     */
+    private static String getFileName( Rdn rdn )
+    {
+        return Strings.toLowerCase( rdn.getName() );
+    }
+}
@@ -41,6 +41,14 @@ public class HttpServerBean extends ServerBean
     @ConfigurationElement(objectClass = "ads-httpWebApp", container = "httpWebApps")
     private List<HttpWebAppBean> httpWebApps = new ArrayList<HttpWebAppBean>();
 
+    /** The context path of the direct access to the directory, held by the ads-httpServerExtension object class */
+    @ConfigurationElement(attributeType = "ads-httpApiContextPath", isOptional = true)
+    private String apiContextPath;
+
+    /** Tells if the direct access to the directory accepts basic credentials over plain HTTP */
+    @ConfigurationElement(attributeType = "ads-httpApiAllowPlainAuth", isOptional = true, defaultValue = "false")
+    private boolean apiAllowPlainAuth;
+
 
     /**
      * Create a new HttpServerBean instance
@@ -102,6 +110,42 @@ public class HttpServerBean extends ServerBean
     }
 
 
+    /**
+     * @return the context path of the direct access to the directory, null if it's not deployed
+     */
+    public String getApiContextPath()
+    {
+        return apiContextPath;
+    }
+
+
+    /**
+     * @param apiContextPath the context path of the direct access to the directory
+     */
+    public void setApiContextPath( String apiContextPath )
+    {
+        this.apiContextPath = apiContextPath;
+    }
+
+
+    /**
+     * @return true if the direct access to the directory accepts basic credentials over plain HTTP
+     */
+    public boolean isApiAllowPlainAuth()
+    {
+        return apiAllowPlainAuth;
+    }
+
+
+    /**
+     * @param apiAllowPlainAuth true to accept basic credentials over plain HTTP
+     */
+    public void setApiAllowPlainAuth( boolean apiAllowPlainAuth )
+    {
+        this.apiAllowPlainAuth = apiAllowPlainAuth;
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -112,6 +156,8 @@ public class HttpServerBean extends ServerBean
         sb.append( tabs ).append( "HttpServer :\n" );
         sb.append( super.toString( tabs + "  " ) );
         sb.append( toString( tabs, "  http configuration file", httpConfFile ) );
+        sb.append( toString( tabs, "  directory API context path", apiContextPath ) );
+        sb.append( toString( tabs, "  directory API plain HTTP authentication allowed", apiAllowPlainAuth ) );
 
         if ( ( httpWebApps != null ) && ( httpWebApps.size() > 0 ) )
         {
@@ -98,6 +98,10 @@ public class LdapServerBean extends DSBasedServerBean
     @ConfigurationElement(attributeType = "ads-enabledCipherSuites", isOptional = true)
     private List<String> enabledCipherSuites = new ArrayList<String>();
 
+    /** Tells if the cn=monitor partition is mounted, held by the ads-ldapServerExtension object class */
+    @ConfigurationElement(attributeType = "ads-ldapServerMonitorEnabled", isOptional = true, defaultValue = "false")
+    private boolean monitorEnabled;
+
 
     /**
      * Create a new LdapServerBean instance
@@ -412,6 +416,7 @@ public class LdapServerBean extends DSBasedServerBean
         sb.append( toString( tabs, "  confidentiality required", confidentialityRequired ) );
         sb.append( toString( tabs, "  enable replication provider", replReqHandler ) );
         sb.append( toString( tabs, "  Pinger thread sleep time(in sec.)", replPingerSleep ) );
+        sb.append( toString( tabs, "  monitor enabled", monitorEnabled ) );
 
         if ( ( enabledCipherSuites != null ) && !enabledCipherSuites.isEmpty() )
         {
@@ -532,6 +537,24 @@ public class LdapServerBean extends DSBasedServerBean
     }
 
 
+    /**
+     * @return true if the read only cn=monitor partition is mounted
+     */
+    public boolean isMonitorEnabled()
+    {
+        return monitorEnabled;
+    }
+
+
+    /**
+     * @param monitorEnabled true to mount the read only cn=monitor partition
+     */
+    public void setMonitorEnabled( boolean monitorEnabled )
+    {
+        this.monitorEnabled = monitorEnabled;
+    }
+
+
     /**
      * {@inheritDoc}
      */
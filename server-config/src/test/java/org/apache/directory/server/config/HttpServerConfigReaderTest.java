@@ -21,6 +21,8 @@
 package org.apache.directory.server.config;
 
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 
 import java.io.File;
@@ -81,6 +83,7 @@ public class HttpServerConfigReaderTest
 
         SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
         extractor.extractOrCopy();
+        SchemaExtensionsExtractor.extract( schemaRepository );
 
         SchemaLoader loader = new LdifSchemaLoader( schemaRepository );
         schemaManager = new DefaultSchemaManager( loader );
@@ -126,6 +129,10 @@ public class HttpServerConfigReaderTest
         assertNotNull( configBean );
         HttpServerBean httpServerBean = ( HttpServerBean ) configBean.getDirectoryServiceBeans().get( 0 );
         assertNotNull( httpServerBean );
+        assertEquals( "/directory", httpServerBean.getApiContextPath() );
+
+        // The basic credentials are not accepted over plain HTTP by default
+        assertFalse( httpServerBean.isApiAllowPlainAuth() );
 
         configPartition.destroy();
     }
@@ -21,7 +21,9 @@
 package org.apache.directory.server.config;
 
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.util.List;
@@ -83,6 +85,10 @@ public class LdapServerConfigReaderTest
         SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
         extractor.extractOrCopy();
 
+        // The ApacheDS schema elements the LDAP API schemas don't have
+        assertTrue( SchemaExtensionsExtractor.extract( schemaRepository ) > 0 );
+        assertEquals( 0, SchemaExtensionsExtractor.extract( schemaRepository ) );
+
         SchemaLoader loader = new LdifSchemaLoader( schemaRepository );
         schemaManager = new DefaultSchemaManager( loader );
 
@@ -126,6 +132,11 @@ public class LdapServerConfigReaderTest
         assertNotNull( configBean );
         LdapServerBean ldapServerBean = ( LdapServerBean ) configBean.getDirectoryServiceBeans().get( 0 );
         assertNotNull( ldapServerBean );
+        assertTrue( ldapServerBean.isMonitorEnabled() );
+
+        // The monitor attribute types are loaded from the schema files
+        assertEquals( SchemaExtensionsExtractor.SCHEMA_NAME, schemaManager.getAttributeType( "monitorCount" )
+            .getSchemaName() );
 
         configPartition.destroy();
     }
@@ -0,0 +1,199 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.monitor;
+
+
+import static org.apache.directory.server.integ.ServerIntegrationUtils.getAdminConnection;
+import static org.apache.directory.server.integ.ServerIntegrationUtils.getWiredConnection;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.cursor.EntryCursor;
+import org.apache.directory.api.ldap.model.cursor.SearchCursor;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapUnwillingToPerformException;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.directory.server.annotations.CreateLdapServer;
+import org.apache.directory.server.annotations.CreateTransport;
+import org.apache.directory.server.core.annotations.ApplyLdifs;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.FrameworkRunner;
+import org.apache.directory.server.ldap.monitor.MonitorPartition;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+/**
+ * Tests the cn=monitor partition.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(FrameworkRunner.class)
+@ApplyLdifs(
+    {
+        "dn: uid=monitor,ou=users,ou=system",
+        "objectClass: inetOrgPerson",
+        "objectClass: organizationalPerson",
+        "objectClass: person",
+        "objectClass: top",
+        "userPassword: secret",
+        "uid: monitor",
+        "cn: Monitor User",
+        "sn: User" })
+@CreateLdapServer(transports =
+    { @CreateTransport(protocol = "LDAP") })
+public class MonitorPartitionIT extends AbstractLdapTestUnit
+{
+    private MonitorPartition monitorPartition;
+
+
+    @Before
+    public void addMonitorPartition() throws Exception
+    {
+        monitorPartition = new MonitorPartition( getLdapServer() );
+        getService().addPartition( monitorPartition );
+    }
+
+
+    @After
+    public void removeMonitorPartition() throws Exception
+    {
+        getService().removePartition( monitorPartition );
+    }
+
+
+    private List<Entry> search( LdapConnection connection, String base, String filter, SearchScope scope )
+        throws Exception
+    {
+        List<Entry> entries = new ArrayList<Entry>();
+        EntryCursor cursor = connection.search( base, filter, scope, "*" );
+
+        while ( cursor.next() )
+        {
+            entries.add( cursor.get() );
+        }
+
+        cursor.close();
+
+        return entries;
+    }
+
+
+    @Test
+    public void testSessions() throws Exception
+    {
+        LdapConnection connection = getAdminConnection( getLdapServer() );
+
+        List<Entry> sessions = search( connection, "cn=sessions,cn=monitor", "(objectClass=*)",
+            SearchScope.ONELEVEL );
+
+        // The connections of the previous tests may still be open
+        assertFalse( sessions.isEmpty() );
+        assertNotNull( sessions.get( 0 ).get( MonitorPartition.MONITOR_QUEUE_SIZE_AT ) );
+
+        Entry total = connection.lookup( "cn=sessions,cn=monitor" );
+        assertTrue( Integer.parseInt( total.get( MonitorPartition.MONITOR_COUNT_AT ).getString() ) >= 1 );
+
+        connection.close();
+    }
+
+
+    @Test
+    public void testFilterOnMetrics() throws Exception
+    {
+        LdapConnection connection = getAdminConnection( getLdapServer() );
+
+        // Make sure some searches have been recorded
+        search( connection, "cn=monitor", "(objectClass=*)", SearchScope.SUBTREE );
+
+        List<Entry> metrics = search( connection, "cn=metrics,cn=monitor",
+            "(&(cn=operation.search)(monitorCount>=1))", SearchScope.SUBTREE );
+        assertEquals( 1, metrics.size() );
+        assertTrue( metrics.get( 0 ).containsAttribute( MonitorPartition.MONITOR_P99_AT ) );
+
+        assertEquals( 1, search( connection, "cn=monitor", "(cn=executors)", SearchScope.ONELEVEL ).size() );
+        assertFalse( connection.exists( "cn=unknown,cn=monitor" ) );
+
+        connection.close();
+    }
+
+
+    @Test
+    public void testReadOnly() throws Exception
+    {
+        LdapConnection connection = getAdminConnection( getLdapServer() );
+
+        try
+        {
+            connection.add( new DefaultEntry( "cn=test,cn=monitor", "objectClass: top", "objectClass: person",
+                "cn: test", "sn: test" ) );
+            fail();
+        }
+        catch ( LdapUnwillingToPerformException lutpe )
+        {
+            // Expected
+        }
+        finally
+        {
+            connection.close();
+        }
+    }
+
+
+    @Test
+    public void testNotAdministrator() throws Exception
+    {
+        LdapConnection connection = getWiredConnection( getLdapServer(), "uid=monitor,ou=users,ou=system", "secret" );
+
+        SearchRequest searchRequest = new SearchRequestImpl();
+        searchRequest.setBase( new Dn( "cn=sessions,cn=monitor" ) );
+        searchRequest.setFilter( "(objectClass=*)" );
+        searchRequest.setScope( SearchScope.ONELEVEL );
+
+        SearchCursor cursor = connection.search( searchRequest );
+
+        try
+        {
+            // The sessions are not returned to a user who is not an administrator
+            assertFalse( cursor.next() );
+            assertEquals( ResultCodeEnum.INSUFFICIENT_ACCESS_RIGHTS, cursor.getSearchResultDone().getLdapResult()
+                .getResultCode() );
+        }
+        finally
+        {
+            cursor.close();
+            connection.close();
+        }
+    }
+}
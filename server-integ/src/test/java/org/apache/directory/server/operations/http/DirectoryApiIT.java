@@ -0,0 +1,321 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.operations.http;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.util.Base64;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.bridge.http.HttpDirectoryService;
+import org.apache.directory.server.core.annotations.ApplyLdifs;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.FrameworkRunner;
+import org.apache.directory.server.integration.http.DirectoryApiServlet;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mortbay.jetty.Server;
+import org.mortbay.jetty.nio.SelectChannelConnector;
+import org.mortbay.jetty.servlet.Context;
+import org.mortbay.jetty.servlet.ServletHolder;
+
+
+/**
+ * Tests the direct HTTP access to the directory : the searches and the changes
+ * done through the HttpDirectoryService, and the DirectoryApiServlet authentication.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(FrameworkRunner.class)
+@ApplyLdifs(
+    {
+        "dn: ou=actors,ou=system",
+        "objectClass: top",
+        "objectClass: organizationalUnit",
+        "ou: actors",
+
+        "dn: uid=jblack,ou=actors,ou=system",
+        "objectClass: top",
+        "objectClass: person",
+        "objectClass: organizationalPerson",
+        "objectClass: uidObject",
+        "uid: jblack",
+        "cn: Jack Black",
+        "userPassword: secret",
+        "sn: Black",
+
+        "dn: uid=bpitt,ou=actors,ou=system",
+        "objectClass: top",
+        "objectClass: person",
+        "objectClass: organizationalPerson",
+        "objectClass: uidObject",
+        "uid: bpitt",
+        "userPassword: secret",
+        "cn: Brad Pitt",
+        "sn: Pitt" })
+public class DirectoryApiIT extends AbstractLdapTestUnit
+{
+    private HttpDirectoryService httpDirService;
+
+
+    @Before
+    public void createHttpDirectoryService()
+    {
+        httpDirService = new HttpDirectoryService( getService() );
+    }
+
+
+    private CoreSession getUserSession() throws Exception
+    {
+        return httpDirService.getSession( new Dn( getService().getSchemaManager(), "uid=jblack,ou=actors,ou=system" ),
+            Strings.getBytesUtf8( "secret" ) );
+    }
+
+
+    private String[] search( CoreSession session, long sizeLimit ) throws Exception
+    {
+        SearchRequest searchRequest = new SearchRequestImpl();
+        searchRequest.setBase( new Dn( getService().getSchemaManager(), "ou=actors,ou=system" ) );
+        searchRequest.setFilter( "(objectClass=person)" );
+        searchRequest.setScope( SearchScope.SUBTREE );
+        searchRequest.setSizeLimit( sizeLimit );
+
+        StringWriter writer = new StringWriter();
+        httpDirService.search( session, searchRequest, writer );
+
+        return writer.toString().split( "\n" );
+    }
+
+
+    private String applyChanges( String ldif, boolean continueOnError, int expectedFailures ) throws Exception
+    {
+        StringWriter writer = new StringWriter();
+        int failures = httpDirService.applyChanges( getService().getAdminSession(), new StringReader( ldif ),
+            continueOnError, writer );
+
+        assertEquals( expectedFailures, failures );
+
+        return writer.toString();
+    }
+
+
+    private String addRecord( String uid )
+    {
+        return "dn: uid=" + uid + ",ou=actors,ou=system\n" +
+            "changetype: add\n" +
+            "objectClass: top\n" +
+            "objectClass: person\n" +
+            "objectClass: uidObject\n" +
+            "uid: " + uid + "\n" +
+            "cn: " + uid + "\n" +
+            "sn: " + uid + "\n\n";
+    }
+
+
+    private boolean exists( String uid ) throws Exception
+    {
+        return getService().getAdminSession().exists(
+            new Dn( getService().getSchemaManager(), "uid=" + uid + ",ou=actors,ou=system" ) );
+    }
+
+
+    @Test
+    public void testSearch() throws Exception
+    {
+        String[] lines = search( getUserSession(), 0L );
+
+        assertEquals( 3, lines.length );
+        assertTrue( lines[0].startsWith( "{\"dn\":\"uid=" ) );
+        assertTrue( lines[2].startsWith( "{\"resultCode\":0," ) );
+        assertTrue( lines[2].endsWith( ",\"entries\":2}" ) );
+    }
+
+
+    @Test
+    public void testSearchSizeLimit() throws Exception
+    {
+        httpDirService.setMaxSizeLimit( 1L );
+
+        // The server limit applies to the users, even when they ask for more
+        String[] lines = search( getUserSession(), 0L );
+        assertEquals( 2, lines.length );
+        assertTrue( lines[1].startsWith( "{\"resultCode\":4," ) );
+
+        lines = search( getUserSession(), 10L );
+        assertEquals( 2, lines.length );
+        assertTrue( lines[1].startsWith( "{\"resultCode\":4," ) );
+
+        // The administrators get what they ask for
+        lines = search( getService().getAdminSession(), 0L );
+        assertEquals( 3, lines.length );
+        assertTrue( lines[2].startsWith( "{\"resultCode\":0," ) );
+    }
+
+
+    @Test
+    public void testApplyChangesStopOnError() throws Exception
+    {
+        String ldif = addRecord( "first" ) + addRecord( "jblack" ) + addRecord( "last" );
+
+        String[] lines = applyChanges( ldif, false, 1 ).split( "\n" );
+
+        assertEquals( 2, lines.length );
+        assertTrue( lines[0].contains( "\"resultCode\":0," ) );
+        assertTrue( lines[1].contains( "\"resultCode\":68," ) );
+        assertTrue( exists( "first" ) );
+        assertFalse( exists( "last" ) );
+    }
+
+
+    @Test
+    public void testApplyChangesContinueOnError() throws Exception
+    {
+        String ldif = addRecord( "head" ) + addRecord( "jblack" ) + addRecord( "tail" );
+
+        String[] lines = applyChanges( ldif, true, 1 ).split( "\n" );
+
+        assertEquals( 3, lines.length );
+        assertTrue( lines[0].contains( "\"resultCode\":0," ) );
+        assertTrue( lines[1].contains( "\"resultCode\":68," ) );
+        assertTrue( lines[2].contains( "\"resultCode\":0," ) );
+        assertTrue( exists( "head" ) );
+        assertTrue( exists( "tail" ) );
+    }
+
+
+    @Test
+    public void testApplyChangesParseFailure() throws Exception
+    {
+        String ldif = "dn: uid=broken,ou=actors,ou=system\n" +
+            "changetype: add\n" +
+            "objectClass top\n\n";
+
+        String[] lines = applyChanges( ldif, true, 1 ).split( "\n" );
+
+        assertEquals( 1, lines.length );
+        assertTrue( lines[0].startsWith( "{\"resultCode\":2," ) );
+        assertFalse( exists( "broken" ) );
+    }
+
+
+    private Server startServer( boolean allowPlainAuth ) throws Exception
+    {
+        Server server = new Server();
+        SelectChannelConnector connector = new SelectChannelConnector();
+        connector.setHost( "localhost" );
+        connector.setPort( 0 );
+        server.addConnector( connector );
+
+        Context context = new Context( server, "/directory" );
+        context.setAttribute( HttpDirectoryService.KEY, httpDirService );
+        ServletHolder holder = new ServletHolder( new DirectoryApiServlet() );
+        holder.setInitParameter( DirectoryApiServlet.ALLOW_PLAIN_AUTH_PARAM, Boolean.toString( allowPlainAuth ) );
+        context.addServlet( holder, "/*" );
+        server.start();
+
+        return server;
+    }
+
+
+    private HttpURLConnection openSearch( Server server, String userPassword ) throws Exception
+    {
+        URL url = new URL( "http://localhost:" + server.getConnectors()[0].getLocalPort() + "/directory/search?base="
+            + URLEncoder.encode( "ou=actors,ou=system", "UTF-8" ) + "&filter="
+            + URLEncoder.encode( "(uid=jblack)", "UTF-8" ) );
+
+        HttpURLConnection connection = ( HttpURLConnection ) url.openConnection();
+        connection.setRequestProperty( "Authorization", "Basic "
+            + new String( Base64.encode( Strings.getBytesUtf8( userPassword ) ) ) );
+
+        return connection;
+    }
+
+
+    @Test
+    public void testServletAuthentication() throws Exception
+    {
+        // Plain HTTP credentials are allowed here, as behind a proxy terminating TLS
+        Server server = startServer( true );
+
+        try
+        {
+            // Bad credentials
+            HttpURLConnection connection = openSearch( server, "uid=jblack,ou=actors,ou=system:wrong" );
+            assertEquals( HttpURLConnection.HTTP_UNAUTHORIZED, connection.getResponseCode() );
+            assertTrue( connection.getHeaderField( "WWW-Authenticate" ).startsWith( "Basic" ) );
+            connection.disconnect();
+
+            // Good credentials
+            connection = openSearch( server, "uid=jblack,ou=actors,ou=system:secret" );
+            assertEquals( HttpURLConnection.HTTP_OK, connection.getResponseCode() );
+
+            BufferedReader reader = new BufferedReader( new InputStreamReader( connection.getInputStream(), "UTF-8" ) );
+
+            try
+            {
+                assertTrue( reader.readLine().contains( "\"uid=jblack,ou=actors,ou=system\"" ) );
+                assertTrue( reader.readLine().startsWith( "{\"resultCode\":0," ) );
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        finally
+        {
+            server.stop();
+        }
+    }
+
+
+    @Test
+    public void testServletRejectsPlainHttpCredentials() throws Exception
+    {
+        Server server = startServer( false );
+
+        try
+        {
+            // Even good credentials are rejected, they have been sent in clear
+            HttpURLConnection connection = openSearch( server, "uid=jblack,ou=actors,ou=system:secret" );
+            assertEquals( HttpURLConnection.HTTP_FORBIDDEN, connection.getResponseCode() );
+            connection.disconnect();
+        }
+        finally
+        {
+            server.stop();
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.operations.search;
+
+
+import static org.apache.directory.server.integ.ServerIntegrationUtils.getAdminConnection;
+import static org.apache.directory.server.integ.ServerIntegrationUtils.getWiredConnection;
+import static org.junit.Assert.assertEquals;
+
+import org.apache.directory.api.ldap.model.cursor.SearchCursor;
+import org.apache.directory.api.ldap.model.message.MessageTypeEnum;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.directory.server.annotations.CreateLdapServer;
+import org.apache.directory.server.annotations.CreateTransport;
+import org.apache.directory.server.core.annotations.ApplyLdifs;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.FrameworkRunner;
+import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
+import org.apache.directory.server.ldap.admission.AdmissionController;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+/**
+ * Tests the admission control of the requests, and the rejection of the
+ * searches estimated too expensive.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(FrameworkRunner.class)
+@CreateLdapServer(
+    transports =
+        {
+            @CreateTransport(protocol = "LDAP")
+    })
+@ApplyLdifs(
+    {
+        "dn: ou=actors,ou=system",
+        "objectClass: top",
+        "objectClass: organizationalUnit",
+        "ou: actors",
+
+        "dn: uid=jblack,ou=actors,ou=system",
+        "objectClass: top",
+        "objectClass: person",
+        "objectClass: organizationalPerson",
+        "objectClass: uidObject",
+        "uid: jblack",
+        "cn: Jack Black",
+        "userPassword: secret",
+        "sn: Black",
+
+        "dn: uid=bpitt,ou=actors,ou=system",
+        "objectClass: top",
+        "objectClass: person",
+        "objectClass: organizationalPerson",
+        "objectClass: uidObject",
+        "uid: bpitt",
+        "userPassword: secret",
+        "cn: Brad Pitt",
+        "sn: Pitt" })
+public class AdmissionControlIT extends AbstractLdapTestUnit
+{
+    private AdmissionController admissionController;
+
+
+    @Before
+    public void setAdmissionController()
+    {
+        admissionController = new AdmissionController();
+        getLdapServer().setAdmissionController( admissionController );
+        admissionController.init( getLdapServer() );
+    }
+
+
+    @After
+    public void resetAdmissionController()
+    {
+        getLdapServer().setAdmissionController( null );
+        ( ( AbstractBTreePartition ) getService().getSystemPartition() ).setMaxSearchCost( 0 );
+    }
+
+
+    private ResultCodeEnum search( LdapConnection connection, String filter ) throws Exception
+    {
+        SearchRequest searchRequest = new SearchRequestImpl();
+        searchRequest.setBase( new Dn( "ou=actors,ou=system" ) );
+        searchRequest.setFilter( filter );
+        searchRequest.setScope( SearchScope.SUBTREE );
+
+        SearchCursor cursor = connection.search( searchRequest );
+
+        try
+        {
+            while ( cursor.next() )
+            {
+                cursor.get();
+            }
+
+            return cursor.getSearchResultDone().getLdapResult().getResultCode();
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+
+    @Test
+    public void testSearchRate() throws Exception
+    {
+        admissionController.setOperationRate( MessageTypeEnum.SEARCH_REQUEST, 1, 2 );
+        LdapConnection connection = getWiredConnection( getLdapServer(), "uid=jblack,ou=actors,ou=system", "secret" );
+
+        try
+        {
+            assertEquals( ResultCodeEnum.SUCCESS, search( connection, "(objectClass=person)" ) );
+            assertEquals( ResultCodeEnum.SUCCESS, search( connection, "(objectClass=person)" ) );
+            assertEquals( ResultCodeEnum.UNWILLING_TO_PERFORM, search( connection, "(objectClass=person)" ) );
+        }
+        finally
+        {
+            connection.close();
+        }
+
+        // The administrators are not limited
+        LdapConnection adminConnection = getAdminConnection( getLdapServer() );
+
+        try
+        {
+            assertEquals( ResultCodeEnum.SUCCESS, search( adminConnection, "(objectClass=person)" ) );
+        }
+        finally
+        {
+            adminConnection.close();
+        }
+
+        assertEquals( 1L, getService().getMetricsRegistry().getCounter( AdmissionController.RATE_REJECTIONS ).get() );
+    }
+
+
+    @Test
+    public void testMaxSearchCost() throws Exception
+    {
+        // The actors subtree holds 3 entries, 2 of them are uidObjects
+        ( ( AbstractBTreePartition ) getService().getSystemPartition() ).setMaxSearchCost( 2 );
+        LdapConnection connection = getWiredConnection( getLdapServer(), "uid=jblack,ou=actors,ou=system", "secret" );
+
+        try
+        {
+            assertEquals( ResultCodeEnum.UNWILLING_TO_PERFORM, search( connection, "(objectClass=person)" ) );
+            assertEquals( ResultCodeEnum.SUCCESS, search( connection, "(objectClass=uidObject)" ) );
+        }
+        finally
+        {
+            connection.close();
+        }
+
+        LdapConnection adminConnection = getAdminConnection( getLdapServer() );
+
+        try
+        {
+            assertEquals( ResultCodeEnum.SUCCESS, search( adminConnection, "(objectClass=person)" ) );
+        }
+        finally
+        {
+            adminConnection.close();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ssl;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.security.SecureRandom;
+import java.util.Hashtable;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.naming.directory.DirContext;
+import javax.naming.directory.InitialDirContext;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+
+import org.apache.directory.ldap.client.api.NoVerificationTrustManager;
+import org.apache.directory.server.annotations.CreateLdapServer;
+import org.apache.directory.server.annotations.CreateTransport;
+import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.FrameworkRunner;
+import org.apache.directory.server.ldap.handlers.ssl.SslHandshakeMonitorFilter;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+/**
+ * Checks that the LDAPS sessions are resumed, and that the handshakes are counted.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(FrameworkRunner.class)
+@CreateDS(allowAnonAccess = true, name = "TlsSessionResumptionIT-class")
+@CreateLdapServer(
+    transports =
+        {
+            @CreateTransport(protocol = "LDAP"),
+            @CreateTransport(protocol = "LDAPS")
+    })
+public class TlsSessionResumptionIT extends AbstractLdapTestUnit
+{
+    /**
+     * Creates a secure connection on ou=system.
+     */
+    private DirContext getSecureConnectionSystem() throws Exception
+    {
+        Hashtable<String, String> env = new Hashtable<String, String>();
+        env.put( "java.naming.factory.initial", "com.sun.jndi.ldap.LdapCtxFactory" );
+        env.put( "java.naming.provider.url", "ldap://localhost:" + getLdapServer().getPortSSL() + "/ou=system" );
+        env.put( "java.naming.ldap.factory.socket", SSLSocketFactory.class.getName() );
+        env.put( "java.naming.security.principal", "uid=admin,ou=system" );
+        env.put( "java.naming.security.credentials", "secret" );
+        env.put( "java.naming.security.authentication", "simple" );
+        return new InitialDirContext( env );
+    }
+
+
+    /**
+     * Runs a TLS handshake with the server, waits for the server to count it, and
+     * closes the socket. The server completes a resumed handshake after the client,
+     * so the socket must not be closed before. Using the same SSLContext, the
+     * client can resume the previous session.
+     */
+    private void handshake( SSLContext sslContext, AtomicLong counter, long expected ) throws Exception
+    {
+        SSLSocket socket = ( SSLSocket ) sslContext.getSocketFactory().createSocket( "localhost",
+            getLdapServer().getPortSSL() );
+
+        try
+        {
+            socket.startHandshake();
+            waitFor( counter, expected );
+        }
+        finally
+        {
+            socket.close();
+        }
+    }
+
+
+    /**
+     * Waits for a counter to reach a value
+     */
+    private long waitFor( AtomicLong counter, long expected ) throws InterruptedException
+    {
+        for ( int i = 0; ( i < 100 ) && ( counter.get() < expected ); i++ )
+        {
+            Thread.sleep( 50L );
+        }
+
+        return counter.get();
+    }
+
+
+    @Test
+    public void testSessionResumption() throws Exception
+    {
+        MetricsRegistry registry = getLdapServer().getDirectoryService().getMetricsRegistry();
+        AtomicLong fullHandshakes = registry.getCounter( SslHandshakeMonitorFilter.FULL_HANDSHAKES );
+        AtomicLong resumedHandshakes = registry.getCounter( SslHandshakeMonitorFilter.RESUMED_HANDSHAKES );
+        long full = fullHandshakes.get();
+        long resumed = resumedHandshakes.get();
+
+        SSLContext sslContext = SSLContext.getInstance( "TLS" );
+        sslContext.init( null, new TrustManager[]
+            { new NoVerificationTrustManager() }, new SecureRandom() );
+
+        // The first connection negotiates a new session
+        handshake( sslContext, fullHandshakes, full + 1 );
+        assertEquals( full + 1, fullHandshakes.get() );
+
+        // The next ones resume it
+        for ( int i = 1; i <= 3; i++ )
+        {
+            handshake( sslContext, resumedHandshakes, resumed + i );
+        }
+
+        assertEquals( resumed + 3, resumedHandshakes.get() );
+        assertEquals( full + 1, fullHandshakes.get() );
+        assertEquals( 0L, getLdapServer().getSslHandshakeMonitor().getFailedHandshakes() );
+    }
+
+
+    @Test
+    public void testHandshakeExecutor() throws Exception
+    {
+        getLdapServer().stop();
+        getLdapServer().setSslHandshakeThreads( 2 );
+        getLdapServer().start();
+
+        try
+        {
+            assertNotNull( getLdapServer().getSslExecutorFilter() );
+            long failed = getLdapServer().getSslHandshakeMonitor().getFailedHandshakes();
+
+            for ( int i = 0; i < 5; i++ )
+            {
+                DirContext ctx = getSecureConnectionSystem();
+                assertNotNull( ctx.getAttributes( "" ) );
+                ctx.close();
+            }
+
+            assertEquals( failed, getLdapServer().getSslHandshakeMonitor().getFailedHandshakes() );
+        }
+        finally
+        {
+            getLdapServer().stop();
+            getLdapServer().setSslHandshakeThreads( 0 );
+            getLdapServer().start();
+        }
+    }
+}
@@ -883,6 +883,10 @@ public class ServiceBuilder
         // The webApps
         httpServer.setWebApps( createHttpWebApps( httpServerBean.getHttpWebApps(), directoryService ) );
 
+        // The direct access to the directory
+        httpServer.setApiContextPath( httpServerBean.getApiContextPath() );
+        httpServer.setApiAllowPlainAuth( httpServerBean.isApiAllowPlainAuth() );
+
         return httpServer;
     }
 
@@ -1012,6 +1016,9 @@ public class ServiceBuilder
             ldapServer.setEnabledCipherSuites( ldapServerBean.getEnabledCipherSuites() );
         }
 
+        // The cn=monitor partition
+        ldapServer.setMonitorEnabled( ldapServerBean.isMonitorEnabled() );
+
         // The transports
         Transport[] transports = createTransports( ldapServerBean.getTransports() );
         ldapServer.setTransports( transports );
@@ -32,6 +32,7 @@ import java.util.UUID;
 import org.apache.commons.lang.time.DateUtils;
 import org.apache.directory.server.config.ConfigPartitionReader;
 import org.apache.directory.server.config.LdifConfigExtractor;
+import org.apache.directory.server.config.SchemaExtensionsExtractor;
 import org.apache.directory.server.config.beans.ConfigBean;
 import org.apache.directory.server.config.beans.DirectoryServiceBean;
 import org.apache.directory.server.config.beans.HttpServerBean;
@@ -195,6 +196,9 @@ public class ApacheDsService
             isSchemaPartitionFirstExtraction = true;
         }
 
+        // Add the ApacheDS elements the LDAP API schemas don't have, if they are missing
+        SchemaExtensionsExtractor.extract( schemaPartitionDirectory );
+
         SchemaLoader loader = new LdifSchemaLoader( schemaPartitionDirectory );
         schemaManager = new DefaultSchemaManager( loader );
 
@@ -43,23 +43,23 @@ import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.AttributeTypeOptions;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
-import org.apache.directory.api.ldap.model.schema.registries.SchemaLoader;
 import org.apache.directory.api.ldap.model.schema.syntaxCheckers.CsnSyntaxChecker;
 import org.apache.directory.api.ldap.model.schema.syntaxCheckers.GeneralizedTimeSyntaxChecker;
 import org.apache.directory.api.ldap.model.schema.syntaxCheckers.UuidSyntaxChecker;
 import org.apache.directory.api.ldap.schemaextractor.SchemaLdifExtractor;
 import org.apache.directory.api.ldap.schemaextractor.impl.DefaultSchemaLdifExtractor;
-import org.apache.directory.api.ldap.schemaloader.LdifSchemaLoader;
 import org.apache.directory.api.ldap.schemamanager.impl.DefaultSchemaManager;
 import org.apache.directory.api.util.DateUtils;
 import org.apache.directory.api.util.exception.Exceptions;
 import org.apache.directory.server.config.ConfigPartitionReader;
 import org.apache.directory.server.config.LdifConfigExtractor;
+import org.apache.directory.server.config.SchemaExtensionsExtractor;
 import org.apache.directory.server.config.beans.ConfigBean;
 import org.apache.directory.server.config.beans.DirectoryServiceBean;
 import org.apache.directory.server.config.beans.HttpServerBean;
 import org.apache.directory.server.config.beans.LdapServerBean;
 import org.apache.directory.server.config.beans.NtpServerBean;
+import org.apache.directory.server.config.beans.PartitionBean;
 import org.apache.directory.server.config.builder.ServiceBuilder;
 import org.apache.directory.server.core.api.CacheService;
 import org.apache.directory.server.core.api.CoreSession;
@@ -70,6 +70,9 @@ import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
 import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.schema.SchemaPartition;
+import org.apache.directory.server.core.api.schema.SnapshotSchemaLoader;
+import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
+import org.apache.directory.server.core.partition.impl.btree.BulkLoader;
 import org.apache.directory.server.core.partition.ldif.LdifPartition;
 import org.apache.directory.server.core.partition.ldif.SingleFileLdifPartition;
 import org.apache.directory.server.core.shared.DefaultDnFactory;
@@ -205,6 +208,77 @@ public class ApacheDsService
     }
 
 
+    /**
+     * Loads a LDIF file into one of the partitions of an instance, with the
+     * {@link BulkLoader}. The server must not be running : the partition is
+     * written directly, without going through the interceptors.
+     *
+     * @param instanceLayout the on disk location's layout of the instance
+     * @param partitionId the ID of the JDBM or Mavibot partition to load
+     * @param ldifFile the LDIF file to load
+     * @return the number of loaded entries
+     * @throws Exception if the partition can't be found, or the load fails
+     */
+    public long bulkLoad( InstanceLayout instanceLayout, String partitionId, File ldifFile ) throws Exception
+    {
+        CacheService cacheService = new CacheService();
+        cacheService.initialize( instanceLayout );
+
+        try
+        {
+            initSchemaManager( instanceLayout );
+            DnFactory dnFactory = new DefaultDnFactory( schemaManager, cacheService.getCache( "dnCache" ) );
+            initConfigPartition( instanceLayout, dnFactory, cacheService );
+
+            // Read the configuration
+            cpReader = new ConfigPartitionReader( configPartition );
+            DirectoryServiceBean directoryServiceBean = cpReader.readConfig().getDirectoryServiceBean();
+
+            // The DirectoryService is only used to create the partition, it's not started
+            DirectoryService directoryService = ServiceBuilder.createDirectoryService( directoryServiceBean,
+                instanceLayout, schemaManager );
+            directoryService.setDnFactory( dnFactory );
+
+            Partition partition = null;
+
+            for ( PartitionBean partitionBean : directoryServiceBean.getPartitions() )
+            {
+                if ( partitionId.equals( partitionBean.getPartitionId() ) )
+                {
+                    partition = ServiceBuilder.createPartition( directoryService, partitionBean );
+                }
+            }
+
+            if ( !( partition instanceof AbstractBTreePartition ) )
+            {
+                throw new IllegalArgumentException( "No enabled JDBM or Mavibot partition with the ID " + partitionId );
+            }
+
+            AbstractBTreePartition btreePartition = ( AbstractBTreePartition ) partition;
+            btreePartition.setCacheService( cacheService );
+            btreePartition.initialize();
+
+            try
+            {
+                return new BulkLoader( btreePartition, schemaManager ).load( ldifFile );
+            }
+            finally
+            {
+                btreePartition.destroy();
+            }
+        }
+        finally
+        {
+            if ( configPartition != null )
+            {
+                configPartition.destroy();
+            }
+
+            cacheService.destroy();
+        }
+    }
+
+
     /**
      * Initialize the schema Manager by loading the schema LDIF files
      * 
@@ -227,7 +301,12 @@ public class ApacheDsService
             isSchemaPartitionFirstExtraction = true;
         }
 
-        SchemaLoader loader = new LdifSchemaLoader( schemaPartitionDirectory );
+        // Add the ApacheDS elements the LDAP API schemas don't have, if they are missing
+        SchemaExtensionsExtractor.extract( schemaPartitionDirectory );
+
+        // Use the binary snapshot of the schema if the LDIF files have not changed
+        File snapshotFile = new File( instanceLayout.getCacheDirectory(), SnapshotSchemaLoader.SNAPSHOT_FILE );
+        SnapshotSchemaLoader loader = new SnapshotSchemaLoader( schemaPartitionDirectory, snapshotFile );
         schemaManager = new DefaultSchemaManager( loader );
 
         // We have to load the schema now, otherwise we won't be able
@@ -241,6 +320,15 @@ public class ApacheDsService
         {
             throw new Exception( I18n.err( I18n.ERR_317, Exceptions.printErrors( errors ) ) );
         }
+
+        try
+        {
+            loader.writeSnapshot();
+        }
+        catch ( IOException ioe )
+        {
+            LOG.warn( "Cannot write the schema snapshot, the LDIF files will be read on the next start", ioe );
+        }
     }
 
 
@@ -543,6 +631,13 @@ public class ApacheDsService
             return;
         }
 
+        // The direct access to the directory is limited as the LDAP access is
+        if ( ldapServer != null )
+        {
+            httpServer.setMaxSizeLimit( ldapServer.getMaxSizeLimit() );
+            httpServer.setMaxTimeLimit( ldapServer.getMaxTimeLimit() );
+        }
+
         LOG.info( "Starting the Http server" );
         long startTime = System.currentTimeMillis();
 
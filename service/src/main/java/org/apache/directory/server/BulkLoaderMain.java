@@ -0,0 +1,79 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server;
+
+
+import java.io.File;
+
+import org.apache.directory.server.core.api.InstanceLayout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * The command line main for the offline bulk load of a LDIF file into a
+ * partition. The server must be stopped while the file is loaded.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class BulkLoaderMain
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( BulkLoaderMain.class );
+
+
+    /**
+     * Takes three arguments : the path to the instance directory, the ID of the
+     * partition to load, and the LDIF file.
+     *
+     * @param args the arguments
+     */
+    public static void main( String[] args ) throws Exception
+    {
+        if ( ( args == null ) || ( args.length != 3 ) )
+        {
+            throw new IllegalArgumentException(
+                "Program must be launched with 3 arguments : the path to the instance directory, "
+                    + "the partition ID and the LDIF file to load." );
+        }
+
+        File ldifFile = new File( args[2] );
+
+        if ( !ldifFile.canRead() )
+        {
+            throw new IllegalArgumentException( "Cannot read the LDIF file " + ldifFile );
+        }
+
+        ApacheDsService service = new ApacheDsService();
+
+        try
+        {
+            long nbLoaded = service.bulkLoad( new InstanceLayout( args[0] ), args[1], ldifFile );
+
+            System.out.println( "Loaded " + nbLoaded + " entries into the " + args[1] + " partition" );
+        }
+        catch ( Exception e )
+        {
+            e.printStackTrace();
+            LOG.error( "Failed to load " + ldifFile, e );
+            System.exit( 1 );
+        }
+    }
+}
@@ -33,6 +33,7 @@ import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
 import org.apache.directory.server.xdbm.impl.avl.AvlMasterTable;
 import org.apache.directory.server.xdbm.impl.avl.AvlRdnIndex;
+import org.apache.directory.server.xdbm.impl.avl.ConcurrentMasterTable;
 import org.apache.directory.server.xdbm.search.impl.CursorBuilder;
 import org.apache.directory.server.xdbm.search.impl.DefaultOptimizer;
 import org.apache.directory.server.xdbm.search.impl.DefaultSearchEngine;
@@ -52,6 +53,9 @@ public class AvlPartition extends AbstractBTreePartition
     /** static logger */
     private static final Logger LOG = LoggerFactory.getLogger( AvlPartition.class );
 
+    /** Tells if the master table and the indexes are stored in ConcurrentTables */
+    private boolean concurrent;
+
 
     /**
      * Creates a store based on AVL Trees.
@@ -83,8 +87,9 @@ public class AvlPartition extends AbstractBTreePartition
     {
         if ( !initialized )
         {
-            EvaluatorBuilder evaluatorBuilder = new EvaluatorBuilder( this, schemaManager );
+            EvaluatorBuilder evaluatorBuilder = new EvaluatorBuilder( this, schemaManager, getPlanCache() );
             CursorBuilder cursorBuilder = new CursorBuilder( this, evaluatorBuilder );
+            cursorBuilder.setMetricsRegistry( metricsRegistry );
 
             // setup optimizer and registries for parent
             if ( !optimizerEnabled )
@@ -93,7 +98,7 @@ public class AvlPartition extends AbstractBTreePartition
             }
             else
             {
-                setOptimizer( new DefaultOptimizer<Entry>( this ) );
+                setOptimizer( new DefaultOptimizer<Entry>( this, getPlanCache() ) );
             }
 
             setSearchEngine( new DefaultSearchEngine( this, cursorBuilder, evaluatorBuilder, getOptimizer() ) );
@@ -104,13 +109,55 @@ public class AvlPartition extends AbstractBTreePartition
             }
 
             // Create the master table (the table containing all the entries)
-            master = new AvlMasterTable( id, UuidComparator.INSTANCE, null, false );
+            if ( concurrent )
+            {
+                master = new ConcurrentMasterTable( id, UuidComparator.INSTANCE );
+            }
+            else
+            {
+                master = new AvlMasterTable( id, UuidComparator.INSTANCE, null, false );
+            }
 
             super.doInit();
         }
     }
 
 
+    /**
+     * @return true if the master table and the indexes are stored in ConcurrentTables
+     */
+    public boolean isConcurrent()
+    {
+        return concurrent;
+    }
+
+
+    /**
+     * Stores the master table and the indexes in ConcurrentTables, which are
+     * read without locking, instead of AvlTables. The lookups and the searches
+     * then don't take the read lock, and are not blocked by the write operations,
+     * which are still serialized. A search may see the effects of the writes
+     * done while it runs. Must be set before the partition is initialized.
+     *
+     * @param concurrent true to use ConcurrentTables
+     */
+    public void setConcurrent( boolean concurrent )
+    {
+        checkInitialized( "concurrent" );
+        this.concurrent = concurrent;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isLockFreeRead()
+    {
+        return concurrent;
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -178,6 +225,7 @@ public class AvlPartition extends AbstractBTreePartition
             avlIndex = new AvlIndex( index.getAttributeId(), true );
         }
 
+        avlIndex.setConcurrent( concurrent );
         avlIndex.init( schemaManager, schemaManager.lookupAttributeTypeRegistry( index.getAttributeId() ) );
 
         return avlIndex;
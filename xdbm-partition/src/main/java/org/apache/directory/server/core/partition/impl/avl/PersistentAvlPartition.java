@@ -0,0 +1,1508 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.avl;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOperationErrorException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.comparators.UuidComparator;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
+import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.ParentIdAndRdn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * An AVL partition whose content survives a restart. The entries are still
+ * only read from the in memory AVL trees, but each update operation is also
+ * appended to an operation log, in the partition directory. Once the log
+ * contains {@link #getSnapshotThreshold()} operations, a binary snapshot of
+ * all the entries is written by a background thread, and when the partition is
+ * destroyed, by the destroying thread. The log is rotated under the lock, then
+ * the entries are copied in small batches, in id order. The entries modified
+ * before the snapshot has copied them are first preserved by the operations,
+ * so that the snapshot contains the partition as it was when the log was
+ * rotated. The rotated log is deleted once the snapshot is complete.
+ * <br/>
+ * At startup, the snapshot entries are added back, parents first, then the
+ * logged operations which are more recent than the snapshot are replayed,
+ * from the rotated log if a snapshot has been interrupted, then from the
+ * current log.
+ * <br/>
+ * As for the {@link org.apache.directory.server.core.partition.ldif.SingleFileLdifPartition},
+ * only the operations going through the OperationContext based methods are
+ * logged.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PersistentAvlPartition extends AvlPartition
+{
+    /** static logger */
+    private static final Logger LOG = LoggerFactory.getLogger( PersistentAvlPartition.class );
+
+    /** The snapshot file name */
+    private static final String SNAPSHOT_FILE = "snapshot.dat";
+
+    /** The file a new snapshot is written into, before it replaces the current one */
+    private static final String SNAPSHOT_TMP_FILE = "snapshot.dat.tmp";
+
+    /** The operation log file name */
+    private static final String OPLOG_FILE = "oplog.dat";
+
+    /** The operation log file name, once rotated by a snapshot */
+    private static final String OLD_OPLOG_FILE = "oplog.old.dat";
+
+    /** The number of entries a snapshot copies at once under the lock */
+    private static final int SNAPSHOT_BATCH_SIZE = 1000;
+
+    /** The default number of logged operations triggering a snapshot */
+    public static final int DEFAULT_SNAPSHOT_THRESHOLD = 100000;
+
+    /** The operation types */
+    private static final byte ADD = 1;
+    private static final byte DELETE = 2;
+    private static final byte MODIFY = 3;
+    private static final byte RENAME = 4;
+    private static final byte MOVE = 5;
+    private static final byte MOVE_AND_RENAME = 6;
+
+    /** The size of an operation header : length, crc, sequence and type */
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 1;
+
+    /** The directory containing the snapshot and the log */
+    private File directory;
+
+    /** The stream the operations are appended to */
+    private FileOutputStream oplog;
+
+    /** The sequence number of the last logged operation */
+    private long sequence;
+
+    /** The number of operations logged since the last snapshot */
+    private int logged;
+
+    /** The buffer the current operation is serialized into */
+    private ByteArrayOutputStream record;
+
+    /** Tells if some operations have been logged but not forced on disk */
+    private boolean dirty;
+
+    /** The number of logged operations triggering a snapshot */
+    private int snapshotThreshold = DEFAULT_SNAPSHOT_THRESHOLD;
+
+    /** lock for serializing the operations on the log */
+    private final Object lock = new Object();
+
+    /** the executor writing the snapshots in the background */
+    private ExecutorService snapshotter;
+
+    /** flag used to avoid requesting a snapshot while another one is pending */
+    private final AtomicBoolean snapshotRequested = new AtomicBoolean( false );
+
+    /** tells if a snapshot is being written, protected by the lock */
+    private boolean snapshotting = false;
+
+    /**
+     * The entries modified since the snapshot being written has started, and not
+     * copied by it yet, as they were when it started. A null value stands for an
+     * entry which did not exist. Null when no entries are being copied.
+     */
+    private Map<String, SnapshotEntry> preserved;
+
+    /** The id of the last entry copied by the snapshot being written */
+    private String snapshotPosition;
+
+
+    /**
+     * An entry as stored in the snapshot. Its parent id and Rdn are stored instead
+     * of its Dn, which changes when one of its ancestors is renamed or moved.
+     */
+    private static class SnapshotEntry
+    {
+        /** The entry id */
+        private final String id;
+
+        /** The parent entry id */
+        private final String parentId;
+
+        /** The entry Rdns, only the suffix entry has more than one */
+        private final Rdn[] rdns;
+
+        /** A copy of the entry */
+        private final Entry entry;
+
+
+        private SnapshotEntry( String id, String parentId, Rdn[] rdns, Entry entry )
+        {
+            this.id = id;
+            this.parentId = parentId;
+            this.rdns = rdns;
+            this.entry = entry;
+        }
+    }
+
+
+    /**
+     * Creates a new instance of PersistentAvlPartition.
+     *
+     * @param schemaManager the schema manager
+     * @param dnFactory the DN factory
+     */
+    public PersistentAvlPartition( SchemaManager schemaManager, DnFactory dnFactory )
+    {
+        super( schemaManager, dnFactory );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void doInit() throws Exception
+    {
+        if ( !initialized )
+        {
+            if ( partitionPath == null )
+            {
+                throw new IllegalArgumentException( "Partition path cannot be null" );
+            }
+
+            directory = new File( partitionPath );
+
+            if ( !directory.exists() && !directory.mkdirs() )
+            {
+                throw new IOException( I18n.err( I18n.ERR_112_COULD_NOT_CREATE_DIRECORY, directory ) );
+            }
+
+            if ( suffixDn != null )
+            {
+                suffixDn.apply( schemaManager );
+            }
+
+            super.doInit();
+
+            synchronized ( lock )
+            {
+                sequence = loadSnapshot();
+                logged = 0;
+
+                // The log rotated by an interrupted snapshot comes first
+                File oldFile = new File( directory, OLD_OPLOG_FILE );
+
+                if ( oldFile.exists() )
+                {
+                    truncate( oldFile, replay( oldFile ) );
+                }
+
+                File file = new File( directory, OPLOG_FILE );
+                truncate( file, replay( file ) );
+
+                LOG.debug( "Replayed {} operations for partition {}", logged, getId() );
+
+                oplog = new FileOutputStream( file, true );
+            }
+
+            snapshotter = Executors.newSingleThreadExecutor( new ThreadFactory()
+            {
+                public Thread newThread( Runnable runnable )
+                {
+                    Thread thread = new Thread( runnable, "avl-snapshot-" + getId() );
+                    thread.setDaemon( true );
+
+                    return thread;
+                }
+            } );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void doDestroy() throws LdapException, Exception
+    {
+        if ( snapshotter != null )
+        {
+            snapshotter.shutdown();
+            snapshotter.awaitTermination( 1, TimeUnit.MINUTES );
+            snapshotter = null;
+
+            // Leave a clean snapshot
+            if ( initialized )
+            {
+                snapshot();
+            }
+        }
+
+        synchronized ( lock )
+        {
+            if ( oplog != null )
+            {
+                oplog.close();
+                oplog = null;
+            }
+        }
+
+        super.doDestroy();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public URI getPartitionPath()
+    {
+        return partitionPath;
+    }
+
+
+    //---------------------------------------------------------------------------------------------
+    // Operations
+    //---------------------------------------------------------------------------------------------
+    /**
+     * {@inheritDoc}
+     */
+    public void add( AddOperationContext addContext ) throws LdapException
+    {
+        synchronized ( lock )
+        {
+            long position;
+
+            try
+            {
+                ObjectOutput out = startRecord();
+                writeEntry( out, addContext.getEntry() );
+                position = log( ADD, out );
+            }
+            catch ( IOException ioe )
+            {
+                throw new LdapOperationErrorException( ioe.getMessage(), ioe );
+            }
+
+            boolean applied = false;
+
+            try
+            {
+                super.add( addContext );
+                applied = true;
+                preserveAdded( addContext.getDn() );
+            }
+            finally
+            {
+                if ( !applied )
+                {
+                    cancel( position );
+                }
+            }
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Entry delete( String id ) throws LdapException
+    {
+        synchronized ( lock )
+        {
+            preserve( id );
+            long position;
+
+            try
+            {
+                ObjectOutput out = startRecord();
+                out.writeUTF( id );
+                position = log( DELETE, out );
+            }
+            catch ( IOException ioe )
+            {
+                throw new LdapOperationErrorException( ioe.getMessage(), ioe );
+            }
+
+            boolean applied = false;
+
+            try
+            {
+                Entry deletedEntry = super.delete( id );
+                applied = true;
+
+                return deletedEntry;
+            }
+            finally
+            {
+                if ( !applied )
+                {
+                    cancel( position );
+                }
+            }
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void modify( ModifyOperationContext modifyContext ) throws LdapException
+    {
+        synchronized ( lock )
+        {
+            preserve( modifyContext.getDn() );
+            long position;
+
+            try
+            {
+                List<Modification> mods = modifyContext.getModItems();
+                ObjectOutput out = startRecord();
+                out.writeUTF( modifyContext.getDn().getName() );
+                out.writeInt( mods.size() );
+
+                for ( Modification mod : mods )
+                {
+                    out.writeInt( mod.getOperation().getValue() );
+                    writeAttribute( out, mod.getAttribute() );
+                }
+
+                position = log( MODIFY, out );
+            }
+            catch ( IOException ioe )
+            {
+                throw new LdapOperationErrorException( ioe.getMessage(), ioe );
+            }
+
+            boolean applied = false;
+
+            try
+            {
+                super.modify( modifyContext );
+                applied = true;
+            }
+            finally
+            {
+                if ( !applied )
+                {
+                    cancel( position );
+                }
+            }
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void rename( RenameOperationContext renameContext ) throws LdapException
+    {
+        synchronized ( lock )
+        {
+            preserve( renameContext.getDn() );
+            long position;
+
+            try
+            {
+                ObjectOutput out = startRecord();
+                out.writeUTF( renameContext.getDn().getName() );
+                out.writeUTF( renameContext.getNewRdn().getName() );
+                out.writeBoolean( renameContext.getDeleteOldRdn() );
+                writeOptionalEntry( out, renameContext.getEntry() == null ? null : renameContext
+                    .getModifiedEntry() );
+                position = log( RENAME, out );
+            }
+            catch ( IOException ioe )
+            {
+                throw new LdapOperationErrorException( ioe.getMessage(), ioe );
+            }
+
+            boolean applied = false;
+
+            try
+            {
+                super.rename( renameContext );
+                applied = true;
+            }
+            finally
+            {
+                if ( !applied )
+                {
+                    cancel( position );
+                }
+            }
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void move( MoveOperationContext moveContext ) throws LdapException
+    {
+        synchronized ( lock )
+        {
+            preserve( moveContext.getDn() );
+            long position;
+
+            try
+            {
+                ObjectOutput out = startRecord();
+                out.writeUTF( moveContext.getDn().getName() );
+                out.writeUTF( moveContext.getNewSuperior().getName() );
+                out.writeUTF( moveContext.getNewDn().getName() );
+                writeOptionalEntry( out, moveContext.getModifiedEntry() );
+                position = log( MOVE, out );
+            }
+            catch ( IOException ioe )
+            {
+                throw new LdapOperationErrorException( ioe.getMessage(), ioe );
+            }
+
+            boolean applied = false;
+
+            try
+            {
+                super.move( moveContext );
+                applied = true;
+            }
+            finally
+            {
+                if ( !applied )
+                {
+                    cancel( position );
+                }
+            }
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void moveAndRename( MoveAndRenameOperationContext moveAndRenameContext ) throws LdapException
+    {
+        synchronized ( lock )
+        {
+            preserve( moveAndRenameContext.getDn() );
+            long position;
+
+            try
+            {
+                ObjectOutput out = startRecord();
+                out.writeUTF( moveAndRenameContext.getDn().getName() );
+                out.writeUTF( moveAndRenameContext.getNewSuperiorDn().getName() );
+                out.writeUTF( moveAndRenameContext.getNewRdn().getName() );
+                out.writeBoolean( moveAndRenameContext.getDeleteOldRdn() );
+                writeOptionalEntry( out, moveAndRenameContext.getModifiedEntry() );
+                position = log( MOVE_AND_RENAME, out );
+            }
+            catch ( IOException ioe )
+            {
+                throw new LdapOperationErrorException( ioe.getMessage(), ioe );
+            }
+
+            boolean applied = false;
+
+            try
+            {
+                super.moveAndRename( moveAndRenameContext );
+                applied = true;
+            }
+            finally
+            {
+                if ( !applied )
+                {
+                    cancel( position );
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Forces the logged operations on disk.
+     */
+    public void sync() throws Exception
+    {
+        synchronized ( lock )
+        {
+            if ( dirty && ( oplog != null ) )
+            {
+                oplog.getChannel().force( false );
+                dirty = false;
+            }
+        }
+    }
+
+
+    //---------------------------------------------------------------------------------------------
+    // The operation log
+    //---------------------------------------------------------------------------------------------
+    private ObjectOutput startRecord() throws IOException
+    {
+        record = new ByteArrayOutputStream();
+
+        return new ObjectOutputStream( record );
+    }
+
+
+    /**
+     * Appends the current record to the log, and forces it on disk if the partition
+     * is synced on write, then requests a snapshot if the log is large enough. The
+     * operation is applied on the AVL trees once logged, and removed from the log
+     * with {@link #cancel(long)} if it is rejected.
+     *
+     * @return The position of the record in the log
+     */
+    private long log( byte type, ObjectOutput out ) throws IOException
+    {
+        out.close();
+
+        byte[] data = record.toByteArray();
+        record = null;
+        sequence++;
+
+        ByteBuffer buffer = ByteBuffer.allocate( HEADER_SIZE + data.length );
+        buffer.putInt( HEADER_SIZE + data.length );
+        buffer.putInt( 0 );
+        buffer.putLong( sequence );
+        buffer.put( type );
+        buffer.put( data );
+
+        CRC32 crc = new CRC32();
+        crc.update( buffer.array(), 8, buffer.capacity() - 8 );
+        buffer.putInt( 4, ( int ) crc.getValue() );
+
+        long position = oplog.getChannel().size();
+
+        try
+        {
+            oplog.write( buffer.array() );
+            dirty = true;
+
+            if ( isSyncOnWrite.get() )
+            {
+                oplog.getChannel().force( false );
+                dirty = false;
+            }
+        }
+        catch ( IOException ioe )
+        {
+            // Don't leave a partial record in front of the next ones
+            sequence--;
+            oplog.getChannel().truncate( position );
+
+            throw ioe;
+        }
+
+        logged++;
+
+        if ( ( logged >= snapshotThreshold ) && ( snapshotter != null )
+            && snapshotRequested.compareAndSet( false, true ) )
+        {
+            snapshotter.execute( new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        snapshot();
+                    }
+                    catch ( Exception e )
+                    {
+                        LOG.error( "Failed to write the snapshot of the partition " + getId(), e );
+                    }
+                    finally
+                    {
+                        // The operations logged during the snapshot don't request another one
+                        snapshotRequested.set( false );
+                    }
+                }
+            } );
+        }
+
+        return position;
+    }
+
+
+    /**
+     * Removes the last logged operation, rejected by the AVL trees, from the log. If
+     * it can't be removed, it will be rejected again, and skipped, when the log is
+     * replayed.
+     *
+     * @param position The position of the record in the log
+     */
+    private void cancel( long position )
+    {
+        try
+        {
+            oplog.getChannel().truncate( position );
+
+            if ( isSyncOnWrite.get() )
+            {
+                oplog.getChannel().force( false );
+            }
+
+            sequence--;
+            logged--;
+        }
+        catch ( IOException ioe )
+        {
+            LOG.error( "Cannot remove the rejected operation " + sequence + " from the log of the partition "
+                + getId(), ioe );
+        }
+    }
+
+
+    /**
+     * Moves the current log aside, and starts a new one. If the log rotated by a
+     * previous snapshot is still there, that snapshot has failed, and the current
+     * log is appended to the rotated one. Must be called under the lock.
+     */
+    private void rotateLog() throws IOException
+    {
+        File file = new File( directory, OPLOG_FILE );
+        File oldFile = new File( directory, OLD_OPLOG_FILE );
+
+        oplog.getChannel().force( false );
+        oplog.close();
+
+        try
+        {
+            if ( oldFile.exists() )
+            {
+                FileInputStream in = new FileInputStream( file );
+                FileOutputStream out = new FileOutputStream( oldFile, true );
+
+                try
+                {
+                    byte[] buffer = new byte[8192];
+                    int length;
+
+                    while ( ( length = in.read( buffer ) ) > 0 )
+                    {
+                        out.write( buffer, 0, length );
+                    }
+
+                    out.getChannel().force( false );
+                }
+                finally
+                {
+                    in.close();
+                    out.close();
+                }
+
+                if ( !file.delete() )
+                {
+                    throw new IOException( I18n.err( I18n.ERR_726_FILE_UNDELETABLE, file.getAbsolutePath() ) );
+                }
+            }
+            else if ( !file.renameTo( oldFile ) )
+            {
+                throw new IOException( "Cannot rename " + file + " to " + oldFile );
+            }
+        }
+        finally
+        {
+            oplog = new FileOutputStream( file, true );
+            dirty = false;
+        }
+    }
+
+
+    /**
+     * Truncates a log after its last valid operation.
+     */
+    private void truncate( File file, long end ) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+
+        try
+        {
+            raf.setLength( end );
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+
+    /**
+     * Replays the logged operations more recent than the last applied one.
+     *
+     * @param file The log to replay
+     * @return The position following the last valid operation
+     */
+    private long replay( File file ) throws Exception
+    {
+        if ( !file.exists() )
+        {
+            return 0L;
+        }
+
+        DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+        long length = file.length();
+        long position = 0L;
+        CRC32 crc = new CRC32();
+
+        try
+        {
+            while ( position + HEADER_SIZE <= length )
+            {
+                int size = in.readInt();
+
+                if ( ( size < HEADER_SIZE ) || ( position + size > length ) )
+                {
+                    break;
+                }
+
+                int expectedCrc = in.readInt();
+                byte[] data = new byte[size - 8];
+                in.readFully( data );
+                crc.reset();
+                crc.update( data );
+
+                if ( ( int ) crc.getValue() != expectedCrc )
+                {
+                    LOG.warn( "Corrupted operation found at offset {} of {}, the log ends there", position, file );
+                    break;
+                }
+
+                ByteBuffer header = ByteBuffer.wrap( data );
+                long operationSequence = header.getLong();
+                byte type = header.get();
+
+                if ( operationSequence > sequence )
+                {
+                    ObjectInput operation = new ObjectInputStream( new ByteArrayInputStream( data, 9,
+                        data.length - 9 ) );
+
+                    try
+                    {
+                        apply( type, operation );
+                    }
+                    catch ( LdapException le )
+                    {
+                        // The operation has been rejected when it was logged, but could not be removed
+                        LOG.warn( "Skipping the rejected operation {} of {} : {}",
+                            new Object[]
+                                { operationSequence, file, le.getMessage() } );
+                    }
+
+                    sequence = operationSequence;
+                    logged++;
+                }
+
+                position += size;
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+
+        return position;
+    }
+
+
+    /**
+     * Applies a logged operation on the partition.
+     */
+    private void apply( byte type, ObjectInput in ) throws Exception
+    {
+        switch ( type )
+        {
+            case ADD:
+                super.add( new AddOperationContext( null, readEntry( in ) ) );
+                break;
+
+            case DELETE:
+                super.delete( in.readUTF() );
+                break;
+
+            case MODIFY:
+                Dn dn = new Dn( schemaManager, in.readUTF() );
+                Modification[] mods = new Modification[in.readInt()];
+
+                for ( int i = 0; i < mods.length; i++ )
+                {
+                    ModificationOperation operation = ModificationOperation.getOperation( in.readInt() );
+                    mods[i] = new DefaultModification( operation, readAttribute( in ) );
+                }
+
+                modify( dn, mods );
+                break;
+
+            case RENAME:
+                Dn renamedDn = new Dn( schemaManager, in.readUTF() );
+                Rdn newRdn = new Rdn( schemaManager, in.readUTF() );
+                boolean deleteOldRdn = in.readBoolean();
+                rename( renamedDn, newRdn, deleteOldRdn, readOptionalEntry( in ) );
+                break;
+
+            case MOVE:
+                Dn oldDn = new Dn( schemaManager, in.readUTF() );
+                Dn newSuperior = new Dn( schemaManager, in.readUTF() );
+                Dn newDn = new Dn( schemaManager, in.readUTF() );
+                move( oldDn, newSuperior, newDn, readOptionalEntry( in ) );
+                break;
+
+            case MOVE_AND_RENAME:
+                Dn movedDn = new Dn( schemaManager, in.readUTF() );
+                Dn newSuperiorDn = new Dn( schemaManager, in.readUTF() );
+                Rdn movedRdn = new Rdn( schemaManager, in.readUTF() );
+                boolean deleteOldMovedRdn = in.readBoolean();
+                moveAndRename( movedDn, newSuperiorDn, movedRdn, readOptionalEntry( in ), deleteOldMovedRdn );
+                break;
+
+            default:
+                throw new IOException( "Unknown operation type " + type );
+        }
+    }
+
+
+    //---------------------------------------------------------------------------------------------
+    // The snapshot
+    //---------------------------------------------------------------------------------------------
+    /**
+     * Writes all the entries into a new snapshot. The operation log is rotated under
+     * the lock, then the entries are copied in batches, and written in a temporary
+     * file without holding the lock. The temporary file replaces the previous snapshot
+     * once complete, and the rotated log is deleted at last.
+     *
+     * @throws Exception If the snapshot can't be written
+     */
+    public void snapshot() throws Exception
+    {
+        long snapshotSequence;
+
+        synchronized ( lock )
+        {
+            while ( snapshotting )
+            {
+                lock.wait();
+            }
+
+            if ( oplog == null )
+            {
+                return;
+            }
+
+            snapshotSequence = sequence;
+
+            // The operations logged from now on go to a new log, and preserve the entries they modify
+            rotateLog();
+            logged = 0;
+            snapshotting = true;
+            preserved = new HashMap<String, SnapshotEntry>();
+            snapshotPosition = null;
+        }
+
+        try
+        {
+            File tmpFile = new File( directory, SNAPSHOT_TMP_FILE );
+            FileOutputStream fos = new FileOutputStream( tmpFile );
+            ObjectOutputStream out = new ObjectOutputStream( new BufferedOutputStream( fos ) );
+
+            try
+            {
+                out.writeLong( snapshotSequence );
+
+                List<SnapshotEntry> batch = new ArrayList<SnapshotEntry>( SNAPSHOT_BATCH_SIZE );
+                boolean more = true;
+
+                while ( more )
+                {
+                    synchronized ( lock )
+                    {
+                        more = copyEntries( batch );
+
+                        if ( !more )
+                        {
+                            // The entries deleted before being copied
+                            for ( SnapshotEntry entry : preserved.values() )
+                            {
+                                if ( entry != null )
+                                {
+                                    batch.add( entry );
+                                }
+                            }
+
+                            preserved = null;
+                        }
+                    }
+
+                    for ( SnapshotEntry entry : batch )
+                    {
+                        out.writeBoolean( true );
+                        writeSnapshotEntry( out, entry );
+                    }
+
+                    batch.clear();
+                }
+
+                out.writeBoolean( false );
+                out.flush();
+                fos.getFD().sync();
+            }
+            finally
+            {
+                out.close();
+            }
+
+            replace( tmpFile, new File( directory, SNAPSHOT_FILE ) );
+
+            // The snapshot contains all the operations of the rotated log
+            File oldFile = new File( directory, OLD_OPLOG_FILE );
+
+            if ( !oldFile.delete() )
+            {
+                LOG.warn( "Cannot delete the rotated log {}, it will be replayed", oldFile );
+            }
+
+            LOG.debug( "Snapshot written for partition {} at sequence {}", getId(), snapshotSequence );
+        }
+        finally
+        {
+            synchronized ( lock )
+            {
+                preserved = null;
+                snapshotPosition = null;
+                snapshotting = false;
+                lock.notifyAll();
+            }
+        }
+    }
+
+
+    /**
+     * Copies the next batch of entries, following the last copied one in id order.
+     * The entries preserved by the operations are copied instead of the current ones.
+     * Must be called under the lock.
+     *
+     * @return false if all the entries have been copied
+     */
+    private boolean copyEntries( List<SnapshotEntry> batch ) throws Exception
+    {
+        Cursor<Tuple<String, Entry>> cursor = master.cursor();
+
+        try
+        {
+            if ( snapshotPosition == null )
+            {
+                cursor.beforeFirst();
+            }
+            else
+            {
+                cursor.after( new Tuple<String, Entry>( snapshotPosition, null ) );
+            }
+
+            for ( int i = 0; i < SNAPSHOT_BATCH_SIZE; i++ )
+            {
+                if ( !cursor.next() )
+                {
+                    return false;
+                }
+
+                Tuple<String, Entry> tuple = cursor.get();
+                String id = tuple.getKey();
+                snapshotPosition = id;
+
+                if ( preserved.containsKey( id ) )
+                {
+                    // Modified or added since the snapshot has started
+                    SnapshotEntry entry = preserved.remove( id );
+
+                    if ( entry != null )
+                    {
+                        batch.add( entry );
+                    }
+                }
+                else
+                {
+                    batch.add( copy( id, tuple.getValue() ) );
+                }
+            }
+
+            return true;
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+
+    /**
+     * Preserves the entry with the given Dn, if any, before it is modified, renamed,
+     * moved or added by an operation. Must be called under the lock.
+     */
+    private void preserve( Dn dn ) throws LdapException
+    {
+        if ( preserved != null )
+        {
+            preserve( getEntryId( dn ) );
+        }
+    }
+
+
+    /**
+     * Records that the entry just added with the given Dn did not exist when the
+     * snapshot being written has started. Must be called under the lock.
+     */
+    private void preserveAdded( Dn dn ) throws LdapException
+    {
+        if ( preserved != null )
+        {
+            String id = getEntryId( dn );
+
+            if ( ( id != null ) && isPending( id ) )
+            {
+                preserved.put( id, null );
+            }
+        }
+    }
+
+
+    /**
+     * Preserves an entry as it was when the snapshot being written has started, before
+     * it is modified by an operation, unless the snapshot has already copied it. Must
+     * be called under the lock.
+     */
+    private void preserve( String id ) throws LdapException
+    {
+        if ( ( preserved == null ) || ( id == null ) || !isPending( id ) )
+        {
+            return;
+        }
+
+        try
+        {
+            Entry entry = master.get( id );
+            preserved.put( id, entry == null ? null : copy( id, entry ) );
+        }
+        catch ( LdapException le )
+        {
+            throw le;
+        }
+        catch ( Exception e )
+        {
+            throw new LdapOperationErrorException( e.getMessage(), e );
+        }
+    }
+
+
+    /**
+     * Tells if an entry has neither been preserved nor copied by the snapshot being
+     * written yet.
+     */
+    private boolean isPending( String id )
+    {
+        if ( preserved.containsKey( id ) )
+        {
+            return false;
+        }
+
+        return ( snapshotPosition == null ) || ( UuidComparator.INSTANCE.compare( id, snapshotPosition ) > 0 );
+    }
+
+
+    /**
+     * Copies an entry stored in the master table, so that the snapshot is not modified
+     * by the operations done while it is written.
+     */
+    private SnapshotEntry copy( String id, Entry entry ) throws LdapException
+    {
+        ParentIdAndRdn key = rdnIdx.reverseLookup( id );
+
+        return new SnapshotEntry( id, key.getParentId(), key.getRdns(), entry.clone() );
+    }
+
+
+    private void writeSnapshotEntry( ObjectOutput out, SnapshotEntry entry ) throws IOException
+    {
+        out.writeUTF( entry.id );
+        out.writeUTF( entry.parentId );
+        out.writeInt( entry.rdns.length );
+
+        for ( Rdn rdn : entry.rdns )
+        {
+            out.writeUTF( rdn.getName() );
+        }
+
+        writeAttributes( out, entry.entry );
+    }
+
+
+    private SnapshotEntry readSnapshotEntry( ObjectInput in ) throws IOException, LdapException
+    {
+        String id = in.readUTF();
+        String parentId = in.readUTF();
+        Rdn[] rdns = new Rdn[in.readInt()];
+
+        for ( int i = 0; i < rdns.length; i++ )
+        {
+            rdns[i] = new Rdn( schemaManager, in.readUTF() );
+        }
+
+        Entry entry = new DefaultEntry( schemaManager );
+        readAttributes( in, entry );
+
+        return new SnapshotEntry( id, parentId, rdns, entry );
+    }
+
+
+    /**
+     * Renames a file, replacing the target file. The target is only deleted when the
+     * rename can't replace it, as on Windows. If the server stops before the file is
+     * renamed, the new snapshot is picked up by {@link #loadSnapshot()}.
+     */
+    private void replace( File file, File target ) throws IOException
+    {
+        if ( file.renameTo( target ) )
+        {
+            return;
+        }
+
+        if ( target.exists() && !target.delete() )
+        {
+            throw new IOException( I18n.err( I18n.ERR_726_FILE_UNDELETABLE, target.getAbsolutePath() ) );
+        }
+
+        if ( !file.renameTo( target ) )
+        {
+            throw new IOException( "Cannot rename " + file + " to " + target );
+        }
+    }
+
+
+    /**
+     * Adds back the entries stored in the snapshot, if any. When there is no snapshot
+     * but a temporary one, the previous snapshot has been deleted before the temporary
+     * one replaced it, which is then complete. Otherwise, the first snapshot has been
+     * interrupted, and the logs still contain all the operations.
+     *
+     * @return The sequence number of the last operation contained in the snapshot
+     */
+    private long loadSnapshot() throws Exception
+    {
+        File snapshotFile = new File( directory, SNAPSHOT_FILE );
+        File tmpFile = new File( directory, SNAPSHOT_TMP_FILE );
+        File file = snapshotFile;
+
+        if ( !snapshotFile.exists() )
+        {
+            if ( !tmpFile.exists() )
+            {
+                return 0L;
+            }
+
+            file = tmpFile;
+        }
+
+        // The entries are all read before being added, so that a truncated snapshot is not half loaded
+        List<SnapshotEntry> entries = new ArrayList<SnapshotEntry>();
+        long snapshotSequence;
+        ObjectInputStream in = null;
+
+        try
+        {
+            in = new ObjectInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+            snapshotSequence = in.readLong();
+
+            while ( in.readBoolean() )
+            {
+                entries.add( readSnapshotEntry( in ) );
+            }
+        }
+        catch ( EOFException eofe )
+        {
+            if ( file == tmpFile )
+            {
+                LOG.warn( "Ignoring the incomplete first snapshot {}", tmpFile );
+
+                return 0L;
+            }
+
+            throw new IOException( "The snapshot " + file + " is truncated after " + entries.size() + " entries" );
+        }
+        finally
+        {
+            if ( in != null )
+            {
+                in.close();
+            }
+        }
+
+        if ( file == tmpFile )
+        {
+            LOG.warn( "Recovering the snapshot {}", tmpFile );
+            replace( tmpFile, snapshotFile );
+        }
+
+        // The entries are stored in id order, they are added back parents first
+        Map<String, List<SnapshotEntry>> children = new HashMap<String, List<SnapshotEntry>>();
+
+        for ( SnapshotEntry entry : entries )
+        {
+            List<SnapshotEntry> siblings = children.get( entry.parentId );
+
+            if ( siblings == null )
+            {
+                siblings = new ArrayList<SnapshotEntry>();
+                children.put( entry.parentId, siblings );
+            }
+
+            siblings.add( entry );
+        }
+
+        LinkedList<SnapshotEntry> pending = new LinkedList<SnapshotEntry>();
+        List<SnapshotEntry> roots = children.remove( getRootId() );
+
+        if ( roots != null )
+        {
+            for ( SnapshotEntry root : roots )
+            {
+                root.entry.setDn( suffixDn );
+                contextEntry = root.entry;
+                pending.add( root );
+            }
+        }
+
+        // The aliases are added last, so that their target exists
+        List<Entry> aliases = new ArrayList<Entry>();
+
+        while ( !pending.isEmpty() )
+        {
+            SnapshotEntry entry = pending.removeFirst();
+
+            if ( entry.entry.contains( OBJECT_CLASS_AT, SchemaConstants.ALIAS_OC ) )
+            {
+                aliases.add( entry.entry );
+            }
+            else
+            {
+                super.add( new AddOperationContext( null, entry.entry ) );
+            }
+
+            List<SnapshotEntry> entryChildren = children.remove( entry.id );
+
+            if ( entryChildren != null )
+            {
+                for ( SnapshotEntry child : entryChildren )
+                {
+                    Dn dn = entry.entry.getDn();
+
+                    for ( int i = child.rdns.length - 1; i >= 0; i-- )
+                    {
+                        dn = dn.add( child.rdns[i] );
+                    }
+
+                    child.entry.setDn( dn );
+                    pending.add( child );
+                }
+            }
+        }
+
+        for ( Entry alias : aliases )
+        {
+            super.add( new AddOperationContext( null, alias ) );
+        }
+
+        if ( !children.isEmpty() )
+        {
+            throw new IOException( "The snapshot " + file + " contains entries whose parent is missing" );
+        }
+
+        LOG.debug( "Loaded {} entries from the snapshot of partition {}", entries.size(), getId() );
+
+        return snapshotSequence;
+    }
+
+
+    //---------------------------------------------------------------------------------------------
+    // Entries serialization
+    //---------------------------------------------------------------------------------------------
+    /**
+     * Serializes an entry : its Dn, then its attributes, except the entryDn.
+     */
+    private void writeEntry( ObjectOutput out, Entry entry ) throws IOException
+    {
+        out.writeUTF( entry.getDn().getName() );
+        writeAttributes( out, entry );
+    }
+
+
+    private void writeAttributes( ObjectOutput out, Entry entry ) throws IOException
+    {
+        List<Attribute> attributes = new ArrayList<Attribute>( entry.size() );
+
+        for ( Attribute attribute : entry.getAttributes() )
+        {
+            AttributeType attributeType = attribute.getAttributeType();
+
+            if ( ( attributeType == null ) || !ENTRY_DN_AT.getOid().equals( attributeType.getOid() ) )
+            {
+                attributes.add( attribute );
+            }
+        }
+
+        out.writeInt( attributes.size() );
+
+        for ( Attribute attribute : attributes )
+        {
+            writeAttribute( out, attribute );
+        }
+    }
+
+
+    private void writeOptionalEntry( ObjectOutput out, Entry entry ) throws IOException
+    {
+        out.writeBoolean( entry != null );
+
+        if ( entry != null )
+        {
+            writeEntry( out, entry );
+        }
+    }
+
+
+    private void writeAttribute( ObjectOutput out, Attribute attribute ) throws IOException
+    {
+        AttributeType attributeType = attribute.getAttributeType();
+        out.writeUTF( attributeType == null ? attribute.getUpId() : attributeType.getOid() );
+        attribute.writeExternal( out );
+    }
+
+
+    private Entry readEntry( ObjectInput in ) throws IOException, LdapException
+    {
+        Entry entry = new DefaultEntry( schemaManager );
+        entry.setDn( new Dn( schemaManager, in.readUTF() ) );
+        readAttributes( in, entry );
+
+        return entry;
+    }
+
+
+    private void readAttributes( ObjectInput in, Entry entry ) throws IOException, LdapException
+    {
+        int nbAttributes = in.readInt();
+
+        for ( int i = 0; i < nbAttributes; i++ )
+        {
+            entry.add( readAttribute( in ) );
+        }
+    }
+
+
+    private Entry readOptionalEntry( ObjectInput in ) throws IOException, LdapException
+    {
+        if ( in.readBoolean() )
+        {
+            return readEntry( in );
+        }
+
+        return null;
+    }
+
+
+    private Attribute readAttribute( ObjectInput in ) throws IOException, LdapException
+    {
+        AttributeType attributeType = schemaManager.lookupAttributeTypeRegistry( in.readUTF() );
+        Attribute attribute = new DefaultAttribute( attributeType );
+
+        try
+        {
+            attribute.readExternal( in );
+        }
+        catch ( ClassNotFoundException cnfe )
+        {
+            IOException ioe = new IOException( cnfe.getMessage() );
+            ioe.initCause( cnfe );
+            throw ioe;
+        }
+
+        return attribute;
+    }
+
+
+    /**
+     * @return The number of logged operations triggering a snapshot
+     */
+    public int getSnapshotThreshold()
+    {
+        return snapshotThreshold;
+    }
+
+
+    /**
+     * @param snapshotThreshold The number of logged operations triggering a snapshot
+     */
+    public void setSnapshotThreshold( int snapshotThreshold )
+    {
+        this.snapshotThreshold = snapshotThreshold;
+    }
+}
@@ -30,6 +30,7 @@ import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -65,6 +66,7 @@ import org.apache.directory.api.util.Strings;
 import org.apache.directory.api.util.exception.MultiException;
 import org.apache.directory.server.constants.ApacheSchemaConstants;
 import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.api.cache.TinyLfuPolicy;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
 import org.apache.directory.server.core.api.filtering.BaseEntryFilteringCursor;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
@@ -79,15 +81,19 @@ import org.apache.directory.server.core.api.interceptor.context.OperationContext
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
 import org.apache.directory.server.core.api.partition.AbstractPartition;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.HierarchyLabels;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.IndexNotFoundException;
 import org.apache.directory.server.xdbm.MasterTable;
+import org.apache.directory.server.xdbm.OffHeapEntryCache;
 import org.apache.directory.server.xdbm.ParentIdAndRdn;
 import org.apache.directory.server.xdbm.Store;
+import org.apache.directory.server.xdbm.search.FilterPlanCache;
 import org.apache.directory.server.xdbm.search.Optimizer;
 import org.apache.directory.server.xdbm.search.PartitionSearchResult;
 import org.apache.directory.server.xdbm.search.SearchEngine;
@@ -114,6 +120,12 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     /** Tells if the Optimizer is enabled */
     protected boolean optimizerEnabled = true;
 
+    /** The freshness window of the cached search plans, in ms. 0 disables the cache */
+    protected long planCacheFreshness;
+
+    /** The cache of the search plans, created when the partition is initialized */
+    private FilterPlanCache planCache;
+
     /** The default cache size is set to 10 000 objects */
     public static final int DEFAULT_CACHE_SIZE = 10000;
 
@@ -126,6 +138,32 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     /** The ParentIdAndRdn cache */
     protected Cache piarCache;
 
+    /** The ParentIdAndRdn cache admission policy */
+    private TinyLfuPolicy piarCachePolicy;
+
+    /** The ParentIdAndRdn cache hits and misses counters */
+    private AtomicLong piarCacheHits;
+    private AtomicLong piarCacheMisses;
+
+    /** The estimated number of candidates above which a search is a scan. 0 means the entry cache size */
+    protected long scanThreshold;
+
+    /** The estimated number of candidates above which a search is rejected. 0 means no limit */
+    protected long maxSearchCost;
+
+    /** Set while the current thread fetches the entries of a scan */
+    private final ThreadLocal<Boolean> scanning = new ThreadLocal<Boolean>();
+
+    /** The off-heap entry cache size, in bytes. 0 disables the cache */
+    protected long offHeapCacheSize;
+
+    /** The off-heap entry cache, behind the entry cache */
+    private OffHeapEntryCache offHeapCache;
+
+    /** The off-heap entry cache hits and misses counters */
+    private AtomicLong offHeapCacheHits;
+    private AtomicLong offHeapCacheMisses;
+
     /** true if we sync disks on every write operation */
     protected AtomicBoolean isSyncOnWrite = new AtomicBoolean( true );
 
@@ -150,6 +188,15 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     /** the relative distinguished name index */
     protected Index<ParentIdAndRdn, String> rdnIdx;
 
+    /** The hierarchical labels of the entries, built when the partition is initialized */
+    protected HierarchyLabels hierarchyLabels;
+
+    /** The maximum number of entries having a hierarchical label. 0 disables the labels */
+    protected int maxHierarchyLabels = HierarchyLabels.DEFAULT_MAX_SIZE;
+
+    /** Set by the BulkLoader, which writes the user indexes keys itself, sorted */
+    private volatile boolean userIndicesDeferred;
+
     /** a system index on objectClass attribute*/
     protected Index<String, String> objectClassIdx;
 
@@ -285,6 +332,187 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * @return The estimated number of candidates above which a search is a scan
+     */
+    public long getScanThreshold()
+    {
+        if ( scanThreshold > 0 )
+        {
+            return scanThreshold;
+        }
+
+        return ( cacheSize > 0 ) ? cacheSize : DEFAULT_CACHE_SIZE;
+    }
+
+
+    /**
+     * Sets the number of candidates above which a search is considered as a scan :
+     * when the optimizer estimates that a search will go through more entries, the
+     * entries it fetches are not added to the entry caches, so that it does not
+     * evict the entries which are used over and over.
+     *
+     * @param scanThreshold The number of candidates. 0 means the entry cache size
+     */
+    public void setScanThreshold( long scanThreshold )
+    {
+        this.scanThreshold = scanThreshold;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getMaxSearchCost()
+    {
+        return maxSearchCost;
+    }
+
+
+    /**
+     * Sets the number of candidates above which a search is rejected : when the
+     * optimizer estimates that a search will go through more entries, typically
+     * an unindexed search on a large partition, it's rejected with UNWILLING_TO_PERFORM
+     * before fetching anything. The administrators searches, and the
+     * internal searches done without any session, are never rejected.
+     *
+     * @param maxSearchCost The number of candidates. 0 means no limit
+     */
+    public void setMaxSearchCost( long maxSearchCost )
+    {
+        this.maxSearchCost = maxSearchCost;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setScanning( boolean scanning )
+    {
+        if ( scanning )
+        {
+            this.scanning.set( Boolean.TRUE );
+        }
+        else
+        {
+            this.scanning.remove();
+        }
+    }
+
+
+    /**
+     * @return true if the current thread is fetching the entries of a scan
+     */
+    public boolean isScanning()
+    {
+        return this.scanning.get() != null;
+    }
+
+
+    /**
+     * @return The size of the off-heap entry cache, in bytes
+     */
+    public long getOffHeapCacheSize()
+    {
+        return offHeapCacheSize;
+    }
+
+
+    /**
+     * Enables a second level entry cache, which stores the serialized entries
+     * outside of the Java heap. The entries which are not in the entry cache
+     * are looked for in this cache before being read from the master table.
+     *
+     * @param offHeapCacheSize The memory used by the cache, in bytes. 0 disables the cache
+     */
+    public void setOffHeapCacheSize( long offHeapCacheSize )
+    {
+        checkInitialized( "offHeapCacheSize" );
+        this.offHeapCacheSize = offHeapCacheSize;
+    }
+
+
+    /**
+     * @return The maximum number of entries having a hierarchical label
+     */
+    public int getMaxHierarchyLabels()
+    {
+        return maxHierarchyLabels;
+    }
+
+
+    /**
+     * Sets the maximum number of entries for which hierarchical labels are kept in
+     * memory to speed up the subtree searches. They are not built when the partition
+     * contains more entries, and are dropped once it grows beyond this number.
+     *
+     * @param maxHierarchyLabels The number of entries. 0 disables the labels
+     */
+    public void setMaxHierarchyLabels( int maxHierarchyLabels )
+    {
+        checkInitialized( "maxHierarchyLabels" );
+        this.maxHierarchyLabels = maxHierarchyLabels;
+    }
+
+
+    /**
+     * Tells the partition not to update the user indexes when an entry is added :
+     * the caller adds the keys itself. Only used by the {@link BulkLoader}.
+     *
+     * @param userIndicesDeferred true to stop updating the user indexes on add
+     */
+    void setUserIndicesDeferred( boolean userIndicesDeferred )
+    {
+        this.userIndicesDeferred = userIndicesDeferred;
+    }
+
+
+    /**
+     * @return The off-heap entry cache, or null if it's disabled
+     */
+    public OffHeapEntryCache getOffHeapCache()
+    {
+        return offHeapCache;
+    }
+
+
+    /**
+     * @return The freshness window of the cached search plans, in milliseconds
+     */
+    public long getPlanCacheFreshness()
+    {
+        return planCacheFreshness;
+    }
+
+
+    /**
+     * Enables the cache of search plans : the scan counts computed by the
+     * optimizer for a filter are reused for the filters of the same shape
+     * during the given window, and the substring patterns are compiled once.
+     *
+     * @param planCacheFreshness The freshness window, in milliseconds. 0 disables the cache
+     */
+    public void setPlanCacheFreshness( long planCacheFreshness )
+    {
+        checkInitialized( "planCacheFreshness" );
+        this.planCacheFreshness = planCacheFreshness;
+    }
+
+
+    /**
+     * @return The cache of search plans, or null if it's disabled
+     */
+    protected FilterPlanCache getPlanCache()
+    {
+        if ( ( planCache == null ) && ( planCacheFreshness > 0 ) )
+        {
+            planCache = new FilterPlanCache( planCacheFreshness );
+        }
+
+        return planCache;
+    }
+
+
     /**
      * Sets the path in which this Partition stores data. This may be an URL to
      * a file or directory, or an JDBC URL.
@@ -489,6 +717,13 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         // don't reset initialized flag
         initialized = false;
 
+        // Release the off-heap memory
+        if ( offHeapCache != null )
+        {
+            offHeapCache.clear();
+            offHeapCache = null;
+        }
+
         MultiException errors = new MultiException( I18n.err( I18n.ERR_577 ) );
 
         for ( Index<?, String> index : userIndices.values() )
@@ -555,6 +790,9 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         setupSystemIndices();
         setupUserIndices();
 
+        hierarchyLabels = new HierarchyLabels( rdnIdx, maxHierarchyLabels );
+        hierarchyLabels.load();
+
         if ( cacheService != null )
         {
             aliasCache = cacheService.getCache( "alias" );
@@ -574,6 +812,21 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             {
                 piarCache.getCacheConfiguration().setMaxElementsInMemory( cacheSize * 3 );
             }
+
+            piarCachePolicy = TinyLfuPolicy.install( piarCache );
+
+            String piarMetric = MetricsRegistry.PARTITION_PREFIX + id + ".piar";
+            piarCacheHits = metricsRegistry.getCounter( piarMetric + MetricsRegistry.HIT_SUFFIX );
+            piarCacheMisses = metricsRegistry.getCounter( piarMetric + MetricsRegistry.MISS_SUFFIX );
+        }
+
+        if ( offHeapCacheSize > 0 )
+        {
+            offHeapCache = new OffHeapEntryCache( schemaManager, offHeapCacheSize );
+
+            String offHeapMetric = MetricsRegistry.PARTITION_PREFIX + id + ".offheap";
+            offHeapCacheHits = metricsRegistry.getCounter( offHeapMetric + MetricsRegistry.HIT_SUFFIX );
+            offHeapCacheMisses = metricsRegistry.getCounter( offHeapMetric + MetricsRegistry.MISS_SUFFIX );
         }
     }
 
@@ -795,14 +1048,18 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
                 if ( hasUserIndexOn( attributeType ) )
                 {
-                    Index<Object, String> idx = ( Index<Object, String> ) getUserIndex( attributeType );
+                    // During a bulk load, the keys are added by the loader
+                    if ( !userIndicesDeferred )
+                    {
+                        Index<Object, String> idx = ( Index<Object, String> ) getUserIndex( attributeType );
 
-                    // here lookup by attributeId is OK since we got attributeId from
-                    // the entry via the enumeration - it's in there as is for sure
+                        // here lookup by attributeId is OK since we got attributeId from
+                        // the entry via the enumeration - it's in there as is for sure
 
-                    for ( Value<?> value : attribute )
-                    {
-                        idx.add( value.getNormValue(), id );
+                        for ( Value<?> value : attribute )
+                        {
+                            idx.add( value.getNormValue(), id );
+                        }
                     }
 
                     // Adds only those attributes that are indexed
@@ -819,6 +1076,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             {
                 // Update the RDN index
                 rdnIdx.add( key, id );
+                hierarchyLabels.add( id, parentId );
 
                 // Update the parent's nbChildren and nbDescendants values
                 if ( parentId != Partition.ROOT_ID )
@@ -1055,10 +1313,12 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             try
             {
                 rdnIdx.drop( id );
+                hierarchyLabels.remove( id );
 
                 dumpRdnIdx();
 
                 master.remove( id );
+                invalidateOffHeapCache( id );
             }
             finally
             {
@@ -1142,10 +1402,16 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     {
         try
         {
-            rwLock.readLock().lock();
+            lockRead();
 
             Dn dn = buildEntryDn( id );
 
+            if ( dn == null )
+            {
+                // The entry has been deleted by a concurrent write
+                return null;
+            }
+
             return fetch( id, dn );
         }
         catch ( Exception e )
@@ -1154,7 +1420,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         }
         finally
         {
-            rwLock.readLock().unlock();
+            unlockRead();
         }
     }
 
@@ -1196,12 +1462,12 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
             try
             {
-                rwLock.readLock().lock();
-                entry = master.get( id );
+                lockRead();
+                entry = fetchUncached( id );
             }
             finally
             {
-                rwLock.readLock().unlock();
+                unlockRead();
             }
 
             if ( entry != null )
@@ -1209,8 +1475,11 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 // We have to store the DN in this entry
                 entry.setDn( dn );
 
-                // always store original entry in the cache
-                addToCache( id, entry );
+                // always store original entry in the cache, unless we are scanning
+                if ( !isScanning() )
+                {
+                    addToCache( id, entry );
+                }
 
                 entry = new ClonedServerEntry( entry );
 
@@ -1231,6 +1500,59 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * Reads an entry from the off-heap cache if any, or from the master table.
+     * An entry read from the master table is added to the off-heap cache while
+     * the read lock is held, so that it can't overwrite a concurrent update : it is
+     * not added if the partition is read without locking.
+     */
+    private Entry fetchUncached( String id ) throws Exception
+    {
+        OffHeapEntryCache cache = offHeapCache;
+
+        if ( cache == null )
+        {
+            return master.get( id );
+        }
+
+        Entry entry = cache.get( id );
+
+        if ( entry != null )
+        {
+            offHeapCacheHits.incrementAndGet();
+
+            return entry;
+        }
+
+        offHeapCacheMisses.incrementAndGet();
+        entry = master.get( id );
+
+        // Without the read lock, a concurrent update could be overwritten by this entry
+        if ( ( entry != null ) && !isScanning() && !isLockFreeRead() )
+        {
+            cache.put( id, entry );
+        }
+
+        return entry;
+    }
+
+
+    /**
+     * Removes an entry from the off-heap cache, if any. The children of a
+     * moved or renamed entry can stay in the cache, as their stored content
+     * does not depend on their Dn.
+     */
+    private void invalidateOffHeapCache( String id )
+    {
+        OffHeapEntryCache cache = offHeapCache;
+
+        if ( cache != null )
+        {
+            cache.remove( id );
+        }
+    }
+
+
     //---------------------------------------------------------------------------------------------
     // The Modify operation
     //---------------------------------------------------------------------------------------------
@@ -1295,6 +1617,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         entry.removeAttributes( ENTRY_DN_AT );
 
         master.put( id, entry );
+        invalidateOffHeapCache( id );
 
         if ( isSyncOnWrite.get() )
         {
@@ -1792,6 +2115,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         // Now, add the new entry at the right position
         movedEntry.setParentId( newParentId );
         rdnIdx.add( movedEntry, entryId );
+        hierarchyLabels.move( entryId, newParentId );
 
         updateRdnIdx( newParentId, ADD_CHILD, movedEntry.getNbDescendants() );
 
@@ -1828,6 +2152,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         modifiedEntry.removeAttributes( ENTRY_DN_AT );
 
         master.put( entryId, modifiedEntry );
+        invalidateOffHeapCache( entryId );
 
         if ( isSyncOnWrite.get() )
         {
@@ -1983,6 +2308,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         movedEntry.setRdns( new Rdn[]
             { newRdn } );
         rdnIdx.add( movedEntry, entryId );
+        hierarchyLabels.move( entryId, newParentId );
 
         updateRdnIdx( newParentId, ADD_CHILD, movedEntry.getNbDescendants() );
 
@@ -2149,6 +2475,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
         // And save the modified entry
         master.put( oldId, entry );
+        invalidateOffHeapCache( oldId );
     }
 
 
@@ -2264,7 +2591,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
         try
         {
-            rwLock.readLock().lock();
+            lockRead();
 
             do
             {
@@ -2272,14 +2599,17 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             
                 if ( piarCache != null )
                 {
+                    piarCachePolicy.recordAccess( parentId );
                     Element piar = piarCache.get( parentId );
                     
                     if ( piar != null )
                     {
+                        piarCacheHits.incrementAndGet();
                         cur = (ParentIdAndRdn)piar.getValue();
                     }
                     else
                     {
+                        piarCacheMisses.incrementAndGet();
                         cur = rdnIdx.reverseLookup( parentId );
                         
                         if ( cur == null )
@@ -2287,7 +2617,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                             return null;
                         }
                         
-                        piarCache.put( new Element( parentId, cur) );
+                        piarCachePolicy.put( piarCache, new Element( parentId, cur ) );
                     }
                 }
                 else
@@ -2321,7 +2651,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         }
         finally
         {
-            rwLock.readLock().unlock();
+            unlockRead();
         }
 
         Dn dn = new Dn( schemaManager, Arrays.copyOf( rdnArray, pos ) );
@@ -2383,7 +2713,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             // Check into the Rdn index, starting with the partition Suffix
             try
             {
-                rwLock.readLock().lock();
+                lockRead();
                 String currentId = rdnIdx.forwardLookup( suffixKey );
 
                 for ( int i = dn.size() - suffixDn.size(); i > 0; i-- )
@@ -2402,7 +2732,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             }
             finally
             {
-                rwLock.readLock().unlock();
+                unlockRead();
             }
         }
         catch ( Exception e )
@@ -2419,7 +2749,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     {
         try
         {
-            rwLock.readLock().lock();
+            lockRead();
             ParentIdAndRdn key = rdnIdx.reverseLookup( childId );
 
             if ( key == null )
@@ -2431,7 +2761,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         }
         finally
         {
-            rwLock.readLock().unlock();
+            unlockRead();
         }
     }
 
@@ -2447,12 +2777,12 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
             try
             {
-                rwLock.readLock().lock();
+                lockRead();
                 suffixId = rdnIdx.forwardLookup( key );
             }
             finally
             {
-                rwLock.readLock().unlock();
+                unlockRead();
             }
         }
 
@@ -2697,6 +3027,15 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    public HierarchyLabels getHierarchyLabels()
+    {
+        return hierarchyLabels;
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -3042,20 +3381,26 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
 
     /**
-     * Acquire a Read lock
+     * Acquire a Read lock, unless the partition is read without locking
      */
     private void lockRead()
     {
-        rwLock.readLock().lock();
+        if ( !isLockFreeRead() )
+        {
+            rwLock.readLock().lock();
+        }
     }
 
 
     /**
-     * Release a Read lock
+     * Release a Read lock, unless the partition is read without locking
      */
     private void unlockRead()
     {
-        rwLock.readLock().unlock();
+        if ( !isLockFreeRead() )
+        {
+            rwLock.readLock().unlock();
+        }
     }
 
 
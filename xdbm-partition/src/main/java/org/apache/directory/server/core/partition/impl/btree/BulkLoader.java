@@ -0,0 +1,692 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree;
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.csn.CsnFactory;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.apache.directory.api.ldap.model.ldif.LdifReader;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.LdapComparator;
+import org.apache.directory.api.ldap.model.schema.MatchingRule;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.util.DateUtils;
+import org.apache.directory.server.constants.ServerDNConstants;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.xdbm.Index;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * An offline loader, injecting the entries of a LDIF file directly into a
+ * partition, without going through the interceptor chain : there is no schema
+ * check, no access control, and the partition is only synced at the end.
+ * <p>
+ * The entries are added one by one with {@link AbstractBTreePartition#add(AddOperationContext)},
+ * which keeps the master table and the system indexes consistent whatever the
+ * backend. The user indexes are built apart : their keys are collected while the
+ * entries are added, sorted by batches (see {@link #setIndexBatchSize(int)}), and
+ * written in the order of the index, so that the B-tree pages are written one
+ * after the other instead of randomly. The other savings come from the parallel
+ * parsing, from skipping the interceptors, and from syncing the partition once.
+ * <p>
+ * The LDIF is cut into batches of records which are parsed in parallel. Each
+ * entry gets the operational attributes the server would have added (entryUUID,
+ * entryCSN, creatorsName and createTimestamp) when they are missing. The
+ * entries are then added in the order of the file, an entry whose parent has
+ * not been loaded yet being kept until its parent is added. The number of
+ * entries kept aside is bounded (see {@link #setMaxOrphans(int)}), the load
+ * failing beyond : a LDIF where the parents come first is expected. When the load is
+ * done, the number of entries in the partition and in its Rdn index is checked.
+ * <p>
+ * The partition must not be used by a running server during the load.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class BulkLoader
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( BulkLoader.class );
+
+    /** The default number of LDIF records parsed in a batch */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    /** The default maximum number of entries waiting for their parent */
+    public static final int DEFAULT_MAX_ORPHANS = 10000;
+
+    /** The default number of user index keys sorted together */
+    public static final int DEFAULT_INDEX_BATCH_SIZE = 100000;
+
+    /** The partition to load */
+    private final AbstractBTreePartition partition;
+
+    /** The schema manager */
+    private final SchemaManager schemaManager;
+
+    /** The number of threads parsing the LDIF */
+    private int nbThreads = Runtime.getRuntime().availableProcessors();
+
+    /** The number of LDIF records parsed in a batch */
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    /** The value of the creatorsName attribute */
+    private String creatorsName = ServerDNConstants.ADMIN_SYSTEM_DN;
+
+    /** The factory for the entryCSN */
+    private CsnFactory csnFactory = new CsnFactory( 0 );
+
+    /** The entries waiting for their parent, per normalized parent Dn */
+    private final Map<String, List<Entry>> orphans = new HashMap<String, List<Entry>>();
+
+    /** The number of entries waiting for their parent */
+    private int nbOrphans;
+
+    /** The maximum number of entries waiting for their parent */
+    private int maxOrphans = DEFAULT_MAX_ORPHANS;
+
+    /** Tells if the suffix entry is present in the partition */
+    private boolean hasSuffix;
+
+    /** The number of user index keys sorted together. 0 updates the indexes when the entries are added */
+    private int indexBatchSize = DEFAULT_INDEX_BATCH_SIZE;
+
+    /** The user index keys not written yet, per index */
+    private final Map<Index<Object, String>, List<IndexKey>> indexKeys = new HashMap<Index<Object, String>, List<IndexKey>>();
+
+    /** The comparators sorting the keys of each user index */
+    private final Map<Index<Object, String>, Comparator<IndexKey>> indexComparators = new HashMap<Index<Object, String>, Comparator<IndexKey>>();
+
+    /** The number of user index keys not written yet */
+    private int nbIndexKeys;
+
+
+    /**
+     * A key of a user index, and the entry it points to.
+     */
+    private static class IndexKey
+    {
+        /** The normalized value */
+        private final Object key;
+
+        /** The entry ID */
+        private final String id;
+
+
+        private IndexKey( Object key, String id )
+        {
+            this.key = key;
+            this.id = id;
+        }
+    }
+
+
+    /**
+     * Creates a new instance of BulkLoader.
+     *
+     * @param partition The initialized partition to load
+     * @param schemaManager The schema manager
+     */
+    public BulkLoader( AbstractBTreePartition partition, SchemaManager schemaManager )
+    {
+        this.partition = partition;
+        this.schemaManager = schemaManager;
+    }
+
+
+    /**
+     * @param nbThreads The number of threads parsing the LDIF
+     */
+    public void setNbThreads( int nbThreads )
+    {
+        this.nbThreads = nbThreads;
+    }
+
+
+    /**
+     * @param batchSize The number of LDIF records parsed in a batch
+     */
+    public void setBatchSize( int batchSize )
+    {
+        this.batchSize = batchSize;
+    }
+
+
+    /**
+     * @param maxOrphans The maximum number of entries which can wait for their parent
+     */
+    public void setMaxOrphans( int maxOrphans )
+    {
+        this.maxOrphans = maxOrphans;
+    }
+
+
+    /**
+     * @param indexBatchSize The number of user index keys sorted before being written.
+     * 0 updates the user indexes when each entry is added
+     */
+    public void setIndexBatchSize( int indexBatchSize )
+    {
+        this.indexBatchSize = indexBatchSize;
+    }
+
+
+    /**
+     * @param creatorsName The creatorsName added to the entries which don't have one
+     */
+    public void setCreatorsName( String creatorsName )
+    {
+        this.creatorsName = creatorsName;
+    }
+
+
+    /**
+     * @param csnFactory The factory used to create the entryCSN of the entries which don't have one
+     */
+    public void setCsnFactory( CsnFactory csnFactory )
+    {
+        this.csnFactory = csnFactory;
+    }
+
+
+    /**
+     * Loads a LDIF file.
+     *
+     * @param ldifFile The file to load
+     * @return The number of loaded entries
+     * @throws Exception If the file can't be read, if an entry can't be added, or if
+     * the partition is not consistent after the load
+     */
+    public long load( File ldifFile ) throws Exception
+    {
+        Reader reader = new InputStreamReader( new FileInputStream( ldifFile ), "UTF-8" );
+
+        try
+        {
+            return load( reader );
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+
+    /**
+     * Loads the LDIF read from a Reader.
+     *
+     * @param reader The LDIF reader
+     * @return The number of loaded entries
+     * @throws Exception If the LDIF can't be read, if an entry can't be added, or if
+     * the partition is not consistent after the load
+     */
+    public long load( Reader reader ) throws Exception
+    {
+        long start = System.currentTimeMillis();
+        long initialCount = partition.count();
+        hasSuffix = initialCount > 0;
+
+        // The partition is synced once, at the end of the load
+        boolean syncOnWrite = partition.isSyncOnWrite.getAndSet( false );
+        partition.setUserIndicesDeferred( indexBatchSize > 0 );
+
+        ExecutorService executor = Executors.newFixedThreadPool( nbThreads );
+        LinkedList<Future<List<Entry>>> pending = new LinkedList<Future<List<Entry>>>();
+        long nbLoaded = 0L;
+
+        try
+        {
+            BufferedReader in = new BufferedReader( reader );
+            StringBuilder batch = new StringBuilder();
+            int nbRecords = 0;
+            boolean inRecord = false;
+            String line;
+
+            while ( ( line = in.readLine() ) != null )
+            {
+                if ( line.trim().length() == 0 )
+                {
+                    if ( inRecord )
+                    {
+                        batch.append( '\n' );
+                        inRecord = false;
+                        nbRecords++;
+
+                        if ( nbRecords == batchSize )
+                        {
+                            pending.add( executor.submit( new Parser( batch.toString() ) ) );
+                            batch.setLength( 0 );
+                            nbRecords = 0;
+
+                            // Don't let the parsers run too far ahead of the writer
+                            if ( pending.size() > nbThreads * 2 )
+                            {
+                                nbLoaded += write( pending.removeFirst() );
+                            }
+                        }
+                    }
+
+                    continue;
+                }
+
+                batch.append( line ).append( '\n' );
+                inRecord = true;
+            }
+
+            if ( batch.length() > 0 )
+            {
+                pending.add( executor.submit( new Parser( batch.toString() ) ) );
+            }
+
+            while ( !pending.isEmpty() )
+            {
+                nbLoaded += write( pending.removeFirst() );
+            }
+        }
+        finally
+        {
+            for ( Future<List<Entry>> future : pending )
+            {
+                future.cancel( true );
+            }
+
+            executor.shutdown();
+
+            try
+            {
+                // The keys of the entries which have been added, even if the load failed
+                writeIndexKeys();
+            }
+            finally
+            {
+                partition.setUserIndicesDeferred( false );
+
+                try
+                {
+                    partition.sync();
+                }
+                finally
+                {
+                    partition.isSyncOnWrite.set( syncOnWrite );
+                }
+            }
+        }
+
+        if ( nbOrphans != 0 )
+        {
+            List<String> parents = new ArrayList<String>();
+
+            for ( List<Entry> children : orphans.values() )
+            {
+                parents.add( children.get( 0 ).getDn().getParent().getName() );
+            }
+
+            throw new LdapOtherException( nbOrphans + " entries have not been loaded, their parents are missing : "
+                + parents );
+        }
+
+        check( initialCount + nbLoaded );
+
+        LOG.info( "Loaded {} entries in {} ms", nbLoaded, System.currentTimeMillis() - start );
+
+        return nbLoaded;
+    }
+
+
+    /**
+     * Adds the entries of a parsed batch into the partition.
+     *
+     * @return The number of added entries
+     */
+    private long write( Future<List<Entry>> future ) throws Exception
+    {
+        List<Entry> entries;
+
+        try
+        {
+            entries = future.get();
+        }
+        catch ( ExecutionException ee )
+        {
+            Throwable cause = ee.getCause();
+
+            if ( cause instanceof Exception )
+            {
+                throw ( Exception ) cause;
+            }
+
+            if ( cause instanceof Error )
+            {
+                throw ( Error ) cause;
+            }
+
+            throw new LdapOtherException( ee.getMessage(), ee );
+        }
+
+        long nbAdded = 0L;
+
+        for ( Entry entry : entries )
+        {
+            nbAdded += add( entry );
+        }
+
+        return nbAdded;
+    }
+
+
+    /**
+     * Adds an entry, or keeps it aside if its parent is missing. The entries
+     * waiting for this entry are added after it.
+     *
+     * @return The number of added entries
+     */
+    private long add( Entry entry ) throws Exception
+    {
+        Dn dn = entry.getDn();
+        boolean isSuffix = dn.equals( partition.getSuffixDn() );
+
+        // The parents can't be looked up before the suffix is loaded
+        if ( !isSuffix && ( !hasSuffix || ( partition.getEntryId( dn.getParent() ) == null ) ) )
+        {
+            if ( nbOrphans >= maxOrphans )
+            {
+                throw new LdapOtherException( "More than " + maxOrphans + " entries come before their parent, "
+                    + "the LDIF must list the parents first : " + dn.getName() );
+            }
+
+            String parentDn = dn.getParent().getNormName();
+            List<Entry> children = orphans.get( parentDn );
+
+            if ( children == null )
+            {
+                children = new ArrayList<Entry>();
+                orphans.put( parentDn, children );
+            }
+
+            children.add( entry );
+            nbOrphans++;
+
+            return 0L;
+        }
+
+        hasSuffix |= isSuffix;
+        long nbAdded = 0L;
+
+        // The waiting descendants are added without recursing, the tree may be deep
+        LinkedList<Entry> toAdd = new LinkedList<Entry>();
+        toAdd.add( entry );
+
+        while ( !toAdd.isEmpty() )
+        {
+            Entry next = toAdd.removeFirst();
+
+            if ( !next.containsAttribute( SchemaConstants.ENTRY_CSN_AT ) )
+            {
+                next.add( SchemaConstants.ENTRY_CSN_AT, csnFactory.newInstance().toString() );
+            }
+
+            partition.add( new AddOperationContext( null, next ) );
+            nbAdded++;
+
+            if ( indexBatchSize > 0 )
+            {
+                collectIndexKeys( next );
+            }
+
+            List<Entry> children = orphans.remove( next.getDn().getNormName() );
+
+            if ( children != null )
+            {
+                nbOrphans -= children.size();
+                toAdd.addAll( children );
+            }
+        }
+
+        return nbAdded;
+    }
+
+
+    /**
+     * Collects the user index keys of an added entry, and writes them once there
+     * are enough of them.
+     */
+    @SuppressWarnings("unchecked")
+    private void collectIndexKeys( Entry entry ) throws Exception
+    {
+        String id = entry.get( SchemaConstants.ENTRY_UUID_AT ).getString();
+
+        for ( Attribute attribute : entry )
+        {
+            AttributeType attributeType = attribute.getAttributeType();
+
+            if ( !partition.hasUserIndexOn( attributeType ) )
+            {
+                continue;
+            }
+
+            Index<Object, String> index = ( Index<Object, String> ) partition.getUserIndex( attributeType );
+            List<IndexKey> keys = indexKeys.get( index );
+
+            if ( keys == null )
+            {
+                keys = new ArrayList<IndexKey>();
+                indexKeys.put( index, keys );
+                indexComparators.put( index, createComparator( attributeType ) );
+            }
+
+            for ( Value<?> value : attribute )
+            {
+                keys.add( new IndexKey( value.getNormValue(), id ) );
+                nbIndexKeys++;
+            }
+        }
+
+        if ( nbIndexKeys >= indexBatchSize )
+        {
+            writeIndexKeys();
+        }
+    }
+
+
+    /**
+     * Writes the collected user index keys, sorted the way each index sorts them.
+     */
+    private void writeIndexKeys() throws Exception
+    {
+        if ( nbIndexKeys == 0 )
+        {
+            return;
+        }
+
+        for ( Map.Entry<Index<Object, String>, List<IndexKey>> indexEntry : indexKeys.entrySet() )
+        {
+            Index<Object, String> index = indexEntry.getKey();
+            List<IndexKey> keys = indexEntry.getValue();
+
+            Collections.sort( keys, indexComparators.get( index ) );
+
+            for ( IndexKey key : keys )
+            {
+                index.add( key.key, key.id );
+            }
+
+            keys.clear();
+        }
+
+        nbIndexKeys = 0;
+    }
+
+
+    /**
+     * Creates a comparator sorting the keys like the index does : with the comparator
+     * of the matching rule used by the index, then by entry ID.
+     */
+    @SuppressWarnings("unchecked")
+    private static Comparator<IndexKey> createComparator( AttributeType attributeType )
+    {
+        MatchingRule mr = attributeType.getEquality();
+
+        if ( mr == null )
+        {
+            mr = attributeType.getOrdering();
+        }
+
+        if ( mr == null )
+        {
+            mr = attributeType.getSubstring();
+        }
+
+        final LdapComparator<Object> keyComparator = ( mr == null ) ? null : ( LdapComparator<Object> ) mr
+            .getLdapComparator();
+
+        return new Comparator<IndexKey>()
+        {
+            public int compare( IndexKey key1, IndexKey key2 )
+            {
+                if ( keyComparator != null )
+                {
+                    int result = keyComparator.compare( key1.key, key2.key );
+
+                    if ( result != 0 )
+                    {
+                        return result;
+                    }
+                }
+
+                return key1.id.compareTo( key2.id );
+            }
+        };
+    }
+
+
+    /**
+     * Checks the partition content after the load.
+     */
+    private void check( long expectedCount ) throws Exception
+    {
+        long count = partition.count();
+
+        if ( count != expectedCount )
+        {
+            throw new LdapOtherException( "The partition contains " + count + " entries, expected "
+                + expectedCount );
+        }
+
+        long rdnCount = partition.getRdnIndex().count();
+
+        if ( rdnCount != count )
+        {
+            throw new LdapOtherException( "The Rdn index contains " + rdnCount + " entries, the partition "
+                + count );
+        }
+    }
+
+
+    /**
+     * Parses a batch of LDIF records, and prepares the entries.
+     */
+    private class Parser implements Callable<List<Entry>>
+    {
+        /** The LDIF records */
+        private final String ldif;
+
+
+        private Parser( String ldif )
+        {
+            this.ldif = ldif;
+        }
+
+
+        public List<Entry> call() throws Exception
+        {
+            LdifReader reader = new LdifReader();
+            List<LdifEntry> ldifEntries;
+
+            try
+            {
+                ldifEntries = reader.parseLdif( ldif );
+            }
+            finally
+            {
+                reader.close();
+            }
+
+            List<Entry> entries = new ArrayList<Entry>( ldifEntries.size() );
+            String now = DateUtils.getGeneralizedTime();
+
+            for ( LdifEntry ldifEntry : ldifEntries )
+            {
+                if ( !ldifEntry.isEntry() )
+                {
+                    throw new LdapException( "Only entries can be bulk loaded : " + ldifEntry.getDn() );
+                }
+
+                Entry entry = new DefaultEntry( schemaManager, ldifEntry.getEntry() );
+
+                if ( !entry.containsAttribute( SchemaConstants.ENTRY_UUID_AT ) )
+                {
+                    entry.add( SchemaConstants.ENTRY_UUID_AT, UUID.randomUUID().toString() );
+                }
+
+                if ( !entry.containsAttribute( SchemaConstants.CREATORS_NAME_AT ) )
+                {
+                    entry.add( SchemaConstants.CREATORS_NAME_AT, creatorsName );
+                }
+
+                if ( !entry.containsAttribute( SchemaConstants.CREATE_TIMESTAMP_AT ) )
+                {
+                    entry.add( SchemaConstants.CREATE_TIMESTAMP_AT, now );
+                }
+
+                entries.add( entry );
+            }
+
+            return entries;
+        }
+    }
+}
@@ -48,9 +48,13 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
     /** Speedup for logs */
     private static final boolean IS_DEBUG = LOG_CURSOR.isDebugEnabled();
 
+    private final AbstractBTreePartition db;
     private final Cursor<IndexEntry<String, String>> indexCursor;
     private final Evaluator<? extends ExprNode> evaluator;
 
+    /** Tells if the search is a scan, which should not fill the caches */
+    private final boolean scan;
+
 
     public EntryCursorAdaptor( AbstractBTreePartition db, PartitionSearchResult searchResult )
     {
@@ -59,8 +63,10 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
             LOG_CURSOR.debug( "Creating EntryCursorAdaptor {}", this );
         }
 
+        this.db = db;
         indexCursor = searchResult.getResultSet();
         evaluator = searchResult.getEvaluator();
+        scan = searchResult.isScan();
     }
 
 
@@ -164,11 +170,21 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
 
         try
         {
+            // The fetches of a scan don't fill the caches
+            db.setScanning( scan );
+
             if ( evaluator.evaluate( indexEntry ) )
             {
                 Entry entry = indexEntry.getEntry();
                 indexEntry.setEntry( null );
 
+                // The evaluators may have answered using the indexes only : the
+                // entry is only fetched now that we know it will be returned
+                if ( entry == null )
+                {
+                    entry = db.fetch( indexEntry.getId() );
+                }
+
                 return entry;
             }
             else
@@ -182,6 +198,10 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
         {
             throw new CursorException( e.getMessage(), e );
         }
+        finally
+        {
+            db.setScanning( false );
+        }
     }
 
 
@@ -0,0 +1,534 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ * 
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Hierarchical labels for the entries of a partition. Each entry gets a label
+ * made of its parent's label followed by an ordinal, unique among its siblings
+ * (a Dewey like path). Each ordinal is stored as two chars, so the labels of the
+ * descendants of an entry all start with this entry's label, and form a
+ * contiguous range when the labels are sorted.
+ * <p>
+ * Checking if an entry is a descendant of another one is then a prefix check,
+ * instead of a walk up the Rdn index, and the descendants of an entry can be read
+ * with a range scan.
+ * <p>
+ * The labels are kept in memory, so they are optional : they are built from the
+ * Rdn index when the partition is initialized, only if it contains at most a
+ * maximum number of entries, and maintained by the partition when entries are
+ * added, deleted or moved. They are dropped once the partition grows beyond this
+ * maximum. While they are not available, the subtree searches walk the Rdn index.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class HierarchyLabels
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( HierarchyLabels.class );
+
+    /** The default maximum number of labelled entries */
+    public static final int DEFAULT_MAX_SIZE = 100000;
+
+    /** The highest ordinal : its first char must remain lower than UPPER_BOUND */
+    private static final long MAX_ORDINAL = 0xFFFEFFFFL;
+
+    /** A char greater than all the chars used in a label */
+    private static final char UPPER_BOUND = '\uFFFF';
+
+    /** The Rdn index the labels are built from */
+    private final Index<ParentIdAndRdn, String> rdnIdx;
+
+    /** The maximum number of labelled entries. 0 disables the labels */
+    private final int maxSize;
+
+    /** The labels, replaced as a whole when they are built or dropped */
+    private volatile Labels current = new Labels();
+
+    /** Tells if the labels have been built, and are maintained */
+    private volatile boolean loaded;
+
+
+    /**
+     * The label of each entry, and the entries sorted by label.
+     */
+    private static class Labels
+    {
+        /** The label of each entry */
+        private final Map<String, String> labels = new ConcurrentHashMap<String, String>();
+
+        /** The entries, sorted by label */
+        private final ConcurrentNavigableMap<String, String> ids = new ConcurrentSkipListMap<String, String>();
+    }
+
+
+    /**
+     * Thrown when a parent has no more room for a new child ordinal.
+     */
+    private static class OrdinalOverflowException extends Exception
+    {
+        private static final long serialVersionUID = 1L;
+    }
+
+
+    /**
+     * Creates a new instance of HierarchyLabels.
+     *
+     * @param rdnIdx The Rdn index
+     * @param maxSize The maximum number of labelled entries. 0 disables the labels
+     */
+    public HierarchyLabels( Index<ParentIdAndRdn, String> rdnIdx, int maxSize )
+    {
+        this.rdnIdx = rdnIdx;
+        this.maxSize = maxSize;
+    }
+
+
+    /**
+     * @return <code>true</code> if the labels have been built, and are maintained
+     */
+    public boolean isLoaded()
+    {
+        return loaded;
+    }
+
+
+    /**
+     * Builds the labels of all the entries of the Rdn index, replacing the current
+     * ones. The labels are only made available once all of them are built : if the
+     * index contains more than the maximum number of entries, or can't be read, the
+     * labels stay unavailable. The index must not be modified while the labels are
+     * built.
+     *
+     * @return <code>true</code> if the labels have been built
+     * @throws Exception If the Rdn index can't be read
+     */
+    public synchronized boolean load() throws Exception
+    {
+        drop();
+
+        if ( maxSize <= 0 )
+        {
+            return false;
+        }
+
+        if ( rdnIdx.count() > maxSize )
+        {
+            LOG.info( "More than {} entries, the hierarchical labels are disabled", maxSize );
+
+            return false;
+        }
+
+        Labels built = new Labels();
+        Cursor<IndexEntry<ParentIdAndRdn, String>> cursor = rdnIdx.forwardCursor();
+
+        try
+        {
+            while ( cursor.next() )
+            {
+                IndexEntry<ParentIdAndRdn, String> indexEntry = cursor.get();
+
+                label( built, indexEntry.getId(), indexEntry.getKey().getParentId() );
+            }
+        }
+        catch ( OrdinalOverflowException ooe )
+        {
+            LOG.warn( "An entry has too many children, the hierarchical labels are disabled" );
+
+            return false;
+        }
+        finally
+        {
+            cursor.close();
+        }
+
+        if ( built.labels.size() > maxSize )
+        {
+            LOG.info( "More than {} entries, the hierarchical labels are disabled", maxSize );
+
+            return false;
+        }
+
+        current = built;
+        loaded = true;
+
+        return true;
+    }
+
+
+    /**
+     * Drops all the labels. They won't be available until the next call to {@link #load()}
+     */
+    public synchronized void drop()
+    {
+        // The flag is reset first : a reader seeing the empty labels then sees it reset too
+        loaded = false;
+        current = new Labels();
+    }
+
+
+    /**
+     * Gives a label to an entry which has just been added. The labels are dropped
+     * if the partition contains more than the maximum number of entries.
+     *
+     * @param id The added entry ID
+     * @param parentId The entry's parent ID
+     * @throws LdapException If the Rdn index can't be read
+     */
+    public synchronized void add( String id, String parentId ) throws LdapException
+    {
+        if ( !loaded )
+        {
+            return;
+        }
+
+        if ( current.labels.size() >= maxSize )
+        {
+            LOG.info( "More than {} entries, the hierarchical labels are disabled", maxSize );
+            drop();
+
+            return;
+        }
+
+        try
+        {
+            label( current, id, parentId );
+        }
+        catch ( OrdinalOverflowException ooe )
+        {
+            rebuild();
+        }
+        catch ( LdapException le )
+        {
+            // Don't leave the labels partially updated
+            drop();
+
+            throw le;
+        }
+    }
+
+
+    /**
+     * Removes the label of a deleted entry.
+     *
+     * @param id The deleted entry ID
+     */
+    public synchronized void remove( String id )
+    {
+        if ( loaded )
+        {
+            String label = current.labels.remove( id );
+
+            if ( label != null )
+            {
+                current.ids.remove( label );
+            }
+        }
+    }
+
+
+    /**
+     * Gives new labels to an entry which has been moved, and to all its descendants.
+     * The Rdn index must already contain the moved entry below its new parent.
+     *
+     * @param id The moved entry ID
+     * @param newParentId The new parent ID
+     * @throws LdapException If the Rdn index can't be read
+     */
+    public synchronized void move( String id, String newParentId ) throws LdapException
+    {
+        if ( !loaded )
+        {
+            return;
+        }
+
+        Labels labels = current;
+        String oldLabel = labels.labels.get( id );
+
+        if ( oldLabel == null )
+        {
+            return;
+        }
+
+        // Compute the new label before modifying anything, so that a failure leaves the labels unchanged
+        String newLabel;
+
+        try
+        {
+            newLabel = nextLabel( labels, newParentId );
+        }
+        catch ( OrdinalOverflowException ooe )
+        {
+            rebuild();
+
+            return;
+        }
+        catch ( LdapException le )
+        {
+            drop();
+
+            throw le;
+        }
+
+        if ( newLabel == null )
+        {
+            // The new parent is not labelled, the moved entries would not be found anymore
+            LOG.warn( "The new parent {} of the moved entry {} has no label, the hierarchical labels are disabled",
+                newParentId, id );
+            drop();
+
+            return;
+        }
+
+        List<Map.Entry<String, String>> subtree = new ArrayList<Map.Entry<String, String>>(
+            labels.ids.subMap( oldLabel, true, oldLabel + UPPER_BOUND, false ).entrySet() );
+
+        for ( Map.Entry<String, String> moved : subtree )
+        {
+            labels.ids.remove( moved.getKey() );
+        }
+
+        for ( Map.Entry<String, String> moved : subtree )
+        {
+            String label = newLabel + moved.getKey().substring( oldLabel.length() );
+
+            labels.labels.put( moved.getValue(), label );
+            labels.ids.put( label, moved.getValue() );
+        }
+    }
+
+
+    /**
+     * Gets the label of an entry.
+     *
+     * @param id The entry ID
+     * @return The entry's label, or <code>null</code> if the entry is unknown
+     */
+    public String getLabel( String id )
+    {
+        return current.labels.get( id );
+    }
+
+
+    /**
+     * Tells if an entry is a descendant of another one. When this method returns
+     * <code>false</code>, the caller must check that the labels are still loaded.
+     *
+     * @param id The entry ID
+     * @param ancestorId The possible ancestor ID
+     * @return <code>true</code> if the entry is below the ancestor
+     */
+    public boolean isDescendant( String id, String ancestorId )
+    {
+        Labels labels = current;
+        String ancestorLabel = labels.labels.get( ancestorId );
+        String label = labels.labels.get( id );
+
+        if ( ( ancestorLabel == null ) || ( label == null ) )
+        {
+            return false;
+        }
+
+        return ( label.length() > ancestorLabel.length() ) && label.startsWith( ancestorLabel );
+    }
+
+
+    /**
+     * Gets the IDs of the descendants of an entry, sorted by label.
+     *
+     * @param ancestorId The ancestor ID
+     * @return A view on the descendants IDs, empty if the entry is unknown
+     */
+    public Collection<String> getDescendants( String ancestorId )
+    {
+        Labels labels = current;
+        String ancestorLabel = labels.labels.get( ancestorId );
+
+        if ( ancestorLabel == null )
+        {
+            return new ArrayList<String>();
+        }
+
+        return labels.ids.subMap( ancestorLabel, false, ancestorLabel + UPPER_BOUND, false ).values();
+    }
+
+
+    /**
+     * Gets the IDs of an entry and of all its descendants, sorted by label.
+     *
+     * @param baseId The base entry ID
+     * @return The IDs, empty if the entry is unknown, or <code>null</code> if the
+     * labels are not available
+     */
+    public List<String> getSubtree( String baseId )
+    {
+        Labels labels = current;
+        List<String> subtree = new ArrayList<String>();
+        String baseLabel = labels.labels.get( baseId );
+
+        if ( baseLabel != null )
+        {
+            subtree.add( baseId );
+            subtree.addAll( labels.ids.subMap( baseLabel, false, baseLabel + UPPER_BOUND, false ).values() );
+        }
+
+        // Checked once the labels have been read, as they are dropped before being emptied
+        if ( !loaded )
+        {
+            return null;
+        }
+
+        return subtree;
+    }
+
+
+    /**
+     * @return The number of labelled entries
+     */
+    public int size()
+    {
+        return current.labels.size();
+    }
+
+
+    /**
+     * @return The maximum number of labelled entries
+     */
+    public int getMaxSize()
+    {
+        return maxSize;
+    }
+
+
+    /**
+     * Builds all the labels again when an entry has no more room for a new child
+     * ordinal : the ordinals of the deleted entries are reused. The labels are not
+     * available while they are rebuilt, and remain disabled if the rebuild fails.
+     */
+    private void rebuild()
+    {
+        try
+        {
+            load();
+        }
+        catch ( Exception e )
+        {
+            drop();
+            LOG.warn( "Cannot build the hierarchical labels, they are disabled", e );
+        }
+    }
+
+
+    /**
+     * Computes the label of an entry, labelling its ancestors if needed.
+     */
+    private String label( Labels labels, String id, String parentId ) throws LdapException,
+        OrdinalOverflowException
+    {
+        String label = labels.labels.get( id );
+
+        if ( label != null )
+        {
+            return label;
+        }
+
+        label = nextLabel( labels, parentId );
+
+        if ( label != null )
+        {
+            labels.labels.put( id, label );
+            labels.ids.put( label, id );
+        }
+
+        return label;
+    }
+
+
+    /**
+     * Computes the label of a new child of an entry, labelling the entry and its
+     * ancestors if needed.
+     *
+     * @return The label, or null if the parent is an orphan
+     */
+    private String nextLabel( Labels labels, String parentId ) throws LdapException, OrdinalOverflowException
+    {
+        String parentLabel;
+
+        if ( Partition.ROOT_ID.equals( parentId ) )
+        {
+            parentLabel = "";
+        }
+        else
+        {
+            parentLabel = labels.labels.get( parentId );
+
+            if ( parentLabel == null )
+            {
+                ParentIdAndRdn parent = rdnIdx.reverseLookup( parentId );
+
+                if ( parent == null )
+                {
+                    // An orphan : it can't be a descendant of anything
+                    return null;
+                }
+
+                parentLabel = label( labels, parentId, parent.getParentId() );
+
+                if ( parentLabel == null )
+                {
+                    return null;
+                }
+            }
+        }
+
+        long ordinal = 0L;
+
+        // The last label of the parent's subtree starts with the highest child ordinal
+        String last = labels.ids.lowerKey( parentLabel + UPPER_BOUND );
+
+        if ( ( last != null ) && ( last.length() > parentLabel.length() ) && last.startsWith( parentLabel ) )
+        {
+            int pos = parentLabel.length();
+            ordinal = ( ( ( long ) last.charAt( pos ) ) << 16 ) + last.charAt( pos + 1 ) + 1L;
+        }
+
+        if ( ordinal > MAX_ORDINAL )
+        {
+            throw new OrdinalOverflowException();
+        }
+
+        return parentLabel + ( char ) ( ordinal >>> 16 ) + ( char ) ( ordinal & 0xFFFFL );
+    }
+}
@@ -0,0 +1,540 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A cache storing the entries in a serialized form, outside of the Java heap. It
+ * is meant to be used as a second level behind the entry cache of a partition :
+ * the cached entries don't weight on the GC, so the cache can be much larger.
+ * <br/>
+ * The memory is allocated in direct {@link ByteBuffer} slabs, cut in blocks of a
+ * fixed size. A serialized entry is stored in as many blocks as needed, the blocks
+ * don't have to be contiguous. The entries are evicted using the CLOCK algorithm :
+ * each read sets a reference flag on the entry, and when some room is needed the
+ * clock hand goes through the entries, clearing the flags, and evicts the first
+ * entry which has not been referenced since the last pass.
+ * <br/>
+ * The entries are stored without their Dn, which has to be set back by the caller.
+ * The slabs are only allocated when needed, and released when the cache is garbage
+ * collected.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class OffHeapEntryCache
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( OffHeapEntryCache.class );
+
+    /** The default block size, in bytes */
+    public static final int DEFAULT_BLOCK_SIZE = 512;
+
+    /** The default slab size, in bytes */
+    public static final int DEFAULT_SLAB_SIZE = 4 * 1024 * 1024;
+
+    /** The schemaManager used to read back the entries */
+    private final SchemaManager schemaManager;
+
+    /** The size of a block */
+    private final int blockSize;
+
+    /** The number of blocks in a slab */
+    private final int blocksPerSlab;
+
+    /** The total number of blocks */
+    private final int maxBlocks;
+
+    /** The slabs, allocated when needed */
+    private final ByteBuffer[] slabs;
+
+    /** The blocks which have been released */
+    private int[] freeBlocks = new int[1024];
+
+    /** The number of released blocks */
+    private int nbFreeBlocks;
+
+    /** The first block which has never been used */
+    private int nextBlock;
+
+    /** The cached entries, per entry ID */
+    private final Map<String, Slot> slots = new HashMap<String, Slot>();
+
+    /** The clock hand, the next candidate for eviction */
+    private Slot hand;
+
+    /** The number of evictions */
+    private long evictions;
+
+    /** The size of the stored entries, in bytes */
+    private long usedBytes;
+
+    /**
+     * The location of a cached entry. The slots are linked in a ring, in which
+     * the clock hand turns.
+     */
+    private static class Slot
+    {
+        /** The entry ID */
+        private final String id;
+
+        /** The blocks holding the serialized entry */
+        private final int[] blocks;
+
+        /** The serialized entry length */
+        private final int length;
+
+        /** Set when the entry is read, cleared by the clock hand */
+        private boolean referenced;
+
+        /** The ring links */
+        private Slot previous;
+        private Slot next;
+
+
+        private Slot( String id, int[] blocks, int length )
+        {
+            this.id = id;
+            this.blocks = blocks;
+            this.length = length;
+        }
+    }
+
+
+    /**
+     * Creates a new cache, using the default block and slab sizes
+     *
+     * @param schemaManager The SchemaManager
+     * @param capacity The memory used by the cache, in bytes
+     */
+    public OffHeapEntryCache( SchemaManager schemaManager, long capacity )
+    {
+        this( schemaManager, capacity, DEFAULT_BLOCK_SIZE, DEFAULT_SLAB_SIZE );
+    }
+
+
+    /**
+     * Creates a new cache
+     *
+     * @param schemaManager The SchemaManager
+     * @param capacity The memory used by the cache, in bytes
+     * @param blockSize The size of a block, in bytes
+     * @param slabSize The size of a slab, in bytes. It will be rounded down to a multiple of the block size
+     */
+    public OffHeapEntryCache( SchemaManager schemaManager, long capacity, int blockSize, int slabSize )
+    {
+        if ( ( blockSize <= 0 ) || ( slabSize < blockSize ) || ( capacity < blockSize ) )
+        {
+            throw new IllegalArgumentException( "Invalid off-heap cache sizes : capacity=" + capacity
+                + ", blockSize=" + blockSize + ", slabSize=" + slabSize );
+        }
+
+        this.schemaManager = schemaManager;
+        this.blockSize = blockSize;
+        maxBlocks = ( int ) Math.min( capacity / blockSize, Integer.MAX_VALUE );
+        blocksPerSlab = Math.min( slabSize / blockSize, maxBlocks );
+        slabs = new ByteBuffer[( maxBlocks + blocksPerSlab - 1 ) / blocksPerSlab];
+    }
+
+
+    /**
+     * Gets an entry from the cache. The returned entry has no Dn.
+     *
+     * @param id The entry ID
+     * @return A copy of the cached entry, or null if it's not in the cache
+     */
+    public Entry get( String id )
+    {
+        byte[] data;
+
+        synchronized ( this )
+        {
+            Slot slot = slots.get( id );
+
+            if ( slot == null )
+            {
+                return null;
+            }
+
+            slot.referenced = true;
+            data = read( slot );
+        }
+
+        try
+        {
+            return deserialize( data );
+        }
+        catch ( Exception e )
+        {
+            LOG.warn( "Cannot read back the cached entry {}, removing it from the cache", id, e );
+            remove( id );
+
+            return null;
+        }
+    }
+
+
+    /**
+     * Adds an entry in the cache, replacing the previous version if any. Entries
+     * which are too big for the cache are not stored.
+     *
+     * @param id The entry ID
+     * @param entry The entry to store
+     */
+    public void put( String id, Entry entry )
+    {
+        byte[] data;
+
+        try
+        {
+            data = serialize( entry );
+        }
+        catch ( IOException ioe )
+        {
+            LOG.warn( "Cannot serialize the entry {}, it won't be cached", id, ioe );
+            remove( id );
+
+            return;
+        }
+
+        int nbBlocks = ( data.length + blockSize - 1 ) / blockSize;
+
+        synchronized ( this )
+        {
+            Slot previous = slots.remove( id );
+
+            if ( previous != null )
+            {
+                release( previous );
+            }
+
+            if ( nbBlocks > maxBlocks )
+            {
+                return;
+            }
+
+            while ( availableBlocks() < nbBlocks )
+            {
+                evict();
+            }
+
+            Slot slot = new Slot( id, allocate( nbBlocks ), data.length );
+            write( slot, data );
+            link( slot );
+            slots.put( id, slot );
+            usedBytes += data.length;
+        }
+    }
+
+
+    /**
+     * Removes an entry from the cache
+     *
+     * @param id The entry ID
+     */
+    public synchronized void remove( String id )
+    {
+        Slot slot = slots.remove( id );
+
+        if ( slot != null )
+        {
+            release( slot );
+        }
+    }
+
+
+    /**
+     * Removes all the entries from the cache. The slabs are kept.
+     */
+    public synchronized void clear()
+    {
+        slots.clear();
+        hand = null;
+        nbFreeBlocks = 0;
+        nextBlock = 0;
+        usedBytes = 0L;
+    }
+
+
+    /**
+     * @return The number of cached entries
+     */
+    public synchronized int size()
+    {
+        return slots.size();
+    }
+
+
+    /**
+     * @return The size of the cached entries, in bytes
+     */
+    public synchronized long getUsedBytes()
+    {
+        return usedBytes;
+    }
+
+
+    /**
+     * @return The memory which can be used by the cache, in bytes
+     */
+    public long getCapacity()
+    {
+        return ( long ) maxBlocks * blockSize;
+    }
+
+
+    /**
+     * @return The number of entries which have been evicted from the cache
+     */
+    public synchronized long getEvictions()
+    {
+        return evictions;
+    }
+
+
+    /**
+     * @return The number of blocks which can be allocated
+     */
+    private int availableBlocks()
+    {
+        return nbFreeBlocks + ( maxBlocks - nextBlock );
+    }
+
+
+    /**
+     * Evicts the first entry the clock hand finds without its reference flag
+     */
+    private void evict()
+    {
+        while ( hand.referenced )
+        {
+            hand.referenced = false;
+            hand = hand.next;
+        }
+
+        Slot victim = hand;
+        slots.remove( victim.id );
+        release( victim );
+        evictions++;
+    }
+
+
+    /**
+     * Adds a slot in the ring, just behind the clock hand, so that it's the last
+     * one the hand will visit.
+     */
+    private void link( Slot slot )
+    {
+        if ( hand == null )
+        {
+            slot.previous = slot;
+            slot.next = slot;
+            hand = slot;
+        }
+        else
+        {
+            slot.previous = hand.previous;
+            slot.next = hand;
+            hand.previous.next = slot;
+            hand.previous = slot;
+        }
+    }
+
+
+    /**
+     * Removes a slot from the ring, and gives its blocks back
+     */
+    private void release( Slot slot )
+    {
+        if ( slot.next == slot )
+        {
+            hand = null;
+        }
+        else
+        {
+            slot.previous.next = slot.next;
+            slot.next.previous = slot.previous;
+
+            if ( hand == slot )
+            {
+                hand = slot.next;
+            }
+        }
+
+        if ( nbFreeBlocks + slot.blocks.length > freeBlocks.length )
+        {
+            int[] newFreeBlocks = new int[Math.max( freeBlocks.length * 2, nbFreeBlocks + slot.blocks.length )];
+            System.arraycopy( freeBlocks, 0, newFreeBlocks, 0, nbFreeBlocks );
+            freeBlocks = newFreeBlocks;
+        }
+
+        System.arraycopy( slot.blocks, 0, freeBlocks, nbFreeBlocks, slot.blocks.length );
+        nbFreeBlocks += slot.blocks.length;
+        usedBytes -= slot.length;
+    }
+
+
+    /**
+     * Allocates some blocks, reusing the released ones first
+     */
+    private int[] allocate( int nbBlocks )
+    {
+        int[] blocks = new int[nbBlocks];
+
+        for ( int i = 0; i < nbBlocks; i++ )
+        {
+            if ( nbFreeBlocks > 0 )
+            {
+                nbFreeBlocks--;
+                blocks[i] = freeBlocks[nbFreeBlocks];
+            }
+            else
+            {
+                blocks[i] = nextBlock;
+                nextBlock++;
+            }
+        }
+
+        return blocks;
+    }
+
+
+    /**
+     * @return The slab containing a block, allocated if needed
+     */
+    private ByteBuffer getSlab( int block )
+    {
+        int slabIndex = block / blocksPerSlab;
+        ByteBuffer slab = slabs[slabIndex];
+
+        if ( slab == null )
+        {
+            int nbBlocks = Math.min( blocksPerSlab, maxBlocks - slabIndex * blocksPerSlab );
+            slab = ByteBuffer.allocateDirect( nbBlocks * blockSize );
+            slabs[slabIndex] = slab;
+        }
+
+        return slab;
+    }
+
+
+    /**
+     * Copies the serialized entry in the slot blocks
+     */
+    private void write( Slot slot, byte[] data )
+    {
+        int offset = 0;
+
+        for ( int block : slot.blocks )
+        {
+            ByteBuffer slab = getSlab( block );
+            int length = Math.min( blockSize, data.length - offset );
+
+            slab.position( ( block % blocksPerSlab ) * blockSize );
+            slab.put( data, offset, length );
+            offset += length;
+        }
+    }
+
+
+    /**
+     * Copies the serialized entry from the slot blocks
+     */
+    private byte[] read( Slot slot )
+    {
+        byte[] data = new byte[slot.length];
+        int offset = 0;
+
+        for ( int block : slot.blocks )
+        {
+            ByteBuffer slab = getSlab( block );
+            int length = Math.min( blockSize, data.length - offset );
+
+            slab.position( ( block % blocksPerSlab ) * blockSize );
+            slab.get( data, offset, length );
+            offset += length;
+        }
+
+        return data;
+    }
+
+
+    /**
+     * Serializes the entry attributes, each one prefixed by its OID, as the
+     * MasterTable serializers do. The Dn is not stored.
+     */
+    private byte[] serialize( Entry entry ) throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream( baos );
+
+        out.writeInt( entry.getAttributes().size() );
+
+        for ( Attribute attribute : entry.getAttributes() )
+        {
+            out.writeUTF( attribute.getAttributeType().getOid() );
+            attribute.writeExternal( out );
+        }
+
+        out.flush();
+
+        return baos.toByteArray();
+    }
+
+
+    /**
+     * Reads back a serialized entry
+     */
+    private Entry deserialize( byte[] data ) throws IOException, ClassNotFoundException, LdapException
+    {
+        ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( data ) );
+        Entry entry = new DefaultEntry( schemaManager );
+        int nbAttributes = in.readInt();
+
+        for ( int i = 0; i < nbAttributes; i++ )
+        {
+            AttributeType attributeType = schemaManager.lookupAttributeTypeRegistry( in.readUTF() );
+            Attribute attribute = new DefaultAttribute( attributeType );
+            attribute.readExternal( in );
+            entry.add( attribute );
+        }
+
+        return entry;
+    }
+}
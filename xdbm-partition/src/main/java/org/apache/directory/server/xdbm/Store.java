@@ -197,6 +197,15 @@ public interface Store
     Index<ParentIdAndRdn, String> getRdnIndex();
 
 
+    /**
+     * Gets the hierarchical labels of the entries. They are built when the store
+     * is initialized, and may not be available.
+     *
+     * @return The hierarchical labels
+     */
+    HierarchyLabels getHierarchyLabels();
+
+
     /**
      * @return The ObjectClass system index
      */
@@ -443,4 +452,25 @@ public interface Store
      * @return
      */
     Cache getAliasCache();
+
+
+    /**
+     * @return The estimated number of candidates above which a search is a scan
+     */
+    long getScanThreshold();
+
+
+    /**
+     * @return The estimated number of candidates above which a search is rejected, 0 for no limit
+     */
+    long getMaxSearchCost();
+
+
+    /**
+     * Tells the store that the entries the current thread is about to fetch are
+     * fetched by a scan, and should not be added to the caches.
+     *
+     * @param scanning true before the scan fetches, false after them
+     */
+    void setScanning( boolean scanning );
 }
@@ -21,6 +21,7 @@ package org.apache.directory.server.xdbm.impl.avl;
 
 
 import java.net.URI;
+import java.util.Comparator;
 
 import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.EmptyCursor;
@@ -47,8 +48,11 @@ import org.apache.directory.server.xdbm.IndexEntry;
 public class AvlIndex<K> extends AbstractIndex<K, String>
 {
     protected Normalizer normalizer;
-    protected AvlTable<K, String> forward;
-    protected AvlTable<String, K> reverse;
+    protected InMemoryTable<K, String> forward;
+    protected InMemoryTable<String, K> reverse;
+
+    /** Tells if the tables are ConcurrentTables instead of AvlTables */
+    protected boolean concurrent;
 
 
     public AvlIndex()
@@ -99,7 +103,7 @@ public class AvlIndex<K> extends AbstractIndex<K, String>
          * primary keys.  A value for an attribute can occur several times in
          * different entries so the forward map can have more than one value.
          */
-        forward = new AvlTable<K, String>( attributeType.getName(), comp, UuidComparator.INSTANCE, true );
+        forward = createTable( attributeType.getName(), comp, UuidComparator.INSTANCE, true );
 
         /*
          * Now the reverse map stores the primary key into the master table as
@@ -111,16 +115,53 @@ public class AvlIndex<K> extends AbstractIndex<K, String>
         {
             if ( attributeType.isSingleValued() )
             {
-                reverse = new AvlTable<String, K>( attributeType.getName(), UuidComparator.INSTANCE, comp, false );
+                reverse = createTable( attributeType.getName(), UuidComparator.INSTANCE, comp, false );
             }
             else
             {
-                reverse = new AvlTable<String, K>( attributeType.getName(), UuidComparator.INSTANCE, comp, true );
+                reverse = createTable( attributeType.getName(), UuidComparator.INSTANCE, comp, true );
             }
         }
     }
 
 
+    /**
+     * Creates one of the index tables, either a ConcurrentTable or an AvlTable.
+     */
+    protected <KT, VT> InMemoryTable<KT, VT> createTable( String name, Comparator<KT> keyComparator,
+        Comparator<VT> valueComparator, boolean dupsEnabled )
+    {
+        if ( concurrent )
+        {
+            return new ConcurrentTable<KT, VT>( name, keyComparator, valueComparator, dupsEnabled );
+        }
+
+        return new AvlTable<KT, VT>( name, keyComparator, valueComparator, dupsEnabled );
+    }
+
+
+    /**
+     * @return true if the index is stored in ConcurrentTables
+     */
+    public boolean isConcurrent()
+    {
+        return concurrent;
+    }
+
+
+    /**
+     * Tells the index to store its content in {@link ConcurrentTable}s, which
+     * can be read without locking, instead of AvlTables. Must be called before
+     * the index is initialized.
+     *
+     * @param concurrent true to use ConcurrentTables
+     */
+    public void setConcurrent( boolean concurrent )
+    {
+        this.concurrent = concurrent;
+    }
+
+
     public void add( K attrVal, String id ) throws Exception
     {
         forward.put( attrVal, id );
@@ -44,7 +44,7 @@ import org.apache.directory.server.xdbm.AbstractTable;
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
-public class AvlTable<K, V> extends AbstractTable<K, V>
+public class AvlTable<K, V> extends AbstractTable<K, V> implements InMemoryTable<K, V>
 {
     private final AvlTreeMap<K, V> avl;
     private final Comparator<Tuple<K, V>> keyOnlytupleComparator;
@@ -0,0 +1,76 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.impl.avl;
+
+
+import java.util.Comparator;
+import java.util.UUID;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.server.xdbm.MasterTable;
+
+
+/**
+ * A MasterTable backed by a {@link ConcurrentTable}, so that the entries can be
+ * read without locking. The stored entries are copies, and a copy is returned
+ * when an entry is read : the partition updates the entries it reads before
+ * storing them again, which must not be seen by the concurrent readers.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ConcurrentMasterTable extends ConcurrentTable<String, Entry> implements MasterTable
+{
+    public ConcurrentMasterTable( String name, Comparator<String> keyComparator )
+    {
+        super( name, keyComparator, null, false );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Entry get( String key ) throws LdapException
+    {
+        Entry entry = super.get( key );
+
+        return entry == null ? null : entry.clone();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void put( String key, Entry value ) throws Exception
+    {
+        super.put( key, value == null ? null : value.clone() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getNextId( Entry entry ) throws Exception
+    {
+        return UUID.randomUUID().toString();
+    }
+}
@@ -0,0 +1,766 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.impl.avl;
+
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.EmptyCursor;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.server.xdbm.AbstractTable;
+
+
+/**
+ * A Table implementation backed by a {@link ConcurrentSkipListMap}. Reads never
+ * lock : they walk the skip list, and the Cursors are weakly consistent, they
+ * see the modifications done after their creation or not, but never fail
+ * because of them. Writes are serialized on the table.
+ * <p>
+ * The values of a key are stored in one of three forms :
+ * <ul>
+ * <li>the value itself, when the key has a single value</li>
+ * <li>an immutable sorted array, replaced on each modification, for small sets of values</li>
+ * <li>a {@link ConcurrentSkipListSet} when the number of values exceeds the array threshold</li>
+ * </ul>
+ * A set goes back to an array, or to a single value, when it shrinks to half
+ * the threshold, so that a reader never sees an empty set of values. A key
+ * without any value left is removed.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ConcurrentTable<K, V> extends AbstractTable<K, V> implements InMemoryTable<K, V>
+{
+    /** The default number of values a key can hold in a sorted array */
+    public static final int DEFAULT_ARRAY_THRESHOLD = 32;
+
+    /** The map storing the keys and their values */
+    private final ConcurrentSkipListMap<K, Object> map;
+
+    /** The maximum number of values kept in a sorted array for a key */
+    private final int arrayThreshold;
+
+    /** The value comparator, used to search the sorted arrays */
+    private final Comparator<Object> arrayComparator;
+
+    /** The number of tuples in this table */
+    private final AtomicLong size = new AtomicLong();
+
+    /** The lock serializing the writes */
+    private final Object writeLock = new Object();
+
+
+    /**
+     * An immutable sorted array of values, for a key with a few values.
+     */
+    private static final class ValueArray
+    {
+        private final Object[] values;
+
+
+        private ValueArray( Object[] values )
+        {
+            this.values = values;
+        }
+    }
+
+
+    /**
+     * A sorted set of values, for a key with many values.
+     */
+    private static final class ValueSet<V>
+    {
+        private final ConcurrentSkipListSet<V> values;
+
+        /** The number of values, as ConcurrentSkipListSet.size() walks the whole set */
+        private final AtomicInteger count;
+
+
+        private ValueSet( ConcurrentSkipListSet<V> values, int count )
+        {
+            this.values = values;
+            this.count = new AtomicInteger( count );
+        }
+    }
+
+
+    /**
+     * Creates a new instance of ConcurrentTable, using the default array threshold.
+     *
+     * @param name The table name
+     * @param keyComparator The key comparator
+     * @param valueComparator The value comparator
+     * @param dupsEnabled Tells if a key can have more than one value
+     */
+    public ConcurrentTable( String name, Comparator<K> keyComparator, Comparator<V> valueComparator,
+        boolean dupsEnabled )
+    {
+        this( name, keyComparator, valueComparator, dupsEnabled, DEFAULT_ARRAY_THRESHOLD );
+    }
+
+
+    /**
+     * Creates a new instance of ConcurrentTable.
+     *
+     * @param name The table name
+     * @param keyComparator The key comparator
+     * @param valueComparator The value comparator
+     * @param dupsEnabled Tells if a key can have more than one value
+     * @param arrayThreshold The number of values above which the values of a key are
+     * moved from a sorted array to a skip list set
+     */
+    @SuppressWarnings("unchecked")
+    public ConcurrentTable( String name, Comparator<K> keyComparator, Comparator<V> valueComparator,
+        boolean dupsEnabled, int arrayThreshold )
+    {
+        super( null, name, keyComparator, valueComparator );
+
+        if ( dupsEnabled && ( valueComparator == null ) )
+        {
+            throw new IllegalArgumentException( "A value comparator is required when duplicates are enabled" );
+        }
+
+        if ( arrayThreshold < 2 )
+        {
+            throw new IllegalArgumentException( "The array threshold must be at least 2 : " + arrayThreshold );
+        }
+
+        this.map = new ConcurrentSkipListMap<K, Object>( keyComparator );
+        this.arrayThreshold = arrayThreshold;
+        this.arrayComparator = ( Comparator<Object> ) valueComparator;
+        allowsDuplicates = dupsEnabled;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() throws Exception
+    {
+        synchronized ( writeLock )
+        {
+            map.clear();
+            size.set( 0L );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long count() throws IOException
+    {
+        return size.get();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public long count( K key ) throws Exception
+    {
+        if ( key == null )
+        {
+            return 0L;
+        }
+
+        Object holder = map.get( key );
+
+        if ( holder == null )
+        {
+            return 0L;
+        }
+
+        return sizeOf( holder );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public V get( K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return null;
+        }
+
+        Object holder = map.get( key );
+
+        if ( holder == null )
+        {
+            return null;
+        }
+
+        return firstValue( holder );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public long greaterThanCount( K key ) throws Exception
+    {
+        return size.get();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public long lessThanCount( K key ) throws Exception
+    {
+        return size.get();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean has( K key ) throws Exception
+    {
+        if ( key == null )
+        {
+            return false;
+        }
+
+        return map.containsKey( key );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean has( K key, V value ) throws LdapException
+    {
+        if ( ( key == null ) || ( value == null ) )
+        {
+            return false;
+        }
+
+        Object holder = map.get( key );
+
+        if ( holder == null )
+        {
+            return false;
+        }
+
+        if ( !allowsDuplicates )
+        {
+            return equalValues( holder, value );
+        }
+
+        V found = higherValue( holder, value, true );
+
+        return ( found != null ) && equalValues( found, value );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean hasGreaterOrEqual( K key ) throws Exception
+    {
+        if ( key == null )
+        {
+            return false;
+        }
+
+        return map.ceilingKey( key ) != null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean hasGreaterOrEqual( K key, V val ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return false;
+        }
+
+        Map.Entry<K, Object> entry = map.ceilingEntry( key );
+
+        if ( entry == null )
+        {
+            return false;
+        }
+
+        return higherValue( entry.getValue(), val, true ) != null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean hasLessOrEqual( K key ) throws Exception
+    {
+        if ( key == null )
+        {
+            return false;
+        }
+
+        return map.floorKey( key ) != null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean hasLessOrEqual( K key, V val ) throws Exception
+    {
+        if ( key == null )
+        {
+            return false;
+        }
+
+        Map.Entry<K, Object> entry = map.floorEntry( key );
+
+        if ( entry == null )
+        {
+            return false;
+        }
+
+        return lowerValue( entry.getValue(), val, true ) != null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isDupsEnabled()
+    {
+        return allowsDuplicates;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @SuppressWarnings("unchecked")
+    public void put( K key, V value ) throws Exception
+    {
+        if ( ( key == null ) || ( value == null ) )
+        {
+            return;
+        }
+
+        synchronized ( writeLock )
+        {
+            Object holder = map.get( key );
+
+            if ( holder == null )
+            {
+                map.put( key, value );
+                size.incrementAndGet();
+
+                return;
+            }
+
+            if ( !allowsDuplicates )
+            {
+                // Replace the value
+                map.put( key, value );
+
+                return;
+            }
+
+            if ( holder instanceof ValueSet )
+            {
+                ValueSet<V> valueSet = ( ValueSet<V> ) holder;
+
+                if ( valueSet.values.add( value ) )
+                {
+                    valueSet.count.incrementAndGet();
+                    size.incrementAndGet();
+                }
+
+                return;
+            }
+
+            Object[] values = toArray( holder );
+            int pos = Arrays.binarySearch( values, value, arrayComparator );
+
+            if ( pos >= 0 )
+            {
+                // Already present
+                return;
+            }
+
+            pos = -pos - 1;
+
+            if ( values.length >= arrayThreshold )
+            {
+                ConcurrentSkipListSet<V> set = new ConcurrentSkipListSet<V>( valueComparator );
+
+                for ( Object existing : values )
+                {
+                    set.add( ( V ) existing );
+                }
+
+                set.add( value );
+                map.put( key, new ValueSet<V>( set, values.length + 1 ) );
+            }
+            else
+            {
+                Object[] newValues = new Object[values.length + 1];
+                System.arraycopy( values, 0, newValues, 0, pos );
+                newValues[pos] = value;
+                System.arraycopy( values, pos, newValues, pos + 1, values.length - pos );
+                map.put( key, new ValueArray( newValues ) );
+            }
+
+            size.incrementAndGet();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void remove( K key ) throws Exception
+    {
+        if ( key == null )
+        {
+            return;
+        }
+
+        synchronized ( writeLock )
+        {
+            Object holder = map.remove( key );
+
+            if ( holder != null )
+            {
+                size.addAndGet( -sizeOf( holder ) );
+            }
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @SuppressWarnings("unchecked")
+    public void remove( K key, V value ) throws Exception
+    {
+        if ( ( key == null ) || ( value == null ) )
+        {
+            return;
+        }
+
+        synchronized ( writeLock )
+        {
+            Object holder = map.get( key );
+
+            if ( holder == null )
+            {
+                return;
+            }
+
+            if ( holder instanceof ValueSet )
+            {
+                ValueSet<V> valueSet = ( ValueSet<V> ) holder;
+                ConcurrentSkipListSet<V> set = valueSet.values;
+
+                if ( !set.contains( value ) )
+                {
+                    return;
+                }
+
+                int count = valueSet.count.get();
+
+                if ( count - 1 > arrayThreshold / 2 )
+                {
+                    set.remove( value );
+                    valueSet.count.decrementAndGet();
+                }
+                else
+                {
+                    // Back to an array, the set is left untouched for the current readers
+                    Object[] values = new Object[count - 1];
+                    int pos = 0;
+
+                    for ( V existing : set )
+                    {
+                        if ( valueComparator.compare( existing, value ) != 0 )
+                        {
+                            values[pos++] = existing;
+                        }
+                    }
+
+                    putValues( key, values );
+                }
+            }
+            else if ( holder instanceof ValueArray )
+            {
+                Object[] values = ( ( ValueArray ) holder ).values;
+                int pos = Arrays.binarySearch( values, value, arrayComparator );
+
+                if ( pos < 0 )
+                {
+                    return;
+                }
+
+                Object[] newValues = new Object[values.length - 1];
+                System.arraycopy( values, 0, newValues, 0, pos );
+                System.arraycopy( values, pos + 1, newValues, pos, values.length - pos - 1 );
+                putValues( key, newValues );
+            }
+            else if ( equalValues( holder, value ) )
+            {
+                map.remove( key );
+            }
+            else
+            {
+                return;
+            }
+
+            size.decrementAndGet();
+        }
+    }
+
+
+    /**
+     * Stores the remaining values of a key in the smallest form : the key is
+     * removed when there is no value left, and a single value is stored as is,
+     * so that a reader never sees an empty or a one element array.
+     */
+    private void putValues( K key, Object[] values )
+    {
+        switch ( values.length )
+        {
+            case 0:
+                map.remove( key );
+                break;
+
+            case 1:
+                map.put( key, values[0] );
+                break;
+
+            default:
+                map.put( key, new ValueArray( values ) );
+                break;
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Cursor<Tuple<K, V>> cursor() throws LdapException
+    {
+        return new ConcurrentTableCursor<K, V>( this, map, null );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Cursor<Tuple<K, V>> cursor( K key ) throws Exception
+    {
+        if ( key == null )
+        {
+            return new EmptyCursor<Tuple<K, V>>();
+        }
+
+        return new ConcurrentTableCursor<K, V>( this, map.subMap( key, true, key, true ), key );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Cursor<V> valueCursor( K key ) throws Exception
+    {
+        if ( key == null )
+        {
+            return new EmptyCursor<V>();
+        }
+
+        return new ConcurrentTableValueCursor<K, V>( key, new ConcurrentTableCursor<K, V>( this, map.subMap( key,
+            true, key, true ), key ) );
+    }
+
+
+    /**
+     * @return The number of values stored in a value holder
+     */
+    @SuppressWarnings("unchecked")
+    private long sizeOf( Object holder )
+    {
+        if ( holder instanceof ValueArray )
+        {
+            return ( ( ValueArray ) holder ).values.length;
+        }
+
+        if ( holder instanceof ValueSet )
+        {
+            return ( ( ValueSet<V> ) holder ).count.get();
+        }
+
+        return 1L;
+    }
+
+
+    /**
+     * @return The values of a holder which is not a set, as a sorted array
+     */
+    private Object[] toArray( Object holder )
+    {
+        if ( holder instanceof ValueArray )
+        {
+            return ( ( ValueArray ) holder ).values;
+        }
+
+        return new Object[]
+            { holder };
+    }
+
+
+    /**
+     * Compares a single value holder with a value, using the value comparator if any.
+     */
+    private boolean equalValues( Object holder, V value )
+    {
+        if ( valueComparator == null )
+        {
+            return holder.equals( value );
+        }
+
+        return arrayComparator.compare( holder, value ) == 0;
+    }
+
+
+    /**
+     * @return The smallest value stored in a value holder
+     */
+    @SuppressWarnings("unchecked")
+    V firstValue( Object holder )
+    {
+        if ( holder instanceof ValueArray )
+        {
+            return ( V ) ( ( ValueArray ) holder ).values[0];
+        }
+
+        if ( holder instanceof ValueSet )
+        {
+            return ( ( ValueSet<V> ) holder ).values.first();
+        }
+
+        return ( V ) holder;
+    }
+
+
+    /**
+     * @return The greatest value stored in a value holder
+     */
+    @SuppressWarnings("unchecked")
+    V lastValue( Object holder )
+    {
+        if ( holder instanceof ValueArray )
+        {
+            Object[] values = ( ( ValueArray ) holder ).values;
+
+            return ( V ) values[values.length - 1];
+        }
+
+        if ( holder instanceof ValueSet )
+        {
+            return ( ( ValueSet<V> ) holder ).values.last();
+        }
+
+        return ( V ) holder;
+    }
+
+
+    /**
+     * Searches the smallest value of a holder greater than (or equal to, if
+     * inclusive) the given value.
+     *
+     * @return The found value, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    V higherValue( Object holder, V value, boolean inclusive )
+    {
+        if ( holder instanceof ValueSet )
+        {
+            NavigableSet<V> set = ( ( ValueSet<V> ) holder ).values;
+
+            return inclusive ? set.ceiling( value ) : set.higher( value );
+        }
+
+        Object[] values = toArray( holder );
+        int pos = Arrays.binarySearch( values, value, arrayComparator );
+
+        if ( pos >= 0 )
+        {
+            pos = inclusive ? pos : pos + 1;
+        }
+        else
+        {
+            pos = -pos - 1;
+        }
+
+        return pos < values.length ? ( V ) values[pos] : null;
+    }
+
+
+    /**
+     * Searches the greatest value of a holder lower than (or equal to, if
+     * inclusive) the given value.
+     *
+     * @return The found value, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    V lowerValue( Object holder, V value, boolean inclusive )
+    {
+        if ( holder instanceof ValueSet )
+        {
+            NavigableSet<V> set = ( ( ValueSet<V> ) holder ).values;
+
+            return inclusive ? set.floor( value ) : set.lower( value );
+        }
+
+        Object[] values = toArray( holder );
+        int pos = Arrays.binarySearch( values, value, arrayComparator );
+
+        if ( pos >= 0 )
+        {
+            pos = inclusive ? pos : pos - 1;
+        }
+        else
+        {
+            pos = -pos - 2;
+        }
+
+        return pos >= 0 ? ( V ) values[pos] : null;
+    }
+}
@@ -0,0 +1,384 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.impl.avl;
+
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.InvalidCursorPositionException;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A Cursor over the Tuples of a {@link ConcurrentTable}. The Cursor does not
+ * hold any reference on the table content : it only remembers the last
+ * returned key and value, and each move searches the next Tuple from this
+ * position. The Cursor is weakly consistent : it never fails because of
+ * concurrent modifications, and it may or may not return the Tuples added
+ * after its creation.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ConcurrentTableCursor<K, V> extends AbstractCursor<Tuple<K, V>>
+{
+    /** A dedicated log for cursors */
+    private static final Logger LOG_CURSOR = LoggerFactory.getLogger( Loggers.CURSOR_LOG.getName() );
+
+    /** Speedup for logs */
+    private static final boolean IS_DEBUG = LOG_CURSOR.isDebugEnabled();
+
+    /** The possible positions of the cursor */
+    private enum Position
+    {
+        BEFORE_FIRST,
+        AFTER_LAST,
+        ON,
+        BEFORE,
+        AFTER
+    }
+
+    /** The table this Cursor traverses over */
+    private final ConcurrentTable<K, V> table;
+
+    /** The map, or the part of the map, being traversed */
+    private final ConcurrentNavigableMap<K, Object> view;
+
+    /** The key returned in the Tuples, when the cursor is restricted to a single key */
+    private final K fixedKey;
+
+    /** The current position */
+    private Position position = Position.BEFORE_FIRST;
+
+    /** The key of the current position */
+    private K key;
+
+    /** The value of the current position, null when positioned relatively to a key */
+    private V value;
+
+
+    /**
+     * Creates a new instance of ConcurrentTableCursor.
+     *
+     * @param table The table to build a Cursor on
+     * @param view The map, or part of the map, of the table to traverse
+     * @param fixedKey The key the cursor is restricted to, if any. This key is the
+     * one returned in the Tuples, as the stored key may differ while being equal
+     */
+    public ConcurrentTableCursor( ConcurrentTable<K, V> table, ConcurrentNavigableMap<K, Object> view, K fixedKey )
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Creating ConcurrentTableCursor {}", this );
+        }
+
+        this.table = table;
+        this.view = view;
+        this.fixedKey = fixedKey;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean available()
+    {
+        return position == Position.ON;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void before( Tuple<K, V> element ) throws LdapException, CursorException
+    {
+        checkNotClosed( "before()" );
+
+        if ( element.getKey() == null )
+        {
+            beforeFirst();
+
+            return;
+        }
+
+        key = element.getKey();
+        value = element.getValue();
+        position = Position.BEFORE;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void after( Tuple<K, V> element ) throws LdapException, CursorException
+    {
+        checkNotClosed( "after()" );
+
+        if ( element.getKey() == null )
+        {
+            afterLast();
+
+            return;
+        }
+
+        key = element.getKey();
+        value = element.getValue();
+        position = Position.AFTER;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void beforeFirst() throws LdapException, CursorException
+    {
+        checkNotClosed( "beforeFirst()" );
+        key = null;
+        value = null;
+        position = Position.BEFORE_FIRST;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void afterLast() throws LdapException, CursorException
+    {
+        checkNotClosed( "afterLast()" );
+        key = null;
+        value = null;
+        position = Position.AFTER_LAST;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean first() throws LdapException, CursorException
+    {
+        beforeFirst();
+
+        return next();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean last() throws LdapException, CursorException
+    {
+        afterLast();
+
+        return previous();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean next() throws LdapException, CursorException
+    {
+        checkNotClosed( "next()" );
+
+        boolean found;
+
+        switch ( position )
+        {
+            case BEFORE_FIRST:
+                found = moveTo( view.firstEntry(), true );
+                break;
+
+            case AFTER_LAST:
+                return false;
+
+            case BEFORE:
+                found = seekHigher( true );
+                break;
+
+            default:
+                found = seekHigher( false );
+                break;
+        }
+
+        position = found ? Position.ON : Position.AFTER_LAST;
+
+        return found;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean previous() throws LdapException, CursorException
+    {
+        checkNotClosed( "previous()" );
+
+        boolean found;
+
+        switch ( position )
+        {
+            case BEFORE_FIRST:
+                return false;
+
+            case AFTER_LAST:
+                found = moveTo( view.lastEntry(), false );
+                break;
+
+            case AFTER:
+                found = seekLower( true );
+                break;
+
+            default:
+                found = seekLower( false );
+                break;
+        }
+
+        position = found ? Position.ON : Position.BEFORE_FIRST;
+
+        return found;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Tuple<K, V> get() throws CursorException
+    {
+        checkNotClosed( "get()" );
+
+        if ( position != Position.ON )
+        {
+            throw new InvalidCursorPositionException();
+        }
+
+        return new Tuple<K, V>( fixedKey != null ? fixedKey : key, value );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close()
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing ConcurrentTableCursor {}", this );
+        }
+
+        super.close();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close( Exception cause )
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing ConcurrentTableCursor {}", this );
+        }
+
+        super.close( cause );
+    }
+
+
+    /**
+     * Moves to the smallest Tuple greater than (or equal to, if inclusive)
+     * the current position.
+     */
+    private boolean seekHigher( boolean inclusive )
+    {
+        if ( ( value != null ) && table.isDupsEnabled() )
+        {
+            Object holder = view.get( key );
+
+            if ( holder != null )
+            {
+                V next = table.higherValue( holder, value, inclusive );
+
+                if ( next != null )
+                {
+                    value = next;
+
+                    return true;
+                }
+            }
+
+            return moveTo( view.higherEntry( key ), true );
+        }
+
+        return moveTo( inclusive ? view.ceilingEntry( key ) : view.higherEntry( key ), true );
+    }
+
+
+    /**
+     * Moves to the greatest Tuple lower than (or equal to, if inclusive)
+     * the current position.
+     */
+    private boolean seekLower( boolean inclusive )
+    {
+        if ( ( value != null ) && table.isDupsEnabled() )
+        {
+            Object holder = view.get( key );
+
+            if ( holder != null )
+            {
+                V previous = table.lowerValue( holder, value, inclusive );
+
+                if ( previous != null )
+                {
+                    value = previous;
+
+                    return true;
+                }
+            }
+
+            return moveTo( view.lowerEntry( key ), false );
+        }
+
+        return moveTo( inclusive ? view.floorEntry( key ) : view.lowerEntry( key ), false );
+    }
+
+
+    /**
+     * Moves to the first or last value of a map entry.
+     */
+    private boolean moveTo( Map.Entry<K, Object> entry, boolean first )
+    {
+        if ( entry == null )
+        {
+            return false;
+        }
+
+        key = entry.getKey();
+        value = first ? table.firstValue( entry.getValue() ) : table.lastValue( entry.getValue() );
+
+        return true;
+    }
+}
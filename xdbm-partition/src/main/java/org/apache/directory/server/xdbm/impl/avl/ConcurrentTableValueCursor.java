@@ -0,0 +1,181 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.impl.avl;
+
+
+import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+
+
+/**
+ * A Cursor over the values of a single key of a {@link ConcurrentTable}, built
+ * on top of a {@link ConcurrentTableCursor} restricted to this key.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ConcurrentTableValueCursor<K, V> extends AbstractCursor<V>
+{
+    /** The key whose values are traversed */
+    private final K key;
+
+    /** The wrapped Tuple cursor */
+    private final ConcurrentTableCursor<K, V> wrapped;
+
+
+    /**
+     * Creates a new instance of ConcurrentTableValueCursor.
+     *
+     * @param key The key whose values are traversed
+     * @param wrapped A Tuple cursor restricted to this key
+     */
+    public ConcurrentTableValueCursor( K key, ConcurrentTableCursor<K, V> wrapped )
+    {
+        this.key = key;
+        this.wrapped = wrapped;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean available()
+    {
+        return wrapped.available();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void before( V element ) throws LdapException, CursorException
+    {
+        checkNotClosed( "before()" );
+        wrapped.before( new Tuple<K, V>( key, element ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void after( V element ) throws LdapException, CursorException
+    {
+        checkNotClosed( "after()" );
+        wrapped.after( new Tuple<K, V>( key, element ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void beforeFirst() throws LdapException, CursorException
+    {
+        checkNotClosed( "beforeFirst()" );
+        wrapped.beforeFirst();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void afterLast() throws LdapException, CursorException
+    {
+        checkNotClosed( "afterLast()" );
+        wrapped.afterLast();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean first() throws LdapException, CursorException
+    {
+        checkNotClosed( "first()" );
+
+        return wrapped.first();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean last() throws LdapException, CursorException
+    {
+        checkNotClosed( "last()" );
+
+        return wrapped.last();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean next() throws LdapException, CursorException
+    {
+        checkNotClosed( "next()" );
+
+        return wrapped.next();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean previous() throws LdapException, CursorException
+    {
+        checkNotClosed( "previous()" );
+
+        return wrapped.previous();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public V get() throws CursorException
+    {
+        checkNotClosed( "get()" );
+
+        return wrapped.get().getValue();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close()
+    {
+        wrapped.close();
+        super.close();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close( Exception cause )
+    {
+        wrapped.close( cause );
+        super.close( cause );
+    }
+}
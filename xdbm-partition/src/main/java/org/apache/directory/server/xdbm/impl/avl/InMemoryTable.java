@@ -0,0 +1,53 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.impl.avl;
+
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.server.xdbm.Table;
+
+
+/**
+ * The Tables the AvlIndex can be stored in : the in memory Tables, which
+ * only throw LdapExceptions for lookups.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public interface InMemoryTable<K, V> extends Table<K, V>
+{
+    /**
+     * {@inheritDoc}
+     */
+    boolean has( K key, V value ) throws LdapException;
+
+
+    /**
+     * {@inheritDoc}
+     */
+    V get( K key ) throws LdapException;
+
+
+    /**
+     * {@inheritDoc}
+     */
+    Cursor<Tuple<K, V>> cursor() throws LdapException;
+}
@@ -0,0 +1,376 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search;
+
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.filter.AndNode;
+import org.apache.directory.api.ldap.model.filter.ApproximateNode;
+import org.apache.directory.api.ldap.model.filter.BranchNode;
+import org.apache.directory.api.ldap.model.filter.EqualityNode;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.ExtensibleNode;
+import org.apache.directory.api.ldap.model.filter.GreaterEqNode;
+import org.apache.directory.api.ldap.model.filter.LeafNode;
+import org.apache.directory.api.ldap.model.filter.LessEqNode;
+import org.apache.directory.api.ldap.model.filter.NotNode;
+import org.apache.directory.api.ldap.model.filter.OrNode;
+import org.apache.directory.api.ldap.model.filter.PresenceNode;
+import org.apache.directory.api.ldap.model.filter.ScopeNode;
+import org.apache.directory.api.ldap.model.filter.SubstringNode;
+import org.apache.directory.api.ldap.model.schema.Normalizer;
+
+
+/**
+ * A cache of what can be reused from one search to another for filters of
+ * the same shape, ie the same filter with different assertion values :
+ * <ul>
+ * <li>the scan counts the optimizer has computed for the leaves of the filter,
+ * kept during a freshness window</li>
+ * <li>the regular expressions compiled for the substring assertions</li>
+ * </ul>
+ * The filter shape is a string where the assertion values are replaced by a
+ * '?', and the attributes by their OID.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class FilterPlanCache
+{
+    /** The default freshness window of the scan counts, in milliseconds */
+    public static final long DEFAULT_FRESHNESS = 60000L;
+
+    /** The default number of filter shapes kept in the cache */
+    public static final int DEFAULT_MAX_PLANS = 1000;
+
+    /** The default number of compiled patterns kept in the cache */
+    public static final int DEFAULT_MAX_PATTERNS = 1000;
+
+    /** The delay after which the scan counts of a plan are computed again */
+    private final long freshness;
+
+    /** The plans, per filter shape */
+    private final Map<String, Plan> plans;
+
+    /** The compiled substring patterns */
+    private final Map<String, Pattern> patterns;
+
+
+    /**
+     * The scan counts computed for a filter shape, per position of the leaf
+     * in the filter.
+     */
+    public static final class Plan
+    {
+        /** The plan creation date */
+        private final long created;
+
+        /** The scan counts, per node position */
+        private final Map<String, Long> estimates;
+
+
+        private Plan( Map<String, Long> estimates )
+        {
+            this.created = System.currentTimeMillis();
+            this.estimates = estimates;
+        }
+
+
+        /**
+         * @param position The position of a node in the filter
+         * @return The scan count computed for the node, or null if none has been kept
+         */
+        public Long getEstimate( String position )
+        {
+            return estimates.get( position );
+        }
+    }
+
+
+    /**
+     * Creates a new instance of FilterPlanCache with the default sizes.
+     *
+     * @param freshness The delay, in milliseconds, after which the scan counts are computed again
+     */
+    public FilterPlanCache( long freshness )
+    {
+        this( freshness, DEFAULT_MAX_PLANS, DEFAULT_MAX_PATTERNS );
+    }
+
+
+    /**
+     * Creates a new instance of FilterPlanCache.
+     *
+     * @param freshness The delay, in milliseconds, after which the scan counts are computed again
+     * @param maxPlans The number of filter shapes kept in the cache
+     * @param maxPatterns The number of compiled patterns kept in the cache
+     */
+    public FilterPlanCache( long freshness, int maxPlans, int maxPatterns )
+    {
+        this.freshness = freshness;
+        this.plans = Collections.synchronizedMap( new LruMap<Plan>( maxPlans ) );
+        this.patterns = Collections.synchronizedMap( new LruMap<Pattern>( maxPatterns ) );
+    }
+
+
+    /**
+     * A LinkedHashMap in access order which removes the least recently used
+     * element when full.
+     */
+    private static final class LruMap<V> extends LinkedHashMap<String, V>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxSize;
+
+
+        private LruMap( int maxSize )
+        {
+            super( 16, 0.75f, true );
+            this.maxSize = maxSize;
+        }
+
+
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<String, V> eldest )
+        {
+            return size() > maxSize;
+        }
+    }
+
+
+    /**
+     * Gets the plan for a filter shape, if it's still fresh.
+     *
+     * @param shape The filter shape
+     * @return The plan, or null if there is none or if it's too old
+     */
+    public Plan getPlan( String shape )
+    {
+        Plan plan = plans.get( shape );
+
+        if ( ( plan != null ) && ( System.currentTimeMillis() - plan.created > freshness ) )
+        {
+            plans.remove( shape );
+
+            return null;
+        }
+
+        return plan;
+    }
+
+
+    /**
+     * Stores the scan counts computed for a filter shape.
+     *
+     * @param shape The filter shape
+     * @param estimates The scan counts, per node position
+     */
+    public void putPlan( String shape, Map<String, Long> estimates )
+    {
+        plans.put( shape, new Plan( new HashMap<String, Long>( estimates ) ) );
+    }
+
+
+    /**
+     * Gets the compiled regular expression for a substring assertion, compiling
+     * it if it's not already in the cache.
+     *
+     * @param node The substring assertion
+     * @param normalizer The normalizer to use on the substrings
+     * @return The compiled pattern
+     * @throws LdapException If the substrings can't be normalized
+     */
+    public Pattern getPattern( SubstringNode node, Normalizer normalizer ) throws LdapException
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append( getAttribute( node ) ).append( '\u0000' );
+
+        if ( node.getInitial() != null )
+        {
+            sb.append( node.getInitial() );
+        }
+
+        sb.append( '\u0000' );
+
+        if ( node.getAny() != null )
+        {
+            for ( String any : node.getAny() )
+            {
+                sb.append( any ).append( '\u0001' );
+            }
+        }
+
+        sb.append( '\u0000' );
+
+        if ( node.getFinal() != null )
+        {
+            sb.append( node.getFinal() );
+        }
+
+        String key = sb.toString();
+        Pattern pattern = patterns.get( key );
+
+        if ( pattern == null )
+        {
+            // Two threads may compile the same pattern, the last one wins
+            pattern = node.getRegex( normalizer );
+            patterns.put( key, pattern );
+        }
+
+        return pattern;
+    }
+
+
+    /**
+     * Removes all the plans and patterns from the cache.
+     */
+    public void clear()
+    {
+        plans.clear();
+        patterns.clear();
+    }
+
+
+    /**
+     * Computes the shape of a filter : the filter where the assertion values are
+     * replaced by a '?'. The scope nodes are replaced by their scope.
+     *
+     * @param node The filter
+     * @return The filter shape
+     */
+    public static String getShape( ExprNode node )
+    {
+        StringBuilder sb = new StringBuilder();
+        appendShape( sb, node );
+
+        return sb.toString();
+    }
+
+
+    private static void appendShape( StringBuilder sb, ExprNode node )
+    {
+        sb.append( '(' );
+
+        if ( node instanceof BranchNode )
+        {
+            if ( node instanceof AndNode )
+            {
+                sb.append( '&' );
+            }
+            else if ( node instanceof OrNode )
+            {
+                sb.append( '|' );
+            }
+            else if ( node instanceof NotNode )
+            {
+                sb.append( '!' );
+            }
+            else
+            {
+                sb.append( node.getAssertionType() );
+            }
+
+            List<ExprNode> children = ( ( BranchNode ) node ).getChildren();
+
+            for ( ExprNode child : children )
+            {
+                appendShape( sb, child );
+            }
+        }
+        else if ( node instanceof ScopeNode )
+        {
+            sb.append( "scope=" ).append( ( ( ScopeNode ) node ).getScope() );
+        }
+        else if ( node instanceof PresenceNode )
+        {
+            sb.append( getAttribute( ( LeafNode ) node ) ).append( "=*" );
+        }
+        else if ( node instanceof SubstringNode )
+        {
+            SubstringNode substring = ( SubstringNode ) node;
+            sb.append( getAttribute( substring ) ).append( '=' );
+
+            if ( substring.getInitial() != null )
+            {
+                sb.append( '?' );
+            }
+
+            sb.append( '*' );
+
+            if ( substring.getAny() != null )
+            {
+                for ( int i = 0; i < substring.getAny().size(); i++ )
+                {
+                    sb.append( "?*" );
+                }
+            }
+
+            if ( substring.getFinal() != null )
+            {
+                sb.append( '?' );
+            }
+        }
+        else if ( node instanceof ApproximateNode )
+        {
+            sb.append( getAttribute( ( LeafNode ) node ) ).append( "~=?" );
+        }
+        else if ( node instanceof GreaterEqNode )
+        {
+            sb.append( getAttribute( ( LeafNode ) node ) ).append( ">=?" );
+        }
+        else if ( node instanceof LessEqNode )
+        {
+            sb.append( getAttribute( ( LeafNode ) node ) ).append( "<=?" );
+        }
+        else if ( node instanceof EqualityNode )
+        {
+            sb.append( getAttribute( ( LeafNode ) node ) ).append( "=?" );
+        }
+        else if ( node instanceof ExtensibleNode )
+        {
+            sb.append( getAttribute( ( LeafNode ) node ) ).append( ':' )
+                .append( ( ( ExtensibleNode ) node ).getMatchingRuleId() ).append( ":=?" );
+        }
+        else
+        {
+            sb.append( node.getAssertionType() );
+        }
+
+        sb.append( ')' );
+    }
+
+
+    private static String getAttribute( LeafNode node )
+    {
+        if ( node.getAttributeType() != null )
+        {
+            return node.getAttributeType().getOid();
+        }
+
+        return node.getAttribute();
+    }
+}
@@ -56,6 +56,9 @@ public class PartitionSearchResult
     /** The SchemaManager */
     private SchemaManager schemaManager;
 
+    /** Tells if the search goes through too many candidates to use the caches */
+    private boolean scan;
+
 
     /**
      * Create a PartitionSearchResult instance
@@ -120,6 +123,24 @@ public class PartitionSearchResult
     }
 
 
+    /**
+     * @return true if the search goes through too many candidates to fill the caches
+     */
+    public boolean isScan()
+    {
+        return scan;
+    }
+
+
+    /**
+     * @param scan true if the search goes through too many candidates to fill the caches
+     */
+    public void setScan( boolean scan )
+    {
+        this.scan = scan;
+    }
+
+
     /**
      * @param aliasDerefMode the aliasDerefMode to set
      */
@@ -23,6 +23,7 @@ package org.apache.directory.server.xdbm.search.evaluator;
 import java.util.Comparator;
 import java.util.Iterator;
 
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Value;
@@ -66,6 +67,11 @@ public class EqualityEvaluator<T> extends LeafEvaluator<T>
             idx = ( Index<T, String> ) db.getIndex( attributeType );
         }
 
+        // The objectClass index can also be probed, except for 'top' which it does not contain
+        probeIndex = canProbeIndex()
+            || ( ( idx != null ) && attributeType.getOid().equals( SchemaConstants.OBJECT_CLASS_AT_OID )
+            && !SchemaConstants.TOP_OC.equals( node.getValue().getNormValue() ) );
+
         MatchingRule mr = attributeType.getEquality();
 
         if ( mr == null )
@@ -91,6 +97,12 @@ public class EqualityEvaluator<T> extends LeafEvaluator<T>
     {
         Entry entry = indexEntry.getEntry();
 
+        if ( ( null == entry ) && probeIndex )
+        {
+            // No need to fetch the entry, the index knows if it has this value
+            return idx.forward( node.getValue().getNormValue(), indexEntry.getId() );
+        }
+
         // resuscitate the entry if it has not been and set entry in IndexEntry
         if ( null == entry )
         {
@@ -22,6 +22,7 @@ package org.apache.directory.server.xdbm.search.evaluator;
 
 import java.util.Iterator;
 
+import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Value;
@@ -59,6 +60,9 @@ public class GreaterEqEvaluator<T> extends LeafEvaluator<T>
             idx = null;
         }
 
+        // The reverse index gives us the values of a candidate without fetching it
+        probeIndex = canProbeIndex() && idx.hasReverse();
+
         /*
          * We prefer matching using the Normalizer and Comparator pair from
          * the ordering matchingRule if one is available.  It may very well
@@ -92,6 +96,11 @@ public class GreaterEqEvaluator<T> extends LeafEvaluator<T>
     {
         Entry entry = indexEntry.getEntry();
 
+        if ( ( null == entry ) && probeIndex )
+        {
+            return evaluateWithIndex( ( IndexEntry<Object, String> ) indexEntry );
+        }
+
         // resuscitate the entry if it has not been and set entry in IndexEntry
         if ( null == entry )
         {
@@ -221,6 +230,51 @@ public class GreaterEqEvaluator<T> extends LeafEvaluator<T>
     }
 
 
+    /**
+     * Checks the values of the candidate stored in the reverse index, so that
+     * the entry does not have to be fetched.
+     */
+    private boolean evaluateWithIndex( IndexEntry<Object, String> indexEntry ) throws LdapException
+    {
+        Cursor<T> values = null;
+
+        try
+        {
+            values = idx.reverseValueCursor( indexEntry.getId() );
+
+            while ( values.next() )
+            {
+                T value = values.get();
+
+                //noinspection unchecked
+                if ( ldapComparator.compare( value, node.getValue().getNormValue() ) >= 0 )
+                {
+                    indexEntry.setKey( value );
+
+                    return true;
+                }
+            }
+
+            return false;
+        }
+        catch ( LdapException le )
+        {
+            throw le;
+        }
+        catch ( Exception e )
+        {
+            throw new LdapException( e.getMessage(), e );
+        }
+        finally
+        {
+            if ( values != null )
+            {
+                values.close();
+            }
+        }
+    }
+
+
     /**
      * @see Object#toString()
      */
@@ -61,6 +61,9 @@ public abstract class LeafEvaluator<T> implements Evaluator<SimpleNode<T>>
     /** The index to use if any */
     protected Index<T, String> idx;
 
+    /** Tells if the candidates can be evaluated using the index instead of their entry */
+    protected boolean probeIndex;
+
 
     @SuppressWarnings("unchecked")
     public LeafEvaluator( SimpleNode<T> node, Store db, SchemaManager schemaManager )
@@ -100,6 +103,33 @@ public abstract class LeafEvaluator<T> implements Evaluator<SimpleNode<T>>
     }
 
 
+    /**
+     * Tells if the candidates can be evaluated by probing the index, instead of
+     * fetching their entry. The user indexes are keyed on the normalized values,
+     * so they give the same result as the entry, unless the AttributeType has
+     * some descendants : their values are not stored in this index.
+     *
+     * @return <code>true</code> if the index can be used to evaluate the candidates
+     * @throws Exception If we can't check the index
+     */
+    protected boolean canProbeIndex() throws Exception
+    {
+        if ( ( idx == null ) || !db.hasUserIndexOn( attributeType ) )
+        {
+            return false;
+        }
+
+        if ( schemaManager.getAttributeTypeRegistry().hasDescendants( attributeType ) )
+        {
+            return false;
+        }
+
+        // The asserted value must be of the same kind than the index keys
+        return ( attributeType.getSyntax() != null )
+            && ( attributeType.getSyntax().isHumanReadable() == node.getValue().isHumanReadable() );
+    }
+
+
     /**
      * @see Object#toString()
      */
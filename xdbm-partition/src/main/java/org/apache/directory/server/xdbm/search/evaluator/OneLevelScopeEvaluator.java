@@ -99,24 +99,17 @@ public class OneLevelScopeEvaluator<E> implements Evaluator<ScopeNode>
      */
     public boolean evaluate( IndexEntry<?, String> indexEntry ) throws LdapException
     {
+        // The scope only depends on the Rdn index : the entry is not fetched
         ParentIdAndRdn parent = db.getRdnIndex().reverseLookup( indexEntry.getId() );
-        boolean isChild = parent.getParentId().equals( baseId );
-        Entry entry = indexEntry.getEntry();
 
-        // Fetch the entry
-        if ( null == entry )
+        if ( parent == null )
         {
-            entry = db.fetch( indexEntry.getId() );
-
-            if ( null == entry )
-            {
-                // The entry is not anymore present : get out
-                return false;
-            }
-
-            indexEntry.setEntry( entry );
+            // The entry is not anymore present : get out
+            return false;
         }
 
+        boolean isChild = parent.getParentId().equals( baseId );
+
         /*
          * The candidate id could be any entry in the db.  If search
          * dereferencing is not enabled then we return the results of the child
@@ -58,6 +58,9 @@ public class PresenceEvaluator implements Evaluator<PresenceNode>
     /** The index to use if any */
     private final Index<String, String> idx;
 
+    /** Tells if the presence index can be used instead of fetching the candidates */
+    private final boolean probeIndex;
+
 
     public PresenceEvaluator( PresenceNode node, Store db, SchemaManager schemaManager )
         throws Exception
@@ -75,6 +78,9 @@ public class PresenceEvaluator implements Evaluator<PresenceNode>
         {
             idx = null;
         }
+
+        // The values of the descendants are not taken into account by the presence index
+        probeIndex = ( idx != null ) && !schemaManager.getAttributeTypeRegistry().hasDescendants( attributeType );
     }
 
 
@@ -96,6 +102,21 @@ public class PresenceEvaluator implements Evaluator<PresenceNode>
     {
         Entry entry = indexEntry.getEntry();
 
+        if ( null == entry )
+        {
+            if ( isAlwaysPresent() )
+            {
+                // We just have to check that the entry still exists
+                return ( indexEntry.getId() != null ) && ( db.getRdnIndex().reverseLookup( indexEntry.getId() ) != null );
+            }
+
+            if ( probeIndex )
+            {
+                // No need to fetch the entry, the presence index knows about it
+                return idx.forward( attributeType.getOid(), indexEntry.getId() );
+            }
+        }
+
         // resuscitate the entry if it has not been and set entry in IndexEntry
         if ( null == entry )
         {
@@ -118,14 +139,8 @@ public class PresenceEvaluator implements Evaluator<PresenceNode>
     // wrapper or the raw normalized value
     public boolean evaluate( Entry entry ) throws LdapException
     {
-        String attrOid = attributeType.getOid();
-
-        if ( attrOid.equals( SchemaConstants.OBJECT_CLASS_AT_OID )
-            || attrOid.equals( SchemaConstants.ENTRY_CSN_AT_OID )
-            || attrOid.equals( SchemaConstants.ENTRY_UUID_AT_OID ) )
+        if ( isAlwaysPresent() )
         {
-            // we don't maintain a presence index for objectClass, entryUUID and entryCSN
-            // however as every entry has such an attribute this evaluator always evaluates to true
             return true;
         }
 
@@ -167,6 +182,21 @@ public class PresenceEvaluator implements Evaluator<PresenceNode>
     }
 
 
+    /**
+     * We don't maintain a presence index for objectClass, entryUUID and entryCSN,
+     * however as every entry has such an attribute this evaluator always evaluates
+     * to true for them.
+     */
+    private boolean isAlwaysPresent()
+    {
+        String attrOid = attributeType.getOid();
+
+        return attrOid.equals( SchemaConstants.OBJECT_CLASS_AT_OID )
+            || attrOid.equals( SchemaConstants.ENTRY_CSN_AT_OID )
+            || attrOid.equals( SchemaConstants.ENTRY_UUID_AT_OID );
+    }
+
+
     /**
      * @see Object#toString()
      */
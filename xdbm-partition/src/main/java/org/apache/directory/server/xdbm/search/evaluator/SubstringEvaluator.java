@@ -23,6 +23,7 @@ package org.apache.directory.server.xdbm.search.evaluator;
 import java.util.Iterator;
 import java.util.regex.Pattern;
 
+import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Value;
@@ -37,6 +38,7 @@ import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.Store;
 import org.apache.directory.server.xdbm.search.Evaluator;
+import org.apache.directory.server.xdbm.search.FilterPlanCache;
 
 
 /**
@@ -67,6 +69,9 @@ public class SubstringEvaluator implements Evaluator<SubstringNode>
     /** The index to use if any */
     private final Index<String, String> idx;
 
+    /** Tells if the reverse index can be used instead of fetching the candidates */
+    private final boolean probeIndex;
+
 
     /**
      * Creates a new SubstringEvaluator for substring expressions.
@@ -76,9 +81,26 @@ public class SubstringEvaluator implements Evaluator<SubstringNode>
      * @param schemaManager the schema manager
      * @throws Exception if there are failures accessing resources and the db
      */
-    @SuppressWarnings("unchecked")
     public SubstringEvaluator( SubstringNode node, Store db, SchemaManager schemaManager )
         throws Exception
+    {
+        this( node, db, schemaManager, null );
+    }
+
+
+    /**
+     * Creates a new SubstringEvaluator for substring expressions, getting the
+     * regular expression from a cache.
+     *
+     * @param node the substring expression node
+     * @param db the database this evaluator uses
+     * @param schemaManager the schema manager
+     * @param planCache the cache of compiled patterns, or null
+     * @throws Exception if there are failures accessing resources and the db
+     */
+    @SuppressWarnings("unchecked")
+    public SubstringEvaluator( SubstringNode node, Store db, SchemaManager schemaManager, FilterPlanCache planCache )
+        throws Exception
     {
         this.db = db;
         this.node = node;
@@ -105,7 +127,14 @@ public class SubstringEvaluator implements Evaluator<SubstringNode>
         // if the attributeType is humanReadable
         if ( attributeType.getSyntax().isHumanReadable() )
         {
-            regex = node.getRegex( normalizer );
+            if ( planCache != null )
+            {
+                regex = planCache.getPattern( node, normalizer );
+            }
+            else
+            {
+                regex = node.getRegex( normalizer );
+            }
         }
         else
         {
@@ -120,6 +149,11 @@ public class SubstringEvaluator implements Evaluator<SubstringNode>
         {
             idx = null;
         }
+
+        // The user indexes are keyed on the normalized values, which are the ones
+        // the regex is checked against, but they don't contain the descendants values
+        probeIndex = ( idx != null ) && ( regex != null ) && idx.hasReverse() && db.hasUserIndexOn( attributeType )
+            && !schemaManager.getAttributeTypeRegistry().hasDescendants( attributeType );
     }
 
 
@@ -130,6 +164,11 @@ public class SubstringEvaluator implements Evaluator<SubstringNode>
 
         Entry entry = indexEntry.getEntry();
 
+        if ( ( null == entry ) && probeIndex )
+        {
+            return evaluateWithIndex( indexEntry );
+        }
+
         // resuscitate the entry if it has not been and set entry in IndexEntry
         if ( null == entry )
         {
@@ -319,6 +358,50 @@ public class SubstringEvaluator implements Evaluator<SubstringNode>
     }
 
 
+    /**
+     * Checks the values of the candidate stored in the reverse index, so that
+     * the entry does not have to be fetched.
+     */
+    private boolean evaluateWithIndex( IndexEntry<String, String> indexEntry ) throws LdapException
+    {
+        Cursor<String> values = null;
+
+        try
+        {
+            values = idx.reverseValueCursor( indexEntry.getId() );
+
+            while ( values.next() )
+            {
+                String strValue = values.get();
+
+                if ( regex.matcher( strValue ).matches() )
+                {
+                    indexEntry.setKey( strValue );
+
+                    return true;
+                }
+            }
+
+            return false;
+        }
+        catch ( LdapException le )
+        {
+            throw le;
+        }
+        catch ( Exception e )
+        {
+            throw new LdapException( e.getMessage(), e );
+        }
+        finally
+        {
+            if ( values != null )
+            {
+                values.close();
+            }
+        }
+    }
+
+
     public Pattern getPattern()
     {
         return regex;
@@ -29,6 +29,7 @@ import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.HierarchyLabels;
 import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.ParentIdAndRdn;
 import org.apache.directory.server.xdbm.Store;
@@ -67,6 +68,9 @@ public class SubtreeScopeEvaluator implements Evaluator<ScopeNode>
     /** The entry database/store */
     private final Store db;
 
+    /** The hierarchical labels, used to check the descendants without walking up the Rdn index */
+    private final HierarchyLabels labels;
+
 
     /**
      * Creates a subtree scope node evaluator for search expressions.
@@ -88,6 +92,16 @@ public class SubtreeScopeEvaluator implements Evaluator<ScopeNode>
         baseId = node.getBaseId();
         baseIsContextEntry = getContextEntryId() == baseId;
         dereferencing = node.getDerefAliases().isDerefInSearching() || node.getDerefAliases().isDerefAlways();
+
+        if ( baseIsContextEntry )
+        {
+            // All the entries are descendants, no need for the labels
+            labels = null;
+        }
+        else
+        {
+            labels = db.getHierarchyLabels();
+        }
     }
 
     private String contextEntryId;
@@ -119,12 +133,28 @@ public class SubtreeScopeEvaluator implements Evaluator<ScopeNode>
 
 
     /**
-     * Tells if a candidate is a descendant of the base ID. We have to fetch all 
+     * Tells if a candidate is a descendant of the base ID. We compare the hierarchical
+     * labels if they are available, otherwise we have to fetch all 
      * the parentIdAndRdn up to the baseId. If we terminate on the context entry without 
      * having found the baseId, then the candidate is not a descendant.
      */
     private boolean isDescendant( String candidateId ) throws LdapException
     {
+        if ( ( labels != null ) && labels.isLoaded() )
+        {
+            // The candidate's label starts with the base's label
+            if ( labels.isDescendant( candidateId, baseId ) )
+            {
+                return true;
+            }
+
+            // Unless the labels have been dropped meanwhile
+            if ( labels.isLoaded() )
+            {
+                return false;
+            }
+        }
+
         String tmp = candidateId;
 
         while ( true )
@@ -163,22 +193,8 @@ public class SubtreeScopeEvaluator implements Evaluator<ScopeNode>
      */
     public boolean evaluate( IndexEntry<?, String> indexEntry ) throws LdapException
     {
+        // The scope only depends on the Rdn index : the entry is not fetched
         String id = indexEntry.getId();
-        Entry entry = indexEntry.getEntry();
-
-        // Fetch the entry
-        if ( null == entry )
-        {
-            entry = db.fetch( indexEntry.getId() );
-
-            if ( null == entry )
-            {
-                // The entry is not anymore present : get out
-                return false;
-            }
-
-            indexEntry.setEntry( entry );
-        }
 
         /*
          * This condition catches situations where the candidate is equal to 
@@ -20,11 +20,14 @@
 package org.apache.directory.server.xdbm.search.impl;
 
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
 import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.ListCursor;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.filter.AndNode;
@@ -46,8 +49,10 @@ import org.apache.directory.api.ldap.model.schema.MatchingRule;
 import org.apache.directory.api.ldap.model.schema.Normalizer;
 import org.apache.directory.api.ldap.model.schema.normalizers.NoOpNormalizer;
 import org.apache.directory.api.util.exception.NotImplementedException;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.HierarchyLabels;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.ParentIdAndRdn;
@@ -73,6 +78,12 @@ public class CursorBuilder
     /** Evaluator dependency on a EvaluatorBuilder */
     private EvaluatorBuilder evaluatorBuilder;
 
+    /** The number of index cursors opened to compute the candidates, if the metrics are recorded */
+    private AtomicLong indexCursors;
+
+    /** The number of index entries read by these cursors */
+    private AtomicLong indexEntries;
+
 
     /**
      * Creates an expression tree enumerator.
@@ -87,6 +98,36 @@ public class CursorBuilder
     }
 
 
+    /**
+     * Records the number of index cursors opened and of the index entries they read
+     * into the partition.&lt;id&gt;.index.cursors and partition.&lt;id&gt;.index.entries
+     * counters. The counts are added once per cursor, when it is closed.
+     *
+     * @param metricsRegistry The registry the counters are stored in
+     */
+    public void setMetricsRegistry( MetricsRegistry metricsRegistry )
+    {
+        String indexMetric = MetricsRegistry.PARTITION_PREFIX + ( ( Partition ) db ).getId() + ".index";
+        indexCursors = metricsRegistry.getCounter( indexMetric + ".cursors" );
+        indexEntries = metricsRegistry.getCounter( indexMetric + ".entries" );
+    }
+
+
+    /**
+     * Records a cursor which has been read, if the metrics are recorded
+     *
+     * @param nbRead The number of entries read from the cursor
+     */
+    void recordCursor( long nbRead )
+    {
+        if ( indexCursors != null )
+        {
+            indexCursors.incrementAndGet();
+            indexEntries.addAndGet( nbRead );
+        }
+    }
+
+
     public <T> long build( ExprNode node, PartitionSearchResult searchResult ) throws Exception
     {
         Object count = node.get( "count" );
@@ -166,9 +207,11 @@ public class CursorBuilder
 
         int nbResults = 0;
         Set<String> uuidSet = searchResult.getCandidateSet();
+        long nbRead = 0;
 
         while ( cursor.next() )
         {
+            nbRead++;
             IndexEntry<T, String> indexEntry = cursor.get();
 
             String uuid = indexEntry.getId();
@@ -180,6 +223,7 @@ public class CursorBuilder
             }
         }
 
+        recordCursor( nbRead );
         cursor.close();
 
         return nbResults;
@@ -218,10 +262,12 @@ public class CursorBuilder
             Index<T, String> userIndex = ( Index<T, String> ) db.getIndex( attributeType );
             Cursor<IndexEntry<T, String>> userIdxCursor = userIndex.forwardCursor( value.getValue() );
             Set<String> uuidSet = searchResult.getCandidateSet();
+            long nbRead = 0;
 
             // And loop on it
             while ( userIdxCursor.next() )
             {
+                nbRead++;
                 IndexEntry<T, String> indexEntry = userIdxCursor.get();
 
                 String uuid = indexEntry.getId();
@@ -234,6 +280,7 @@ public class CursorBuilder
                 }
             }
 
+            recordCursor( nbRead );
             userIdxCursor.close();
         }
         else
@@ -270,10 +317,12 @@ public class CursorBuilder
 
             userIdxCursor.before( indexEntry );
             Set<String> uuidSet = searchResult.getCandidateSet();
+            long nbRead = 0;
 
             // And loop on it
             while ( userIdxCursor.next() )
             {
+                nbRead++;
                 indexEntry = userIdxCursor.get();
 
                 String uuid = indexEntry.getId();
@@ -286,6 +335,7 @@ public class CursorBuilder
                 }
             }
 
+            recordCursor( nbRead );
             userIdxCursor.close();
         }
         else
@@ -322,10 +372,12 @@ public class CursorBuilder
 
             userIdxCursor.after( indexEntry );
             Set<String> uuidSet = searchResult.getCandidateSet();
+            long nbRead = 0;
 
             // And loop on it
             while ( userIdxCursor.previous() )
             {
+                nbRead++;
                 indexEntry = userIdxCursor.get();
 
                 String uuid = indexEntry.getId();
@@ -338,6 +390,7 @@ public class CursorBuilder
                 }
             }
 
+            recordCursor( nbRead );
             userIdxCursor.close();
         }
         else
@@ -370,10 +423,12 @@ public class CursorBuilder
             // Position the index on the element we should start from
             IndexEntry<String, String> indexEntry = new IndexEntry<String, String>();
             Set<String> uuidSet = searchResult.getCandidateSet();
+            long nbRead = 0;
 
             // And loop on it
             while ( presenceCursor.next() )
             {
+                nbRead++;
                 indexEntry = presenceCursor.get();
 
                 String uuid = indexEntry.getId();
@@ -386,6 +441,7 @@ public class CursorBuilder
                 }
             }
 
+            recordCursor( nbRead );
             presenceCursor.close();
         }
         else
@@ -417,11 +473,13 @@ public class CursorBuilder
 
         Cursor<IndexEntry<String, String>> scopeCursor = new ChildrenCursor( db, node.getBaseId(), rdnCursor );
         Set<String> candidateSet = searchResult.getCandidateSet();
+        long nbRead = 0;
 
         // Fetch all the UUIDs if we have an index
         // And loop on it
         while ( scopeCursor.next() )
         {
+            nbRead++;
             IndexEntry<String, String> indexEntry = scopeCursor.get();
 
             String uuid = indexEntry.getId();
@@ -467,6 +525,7 @@ public class CursorBuilder
             }
         }
 
+        recordCursor( nbRead );
         scopeCursor.close();
 
         return nbResults;
@@ -490,26 +549,48 @@ public class CursorBuilder
 
         int nbResults = 0;
 
-        // We use the RdnIndex to get all the entries from a starting point
-        // and below up to the number of descendant
         String baseId = node.getBaseId();
-        ParentIdAndRdn parentIdAndRdn = db.getRdnIndex().reverseLookup( baseId );
-        IndexEntry<ParentIdAndRdn, String> startingPos = new IndexEntry<ParentIdAndRdn, String>();
+        Cursor<IndexEntry<String, String>> scopeCursor;
+        HierarchyLabels labels = db.getHierarchyLabels();
+
+        // The base and its descendants form a contiguous range of labels
+        List<String> subtreeIds = ( labels != null ) ? labels.getSubtree( baseId ) : null;
+
+        if ( subtreeIds != null )
+        {
+            List<IndexEntry<String, String>> subtree = new ArrayList<IndexEntry<String, String>>( subtreeIds.size() );
+
+            for ( String subtreeId : subtreeIds )
+            {
+                subtree.add( createIndexEntry( subtreeId ) );
+            }
 
-        startingPos.setKey( parentIdAndRdn );
-        startingPos.setId( baseId );
+            scopeCursor = new ListCursor<IndexEntry<String, String>>( subtree );
+        }
+        else
+        {
+            // We use the RdnIndex to get all the entries from a starting point
+            // and below up to the number of descendant
+            ParentIdAndRdn parentIdAndRdn = db.getRdnIndex().reverseLookup( baseId );
+            IndexEntry<ParentIdAndRdn, String> startingPos = new IndexEntry<ParentIdAndRdn, String>();
 
-        Cursor<IndexEntry<ParentIdAndRdn, String>> rdnCursor = new SingletonIndexCursor<ParentIdAndRdn>(
-            startingPos );
-        String parentId = parentIdAndRdn.getParentId();
+            startingPos.setKey( parentIdAndRdn );
+            startingPos.setId( baseId );
 
-        Cursor<IndexEntry<String, String>> scopeCursor = new DescendantCursor( db, baseId, parentId, rdnCursor );
+            Cursor<IndexEntry<ParentIdAndRdn, String>> rdnCursor = new SingletonIndexCursor<ParentIdAndRdn>(
+                startingPos );
+            String parentId = parentIdAndRdn.getParentId();
+
+            scopeCursor = new DescendantCursor( db, baseId, parentId, rdnCursor );
+        }
         Set<String> candidateSet = searchResult.getCandidateSet();
+        long nbRead = 0;
 
         // Fetch all the UUIDs if we have an index
         // And loop on it
         while ( scopeCursor.next() )
         {
+            nbRead++;
             IndexEntry<String, String> indexEntry = scopeCursor.get();
 
             String uuid = indexEntry.getId();
@@ -563,12 +644,25 @@ public class CursorBuilder
             }
         }
 
+        recordCursor( nbRead );
         scopeCursor.close();
 
         return nbResults;
     }
 
 
+    /**
+     * Creates an IndexEntry for a subtree candidate
+     */
+    private IndexEntry<String, String> createIndexEntry( String id )
+    {
+        IndexEntry<String, String> indexEntry = new IndexEntry<String, String>();
+        indexEntry.setId( id );
+
+        return indexEntry;
+    }
+
+
     /**
      * Computes the set of candidates for an Substring filter. We will feed the set only if
      * we have an index for the AT.
@@ -622,16 +716,19 @@ public class CursorBuilder
             }
 
             Set<String> uuidSet = searchResult.getCandidateSet();
+            long nbRead = 0;
 
             // And loop on it
             while ( cursor.next() )
             {
+                nbRead++;
                 indexEntry = cursor.get();
 
                 String key = indexEntry.getKey();
 
                 if ( !regexp.matcher( key ).matches() )
                 {
+                    recordCursor( nbRead );
                     cursor.close();
 
                     return nbResults;
@@ -647,6 +744,7 @@ public class CursorBuilder
                 }
             }
 
+            recordCursor( nbRead );
             cursor.close();
 
             return nbResults;
@@ -20,8 +20,10 @@
 package org.apache.directory.server.xdbm.search.impl;
 
 
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
@@ -48,6 +50,7 @@ import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.Store;
+import org.apache.directory.server.xdbm.search.FilterPlanCache;
 import org.apache.directory.server.xdbm.search.Optimizer;
 
 
@@ -60,10 +63,38 @@ public class DefaultOptimizer<E> implements Optimizer
 {
     static final String CANDIDATES_ANNOTATION_KEY = "candidates";
 
+    /** The annotation telling if the count of a node depends on a count reused from the plan cache */
+    static final String ESTIMATED_ANNOTATION_KEY = "estimated";
+
+    /** The maximum number of candidates gathered for an equality assertion */
+    private static final int MAX_CANDIDATES = 100;
+
     /** the database this optimizer operates on */
     private final Store db;
     private String contextEntryId;
 
+    /** The cache of scan counts per filter shape, if any */
+    private final FilterPlanCache planCache;
+
+
+    /**
+     * The scan counts reused and computed during the annotation of a filter.
+     */
+    private static final class PlanContext
+    {
+        /** The fresh plan found in the cache, if any */
+        private final FilterPlanCache.Plan plan;
+
+        /** The reusable scan counts computed when there is no plan */
+        private final Map<String, Long> estimates = new HashMap<String, Long>();
+
+
+        private PlanContext( FilterPlanCache.Plan plan )
+        {
+            this.plan = plan;
+        }
+    }
+
 
     /**
      * Creates an optimizer on a database.
@@ -71,8 +102,22 @@ public class DefaultOptimizer<E> implements Optimizer
      * @param db the database this optimizer works for.
      */
     public DefaultOptimizer( Store db ) throws Exception
+    {
+        this( db, null );
+    }
+
+
+    /**
+     * Creates an optimizer on a database, reusing the scan counts computed for
+     * the filters of the same shape.
+     *
+     * @param db the database this optimizer works for.
+     * @param planCache The cache of scan counts, or null to compute them on each search
+     */
+    public DefaultOptimizer( Store db, FilterPlanCache planCache ) throws Exception
     {
         this.db = db;
+        this.planCache = planCache;
     }
 
 
@@ -109,11 +154,69 @@ public class DefaultOptimizer<E> implements Optimizer
      *
      * @see org.apache.directory.server.xdbm.search.Optimizer#annotate(ExprNode)
      */
-    @SuppressWarnings("unchecked")
     public Long annotate( ExprNode node ) throws Exception
+    {
+        if ( planCache == null )
+        {
+            return annotate( node, "", null );
+        }
+
+        // The counts of the leaves are reused from the previous searches with
+        // the same filter shape, as long as they are fresh
+        String shape = FilterPlanCache.getShape( node );
+        FilterPlanCache.Plan plan = planCache.getPlan( shape );
+        PlanContext context = new PlanContext( plan );
+        Long count = annotate( node, "", context );
+
+        if ( plan == null )
+        {
+            planCache.putPlan( shape, context.estimates );
+        }
+
+        return count;
+    }
+
+
+    /**
+     * Annotates the expression tree computing all the scan counts again, without
+     * reusing those of the previous searches with the same filter shape.
+     *
+     * @param node The filter to annotate
+     * @return The scan count of the filter
+     * @throws Exception If an index can't be read
+     */
+    public Long annotateFresh( ExprNode node ) throws Exception
+    {
+        return annotate( node, "", null );
+    }
+
+
+    /**
+     * Tells if the count of an annotated node depends on a count reused from a
+     * previous search with the same filter shape, and another assertion value.
+     *
+     * @param node The annotated node
+     * @return true if the count is not computed for this filter
+     */
+    public static boolean isEstimated( ExprNode node )
+    {
+        return Boolean.TRUE.equals( node.get( ESTIMATED_ANNOTATION_KEY ) );
+    }
+
+
+    /**
+     * Annotates a node of the filter.
+     *
+     * @param node The node to annotate
+     * @param position The position of the node in the filter
+     * @param context The scan counts to reuse, if any
+     */
+    @SuppressWarnings("unchecked")
+    private Long annotate( ExprNode node, String position, PlanContext context ) throws Exception
     {
         // Start off with the worst case unless scan count says otherwise.
         Long count = Long.MAX_VALUE;
+        boolean estimated = false;
 
         /* --------------------------------------------------------------------
          *                 H A N D L E   L E A F   N O D E S          
@@ -140,6 +243,12 @@ public class DefaultOptimizer<E> implements Optimizer
              * scan count is not specified by the implementation.
              */
         }
+        else if ( ( context != null ) && ( context.plan != null )
+            && ( context.plan.getEstimate( position ) != null ) )
+        {
+            count = context.plan.getEstimate( position );
+            estimated = true;
+        }
         else if ( node.isLeaf() )
         {
             LeafNode leaf = ( LeafNode ) node;
@@ -179,6 +288,11 @@ public class DefaultOptimizer<E> implements Optimizer
             {
                 throw new IllegalArgumentException( I18n.err( I18n.ERR_711 ) );
             }
+
+            if ( ( context != null ) && isReusable( leaf, count ) )
+            {
+                context.estimates.put( position, count );
+            }
         }
         // --------------------------------------------------------------------
         //                 H A N D L E   B R A N C H   N O D E S       
@@ -187,15 +301,15 @@ public class DefaultOptimizer<E> implements Optimizer
         {
             if ( node instanceof AndNode )
             {
-                count = getConjunctionScan( ( AndNode ) node );
+                count = getConjunctionScan( ( AndNode ) node, position, context );
             }
             else if ( node instanceof OrNode )
             {
-                count = getDisjunctionScan( ( OrNode ) node );
+                count = getDisjunctionScan( ( OrNode ) node, position, context );
             }
             else if ( node instanceof NotNode )
             {
-                annotate( ( ( NotNode ) node ).getFirstChild() );
+                annotate( ( ( NotNode ) node ).getFirstChild(), position + "/0", context );
 
                 /*
                  * A negation filter is always worst case since we will have
@@ -209,6 +323,16 @@ public class DefaultOptimizer<E> implements Optimizer
             {
                 throw new IllegalArgumentException( I18n.err( I18n.ERR_712 ) );
             }
+
+            // The count of a branch is estimated as soon as one of its children's is,
+            // except for a negation, which always costs a full scan
+            if ( !( node instanceof NotNode ) )
+            {
+                for ( ExprNode child : ( ( BranchNode ) node ).getChildren() )
+                {
+                    estimated |= isEstimated( child );
+                }
+            }
         }
 
         // Protect against overflow when counting.
@@ -218,11 +342,34 @@ public class DefaultOptimizer<E> implements Optimizer
         }
 
         node.set( "count", count );
+        node.set( ESTIMATED_ANNOTATION_KEY, estimated );
 
         return count;
     }
 
 
+    /**
+     * Tells if the scan count of a leaf can be reused for another value. The
+     * count only drives the order in which the nodes are evaluated if it's not
+     * null, and if no candidates have been stored in the node : an equality
+     * count below the candidates limit is always computed again.
+     */
+    private boolean isReusable( LeafNode leaf, long count )
+    {
+        if ( count == 0L )
+        {
+            return false;
+        }
+
+        if ( ( leaf instanceof EqualityNode ) || ( leaf instanceof ApproximateNode ) )
+        {
+            return count >= MAX_CANDIDATES;
+        }
+
+        return true;
+    }
+
+
     /**
      * ANDs or Conjunctions take the count of the smallest child as their count.
      * This is the best that a conjunction can do and should be used rather than
@@ -231,23 +378,27 @@ public class DefaultOptimizer<E> implements Optimizer
      * depth first.
      *
      * @param node a AND (Conjunction) BranchNode
+     * @param position the position of the node in the filter
+     * @param context the scan counts to reuse, if any
      * @return the calculated scan count
      * @throws Exception if there is an error
      */
-    private long getConjunctionScan( BranchNode node ) throws Exception
+    private long getConjunctionScan( BranchNode node, String position, PlanContext context ) throws Exception
     {
         long count = Long.MAX_VALUE;
         List<ExprNode> children = node.getChildren();
 
-        for ( ExprNode child : children )
+        for ( int i = 0; i < children.size(); i++ )
         {
+            ExprNode child = children.get( i );
+
             if ( ( count == 1 ) && ( child instanceof ScopeNode ) )
             {
                 // We can stop here
                 break;
             }
 
-            annotate( child );
+            annotate( child, position + "/" + i, context );
             count = Math.min( ( ( Long ) child.get( "count" ) ), count );
 
             if ( count == 0 )
@@ -267,17 +418,20 @@ public class DefaultOptimizer<E> implements Optimizer
      * child node with a recursive call.
      *
      * @param node the OR branch node
+     * @param position the position of the node in the filter
+     * @param context the scan counts to reuse, if any
      * @return the scan count on the OR node
      * @throws Exception if there is an error
      */
-    private long getDisjunctionScan( BranchNode node ) throws Exception
+    private long getDisjunctionScan( BranchNode node, String position, PlanContext context ) throws Exception
     {
         List<ExprNode> children = node.getChildren();
         long total = 0L;
 
-        for ( ExprNode child : children )
+        for ( int i = 0; i < children.size(); i++ )
         {
-            annotate( child );
+            ExprNode child = children.get( i );
+            annotate( child, position + "/" + i, context );
             total += ( Long ) child.get( "count" );
 
             if ( total == Long.MAX_VALUE )
@@ -316,7 +470,7 @@ public class DefaultOptimizer<E> implements Optimizer
                 nbFound++;
 
                 // Arbitrary stop gathering the candidates if we have more than 100
-                if ( nbFound == 100 )
+                if ( nbFound == MAX_CANDIDATES )
                 {
                     break;
                 }
@@ -324,7 +478,7 @@ public class DefaultOptimizer<E> implements Optimizer
 
             result.close();
 
-            if ( nbFound < 100 )
+            if ( nbFound < MAX_CANDIDATES )
             {
                 // Store the found candidates in the node
                 node.set( CANDIDATES_ANNOTATION_KEY, values );
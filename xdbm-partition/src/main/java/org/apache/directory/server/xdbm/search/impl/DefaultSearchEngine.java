@@ -27,15 +27,20 @@ import net.sf.ehcache.Element;
 
 import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.LdapNoSuchObjectException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.exception.LdapUnwillingToPerformException;
 import org.apache.directory.api.ldap.model.filter.AndNode;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
 import org.apache.directory.api.ldap.model.filter.ObjectClassNode;
 import org.apache.directory.api.ldap.model.filter.ScopeNode;
 import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
 import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.partition.impl.btree.IndexCursorAdaptor;
@@ -237,13 +242,26 @@ public class DefaultSearchEngine implements SearchEngine
 
         // Annotate the node with the optimizer and return search enumeration.
         optimizer.annotate( root );
+        checkCost( root, searchContext );
         Evaluator<? extends ExprNode> evaluator = evaluatorBuilder.build( root );
 
         Set<String> uuidSet = new HashSet<String>();
         searchResult.setAliasDerefMode( aliasDerefMode );
         searchResult.setCandidateSet( uuidSet );
+        searchResult.setScan( isScan( root ) );
 
-        long nbResults = cursorBuilder.build( root, searchResult );
+        long nbResults;
+
+        try
+        {
+            // The cursors may fetch the candidates to evaluate them
+            db.setScanning( searchResult.isScan() );
+            nbResults = cursorBuilder.build( root, searchResult );
+        }
+        finally
+        {
+            db.setScanning( false );
+        }
 
         LOG.debug( "Nb results : {} for filter : {}", nbResults, root );
 
@@ -260,9 +278,11 @@ public class DefaultSearchEngine implements SearchEngine
         {
             // Full scan : use the MasterTable
             Cursor<IndexEntry<String, String>> cursor = new IndexCursorAdaptor( db.getMasterTable().cursor(), true );
+            long nbRead = 0;
 
             while ( cursor.next() )
             {
+                nbRead++;
                 IndexEntry<String, String> indexEntry = cursor.get();
 
                 // Here, the indexEntry contains a <UUID, Entry> tuple. Convert it to <UUID, UUID> 
@@ -273,6 +293,8 @@ public class DefaultSearchEngine implements SearchEngine
 
                 resultSet.add( forwardIndexEntry );
             }
+
+            cursorBuilder.recordCursor( nbRead );
         }
 
         searchResult.setEvaluator( evaluator );
@@ -282,6 +304,75 @@ public class DefaultSearchEngine implements SearchEngine
     }
 
 
+    /**
+     * Rejects the search if the optimizer estimates that it will go through more
+     * candidates than the store allows, unless it's done by an administrator, or
+     * it's an internal search done without any session. A count depending on the
+     * counts reused from the plan cache, computed for other assertion values, is
+     * computed again before the search is rejected.
+     */
+    private void checkCost( ExprNode root, SearchOperationContext searchContext ) throws LdapException
+    {
+        long maxSearchCost = db.getMaxSearchCost();
+
+        if ( ( maxSearchCost <= 0 ) || ( optimizer instanceof NoOpOptimizer ) )
+        {
+            return;
+        }
+
+        Object count = root.get( "count" );
+
+        if ( ( count instanceof Long ) && ( ( Long ) count > maxSearchCost ) )
+        {
+            CoreSession session = searchContext.getSession();
+
+            if ( ( session == null ) || session.isAdministrator() )
+            {
+                return;
+            }
+
+            if ( DefaultOptimizer.isEstimated( root ) && ( optimizer instanceof DefaultOptimizer ) )
+            {
+                try
+                {
+                    count = ( ( DefaultOptimizer<?> ) optimizer ).annotateFresh( root );
+                }
+                catch ( Exception e )
+                {
+                    throw new LdapOtherException( e.getMessage(), e );
+                }
+            }
+
+            if ( ( Long ) count > maxSearchCost )
+            {
+                String message = "The search " + root + " would go through about " + count
+                    + " entries, more than the " + maxSearchCost + " allowed";
+                LOG.warn( message );
+
+                throw new LdapUnwillingToPerformException( ResultCodeEnum.UNWILLING_TO_PERFORM, message );
+            }
+        }
+    }
+
+
+    /**
+     * Tells if the optimizer estimates that the search will go through more
+     * candidates than the store threshold. The estimations of the NoOpOptimizer
+     * are meaningless, so nothing is a scan when it's used.
+     */
+    private boolean isScan( ExprNode root )
+    {
+        if ( optimizer instanceof NoOpOptimizer )
+        {
+            return false;
+        }
+
+        Object count = root.get( "count" );
+
+        return ( count instanceof Long ) && ( ( Long ) count > db.getScanThreshold() );
+    }
+
+
     /**
      * @see SearchEngine#evaluator(ExprNode)
      */
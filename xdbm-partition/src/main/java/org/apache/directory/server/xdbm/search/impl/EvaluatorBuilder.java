@@ -41,6 +41,7 @@ import org.apache.directory.api.util.exception.NotImplementedException;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.Store;
 import org.apache.directory.server.xdbm.search.Evaluator;
+import org.apache.directory.server.xdbm.search.FilterPlanCache;
 import org.apache.directory.server.xdbm.search.evaluator.AndEvaluator;
 import org.apache.directory.server.xdbm.search.evaluator.ApproximateEvaluator;
 import org.apache.directory.server.xdbm.search.evaluator.EmptyEvaluator;
@@ -65,6 +66,9 @@ public class EvaluatorBuilder
     private final Store db;
     private final SchemaManager schemaManager;
 
+    /** The cache of compiled substring patterns, if any */
+    private final FilterPlanCache planCache;
+
     private static final EmptyEvaluator emptyEvaluator = new EmptyEvaluator();
 
     /**
@@ -76,9 +80,26 @@ public class EvaluatorBuilder
      * @throws Exception failure to access db or lookup schema in registries
      */
     public EvaluatorBuilder( Store db, SchemaManager schemaManager ) throws Exception
+    {
+        this( db, schemaManager, null );
+    }
+
+
+    /**
+     * Creates a top level Evaluator where leaves are delegated to a leaf node
+     * evaluator which will be created, reusing the patterns compiled for the
+     * previous substring assertions.
+     *
+     * @param db the database this evaluator operates upon
+     * @param schemaManager the schema manager
+     * @param planCache the cache of compiled patterns, or null
+     * @throws Exception failure to access db or lookup schema in registries
+     */
+    public EvaluatorBuilder( Store db, SchemaManager schemaManager, FilterPlanCache planCache ) throws Exception
     {
         this.db = db;
         this.schemaManager = schemaManager;
+        this.planCache = planCache;
     }
 
 
@@ -121,7 +142,7 @@ public class EvaluatorBuilder
                 }
 
             case SUBSTRING:
-                return new SubstringEvaluator( ( SubstringNode ) node, db, schemaManager );
+                return new SubstringEvaluator( ( SubstringNode ) node, db, schemaManager, planCache );
 
                 /* ---------- LOGICAL OPERATORS ---------- */
 
@@ -0,0 +1,298 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.StringReader;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.csn.CsnFactory;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schemaextractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schemaextractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schemaloader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schemamanager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.constants.ServerDNConstants;
+import org.apache.directory.server.core.api.CacheService;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.apache.directory.server.core.shared.DefaultDnFactory;
+import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the BulkLoader.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class BulkLoaderTest
+{
+    private static SchemaManager schemaManager;
+    private static DnFactory dnFactory;
+    private AvlPartition partition;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = BulkLoaderTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        if ( !schemaManager.loadAllEnabled() )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        CacheService cacheService = new CacheService();
+        cacheService.initialize( null );
+        dnFactory = new DefaultDnFactory( schemaManager, cacheService.getCache( "dnCache" ) );
+    }
+
+
+    @Before
+    public void createPartition() throws Exception
+    {
+        partition = new AvlPartition( schemaManager, dnFactory );
+        partition.setId( "example" );
+        partition.addIndex( new AvlIndex<String>( SchemaConstants.OU_AT_OID ) );
+        partition.addIndex( new AvlIndex<String>( SchemaConstants.UID_AT_OID ) );
+        partition.setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+        partition.initialize();
+    }
+
+
+    @After
+    public void destroyPartition() throws Exception
+    {
+        partition.destroy();
+    }
+
+
+    /**
+     * Creates a LDIF where the users come before their ou, and the ou before the suffix.
+     */
+    private String createLdif( int nbUsers )
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append( "version: 1\n\n" );
+
+        for ( int i = 0; i < nbUsers; i++ )
+        {
+            sb.append( "dn: uid=user" ).append( i ).append( ",ou=people,o=Good Times Co.\n" );
+            sb.append( "objectClass: top\n" );
+            sb.append( "objectClass: person\n" );
+            sb.append( "objectClass: uidObject\n" );
+            sb.append( "uid: user" ).append( i ).append( '\n' );
+            sb.append( "cn: User " ).append( i ).append( '\n' );
+            sb.append( "sn: User\n\n" );
+        }
+
+        sb.append( "dn: ou=people,o=Good Times Co.\n" );
+        sb.append( "objectClass: top\n" );
+        sb.append( "objectClass: organizationalUnit\n" );
+        sb.append( "ou: people\n\n" );
+
+        sb.append( "dn: o=Good Times Co.\n" );
+        sb.append( "objectClass: top\n" );
+        sb.append( "objectClass: organization\n" );
+        sb.append( "o: Good Times Co.\n" );
+
+        return sb.toString();
+    }
+
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testLoad() throws Exception
+    {
+        boolean syncOnWrite = partition.isSyncOnWrite();
+        BulkLoader loader = new BulkLoader( partition, schemaManager );
+        loader.setNbThreads( 4 );
+        loader.setBatchSize( 7 );
+
+        assertEquals( 1002L, loader.load( new StringReader( createLdif( 1000 ) ) ) );
+        assertEquals( 1002L, partition.count() );
+        assertEquals( syncOnWrite, partition.isSyncOnWrite() );
+
+        Dn dn = new Dn( schemaManager, "uid=user123,ou=people,o=Good Times Co." );
+        String id = partition.getEntryId( dn );
+        assertNotNull( id );
+
+        Entry entry = partition.fetch( id, dn );
+        assertEquals( id, entry.get( SchemaConstants.ENTRY_UUID_AT ).getString() );
+        assertNotNull( entry.get( SchemaConstants.ENTRY_CSN_AT ) );
+        assertEquals( ServerDNConstants.ADMIN_SYSTEM_DN, entry.get( SchemaConstants.CREATORS_NAME_AT ).getString() );
+        assertNotNull( entry.get( SchemaConstants.CREATE_TIMESTAMP_AT ) );
+
+        Index<String, String> uidIndex = ( Index<String, String> ) partition.getUserIndex( schemaManager
+            .getAttributeType( SchemaConstants.UID_AT ) );
+        assertEquals( id, uidIndex.forwardLookup( "user123" ) );
+        assertEquals( 1000L, partition.getChildCount( partition.getEntryId(
+            new Dn( schemaManager, "ou=people,o=Good Times Co." ) ) ) );
+    }
+
+
+    @Test
+    public void testLoadMissingParent() throws Exception
+    {
+        String ldif = "dn: o=Good Times Co.\n" +
+            "objectClass: top\n" +
+            "objectClass: organization\n" +
+            "o: Good Times Co.\n\n" +
+            "dn: uid=orphan,ou=nowhere,o=Good Times Co.\n" +
+            "objectClass: top\n" +
+            "objectClass: person\n" +
+            "objectClass: uidObject\n" +
+            "uid: orphan\n" +
+            "cn: Orphan\n" +
+            "sn: Orphan\n";
+
+        try
+        {
+            new BulkLoader( partition, schemaManager ).load( new StringReader( ldif ) );
+            fail();
+        }
+        catch ( Exception e )
+        {
+            assertTrue( e.getMessage().contains( "ou=nowhere" ) );
+        }
+
+        assertEquals( 1L, partition.count() );
+    }
+
+
+    @Test
+    public void testLoadTooManyOrphans() throws Exception
+    {
+        BulkLoader loader = new BulkLoader( partition, schemaManager );
+        loader.setMaxOrphans( 10 );
+
+        try
+        {
+            loader.load( new StringReader( createLdif( 100 ) ) );
+            fail();
+        }
+        catch ( Exception e )
+        {
+            // The load stops as soon as too many entries wait for their parent
+            assertTrue( e.getMessage().contains( "uid=user10," ) );
+        }
+
+        assertEquals( 0L, partition.count() );
+    }
+
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSortedIndexBatches() throws Exception
+    {
+        BulkLoader loader = new BulkLoader( partition, schemaManager );
+        loader.setNbThreads( 2 );
+        loader.setIndexBatchSize( 64 );
+
+        assertEquals( 502L, loader.load( new StringReader( createLdif( 500 ) ) ) );
+
+        Index<String, String> uidIndex = ( Index<String, String> ) partition.getUserIndex( schemaManager
+            .getAttributeType( SchemaConstants.UID_AT ) );
+        Index<String, String> ouIndex = ( Index<String, String> ) partition.getUserIndex( schemaManager
+            .getAttributeType( SchemaConstants.OU_AT ) );
+
+        assertEquals( 500L, uidIndex.count() );
+
+        for ( int i = 0; i < 500; i++ )
+        {
+            Dn dn = new Dn( schemaManager, "uid=user" + i + ",ou=people,o=Good Times Co." );
+            assertEquals( partition.getEntryId( dn ), uidIndex.forwardLookup( "user" + i ) );
+        }
+
+        assertEquals( partition.getEntryId( new Dn( schemaManager, "ou=people,o=Good Times Co." ) ),
+            ouIndex.forwardLookup( "people" ) );
+
+        // The partition updates its indexes again once the load is done
+        Entry entry = new DefaultEntry( schemaManager, "uid=late,ou=people,o=Good Times Co.",
+            "objectClass: top",
+            "objectClass: person",
+            "objectClass: uidObject",
+            "uid: late",
+            "cn: Late",
+            "sn: Late",
+            "entryCSN: " + new CsnFactory( 1 ).newInstance().toString(),
+            "entryUUID: f9e0a4a4-1c42-4c1e-9a12-0b6b1d0c3a6e" );
+        partition.add( new AddOperationContext( null, entry ) );
+
+        assertEquals( "f9e0a4a4-1c42-4c1e-9a12-0b6b1d0c3a6e", uidIndex.forwardLookup( "late" ) );
+    }
+
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testIndexesWrittenOnFailure() throws Exception
+    {
+        // The last user has no parent : the load fails once the others are added
+        String ldif = createLdif( 20 ).replace( "uid=user19,ou=people", "uid=user19,ou=nowhere" );
+        BulkLoader loader = new BulkLoader( partition, schemaManager );
+        loader.setIndexBatchSize( 1000 );
+
+        try
+        {
+            loader.load( new StringReader( ldif ) );
+            fail();
+        }
+        catch ( Exception e )
+        {
+            assertTrue( e.getMessage().contains( "ou=nowhere" ) );
+        }
+
+        Index<String, String> uidIndex = ( Index<String, String> ) partition.getUserIndex( schemaManager
+            .getAttributeType( SchemaConstants.UID_AT ) );
+
+        assertEquals( 21L, partition.count() );
+        assertEquals( 19L, uidIndex.count() );
+        assertNotNull( uidIndex.forwardLookup( "user18" ) );
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ * 
+ */
+package org.apache.directory.server.xdbm;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schemaextractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schemaextractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schemaloader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schemamanager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.CacheService;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.apache.directory.server.core.shared.DefaultDnFactory;
+import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link HierarchyLabels} maintained by a partition.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class HierarchyLabelsTest
+{
+    private static SchemaManager schemaManager;
+    private static DnFactory dnFactory;
+
+    private AvlPartition partition;
+
+    // The example data entries
+    private static final String GOOD_TIMES = Strings.getUUID( 1 );
+    private static final String SALES = Strings.getUUID( 2 );
+    private static final String BOARD = Strings.getUUID( 3 );
+    private static final String ENGINEERING = Strings.getUUID( 4 );
+    private static final String JOHNNY_WALKER = Strings.getUUID( 5 );
+    private static final String JIM_BEAN = Strings.getUUID( 6 );
+    private static final String APACHE = Strings.getUUID( 7 );
+    private static final String JACK_DANIELS = Strings.getUUID( 8 );
+    private static final String APACHE_ALIAS = Strings.getUUID( 9 );
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = HierarchyLabelsTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+
+        schemaManager = new DefaultSchemaManager( loader );
+        CacheService cacheService = new CacheService();
+        cacheService.initialize( null );
+        dnFactory = new DefaultDnFactory( schemaManager, cacheService.getCache( "dnCache" ) );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+    }
+
+
+    @Before
+    public void createStore() throws Exception
+    {
+        partition = createPartition( HierarchyLabels.DEFAULT_MAX_SIZE );
+    }
+
+
+    private AvlPartition createPartition( int maxHierarchyLabels ) throws Exception
+    {
+        AvlPartition avlPartition = new AvlPartition( schemaManager, dnFactory );
+        avlPartition.setId( "example" );
+        avlPartition.setSyncOnWrite( false );
+        avlPartition.setMaxHierarchyLabels( maxHierarchyLabels );
+        avlPartition.addIndex( new AvlIndex<String>( SchemaConstants.OU_AT_OID ) );
+        avlPartition.setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+        avlPartition.initialize();
+
+        StoreUtils.loadExampleData( avlPartition, schemaManager );
+
+        return avlPartition;
+    }
+
+
+    @After
+    public void destroyStore() throws Exception
+    {
+        partition.destroy();
+    }
+
+
+    @Test
+    public void testLoad() throws Exception
+    {
+        HierarchyLabels labels = partition.getHierarchyLabels();
+
+        assertTrue( labels.isLoaded() );
+        assertEquals( 11, labels.size() );
+
+        assertTrue( labels.isDescendant( JOHNNY_WALKER, SALES ) );
+        assertTrue( labels.isDescendant( JOHNNY_WALKER, GOOD_TIMES ) );
+        assertTrue( labels.isDescendant( APACHE_ALIAS, BOARD ) );
+        assertFalse( labels.isDescendant( SALES, JOHNNY_WALKER ) );
+        assertFalse( labels.isDescendant( SALES, SALES ) );
+        assertFalse( labels.isDescendant( JACK_DANIELS, SALES ) );
+
+        Collection<String> descendants = labels.getDescendants( SALES );
+        assertEquals( 2, descendants.size() );
+        assertTrue( descendants.contains( JOHNNY_WALKER ) );
+        assertTrue( descendants.contains( JIM_BEAN ) );
+
+        assertEquals( 10, labels.getDescendants( GOOD_TIMES ).size() );
+        assertEquals( 0, labels.getDescendants( JIM_BEAN ).size() );
+    }
+
+
+    @Test
+    public void testDeleteAndMove() throws Exception
+    {
+        HierarchyLabels labels = partition.getHierarchyLabels();
+
+        partition.delete( JACK_DANIELS );
+        assertNull( labels.getLabel( JACK_DANIELS ) );
+        assertFalse( labels.isDescendant( JACK_DANIELS, ENGINEERING ) );
+
+        // Move a subtree : ou=Apache and its alias go below ou=Engineering
+        Dn apacheDn = new Dn( schemaManager, "ou=Apache,ou=Board of Directors,o=Good Times Co." );
+        Dn engineeringDn = new Dn( schemaManager, "ou=Engineering,o=Good Times Co." );
+        partition.move( apacheDn, engineeringDn, engineeringDn.add( apacheDn.getRdn() ), partition.fetch( APACHE ) );
+
+        assertTrue( labels.isDescendant( APACHE, ENGINEERING ) );
+        assertTrue( labels.isDescendant( APACHE_ALIAS, ENGINEERING ) );
+        assertTrue( labels.isDescendant( APACHE_ALIAS, APACHE ) );
+        assertFalse( labels.isDescendant( APACHE, BOARD ) );
+        assertFalse( labels.isDescendant( APACHE_ALIAS, BOARD ) );
+
+        assertTrue( labels.getDescendants( ENGINEERING ).contains( APACHE_ALIAS ) );
+        assertEquals( 1, labels.getDescendants( BOARD ).size() );
+        assertEquals( 10, labels.size() );
+    }
+
+
+    @Test
+    public void testSubtree() throws Exception
+    {
+        HierarchyLabels labels = partition.getHierarchyLabels();
+
+        List<String> subtree = labels.getSubtree( SALES );
+        assertEquals( 3, subtree.size() );
+        assertEquals( SALES, subtree.get( 0 ) );
+        assertTrue( subtree.contains( JOHNNY_WALKER ) );
+        assertTrue( subtree.contains( JIM_BEAN ) );
+
+        assertEquals( 1, labels.getSubtree( JIM_BEAN ).size() );
+        assertEquals( 0, labels.getSubtree( Strings.getUUID( 100 ) ).size() );
+    }
+
+
+    @Test
+    public void testLoadBounded() throws Exception
+    {
+        HierarchyLabels labels = new HierarchyLabels( partition.getRdnIndex(), 11 );
+
+        assertTrue( labels.load() );
+        assertTrue( labels.isLoaded() );
+        assertEquals( 11, labels.size() );
+
+        // Too many entries : nothing is made available
+        labels = new HierarchyLabels( partition.getRdnIndex(), 10 );
+
+        assertFalse( labels.load() );
+        assertFalse( labels.isLoaded() );
+        assertEquals( 0, labels.size() );
+        assertNull( labels.getSubtree( SALES ) );
+        assertFalse( labels.isDescendant( JOHNNY_WALKER, SALES ) );
+    }
+
+
+    @Test
+    public void testDroppedWhenFull() throws Exception
+    {
+        AvlPartition bounded = createPartition( 5 );
+
+        try
+        {
+            HierarchyLabels labels = bounded.getHierarchyLabels();
+
+            assertFalse( labels.isLoaded() );
+            assertEquals( 0, labels.size() );
+            assertNull( labels.getSubtree( SALES ) );
+
+            // They are not built again while the partition is modified
+            bounded.delete( JACK_DANIELS );
+            assertFalse( labels.isLoaded() );
+        }
+        finally
+        {
+            bounded.destroy();
+        }
+    }
+
+
+    @Test
+    public void testDisabled() throws Exception
+    {
+        AvlPartition disabled = createPartition( 0 );
+
+        try
+        {
+            HierarchyLabels labels = disabled.getHierarchyLabels();
+
+            assertFalse( labels.isLoaded() );
+            assertFalse( labels.load() );
+            assertEquals( 0, labels.size() );
+            assertNull( labels.getSubtree( GOOD_TIMES ) );
+        }
+        finally
+        {
+            disabled.destroy();
+        }
+    }
+}
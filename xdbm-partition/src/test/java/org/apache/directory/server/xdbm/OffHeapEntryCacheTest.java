@@ -0,0 +1,301 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.filter.ObjectClassNode;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schemaextractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schemaextractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schemaloader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schemamanager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.CacheService;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.apache.directory.server.core.partition.impl.btree.EntryCursorAdaptor;
+import org.apache.directory.server.core.shared.DefaultDnFactory;
+import org.apache.directory.server.xdbm.search.PartitionSearchResult;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the OffHeapEntryCache, and its use by the AbstractBTreePartition.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class OffHeapEntryCacheTest
+{
+    private static SchemaManager schemaManager;
+    private static DnFactory dnFactory;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = OffHeapEntryCacheTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        if ( !schemaManager.loadAllEnabled() )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        CacheService cacheService = new CacheService();
+        cacheService.initialize( null );
+        dnFactory = new DefaultDnFactory( schemaManager, cacheService.getCache( "dnCache" ) );
+    }
+
+
+    private Entry createEntry( int i, int descriptionLength ) throws Exception
+    {
+        StringBuilder description = new StringBuilder();
+
+        for ( int j = 0; j < descriptionLength; j++ )
+        {
+            description.append( ( char ) ( 'a' + j % 26 ) );
+        }
+
+        return new DefaultEntry( schemaManager,
+            "cn=entry" + i + ",ou=system",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: entry" + i,
+            "sn: Entry " + i,
+            "description", description.toString(),
+            "userPassword", new byte[]
+                { 0x01, 0x02, ( byte ) i } );
+    }
+
+
+    @Test
+    public void testPutGet() throws Exception
+    {
+        OffHeapEntryCache cache = new OffHeapEntryCache( schemaManager, 64 * 1024, 128, 1024 );
+
+        // Spans several blocks, and several slabs
+        Entry entry = createEntry( 1, 3000 );
+        cache.put( "1", entry );
+
+        Entry cached = cache.get( "1" );
+        assertNotNull( cached );
+        assertTrue( cached.getDn().isEmpty() );
+
+        cached.setDn( entry.getDn() );
+        assertEquals( entry, cached );
+        assertNotNull( cached.get( SchemaConstants.CN_AT ).getAttributeType() );
+
+        assertNull( cache.get( "2" ) );
+        assertEquals( 1, cache.size() );
+
+        // Replace and remove
+        cache.put( "1", createEntry( 2, 10 ) );
+        assertEquals( "entry2", cache.get( "1" ).get( SchemaConstants.CN_AT ).getString() );
+
+        cache.remove( "1" );
+        assertNull( cache.get( "1" ) );
+        assertEquals( 0, cache.size() );
+        assertEquals( 0L, cache.getUsedBytes() );
+    }
+
+
+    @Test
+    public void testClockEviction() throws Exception
+    {
+        // Room for 8 entries of the same size
+        OffHeapEntryCache sizer = new OffHeapEntryCache( schemaManager, 64 * 1024 );
+        sizer.put( "0", createEntry( 0, 300 ) );
+        int blocks = ( int ) ( ( sizer.getUsedBytes() + 511 ) / 512 );
+        OffHeapEntryCache cache = new OffHeapEntryCache( schemaManager, 8 * blocks * 512, 512, 4096 );
+
+        for ( int i = 0; i < 8; i++ )
+        {
+            cache.put( Integer.toString( i ), createEntry( i, 300 ) );
+        }
+
+        assertEquals( 8, cache.size() );
+        assertEquals( 0L, cache.getEvictions() );
+
+        // Reference the first entry, which should survive the next eviction
+        assertNotNull( cache.get( "0" ) );
+
+        cache.put( "8", createEntry( 8, 300 ) );
+
+        assertEquals( 1L, cache.getEvictions() );
+        assertNotNull( cache.get( "0" ) );
+        assertNull( cache.get( "1" ) );
+        assertNotNull( cache.get( "8" ) );
+
+        // Many more entries : the cache never grows past its capacity
+        for ( int i = 9; i < 100; i++ )
+        {
+            cache.put( Integer.toString( i ), createEntry( i, 300 ) );
+        }
+
+        assertEquals( 8, cache.size() );
+        assertTrue( cache.getUsedBytes() <= cache.getCapacity() );
+        assertNotNull( cache.get( "99" ) );
+    }
+
+
+    @Test
+    public void testEntryTooBig() throws Exception
+    {
+        OffHeapEntryCache cache = new OffHeapEntryCache( schemaManager, 1024, 256, 1024 );
+
+        cache.put( "1", createEntry( 1, 10 ) );
+        cache.put( "2", createEntry( 2, 5000 ) );
+
+        assertNotNull( cache.get( "1" ) );
+        assertNull( cache.get( "2" ) );
+    }
+
+
+    @Test
+    public void testPartitionTier() throws Exception
+    {
+        AvlPartition store = new AvlPartition( schemaManager, dnFactory );
+        store.setId( "example" );
+        store.setOffHeapCacheSize( 1024 * 1024 );
+        store.setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+        store.initialize();
+
+        try
+        {
+            StoreUtils.loadExampleData( store, schemaManager );
+
+            Dn dn = new Dn( schemaManager, "cn=JOhnny WAlkeR,ou=Sales,o=Good Times Co." );
+            String id = store.getEntryId( dn );
+
+            // The first fetch reads the master table, the second one the cache
+            Entry entry = store.fetch( id, dn );
+            assertNotNull( store.getOffHeapCache().get( id ) );
+            assertEquals( entry, store.fetch( id, dn ) );
+            assertEquals( dn, store.fetch( id, dn ).getDn() );
+
+            // A modification removes the entry from the cache
+            store.modify( dn, new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE,
+                schemaManager.getAttributeType( "sn" ), "Walker2" ) );
+            assertNull( store.getOffHeapCache().get( id ) );
+            assertEquals( "Walker2", store.fetch( id, dn ).get( "sn" ).getString() );
+            assertEquals( "Walker2", store.getOffHeapCache().get( id ).get( "sn" ).getString() );
+        }
+        finally
+        {
+            store.destroy();
+        }
+
+        assertNull( store.getOffHeapCache() );
+    }
+
+
+    @Test
+    public void testScanDoesNotFillCache() throws Exception
+    {
+        AvlPartition store = new AvlPartition( schemaManager, dnFactory );
+        store.setId( "example" );
+        store.setOffHeapCacheSize( 1024 * 1024 );
+        store.setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+        store.initialize();
+
+        try
+        {
+            StoreUtils.loadExampleData( store, schemaManager );
+
+            SearchOperationContext searchContext = new SearchOperationContext( null );
+            searchContext.setDn( store.getSuffixDn() );
+            searchContext.setScope( SearchScope.SUBTREE );
+            searchContext.setFilter( ObjectClassNode.OBJECT_CLASS_NODE );
+            searchContext.setAliasDerefMode( AliasDerefMode.NEVER_DEREF_ALIASES );
+
+            // The whole partition is more than the threshold : this is a scan
+            store.setScanThreshold( 2 );
+            PartitionSearchResult searchResult = store.getSearchEngine().computeResult( schemaManager, searchContext );
+            assertTrue( searchResult.isScan() );
+
+            int count = 0;
+            Cursor<Entry> cursor = new EntryCursorAdaptor( store, searchResult );
+
+            while ( cursor.next() )
+            {
+                assertNotNull( cursor.get() );
+                count++;
+            }
+
+            cursor.close();
+
+            assertTrue( count > 2 );
+            assertEquals( 0, store.getOffHeapCache().size() );
+            assertFalse( store.isScanning() );
+
+            // Same search, below the threshold
+            store.setScanThreshold( 1000 );
+            searchResult = store.getSearchEngine().computeResult( schemaManager, searchContext );
+            assertFalse( searchResult.isScan() );
+
+            cursor = new EntryCursorAdaptor( store, searchResult );
+
+            while ( cursor.next() )
+            {
+                assertNotNull( cursor.get() );
+            }
+
+            cursor.close();
+
+            assertEquals( count, store.getOffHeapCache().size() );
+        }
+        finally
+        {
+            store.destroy();
+        }
+    }
+}
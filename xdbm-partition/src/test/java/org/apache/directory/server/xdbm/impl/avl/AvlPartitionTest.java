@@ -30,6 +30,13 @@ import static org.junit.Assert.fail;
 import java.io.File;
 import java.util.Iterator;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Lock;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.csn.CsnFactory;
@@ -612,4 +619,97 @@ public class AvlPartitionTest
         lookedup = partition.modify( dn, add );
         assertEquals( attribVal, lookedup.get( "ou" ).get().getString() );
     }
+
+
+    @Test
+    public void testConcurrentReadDuringWrite() throws Exception
+    {
+        AvlPartition concurrentPartition = new AvlPartition( schemaManager, dnFactory );
+        concurrentPartition.setId( "concurrent" );
+        concurrentPartition.setSyncOnWrite( false );
+        concurrentPartition.setConcurrent( true );
+        concurrentPartition.addIndex( new AvlIndex( SchemaConstants.OU_AT_OID ) );
+        concurrentPartition.setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+        concurrentPartition.initialize();
+        StoreUtils.loadExampleData( concurrentPartition, schemaManager );
+
+        assertTrue( concurrentPartition.isLockFreeRead() );
+        assertFalse( partition.isLockFreeRead() );
+
+        final Dn dn = new Dn( schemaManager, "cn=JOhnny WAlkeR,ou=Sales,o=Good Times Co." );
+        ExecutorService reader = Executors.newSingleThreadExecutor();
+
+        // A write in flight holds the write lock, as the OperationManager does
+        Lock writeLock = concurrentPartition.getReadWriteLock().writeLock();
+        writeLock.lock();
+
+        try
+        {
+            concurrentPartition.modify( dn, new DefaultModification( ModificationOperation.ADD_ATTRIBUTE,
+                schemaManager.getAttributeType( "telephoneNumber" ), "+1974045779" ) );
+
+            final AvlPartition readPartition = concurrentPartition;
+            Future<Entry> read = reader.submit( new Callable<Entry>()
+            {
+                public Entry call() throws Exception
+                {
+                    return readPartition.fetch( readPartition.getEntryId( dn ) );
+                }
+            } );
+
+            // The reader is not blocked by the writer
+            Entry entry = read.get( 10, TimeUnit.SECONDS );
+            assertNotNull( entry );
+            assertTrue( entry.get( "telephoneNumber" ).contains( "+1974045779" ) );
+
+            // The master table returns copies : changing one does not change the stored entry
+            String id = concurrentPartition.getEntryId( dn );
+            concurrentPartition.getMasterTable().get( id ).removeAttributes( "telephoneNumber" );
+            assertTrue( concurrentPartition.getMasterTable().get( id ).containsAttribute( "telephoneNumber" ) );
+        }
+        finally
+        {
+            writeLock.unlock();
+        }
+
+        // Without the concurrent tables, the reader waits for the writer
+        final AvlPartition lockedPartition = partition;
+        writeLock = lockedPartition.getReadWriteLock().writeLock();
+        writeLock.lock();
+
+        try
+        {
+            Future<String> read = reader.submit( new Callable<String>()
+            {
+                public String call() throws Exception
+                {
+                    return lockedPartition.getEntryId( dn );
+                }
+            } );
+
+            try
+            {
+                read.get( 200, TimeUnit.MILLISECONDS );
+                fail( "The reader should wait for the writer" );
+            }
+            catch ( TimeoutException te )
+            {
+                // Expected
+            }
+
+            writeLock.unlock();
+            writeLock = null;
+            assertNotNull( read.get( 10, TimeUnit.SECONDS ) );
+        }
+        finally
+        {
+            if ( writeLock != null )
+            {
+                writeLock.unlock();
+            }
+
+            reader.shutdownNow();
+            concurrentPartition.destroy();
+        }
+    }
 }
@@ -0,0 +1,357 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.impl.avl;
+
+
+import static org.apache.directory.server.xdbm.impl.avl.TableData.injectDupsData;
+import static org.apache.directory.server.xdbm.impl.avl.TableData.injectNoDupsData;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.server.xdbm.Table;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests the ConcurrentTable class. The cursors are checked against the ones
+ * of an AvlTable holding the same data.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ConcurrentTableTest
+{
+    private static final Comparator<Integer> COMPARATOR = new Comparator<Integer>()
+    {
+        public int compare( Integer i1, Integer i2 )
+        {
+            return i1.compareTo( i2 );
+        }
+    };
+
+    private ConcurrentTable<Integer, Integer> dups;
+    private ConcurrentTable<Integer, Integer> nodups;
+
+
+    @Before
+    public void setUp()
+    {
+        // A small threshold, to test the switch between arrays and sets
+        dups = new ConcurrentTable<Integer, Integer>( "dups", COMPARATOR, COMPARATOR, true, 4 );
+        nodups = new ConcurrentTable<Integer, Integer>( "nodups", COMPARATOR, COMPARATOR, false );
+    }
+
+
+    private static List<String> walk( Cursor<Tuple<Integer, Integer>> cursor, boolean forward ) throws Exception
+    {
+        List<String> tuples = new ArrayList<String>();
+
+        while ( forward ? cursor.next() : cursor.previous() )
+        {
+            tuples.add( cursor.get().getKey() + "=" + cursor.get().getValue() );
+        }
+
+        cursor.close();
+
+        return tuples;
+    }
+
+
+    @Test
+    public void testPutGetCount() throws Exception
+    {
+        injectNoDupsData( nodups );
+        assertEquals( 5, nodups.count() );
+        assertEquals( 1, nodups.get( 2 ).intValue() );
+        assertTrue( nodups.has( 2, 1 ) );
+        assertFalse( nodups.has( 2, 0 ) );
+        assertNull( nodups.get( 4 ) );
+
+        injectDupsData( dups );
+        assertEquals( 10, dups.count() );
+        assertEquals( 4, dups.count( 3 ) );
+        assertEquals( 0, dups.get( 3 ).intValue() );
+        assertTrue( dups.has( 3, 9 ) );
+        assertFalse( dups.has( 3, 7 ) );
+        assertTrue( dups.hasGreaterOrEqual( 3, 10 ) );
+        assertFalse( dups.hasGreaterOrEqual( 3, 11 ) );
+        assertTrue( dups.hasLessOrEqual( 2, 1 ) );
+        assertFalse( dups.hasLessOrEqual( 2, 0 ) );
+
+        dups.remove( 1, 4 );
+        dups.remove( 1, 5 );
+        assertEquals( 9, dups.count() );
+        assertEquals( 2, dups.count( 1 ) );
+
+        dups.remove( 3 );
+        assertEquals( 5, dups.count() );
+        assertFalse( dups.has( 3 ) );
+    }
+
+
+    @Test
+    public void testArrayToSetAndBack() throws Exception
+    {
+        for ( int i = 20; i > 0; i-- )
+        {
+            dups.put( 1, i );
+        }
+
+        assertEquals( 20, dups.count( 1 ) );
+
+        for ( int i = 1; i <= 19; i++ )
+        {
+            dups.remove( 1, i );
+            assertEquals( 20 - i, dups.count( 1 ) );
+            assertEquals( i + 1, dups.get( 1 ).intValue() );
+        }
+
+        dups.remove( 1, 20 );
+        assertFalse( dups.has( 1 ) );
+        assertEquals( 0, dups.count() );
+    }
+
+
+    @Test
+    public void testSmallThreshold() throws Exception
+    {
+        // Half the threshold is 1 : the set goes back to a single value
+        ConcurrentTable<Integer, Integer> table = new ConcurrentTable<Integer, Integer>( "small", COMPARATOR,
+            COMPARATOR, true, 2 );
+
+        for ( int i = 1; i <= 3; i++ )
+        {
+            table.put( 1, i );
+        }
+
+        assertEquals( 3, table.count( 1 ) );
+
+        table.remove( 1, 1 );
+        table.remove( 1, 2 );
+        assertEquals( 1, table.count( 1 ) );
+        assertEquals( 3, table.get( 1 ).intValue() );
+        assertTrue( table.has( 1, 3 ) );
+        assertFalse( table.has( 1, 2 ) );
+
+        table.remove( 1, 3 );
+        assertFalse( table.has( 1 ) );
+        assertNull( table.get( 1 ) );
+        assertEquals( 0, table.count( 1 ) );
+        assertEquals( 0, table.count() );
+
+        // The same, removing the values in the reverse order
+        for ( int i = 1; i <= 3; i++ )
+        {
+            table.put( 1, i );
+        }
+
+        table.remove( 1, 3 );
+        table.remove( 1, 2 );
+        assertEquals( 1, table.get( 1 ).intValue() );
+        table.remove( 1, 1 );
+        assertFalse( table.has( 1 ) );
+        assertEquals( 0, table.count() );
+    }
+
+
+    @Test
+    public void testSetCount() throws Exception
+    {
+        for ( int i = 1; i <= 20; i++ )
+        {
+            dups.put( 1, i );
+        }
+
+        // Existing values and missing values don't change the count of a set
+        dups.put( 1, 10 );
+        dups.remove( 1, 30 );
+        assertEquals( 20, dups.count( 1 ) );
+        assertEquals( 20, dups.count() );
+
+        dups.remove( 1, 10 );
+        assertEquals( 19, dups.count( 1 ) );
+        assertEquals( 19, dups.count() );
+
+        // The set holds its values until it goes back to an array
+        for ( int i = 1; i <= 20; i++ )
+        {
+            dups.remove( 1, i );
+        }
+
+        assertEquals( 0, dups.count( 1 ) );
+        assertEquals( 0, dups.count() );
+    }
+
+
+    @Test
+    public void testCursorsMatchAvlTable() throws Exception
+    {
+        // Enough values for the key 5 to be stored in a set
+        List<Table<Integer, Integer>> tables = new ArrayList<Table<Integer, Integer>>();
+        tables.add( dups );
+        tables.add( new AvlTable<Integer, Integer>( "avl", COMPARATOR, COMPARATOR, true ) );
+
+        for ( Table<Integer, Integer> table : tables )
+        {
+            injectDupsData( table );
+
+            for ( int i = 0; i < 10; i++ )
+            {
+                table.put( 5, i * 2 );
+            }
+        }
+
+        Table<Integer, Integer> avl = tables.get( 1 );
+
+        assertEquals( walk( avl.cursor(), true ), walk( dups.cursor(), true ) );
+
+        Cursor<Tuple<Integer, Integer>> expected = avl.cursor();
+        Cursor<Tuple<Integer, Integer>> cursor = dups.cursor();
+        expected.afterLast();
+        cursor.afterLast();
+        assertEquals( walk( expected, false ), walk( cursor, false ) );
+
+        Integer[][] positions = new Integer[][]
+            {
+                { 1, 4 },
+                { 3, 1 },
+                { 5, 7 },
+                { 5, 8 },
+                { 4, 0 },
+                { 23, 8934 } };
+
+        for ( Integer[] position : positions )
+        {
+            Tuple<Integer, Integer> tuple = new Tuple<Integer, Integer>( position[0], position[1] );
+
+            for ( boolean before : new boolean[]
+                { true, false } )
+            {
+                for ( boolean forward : new boolean[]
+                    { true, false } )
+                {
+                    expected = avl.cursor();
+                    cursor = dups.cursor();
+
+                    if ( before )
+                    {
+                        expected.before( tuple );
+                        cursor.before( tuple );
+                    }
+                    else
+                    {
+                        expected.after( tuple );
+                        cursor.after( tuple );
+                    }
+
+                    assertEquals( "position " + tuple + ", before " + before + ", forward " + forward,
+                        walk( expected, forward ), walk( cursor, forward ) );
+                }
+            }
+        }
+    }
+
+
+    @Test
+    public void testCursorWithKey() throws Exception
+    {
+        injectDupsData( dups );
+        List<String> tuples = walk( dups.cursor( 3 ), true );
+        assertEquals( "[3=0, 3=8, 3=9, 3=10]", tuples.toString() );
+
+        Cursor<Integer> values = dups.valueCursor( 1 );
+        values.after( 2 );
+        assertTrue( values.next() );
+        assertEquals( 4, values.get().intValue() );
+        assertTrue( values.next() );
+        assertEquals( 6, values.get().intValue() );
+        assertFalse( values.next() );
+        assertTrue( values.previous() );
+        assertEquals( 6, values.get().intValue() );
+        values.close();
+
+        assertTrue( walk( dups.cursor( 4 ), true ).isEmpty() );
+    }
+
+
+    @Test
+    public void testIterationDuringWrites() throws Exception
+    {
+        for ( int i = 0; i < 1000; i++ )
+        {
+            nodups.put( i, i );
+        }
+
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        Thread writer = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    for ( int i = 0; i < 1000; i += 2 )
+                    {
+                        nodups.remove( i );
+                        nodups.put( 1000 + i, i );
+                    }
+                }
+                catch ( Exception e )
+                {
+                    failure.set( e );
+                }
+            }
+        };
+
+        writer.start();
+
+        // The cursor never fails, and the odd keys are always seen in order
+        Cursor<Tuple<Integer, Integer>> cursor = nodups.cursor();
+        int previous = -1;
+        int odds = 0;
+
+        while ( cursor.next() )
+        {
+            int key = cursor.get().getKey();
+            assertTrue( key > previous );
+            previous = key;
+
+            if ( ( key < 1000 ) && ( key % 2 == 1 ) )
+            {
+                odds++;
+            }
+        }
+
+        cursor.close();
+        writer.join();
+
+        assertNull( failure.get() );
+        assertEquals( 500, odds );
+        assertEquals( 1000, nodups.count() );
+    }
+}
@@ -0,0 +1,402 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ * 
+ */
+package org.apache.directory.server.xdbm.impl.avl;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schemaextractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schemaextractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schemaloader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schemamanager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.CacheService;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
+import org.apache.directory.server.core.partition.impl.avl.PersistentAvlPartition;
+import org.apache.directory.server.core.shared.DefaultDnFactory;
+import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.StoreUtils;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * Tests the PersistentAvlPartition : the content has to survive a restart.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PersistentAvlPartitionTest
+{
+    private static SchemaManager schemaManager = null;
+    private static DnFactory dnFactory;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = PersistentAvlPartitionTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+
+        schemaManager = new DefaultSchemaManager( loader );
+        CacheService cacheService = new CacheService();
+        cacheService.initialize( null );
+        dnFactory = new DefaultDnFactory( schemaManager, cacheService.getCache( "dnCache" ) );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+    }
+
+
+    private PersistentAvlPartition createPartition() throws Exception
+    {
+        PersistentAvlPartition partition = new PersistentAvlPartition( schemaManager, dnFactory );
+        partition.setId( "example" );
+        partition.setSyncOnWrite( false );
+        partition.setPartitionPath( folder.getRoot().toURI() );
+        partition.addIndex( new AvlIndex<String>( SchemaConstants.OU_AT_OID ) );
+        partition.setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+        partition.initialize();
+
+        return partition;
+    }
+
+
+    private void update( PersistentAvlPartition partition ) throws Exception
+    {
+        Dn dn = new Dn( schemaManager, "cn=JOhnny WAlkeR,ou=Sales,o=Good Times Co." );
+        List<Modification> mods = new ArrayList<Modification>();
+        mods.add( new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE,
+            schemaManager.getAttributeType( "sn" ), "Walker Jr" ) );
+        partition.modify( new ModifyOperationContext( null, dn, mods ) );
+
+        Dn boardDn = new Dn( schemaManager, "ou=Board of Directors,o=Good Times Co." );
+        partition.rename( new RenameOperationContext( null, boardDn, new Rdn( schemaManager, "ou=Board" ), false ) );
+
+        // Jack Daniels
+        partition.delete( Strings.getUUID( 8L ) );
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private void check( PersistentAvlPartition partition ) throws Exception
+    {
+        assertEquals( 10, partition.count() );
+
+        String id = partition.getEntryId( new Dn( schemaManager, "cn=JOhnny WAlkeR,ou=Sales,o=Good Times Co." ) );
+        Entry entry = partition.fetch( id );
+        assertTrue( entry.contains( "sn", "Walker Jr" ) );
+
+        assertNotNull( partition.getEntryId( new Dn( schemaManager, "ou=Board,o=Good Times Co." ) ) );
+        assertNull( partition.getEntryId( new Dn( schemaManager, "ou=Board of Directors,o=Good Times Co." ) ) );
+        assertNull( partition.fetch( Strings.getUUID( 8L ) ) );
+
+        // The alias and the indices have been restored
+        assertNotNull( partition.fetch( Strings.getUUID( 9L ) ) );
+        assertEquals( 3, partition.getAliasIndex().count() );
+        Index<String, String> ouIdx = ( Index<String, String> ) partition.getUserIndex( schemaManager
+            .getAttributeType( "ou" ) );
+        assertTrue( ouIdx.forward( "sales", id ) );
+    }
+
+
+    @Test
+    public void testReplayOperationLog() throws Exception
+    {
+        PersistentAvlPartition partition = createPartition();
+        StoreUtils.loadExampleData( partition, schemaManager );
+        update( partition );
+        partition.sync();
+
+        // Don't destroy the partition, as if the server had crashed
+        assertTrue( new File( folder.getRoot(), "oplog.dat" ).length() > 0 );
+        assertTrue( !new File( folder.getRoot(), "snapshot.dat" ).exists() );
+
+        PersistentAvlPartition restored = createPartition();
+        check( restored );
+        restored.destroy();
+    }
+
+
+    @Test
+    public void testRejectedOperationNotLogged() throws Exception
+    {
+        PersistentAvlPartition partition = createPartition();
+        StoreUtils.loadExampleData( partition, schemaManager );
+        partition.sync();
+
+        File oplogFile = new File( folder.getRoot(), "oplog.dat" );
+        long length = oplogFile.length();
+        Dn salesDn = new Dn( schemaManager, "ou=Sales,o=Good Times Co." );
+        Entry sales = partition.fetch( partition.getEntryId( salesDn ) );
+
+        try
+        {
+            partition.add( new AddOperationContext( null, sales ) );
+            fail();
+        }
+        catch ( LdapException le )
+        {
+            // Expected : the entry already exists
+        }
+
+        // The rejected operation has been removed from the log
+        assertEquals( length, oplogFile.length() );
+
+        update( partition );
+        partition.sync();
+
+        PersistentAvlPartition restored = createPartition();
+        check( restored );
+        restored.destroy();
+    }
+
+
+    @Test
+    public void testSnapshot() throws Exception
+    {
+        PersistentAvlPartition partition = createPartition();
+        StoreUtils.loadExampleData( partition, schemaManager );
+        partition.snapshot();
+
+        // Those operations are only in the log
+        update( partition );
+        partition.sync();
+
+        PersistentAvlPartition restored = createPartition();
+        check( restored );
+        restored.destroy();
+
+        // The partition has been written in the snapshot when destroyed
+        assertEquals( 0, new File( folder.getRoot(), "oplog.dat" ).length() );
+
+        restored = createPartition();
+        check( restored );
+        restored.destroy();
+    }
+
+
+    @Test
+    public void testBackgroundSnapshot() throws Exception
+    {
+        PersistentAvlPartition partition = createPartition();
+        partition.setSnapshotThreshold( 5 );
+        StoreUtils.loadExampleData( partition, schemaManager );
+        update( partition );
+        partition.sync();
+
+        // The snapshot is written by the snapshot thread
+        File snapshotFile = new File( folder.getRoot(), "snapshot.dat" );
+
+        for ( int i = 0; ( i < 100 ) && !snapshotFile.exists(); i++ )
+        {
+            Thread.sleep( 100 );
+        }
+
+        assertTrue( snapshotFile.exists() );
+        partition.destroy();
+
+        // The rotated log has been deleted with the last snapshot
+        assertTrue( !new File( folder.getRoot(), "oplog.old.dat" ).exists() );
+        assertEquals( 0, new File( folder.getRoot(), "oplog.dat" ).length() );
+
+        PersistentAvlPartition restored = createPartition();
+        check( restored );
+        restored.destroy();
+    }
+
+
+    @Test
+    public void testRecoverTemporarySnapshot() throws Exception
+    {
+        PersistentAvlPartition partition = createPartition();
+        StoreUtils.loadExampleData( partition, schemaManager );
+        update( partition );
+        partition.destroy();
+
+        // As if the server had stopped once the previous snapshot was deleted, before the new one was renamed
+        File snapshotFile = new File( folder.getRoot(), "snapshot.dat" );
+        File tmpFile = new File( folder.getRoot(), "snapshot.dat.tmp" );
+        assertTrue( snapshotFile.renameTo( tmpFile ) );
+
+        PersistentAvlPartition restored = createPartition();
+        check( restored );
+        assertTrue( snapshotFile.exists() );
+        assertTrue( !tmpFile.exists() );
+        restored.destroy();
+    }
+
+
+    @Test
+    public void testIgnoreIncompleteFirstSnapshot() throws Exception
+    {
+        PersistentAvlPartition partition = createPartition();
+        StoreUtils.loadExampleData( partition, schemaManager );
+        update( partition );
+        partition.sync();
+
+        // As if the server had crashed while writing the first snapshot
+        File tmpFile = new File( folder.getRoot(), "snapshot.dat.tmp" );
+        assertTrue( tmpFile.createNewFile() );
+
+        PersistentAvlPartition restored = createPartition();
+        check( restored );
+        restored.destroy();
+    }
+
+
+    @Test
+    public void testSnapshotWhileModified() throws Exception
+    {
+        final PersistentAvlPartition partition = createPartition();
+        StoreUtils.loadExampleData( partition, schemaManager );
+
+        for ( int i = 0; i < 200; i++ )
+        {
+            Entry entry = new DefaultEntry( schemaManager, "cn=user" + i + ",ou=Sales,o=Good Times Co.",
+                "objectClass: person",
+                "cn: user" + i,
+                "sn: " + i );
+            StoreUtils.injectEntryInStore( partition, entry, 100L + i );
+        }
+
+        final Exception[] failure = new Exception[1];
+
+        Thread snapshotter = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    for ( int i = 0; i < 10; i++ )
+                    {
+                        partition.snapshot();
+                    }
+                }
+                catch ( Exception e )
+                {
+                    failure[0] = e;
+                }
+            }
+        };
+
+        snapshotter.start();
+
+        for ( int i = 0; i < 200; i++ )
+        {
+            if ( i % 10 == 0 )
+            {
+                partition.delete( Strings.getUUID( 100L + i ) );
+            }
+            else
+            {
+                Dn dn = new Dn( schemaManager, "cn=user" + i + ",ou=Sales,o=Good Times Co." );
+                List<Modification> mods = new ArrayList<Modification>();
+                mods.add( new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE,
+                    schemaManager.getAttributeType( "sn" ), "modified " + i ) );
+                partition.modify( new ModifyOperationContext( null, dn, mods ) );
+            }
+
+            if ( i == 100 )
+            {
+                update( partition );
+            }
+        }
+
+        snapshotter.join();
+        assertNull( failure[0] );
+        partition.sync();
+
+        // Don't destroy the partition, so that the last snapshot and the log are restored
+        PersistentAvlPartition restored = createPartition();
+        assertEquals( partition.count(), restored.count() );
+
+        List<String> ids = new ArrayList<String>();
+
+        for ( long i = 1L; i <= 11L; i++ )
+        {
+            ids.add( Strings.getUUID( i ) );
+        }
+
+        for ( long i = 100L; i < 300L; i++ )
+        {
+            ids.add( Strings.getUUID( i ) );
+        }
+
+        for ( String id : ids )
+        {
+            Entry entry = partition.fetch( id );
+            Entry restoredEntry = restored.fetch( id );
+
+            if ( entry == null )
+            {
+                assertNull( restoredEntry );
+            }
+            else
+            {
+                assertEquals( entry.getDn(), restoredEntry.getDn() );
+                assertEquals( entry.get( "sn" ), restoredEntry.get( "sn" ) );
+            }
+        }
+
+        restored.destroy();
+    }
+}
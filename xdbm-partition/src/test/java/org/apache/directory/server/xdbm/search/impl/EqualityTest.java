@@ -22,6 +22,7 @@ package org.apache.directory.server.xdbm.search.impl;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -38,6 +39,7 @@ import org.apache.directory.api.ldap.model.entry.StringValue;
 import org.apache.directory.api.ldap.model.filter.EqualityNode;
 import org.apache.directory.api.ldap.model.filter.PresenceNode;
 import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.ldap.schemaextractor.SchemaLdifExtractor;
 import org.apache.directory.api.ldap.schemaextractor.impl.DefaultSchemaLdifExtractor;
@@ -399,6 +401,40 @@ public class EqualityTest
     }
 
 
+    @Test
+    public void testEvaluatorIndexedDoesNotFetchEntry() throws Exception
+    {
+        AttributeType cn = schemaManager.getAttributeType( "cn" );
+        EqualityNode<String> node = new EqualityNode<String>( cn, new StringValue( cn, "JOhnny WAlkeR" ) );
+        EqualityEvaluator<String> evaluator = new EqualityEvaluator<String>( node, store, schemaManager );
+
+        IndexEntry<String, String> entry = new IndexEntry<String, String>();
+        entry.setId( Strings.getUUID( 5 ) );
+        assertTrue( evaluator.evaluate( entry ) );
+        assertNull( entry.getEntry() );
+
+        entry = new IndexEntry<String, String>();
+        entry.setId( Strings.getUUID( 6 ) );
+        assertFalse( evaluator.evaluate( entry ) );
+        assertNull( entry.getEntry() );
+
+        // The objectClass index is probed too
+        AttributeType oc = schemaManager.getAttributeType( "objectClass" );
+        node = new EqualityNode<String>( oc, new StringValue( oc, "organizationalPerson" ) );
+        evaluator = new EqualityEvaluator<String>( node, store, schemaManager );
+
+        entry = new IndexEntry<String, String>();
+        entry.setId( Strings.getUUID( 5 ) );
+        assertTrue( evaluator.evaluate( entry ) );
+        assertNull( entry.getEntry() );
+
+        entry = new IndexEntry<String, String>();
+        entry.setId( Strings.getUUID( 7 ) );
+        assertFalse( evaluator.evaluate( entry ) );
+        assertNull( entry.getEntry() );
+    }
+
+
     @Test
     public void testEvaluatorSystemIndexed() throws Exception
     {
@@ -0,0 +1,195 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search.impl;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.filter.BranchNode;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.filter.SubstringNode;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.Normalizer;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schemaextractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schemaextractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schemaloader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schemamanager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.CacheService;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.apache.directory.server.core.shared.DefaultDnFactory;
+import org.apache.directory.server.xdbm.StoreUtils;
+import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
+import org.apache.directory.server.xdbm.search.FilterPlanCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the FilterPlanCache, and its use by the DefaultOptimizer.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class FilterPlanCacheTest
+{
+    private static SchemaManager schemaManager;
+    private static DnFactory dnFactory;
+    private AvlPartition store;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = FilterPlanCacheTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        if ( !schemaManager.loadAllEnabled() )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        CacheService cacheService = new CacheService();
+        cacheService.initialize( null );
+        dnFactory = new DefaultDnFactory( schemaManager, cacheService.getCache( "dnCache" ) );
+    }
+
+
+    @Before
+    public void createStore() throws Exception
+    {
+        store = new AvlPartition( schemaManager, dnFactory );
+        store.setId( "example" );
+        store.setPlanCacheFreshness( FilterPlanCache.DEFAULT_FRESHNESS );
+        store.addIndex( new AvlIndex<String>( SchemaConstants.OU_AT_OID ) );
+        store.addIndex( new AvlIndex<String>( SchemaConstants.CN_AT_OID ) );
+        store.setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+        store.initialize();
+
+        StoreUtils.loadExampleData( store, schemaManager );
+    }
+
+
+    @After
+    public void destroyStore() throws Exception
+    {
+        store.destroy();
+    }
+
+
+    @Test
+    public void testShape() throws Exception
+    {
+        ExprNode filter1 = FilterParser.parse( schemaManager, "(&(cn=foo)(ou=bar*baz)(|(sn>=a)(!(l=*))))" );
+        ExprNode filter2 = FilterParser.parse( schemaManager,
+            "(&(commonName=other)(ou=x*y)(|(sn>=zz)(!(localityName=*))))" );
+        ExprNode filter3 = FilterParser.parse( schemaManager, "(&(cn=foo)(ou=bar*)(|(sn>=a)(!(l=*))))" );
+
+        assertEquals( FilterPlanCache.getShape( filter1 ), FilterPlanCache.getShape( filter2 ) );
+        assertFalse( FilterPlanCache.getShape( filter1 ).equals( FilterPlanCache.getShape( filter3 ) ) );
+    }
+
+
+    @Test
+    public void testEstimatesReused() throws Exception
+    {
+        FilterPlanCache cache = new FilterPlanCache( FilterPlanCache.DEFAULT_FRESHNESS );
+        DefaultOptimizer<?> optimizer = new DefaultOptimizer<Object>( store, cache );
+
+        ExprNode filter = FilterParser.parse( schemaManager, "(&(cn=*)(ou=sales))" );
+        String shape = FilterPlanCache.getShape( filter );
+        optimizer.annotate( filter );
+
+        // The presence count is kept, not the equality count with its candidates
+        FilterPlanCache.Plan plan = cache.getPlan( shape );
+        assertNotNull( plan );
+        Long presenceCount = ( Long ) ( ( BranchNode ) filter ).getChildren().get( 0 ).get( "count" );
+        assertEquals( presenceCount, plan.getEstimate( "/0" ) );
+        assertNull( plan.getEstimate( "/1" ) );
+
+        // A plan with a different estimate is used for another filter of the same shape
+        Map<String, Long> estimates = new HashMap<String, Long>();
+        estimates.put( "/0", 42L );
+        cache.putPlan( shape, estimates );
+
+        filter = FilterParser.parse( schemaManager, "(&(cn=*)(ou=engineering))" );
+        optimizer.annotate( filter );
+        assertEquals( 42L, ( ( BranchNode ) filter ).getChildren().get( 0 ).get( "count" ) );
+
+        // The equality count is computed for the new value
+        ExprNode expected = FilterParser.parse( schemaManager, "(ou=engineering)" );
+        new DefaultOptimizer<Object>( store ).annotate( expected );
+        assertEquals( expected.get( "count" ), ( ( BranchNode ) filter ).getChildren().get( 1 ).get( "count" ) );
+        assertEquals( expected.get( "count" ), filter.get( "count" ) );
+    }
+
+
+    @Test
+    public void testFreshness() throws Exception
+    {
+        FilterPlanCache cache = new FilterPlanCache( 1L );
+        cache.putPlan( "(cn=*)", new HashMap<String, Long>() );
+        Thread.sleep( 10L );
+
+        assertNull( cache.getPlan( "(cn=*)" ) );
+    }
+
+
+    @Test
+    public void testPatternCache() throws Exception
+    {
+        FilterPlanCache cache = new FilterPlanCache( FilterPlanCache.DEFAULT_FRESHNESS );
+        SubstringNode node1 = ( SubstringNode ) FilterParser.parse( schemaManager, "(cn=j*n*er)" );
+        SubstringNode node2 = ( SubstringNode ) FilterParser.parse( schemaManager, "(cn=j*n*er)" );
+        SubstringNode node3 = ( SubstringNode ) FilterParser.parse( schemaManager, "(cn=j*ner)" );
+        Normalizer normalizer = schemaManager.getAttributeType( "cn" ).getSubstring().getNormalizer();
+
+        assertSame( cache.getPattern( node1, normalizer ), cache.getPattern( node2, normalizer ) );
+        assertFalse( cache.getPattern( node1, normalizer ) == cache.getPattern( node3, normalizer ) );
+        assertTrue( cache.getPattern( node1, normalizer ).matcher( "johnny walker" ).matches() );
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search.impl;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.exception.LdapUnwillingToPerformException;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.filter.ObjectClassNode;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schemaextractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schemaextractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schemaloader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schemamanager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.MockCoreSession;
+import org.apache.directory.server.core.api.MockDirectoryService;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
+import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.apache.directory.server.xdbm.StoreUtils;
+import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
+import org.apache.directory.server.xdbm.search.FilterPlanCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the rejection of the searches estimated too expensive by the DefaultSearchEngine.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SearchCostTest
+{
+    private static SchemaManager schemaManager;
+    private MockDirectoryService directoryService;
+    private AvlPartition store;
+    private MetricsRegistry metricsRegistry;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = SearchCostTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        if ( !schemaManager.loadAllEnabled() )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+    }
+
+
+    @Before
+    public void createStore() throws Exception
+    {
+        directoryService = new MockDirectoryService();
+        directoryService.setSchemaManager( schemaManager );
+
+        store = new AvlPartition( schemaManager, directoryService.getDnFactory() );
+        store.setId( "example" );
+        store.setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+        metricsRegistry = new MetricsRegistry();
+        store.setMetricsRegistry( metricsRegistry );
+        store.initialize();
+
+        StoreUtils.loadExampleData( store, schemaManager );
+    }
+
+
+    @After
+    public void destroyStore() throws Exception
+    {
+        store.destroy();
+    }
+
+
+    private SearchOperationContext createSearchContext( CoreSession session )
+    {
+        SearchOperationContext searchContext = new SearchOperationContext( session );
+        searchContext.setDn( store.getSuffixDn() );
+        searchContext.setScope( SearchScope.SUBTREE );
+        searchContext.setFilter( ObjectClassNode.OBJECT_CLASS_NODE );
+        searchContext.setAliasDerefMode( AliasDerefMode.NEVER_DEREF_ALIASES );
+
+        return searchContext;
+    }
+
+
+    @Test
+    public void testUserSearchRejected() throws Exception
+    {
+        store.setMaxSearchCost( 2 );
+        CoreSession session = new MockCoreSession( new LdapPrincipal(), directoryService );
+
+        try
+        {
+            store.getSearchEngine().computeResult( schemaManager, createSearchContext( session ) );
+            fail( "The search should have been rejected" );
+        }
+        catch ( LdapUnwillingToPerformException lutpe )
+        {
+            // Expected
+        }
+    }
+
+
+    @Test
+    public void testInternalSearchAllowed() throws Exception
+    {
+        store.setMaxSearchCost( 2 );
+
+        // The internal searches are done without any session
+        assertNotNull( store.getSearchEngine().computeResult( schemaManager, createSearchContext( null ) ) );
+    }
+
+
+    @Test
+    public void testIndexCursorMetrics() throws Exception
+    {
+        assertEquals( 0L, metricsRegistry.getCounter( "partition.example.index.cursors" ).get() );
+
+        assertNotNull( store.getSearchEngine().computeResult( schemaManager, createSearchContext( null ) ) );
+
+        // The search reads all the entries of the example data
+        assertTrue( metricsRegistry.getCounter( "partition.example.index.cursors" ).get() > 0 );
+        assertTrue( metricsRegistry.getCounter( "partition.example.index.entries" ).get() >= 11 );
+    }
+
+
+    @Test
+    public void testReusedEstimateNotRejected() throws Exception
+    {
+        AvlPartition cachedStore = new AvlPartition( schemaManager, directoryService.getDnFactory() );
+        cachedStore.setId( "cached" );
+        cachedStore.setPlanCacheFreshness( FilterPlanCache.DEFAULT_FRESHNESS );
+        cachedStore.addIndex( new AvlIndex<String>( SchemaConstants.OU_AT_OID ) );
+        cachedStore.setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+        cachedStore.initialize();
+
+        try
+        {
+            StoreUtils.loadExampleData( cachedStore, schemaManager );
+
+            // Many entries share the same ou value
+            for ( int i = 0; i < 150; i++ )
+            {
+                StoreUtils.injectEntryInStore( cachedStore, new DefaultEntry( schemaManager,
+                    "cn=user" + i + ",ou=Sales,o=Good Times Co.",
+                    "objectClass: top",
+                    "objectClass: person",
+                    "ou: Sales",
+                    "cn: user" + i,
+                    "sn: user" + i ), 1000 + i );
+            }
+
+            cachedStore.setMaxSearchCost( 50 );
+            CoreSession session = new MockCoreSession( new LdapPrincipal(), directoryService );
+
+            // An internal search stores the count of the popular value in the plan cache
+            SearchOperationContext searchContext = createSearchContext( null );
+            searchContext.setFilter( FilterParser.parse( schemaManager, "(ou=Sales)" ) );
+            assertNotNull( cachedStore.getSearchEngine().computeResult( schemaManager, searchContext ) );
+
+            // A selective value with the same filter shape is not rejected because of that count
+            searchContext = createSearchContext( session );
+            searchContext.setFilter( FilterParser.parse( schemaManager, "(ou=Engineering)" ) );
+            assertNotNull( cachedStore.getSearchEngine().computeResult( schemaManager, searchContext ) );
+
+            // The popular value is still rejected
+            searchContext = createSearchContext( session );
+            searchContext.setFilter( FilterParser.parse( schemaManager, "(ou=Sales)" ) );
+
+            try
+            {
+                cachedStore.getSearchEngine().computeResult( schemaManager, searchContext );
+                fail( "The search should have been rejected" );
+            }
+            catch ( LdapUnwillingToPerformException lutpe )
+            {
+                // Expected
+            }
+        }
+        finally
+        {
+            cachedStore.destroy();
+        }
+    }
+}